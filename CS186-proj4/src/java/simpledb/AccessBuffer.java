@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * AccessBuffer records the uses of the entries of an {@link LRUCache}
+ * without locking it, so that the BufferPool can hand out the pages it
+ * holds without taking its lock. The uses are replayed into the cache, and
+ * so into its replacement policy, when the lock is taken anyway to admit
+ * or evict a page.
+ * <p>
+ * Uses are recorded into one of several stripes, chosen by thread, so that
+ * threads rarely write to the same stripe. Each stripe is a ring of the
+ * last RING_SIZE uses: older uses not replayed yet are overwritten, and a
+ * use may be lost while a thread writes it. The policy only needs to see
+ * most uses to choose good victims.
+ *
+ * @see BufferPool#getPage
+ */
+public class AccessBuffer<Key> {
+
+    /** The number of uses a stripe remembers; a power of two. */
+    static final int RING_SIZE = 128;
+    /** The spacing of the counters of the stripes, so that each has its own cache line. */
+    private static final int PAD = 16;
+
+    private final AtomicReferenceArray<Key>[] rings;
+    /** the number of uses written to each stripe, at i * PAD */
+    private final AtomicLongArray written;
+    /** the uses of each stripe up to which it was replayed; guarded by the cache */
+    private final long[] replayed;
+
+    /**
+     * Creates a buffer of a stripe per two processors or more, up to 64.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public AccessBuffer() {
+        int n = 1;
+        while (n < 2 * Runtime.getRuntime().availableProcessors() && n < 64) {
+            n *= 2;
+        }
+        rings = new AtomicReferenceArray[n];
+        for (int i = 0; i < n; i++) {
+            rings[i] = new AtomicReferenceArray<Key>(RING_SIZE);
+        }
+        written = new AtomicLongArray(n * PAD);
+        replayed = new long[n];
+    }
+
+    /**
+     * Records a use of a key. Doesn't block.
+     */
+    public void record(Key key) {
+        int stripe = (int) Thread.currentThread().getId() & (rings.length - 1);
+        long i = written.getAndIncrement(stripe * PAD);
+        rings[stripe].lazySet((int) i & (RING_SIZE - 1), key);
+    }
+
+    /**
+     * @return the number of uses recorded
+     */
+    public long recorded() {
+        long n = 0;
+        for (int stripe = 0; stripe < rings.length; stripe++) {
+            n += written.get(stripe * PAD);
+        }
+        return n;
+    }
+
+    /**
+     * Replays the uses recorded since the last replay into the cache, as
+     * gets of the keys it still holds. Must hold the lock of the cache.
+     */
+    public void replay(LRUCache<Key, ?> cache) {
+        for (int stripe = 0; stripe < rings.length; stripe++) {
+            long end = written.get(stripe * PAD);
+            for (long i = Math.max(replayed[stripe], end - RING_SIZE); i < end; i++) {
+                Key key = rings[stripe].get((int) i & (RING_SIZE - 1));
+                if (key != null && cache.containsKey(key)) {
+                    cache.get(key);
+                }
+            }
+            replayed[stripe] = end;
+        }
+    }
+}
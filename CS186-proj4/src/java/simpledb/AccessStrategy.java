@@ -0,0 +1,124 @@
+package simpledb;
+
+/**
+ * AccessStrategy tells {@link BufferPool#getPage} how the pages it asks for
+ * are going to be used, so that a bulk operation doesn't evict the working
+ * set of other transactions from the pool.
+ * <p>
+ * The NORMAL strategy shares the whole pool. The others keep a private
+ * ring of a few pages: every page the operation reads into the pool takes
+ * the next slot of the ring, and the page that held the slot before is
+ * evicted to make room for it, unless it is pinned or was evicted
+ * already. A page of the ring that another transaction uses meanwhile is
+ * evicted all the same, and read into the shared pool when it is asked
+ * for again. BULK_READ, for scans and statistics, leaves a dirty page
+ * to the pool instead; BULK_WRITE, for bulk inserts, writes it back first,
+ * see {@link BufferPool#cleanPage}, and so needs a larger ring, so that a
+ * page is full before it is written.
+ * <p>
+ * A strategy with a ring is used by one operation at a time.
+ */
+public class AccessStrategy {
+
+    public enum Kind {
+        NORMAL, BULK_READ, BULK_WRITE
+    }
+
+    /** The strategy of operations that share the whole pool. */
+    public static final AccessStrategy NORMAL = new AccessStrategy(Kind.NORMAL, 0);
+
+    /** The largest rings, in pages of BufferPool.PAGE_SIZE. */
+    static final int MAX_READ_RING = 32;
+    static final int MAX_WRITE_RING = 128;
+
+    private final Kind kind;
+    private final PageId[] ring;
+    private int next = 0;
+    private long recycled = 0;
+
+    /**
+     * @param kind the kind of strategy
+     * @param ringPages the number of pages of the ring; ignored for NORMAL
+     */
+    public AccessStrategy(Kind kind, int ringPages) {
+        if (kind != Kind.NORMAL && ringPages < 1) {
+            throw new IllegalArgumentException("a ring needs a page, not " + ringPages);
+        }
+        this.kind = kind;
+        this.ring = new PageId[kind == Kind.NORMAL ? 0 : ringPages];
+    }
+
+    /**
+     * Creates a strategy of a kind with a ring sized for a pool: an eighth
+     * of it for reads and a quarter for writes, between 2 and MAX_READ_RING
+     * or MAX_WRITE_RING pages.
+     *
+     * @return a new strategy, or NORMAL for the NORMAL kind
+     */
+    public static AccessStrategy of(Kind kind, BufferPool pool) {
+        switch (kind) {
+        case BULK_READ:
+            return new AccessStrategy(kind, Math.min(MAX_READ_RING, Math.max(2, pool.numFrames() / 8)));
+        case BULK_WRITE:
+            return new AccessStrategy(kind, Math.min(MAX_WRITE_RING, Math.max(2, pool.numFrames() / 4)));
+        default:
+            return NORMAL;
+        }
+    }
+
+    /**
+     * Chooses the strategy for a bulk operation on a table: NORMAL if the
+     * table fits in the pool, so that its pages may stay there, and a new
+     * strategy of the kind otherwise.
+     *
+     * @param tableBytes the size of the table
+     */
+    public static AccessStrategy choose(Kind kind, BufferPool pool, long tableBytes) {
+        if (tableBytes <= (long) pool.numFrames() * BufferPool.PAGE_SIZE) {
+            return NORMAL;
+        }
+        return of(kind, pool);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the number of pages of the ring, 0 for NORMAL
+     */
+    public int getRingSize() {
+        return ring.length;
+    }
+
+    /**
+     * @return the number of pages this ring evicted to reuse their slot
+     */
+    public synchronized long getRecycled() {
+        return recycled;
+    }
+
+    /**
+     * @return true if the pages of the ring are written back to be reused
+     */
+    boolean writesBack() {
+        return kind == Kind.BULK_WRITE;
+    }
+
+    /**
+     * Gives the next slot of the ring to a page that is being read into
+     * the pool.
+     *
+     * @return the page that held the slot, or null
+     */
+    synchronized PageId admit(PageId pid) {
+        PageId old = ring[next];
+        ring[next] = pid;
+        next = next + 1 == ring.length ? 0 : next + 1;
+        return old;
+    }
+
+    synchronized void recycled() {
+        recycled++;
+    }
+}
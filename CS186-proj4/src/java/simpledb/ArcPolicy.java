@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ArcPolicy is the Adaptive Replacement Cache of Megiddo and Modha. Keys
+ * used once are in the LRU list T1 and keys used again in the LRU list T2;
+ * the ghosts of keys evicted from each are remembered in B1 and B2. A
+ * target size p for T1 adapts to the workload: a key put again while in
+ * B1 shows that T1 is too small and grows p, and one in B2 shrinks it.
+ * Evictions take from T1 while it is larger than p, so a scan, whose keys
+ * stay in T1, can't flush T2 unless the workload asks for it.
+ * <p>
+ * The cache evicts before it admits, so unlike in the paper an eviction
+ * doesn't know whether the key it makes room for is a ghost of B2, and the
+ * ghosts are trimmed when a key is admitted rather than evicted.
+ *
+ * @see ReplacementPolicy.Kind#ARC
+ */
+public class ArcPolicy<Key> implements ReplacementPolicy<Key> {
+
+    private final int capacity;
+    private int target = 0;
+    private final LinkedHashSet<Key> t1 = new LinkedHashSet<Key>();
+    private final LinkedHashSet<Key> t2 = new LinkedHashSet<Key>();
+    private final LinkedHashSet<Key> b1 = new LinkedHashSet<Key>();
+    private final LinkedHashSet<Key> b2 = new LinkedHashSet<Key>();
+
+    /**
+     * @param capacity the number of keys the cache holds when full
+     */
+    public ArcPolicy(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * @return the target size of T1
+     */
+    int getTarget() {
+        return target;
+    }
+
+    public void admitted(Key key) {
+        if (b1.remove(key)) {
+            target = Math.min(capacity, target + Math.max(b2.size() / Math.max(1, b1.size()), 1));
+            t2.add(key);
+        } else if (b2.remove(key)) {
+            target = Math.max(0, target - Math.max(b1.size() / Math.max(1, b2.size()), 1));
+            t2.add(key);
+        } else {
+            t1.add(key);
+        }
+        // remember no more ghosts than the paper: |T1| + |B1| <= c and
+        // all four lists <= 2c; evict leaves them to here, so that the
+        // ghost of the key just put is not dropped first
+        while (t1.size() + b1.size() > capacity && !b1.isEmpty()) {
+            first(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty()) {
+            first(b2);
+        }
+    }
+
+    public void accessed(Key key) {
+        if (t1.remove(key) || t2.remove(key)) {
+            t2.add(key);
+        }
+    }
+
+    public void removed(Key key) {
+        if (!t1.remove(key)) {
+            t2.remove(key);
+        }
+    }
+
+    public Key evict() {
+        Key victim;
+        if (!t1.isEmpty() && (t1.size() > target || t2.isEmpty())) {
+            victim = first(t1);
+            b1.add(victim);
+        } else if (!t2.isEmpty()) {
+            victim = first(t2);
+            b2.add(victim);
+        } else {
+            return null;
+        }
+        return victim;
+    }
+
+    public void kept(Key key) {
+        if (b1.remove(key)) {
+            t1.add(key);
+        } else if (b2.remove(key)) {
+            t2.add(key);
+        }
+    }
+
+    /**
+     * Removes and returns the first key of a non-empty list.
+     */
+    private static <Key> Key first(LinkedHashSet<Key> list) {
+        Iterator<Key> it = list.iterator();
+        Key key = it.next();
+        it.remove();
+        return key;
+    }
+}
@@ -0,0 +1,524 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * BTreeFile is a B+tree index on one INT field of a table. Its entries are
+ * (key, page, slot) tuples, ordered by key, that locate the records of the
+ * table; see {@link DbIndex}. The format of the pages is described in
+ * {@link BTreePage}. Page 0 is a meta page that holds the page number of
+ * the root, so that the root can move when the tree grows.
+ * <p>
+ * All pages are read and modified through the BufferPool. Full pages are
+ * split on the way back up from the leaf; pages are never merged, and a
+ * leaf that loses all of its entries stays in the tree until the index is
+ * rebuilt with {@link #build}. The pages an operation gets from the
+ * BufferPool stay pinned until it is done with them.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile implements DbIndex {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int META_PAGE = 0;
+
+    private File f = null;
+    private int tableId = 0;
+    private int keyField = 0;
+    private TupleDesc td = null;
+    private PageIO io = null;
+    private int numPages = 0;
+    private ReentrantReadWriteLock treeLock = null;
+
+    /**
+     * Opens the B+tree index stored in the specified file, creating an
+     * empty one if the file is empty. An existing file must have been built
+     * for the same table and field.
+     *
+     * @param f the file that stores the index
+     * @param table the table the index is on
+     * @param keyField the position of the indexed field in the tuples of table
+     * @throws IllegalArgumentException if the field is not an INT field
+     */
+    public BTreeFile(File f, DbFile table, int keyField) {
+        TupleDesc tableTd = table.getTupleDesc();
+        if (tableTd.getFieldType(keyField) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("B+tree keys must be INT, "
+                    + tableTd.getFieldName(keyField) + " is " + tableTd.getFieldType(keyField));
+        }
+        this.f = f;
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {tableTd.getFieldName(keyField), "page", "slot"});
+        this.treeLock = new ReentrantReadWriteLock(true);
+        try {
+            this.io = PageIO.Mode.CHANNEL.open(f, BufferPool.PAGE_SIZE);
+            this.numPages = (int) (io.length() / BufferPool.PAGE_SIZE);
+            if (numPages == 0) {
+                // the root starts out as an empty leaf
+                io.writePage(META_PAGE, BTreePage.createEmptyPageData(BTreePage.META, 1));
+                io.writePage(1, BTreePage.createEmptyPageData(BTreePage.LEAF, BTreePage.NONE));
+                numPages = 2;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open " + f + ": " + e);
+        }
+    }
+
+    /**
+     * Builds a B+tree index on a field of a table from scratch, replacing
+     * the contents of the file. The entries of the table are sorted and
+     * packed into full leaves, and the internal pages are built bottom up,
+     * which is much faster than inserting them one at a time.
+     *
+     * @param f the file to store the index in
+     * @param table the table to index
+     * @param keyField the position of the indexed field in the tuples of table
+     * @return the new index
+     */
+    public static BTreeFile build(File f, DbFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        // (key, ordinal) pairs; the table is scanned in (page, slot) order,
+        // so sorting them orders equal keys by record too
+        long[] sorted = new long[1024];
+        int[] pages = new int[1024];
+        int[] slots = new int[1024];
+        int n = 0;
+        DbFileIterator it = table.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (n == sorted.length) {
+                sorted = Arrays.copyOf(sorted, 2 * n);
+                pages = Arrays.copyOf(pages, 2 * n);
+                slots = Arrays.copyOf(slots, 2 * n);
+            }
+            RecordId rid = t.getRecordId();
+            int key = ((IntField) t.getField(keyField)).getValue();
+            sorted[n] = ((long) key << 32) | n;
+            pages[n] = rid.getPageId().pageNumber();
+            slots[n] = rid.tupleno();
+            n++;
+        }
+        it.close();
+        Arrays.sort(sorted, 0, n);
+
+        int fileId = f.getAbsoluteFile().hashCode();
+        if (f.exists() && !f.delete()) {
+            throw new IOException("failed to replace " + f);
+        }
+        PageIO out = PageIO.Mode.CHANNEL.open(f, BufferPool.PAGE_SIZE);
+        try {
+            // the first entry and page number of every page of the level being built
+            int[][] level = new int[Math.max(1, (n + BTreePage.LEAF_CAPACITY - 1) / BTreePage.LEAF_CAPACITY)][];
+            int pgNo = 1;
+            for (int i = 0, p = 0; p < level.length; p++, pgNo++) {
+                int next = p + 1 < level.length ? pgNo + 1 : BTreePage.NONE;
+                BTreePage leaf = new BTreePage(new BTreePageId(fileId, pgNo),
+                        BTreePage.createEmptyPageData(BTreePage.LEAF, next));
+                for (int end = Math.min(n, i + BTreePage.LEAF_CAPACITY); i < end; i++) {
+                    int ord = (int) sorted[i];
+                    leaf.insertEntry((int) (sorted[i] >> 32), pages[ord], slots[ord]);
+                }
+                level[p] = leaf.getNumEntries() > 0
+                        ? new int[] {leaf.getKey(0), leaf.getRecordPage(0), leaf.getRecordSlot(0), pgNo}
+                        : new int[] {0, 0, 0, pgNo};
+                out.writePage(pgNo, leaf.getPageData());
+            }
+            while (level.length > 1) {
+                int fanout = BTreePage.INTERNAL_CAPACITY + 1;
+                int[][] upper = new int[(level.length + fanout - 1) / fanout][];
+                for (int i = 0, p = 0; p < upper.length; p++, pgNo++) {
+                    BTreePage node = new BTreePage(new BTreePageId(fileId, pgNo),
+                            BTreePage.createEmptyPageData(BTreePage.INTERNAL, level[i][3]));
+                    upper[p] = new int[] {level[i][0], level[i][1], level[i][2], pgNo};
+                    for (int end = Math.min(level.length, i + fanout), j = i + 1; j < end; j++) {
+                        node.insertSeparator(level[j][0], level[j][1], level[j][2], level[j][3]);
+                    }
+                    i = Math.min(level.length, i + fanout);
+                    out.writePage(pgNo, node.getPageData());
+                }
+                level = upper;
+            }
+            out.writePage(META_PAGE, BTreePage.createEmptyPageData(BTreePage.META, level[0][3]));
+        } finally {
+            out.close();
+        }
+        return new BTreeFile(f, table, keyField);
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Releases the file handles of this index. They are reopened on demand.
+     */
+    public void close() throws IOException {
+        io.close();
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the TupleDesc of the entries of this index: the key field,
+     *   named as in the table, and the page and slot of the record.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getIndexedTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the meta page.
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        Page page = null;
+        try {
+            io.readPage(pid.pageNumber(), data);
+            page = new BTreePage((BTreePageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * @param pinned receives the page, which the caller must unpin, see
+     *   {@link BufferPool#unpinPages}
+     */
+    private BTreePage getTreePage(TransactionId tid, int pgNo, Permissions perm, ArrayList<Page> pinned)
+            throws TransactionAbortedException, DbException {
+        BTreePage p = (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+        pinned.add(p);
+        return p;
+    }
+
+    /**
+     * Appends an empty page to the file. Called with the tree write locked.
+     */
+    private BTreePage newPage(TransactionId tid, int type, ArrayList<Page> pinned) throws IOException,
+            TransactionAbortedException, DbException {
+        int pgNo = numPages;
+        io.writePage(pgNo, BTreePage.createEmptyPageData(type, BTreePage.NONE));
+        numPages++;
+        return getTreePage(tid, pgNo, Permissions.READ_WRITE, pinned);
+    }
+
+    /**
+     * Descends from the root to the leaf that holds the specified entry.
+     *
+     * @param path if not null, receives the internal pages on the way down
+     * @param pinned receives the pages on the way down
+     */
+    private BTreePage findLeaf(TransactionId tid, int key, int page, int slot, Permissions perm,
+            ArrayList<BTreePage> path, ArrayList<Page> pinned) throws TransactionAbortedException, DbException {
+        int root = getTreePage(tid, META_PAGE, Permissions.READ_ONLY, pinned).getRoot();
+        BTreePage p = getTreePage(tid, root, perm, pinned);
+        while (!p.isLeaf()) {
+            if (path != null) {
+                path.add(p);
+            }
+            p = getTreePage(tid, p.search(key, page, slot), perm, pinned);
+        }
+        return p;
+    }
+
+    private int key(Tuple t) {
+        return ((IntField) t.getField(keyField)).getValue();
+    }
+
+    /**
+     * Adds the entry of a tuple of the indexed table, whose RecordId must be
+     * set. Adding an entry that is already there changes nothing.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no RecordId to index");
+        }
+        int key = key(t);
+        int page = rid.getPageId().pageNumber();
+        int slot = rid.tupleno();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        ArrayList<Page> pinned = new ArrayList<Page>();
+        Lock wLock = treeLock.writeLock();
+        try {
+            wLock.lock();
+            ArrayList<BTreePage> path = new ArrayList<BTreePage>();
+            BTreePage p = findLeaf(tid, key, page, slot, Permissions.READ_WRITE, path, pinned);
+            if (!p.insertEntry(key, page, slot)) {
+                return dirtied;
+            }
+            dirtied.add(p);
+            // split overfull pages bottom up; the new right sibling of a
+            // page is linked into its parent, which may overflow in turn
+            while (p.isOverfull()) {
+                BTreePage right = newPage(tid, p.getType(), pinned);
+                int[] sep = p.splitInto(right);
+                dirtied.add(right);
+                if (path.isEmpty()) {
+                    BTreePage root = newPage(tid, BTreePage.INTERNAL, pinned);
+                    root.makeRoot(p.getId().pageNumber(), sep, right.getId().pageNumber());
+                    BTreePage meta = getTreePage(tid, META_PAGE, Permissions.READ_WRITE, pinned);
+                    meta.setRoot(root.getId().pageNumber());
+                    dirtied.add(root);
+                    dirtied.add(meta);
+                    break;
+                }
+                p = path.remove(path.size() - 1);
+                p.insertSeparator(sep[0], sep[1], sep[2], right.getId().pageNumber());
+                dirtied.add(p);
+            }
+            for (Page d : dirtied) {
+                d.markDirty(true, tid);
+            }
+            return dirtied;
+        } finally {
+            Database.getBufferPool().unpinPages(tid, pinned);
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry of a tuple of the indexed table, whose RecordId must
+     * be set. Removing an entry that isn't there changes nothing.
+     *
+     * @return the leaf the entry was on
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no RecordId to index");
+        }
+        int key = key(t);
+        ArrayList<Page> pinned = new ArrayList<Page>();
+        Lock wLock = treeLock.writeLock();
+        try {
+            wLock.lock();
+            BTreePage leaf = findLeaf(tid, key, rid.getPageId().pageNumber(), rid.tupleno(),
+                    Permissions.READ_WRITE, null, pinned);
+            if (leaf.deleteEntry(key, rid.getPageId().pageNumber(), rid.tupleno())) {
+                leaf.markDirty(true, tid);
+            }
+            return leaf;
+        } finally {
+            Database.getBufferPool().unpinPages(tid, pinned);
+            wLock.unlock();
+        }
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    public int probeCost() {
+        // the meta page, then one page per level
+        int height = 1;
+        for (long reach = 1; reach < numPages; reach *= BTreePage.INTERNAL_CAPACITY + 1) {
+            height++;
+        }
+        return height;
+    }
+
+    public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new UnsupportedOperationException("B+tree can't look up " + op);
+        }
+        return new BTreeFileIterator(tid, op, ((IntField) operand).getValue());
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, 0);
+    }
+
+    /**
+     * Iterates over the entries of a range of keys in key order, by
+     * following the links between the leaves. The entries of a leaf are
+     * copied when the leaf is reached, so that the caller may modify the
+     * index while iterating, as a Delete over an IndexScan does.
+     */
+    private class BTreeFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private TransactionId tid;
+        /** null to iterate over all entries */
+        private Predicate.Op op;
+        private int operand;
+
+        private int[] keys = new int[BTreePage.LEAF_CAPACITY];
+        private int[] pages = new int[BTreePage.LEAF_CAPACITY];
+        private int[] slots = new int[BTreePage.LEAF_CAPACITY];
+        private int n = 0;
+        private int pos = 0;
+        private int nextLeaf = BTreePage.NONE;
+        private boolean open = false;
+        private boolean done = false;
+        private Tuple next = null;
+
+        BTreeFileIterator(TransactionId tid, Predicate.Op op, int operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            done = false;
+            next = null;
+            n = 0;
+            nextLeaf = BTreePage.NONE;
+            int start;
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+                start = operand;
+            } else if (op == Predicate.Op.GREATER_THAN) {
+                if (operand == Integer.MAX_VALUE) {
+                    done = true;
+                    return;
+                }
+                start = operand + 1;
+            } else {
+                start = Integer.MIN_VALUE;
+            }
+            ArrayList<Page> pinned = new ArrayList<Page>();
+            Lock rLock = treeLock.readLock();
+            try {
+                rLock.lock();
+                BTreePage leaf = findLeaf(tid, start, Integer.MIN_VALUE, Integer.MIN_VALUE,
+                        Permissions.READ_ONLY, null, pinned);
+                load(leaf);
+                pos = leaf.search(start, Integer.MIN_VALUE, Integer.MIN_VALUE);
+            } finally {
+                Database.getBufferPool().unpinPages(tid, pinned);
+                rLock.unlock();
+            }
+        }
+
+        private void load(BTreePage leaf) {
+            n = leaf.getNumEntries();
+            for (int i = 0; i < n; i++) {
+                keys[i] = leaf.getKey(i);
+                pages[i] = leaf.getRecordPage(i);
+                slots[i] = leaf.getRecordSlot(i);
+            }
+            nextLeaf = leaf.getNextLeaf();
+            pos = 0;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (!done) {
+                if (pos == n) {
+                    if (nextLeaf == BTreePage.NONE) {
+                        done = true;
+                        break;
+                    }
+                    ArrayList<Page> pinned = new ArrayList<Page>();
+                    try {
+                        load(getTreePage(tid, nextLeaf, Permissions.READ_ONLY, pinned));
+                    } finally {
+                        Database.getBufferPool().unpinPages(tid, pinned);
+                    }
+                    continue;
+                }
+                int key = keys[pos];
+                if (op == null || matches(key)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(KEY, new IntField(key));
+                    t.setField(PAGE, new IntField(pages[pos]));
+                    t.setField(SLOT, new IntField(slots[pos]));
+                    pos++;
+                    return t;
+                }
+                // entries are in key order; nothing after this one can match
+                if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                        || op == Predicate.Op.LESS_THAN_OR_EQ) {
+                    done = true;
+                    break;
+                }
+                pos++;
+            }
+            return null;
+        }
+
+        private boolean matches(int key) {
+            switch (op) {
+            case EQUALS:
+                return key == operand;
+            case GREATER_THAN:
+                return key > operand;
+            case GREATER_THAN_OR_EQ:
+                return key >= operand;
+            case LESS_THAN:
+                return key < operand;
+            case LESS_THAN_OR_EQ:
+                return key <= operand;
+            default:
+                return false;
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            if (next == null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            open = false;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of BTreePage stores one page of a {@link BTreeFile} and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * An index entry is a key together with the page number and slot of the
+ * record it was taken from; entries are ordered by key and then by record,
+ * which makes every entry unique even when keys repeat. Every page starts
+ * with an 8 byte header:
+ * <pre>
+ *     byte   type      META, LEAF or INTERNAL
+ *     byte   unused
+ *     short  n         the number of entries (separators on internal pages)
+ *     int    link      the next leaf, the root on the meta page
+ * </pre>
+ * A leaf then holds n entries of 12 bytes (key, page, slot) in order. An
+ * internal page holds the page number of its first child, followed by n
+ * separators of 16 bytes (key, page, slot, child): child i+1 holds the
+ * entries greater than or equal to separator i. The meta page only uses
+ * its header.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    public static final int META = 0;
+    public static final int LEAF = 1;
+    public static final int INTERNAL = 2;
+
+    /** No next leaf. */
+    public static final int NONE = -1;
+
+    static final int HEADER_SIZE = 8;
+    static final int LEAF_ENTRY_SIZE = 12;
+    static final int INTERNAL_ENTRY_SIZE = 16;
+
+    /** The number of entries a leaf holds. */
+    public static final int LEAF_CAPACITY = (BufferPool.PAGE_SIZE - HEADER_SIZE) / LEAF_ENTRY_SIZE;
+    /** The number of separators an internal page holds. */
+    public static final int INTERNAL_CAPACITY = (BufferPool.PAGE_SIZE - HEADER_SIZE - 4) / INTERNAL_ENTRY_SIZE;
+
+    private BTreePageId pid;
+    private int type;
+    private int n;
+    private int link;
+    // one spare entry, so that a page can overflow before it is split
+    private int[] keys;
+    private int[] recPages;
+    private int[] recSlots;
+    private int[] children;
+
+    private byte[] oldData;
+    private TransactionId lastDirtyTid = null;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the page is not a page of a B+tree
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.type = buf.get(0);
+        this.n = buf.getShort(2);
+        this.link = buf.getInt(4);
+        if (type != META && type != LEAF && type != INTERNAL) {
+            throw new IOException("bad B+tree page type " + type + " on page " + id.pageNumber());
+        }
+        int capacity = type == INTERNAL ? INTERNAL_CAPACITY : LEAF_CAPACITY;
+        if (n < 0 || n > capacity) {
+            throw new IOException("bad entry count " + n + " on page " + id.pageNumber());
+        }
+        keys = new int[capacity + 1];
+        recPages = new int[capacity + 1];
+        recSlots = new int[capacity + 1];
+        if (type == LEAF) {
+            buf.position(HEADER_SIZE);
+            for (int i = 0; i < n; i++) {
+                keys[i] = buf.getInt();
+                recPages[i] = buf.getInt();
+                recSlots[i] = buf.getInt();
+            }
+        } else if (type == INTERNAL) {
+            children = new int[capacity + 2];
+            buf.position(HEADER_SIZE);
+            children[0] = buf.getInt();
+            for (int i = 0; i < n; i++) {
+                keys[i] = buf.getInt();
+                recPages[i] = buf.getInt();
+                recSlots[i] = buf.getInt();
+                children[i + 1] = buf.getInt();
+            }
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the image of an empty page of the specified type; link is the
+     *   next leaf of a leaf, the first child of an internal page, or the
+     *   root of the meta page.
+     */
+    public static byte[] createEmptyPageData(int type, int link) {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        buf.put(0, (byte) type);
+        if (type == INTERNAL) {
+            buf.putInt(4, NONE);
+            buf.putInt(HEADER_SIZE, link);
+        } else {
+            buf.putInt(4, link);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Compare two entries, by key and then by record.
+     */
+    public static int compare(int key1, int page1, int slot1, int key2, int page2, int slot2) {
+        if (key1 != key2) {
+            return key1 < key2 ? -1 : 1;
+        }
+        if (page1 != page2) {
+            return page1 < page2 ? -1 : 1;
+        }
+        return slot1 < slot2 ? -1 : (slot1 == slot2 ? 0 : 1);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return META, LEAF or INTERNAL */
+    public int getType() {
+        return type;
+    }
+
+    public boolean isLeaf() {
+        return type == LEAF;
+    }
+
+    /** @return the number of entries of a leaf, or separators of an internal page */
+    public int getNumEntries() {
+        return n;
+    }
+
+    /** @return true if the page holds more entries than fit on disk and must be split */
+    public boolean isOverfull() {
+        return n > (type == INTERNAL ? INTERNAL_CAPACITY : LEAF_CAPACITY);
+    }
+
+    public int getKey(int i) {
+        return keys[i];
+    }
+
+    public int getRecordPage(int i) {
+        return recPages[i];
+    }
+
+    public int getRecordSlot(int i) {
+        return recSlots[i];
+    }
+
+    /** @return the page number of child i of an internal page, 0 &lt;= i &lt;= n */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /** @return the next leaf of a leaf, or NONE */
+    public int getNextLeaf() {
+        return link;
+    }
+
+    public void setNextLeaf(int pgNo) {
+        link = pgNo;
+    }
+
+    /** @return the root page of the tree, stored on the meta page */
+    public int getRoot() {
+        return link;
+    }
+
+    public void setRoot(int pgNo) {
+        link = pgNo;
+    }
+
+    /**
+     * @return on an internal page, the child whose subtree holds the
+     *   specified entry; on a leaf, the position of the first entry greater
+     *   than or equal to it.
+     */
+    public int search(int key, int page, int slot) {
+        int lo = 0;
+        int hi = n;
+        if (type == INTERNAL) {
+            // the number of separators less than or equal to the entry
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(keys[mid], recPages[mid], recSlots[mid], key, page, slot) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return children[lo];
+        }
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], recPages[mid], recSlots[mid], key, page, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Insert an entry into a leaf, keeping the entries in order. The leaf
+     * may become overfull.
+     *
+     * @return false if the entry was already there
+     */
+    public boolean insertEntry(int key, int page, int slot) {
+        int i = search(key, page, slot);
+        if (i < n && compare(keys[i], recPages[i], recSlots[i], key, page, slot) == 0) {
+            return false;
+        }
+        shift(i, 1);
+        keys[i] = key;
+        recPages[i] = page;
+        recSlots[i] = slot;
+        n++;
+        return true;
+    }
+
+    /**
+     * Insert a separator into an internal page, with child the page that
+     * holds the entries starting at the separator. The page may become
+     * overfull.
+     */
+    public void insertSeparator(int key, int page, int slot, int child) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], recPages[mid], recSlots[mid], key, page, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        shift(lo, 1);
+        System.arraycopy(children, lo + 1, children, lo + 2, n - lo);
+        keys[lo] = key;
+        recPages[lo] = page;
+        recSlots[lo] = slot;
+        children[lo + 1] = child;
+        n++;
+    }
+
+    /**
+     * Remove an entry from a leaf.
+     *
+     * @return false if the entry was not there
+     */
+    public boolean deleteEntry(int key, int page, int slot) {
+        int i = search(key, page, slot);
+        if (i == n || compare(keys[i], recPages[i], recSlots[i], key, page, slot) != 0) {
+            return false;
+        }
+        shift(i + 1, -1);
+        n--;
+        return true;
+    }
+
+    private void shift(int from, int by) {
+        System.arraycopy(keys, from, keys, from + by, n - from);
+        System.arraycopy(recPages, from, recPages, from + by, n - from);
+        System.arraycopy(recSlots, from, recSlots, from + by, n - from);
+    }
+
+    /**
+     * Move the upper half of this page to right, an empty page of the same
+     * type. A leaf keeps its lower half and links to right; an internal page
+     * gives up its middle separator, which is no longer on either page.
+     *
+     * @return the separator to insert into the parent for right, as
+     *   {key, page, slot}
+     */
+    public int[] splitInto(BTreePage right) {
+        int mid = n / 2;
+        int[] sep;
+        if (type == LEAF) {
+            int m = n - mid;
+            System.arraycopy(keys, mid, right.keys, 0, m);
+            System.arraycopy(recPages, mid, right.recPages, 0, m);
+            System.arraycopy(recSlots, mid, right.recSlots, 0, m);
+            right.n = m;
+            right.link = link;
+            link = right.pid.pageNumber();
+            sep = new int[] {keys[mid], recPages[mid], recSlots[mid]};
+        } else {
+            int m = n - mid - 1;
+            System.arraycopy(keys, mid + 1, right.keys, 0, m);
+            System.arraycopy(recPages, mid + 1, right.recPages, 0, m);
+            System.arraycopy(recSlots, mid + 1, right.recSlots, 0, m);
+            System.arraycopy(children, mid + 1, right.children, 0, m + 1);
+            right.n = m;
+            sep = new int[] {keys[mid], recPages[mid], recSlots[mid]};
+        }
+        n = mid;
+        return sep;
+    }
+
+    /**
+     * Turn this page into an internal page with two children, the root of
+     * a tree that has just grown by a level.
+     */
+    public void makeRoot(int left, int[] sep, int right) {
+        if (type != INTERNAL) {
+            throw new IllegalStateException("only an internal page can be made a root");
+        }
+        n = 1;
+        children[0] = left;
+        keys[0] = sep[0];
+        recPages[0] = sep[1];
+        recSlots[0] = sep[2];
+        children[1] = right;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        if (isOverfull()) {
+            throw new IllegalStateException("page " + pid.pageNumber() + " must be split before it is written");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        buf.put(0, (byte) type);
+        buf.putShort(2, (short) n);
+        buf.putInt(4, link);
+        buf.position(HEADER_SIZE);
+        if (type == LEAF) {
+            for (int i = 0; i < n; i++) {
+                buf.putInt(keys[i]);
+                buf.putInt(recPages[i]);
+                buf.putInt(recSlots[i]);
+            }
+        } else if (type == INTERNAL) {
+            buf.putInt(children[0]);
+            for (int i = 0; i < n; i++) {
+                buf.putInt(keys[i]);
+                buf.putInt(recPages[i]);
+                buf.putInt(recSlots[i]);
+                buf.putInt(children[i + 1]);
+            }
+        }
+        return buf.array();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(pid, oldData.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        lastDirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return lastDirtyTid;
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+/** Unique identifier for BTreePage objects. */
+public class BTreePageId implements PageId {
+
+    private Integer tableId = -1;
+    private Integer pgNo = -1;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+tree index.
+     *
+     * @param tableId The id of the index file that is being referenced
+     * @param pgNo The page number in that index.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the index file associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the index file associated with this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return tableId.hashCode() * 31 + pgNo.hashCode();
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId other = (BTreePageId)o;
+        return this.tableId.equals(other.tableId) && this.pgNo.equals(other.pgNo);
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = pageNumber();
+
+        return data;
+    }
+
+}
@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 
 /**
@@ -12,9 +15,28 @@ import java.util.concurrent.locks.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages found in the pool are handed out without locking it: the pool
+ * keeps them in a concurrent page table, and records their use in an
+ * {@link AccessBuffer} that is replayed into the replacement policy when
+ * a page is admitted or evicted, under the lock of the pool. A page that
+ * is not in the pool is read once, however many threads ask for it.
+ * <p>
+ * getPage pins the page it returns, and the caller unpins it with
+ * {@link #unpinPage} once done with it; a page is only evicted while no
+ * one holds a pin on it. In debug mode, see {@link Debug}, the pool
+ * remembers where each page was pinned, and reports and releases the pins
+ * a transaction still holds when it completes.
+ * <p>
+ * Clean pages are evicted before dirty ones. In STEAL mode a dirty page is
+ * evicted once no clean page is left, after its update is logged and the
+ * log forced; in NO STEAL mode, the default, the pool refuses to read a
+ * page instead, see {@link #setSteal}. In STEAL mode a {@link PageCleaner}
+ * can write dirty pages in the background, so that there usually is a
+ * clean page to evict, see {@link #setCleaner}.
  */
 public class BufferPool {
-    /** Bytes per page, including header. */
+    /** Bytes per page, including header, of tables that don't set a page size. */
     public static final int PAGE_SIZE = 4096;
 
     /** Default number of pages passed to the constructor. This is used by
@@ -22,17 +44,370 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** The threads that write the pages of different tables concurrently. */
+    private static final ExecutorService writers = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-flush");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     private int numPages = -1;
+    /** The pages, their weights and their order of eviction; its lock is the lock of the pool. */
     private LRUCache<PageId, Page> LRUPagesPool = null;
+    /** The pages of LRUPagesPool, read without locking; changed while holding LRUPagesPool. */
+    private final ConcurrentHashMap<PageId, CachedPage> pageTable = new ConcurrentHashMap<PageId, CachedPage>();
+    /** The reads of pages in flight, that other threads asking for them wait for. */
+    private final ConcurrentHashMap<PageId, FutureTask<CachedPage>> loading =
+            new ConcurrentHashMap<PageId, FutureTask<CachedPage>>();
+    /** Where the pins on each page were taken, in debug mode. */
+    private final ConcurrentHashMap<PageId, ConcurrentLinkedQueue<PinSite>> pinSites =
+            new ConcurrentHashMap<PageId, ConcurrentLinkedQueue<PinSite>>();
+    private volatile boolean leakDetection = Debug.isEnabled();
+    private final AtomicLong leakedPins = new AtomicLong();
+    /** The dirty page table: the recLSN of each page insertTuple and deleteTuple dirtied. */
+    private final ConcurrentHashMap<PageId, Long> dirtyPages = new ConcurrentHashMap<PageId, Long>();
+    private volatile PageCleaner cleaner = null;
+    /** The uses of pages found in pageTable, not told to the policy yet. */
+    private final AccessBuffer<PageId> accesses = new AccessBuffer<PageId>();
+    private volatile ReadAhead readAhead = null;
+    /** The frames pages are read into, or null if they are read onto the heap. */
+    private final FrameArena arena;
+    /** The frame of each page that is a view over one; guarded by LRUPagesPool. */
+    private final HashMap<PageId, Integer> frames = new HashMap<PageId, Integer>();
+    private final ReplacementPolicy.Kind policy;
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writeBacks = new AtomicLong();
+    private volatile boolean steal = false;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * A page in the pool and the number of pins on it, which is -1 once the
+     * page is being evicted.
+     */
+    private static class CachedPage {
+        final Page page;
+        final AtomicInteger pins;
+
+        CachedPage(Page page, int pins) {
+            this.page = page;
+            this.pins = new AtomicInteger(pins);
+        }
+
+        /**
+         * @return false if the page is being evicted
+         */
+        boolean pin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return false if the page was not pinned
+         */
+        boolean unpin() {
+            while (true) {
+                int n = pins.get();
+                if (n <= 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(n, n - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Marks the page as being evicted, unless it is pinned.
+         *
+         * @return false if the page is pinned
+         */
+        boolean claim() {
+            return pins.compareAndSet(0, -1);
+        }
+    }
+
+    /** A pin taken in debug mode: by whom, and where. */
+    private static class PinSite {
+        final TransactionId tid;
+        final Throwable where;
+
+        PinSite(TransactionId tid, PageId pid) {
+            this.tid = tid;
+            this.where = new Throwable("page " + pid + " pinned by " + tid);
+        }
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages of PAGE_SIZE
+     * bytes. Tables can have pages of other sizes, so the pool is really
+     * numPages * PAGE_SIZE bytes of frames: it holds fewer pages of tables
+     * with larger pages and more of tables with smaller ones.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        this.numPages = numPages;
-        this.LRUPagesPool = new LRUCache<PageId, Page>(numPages);
+        this(numPages, ReplacementPolicy.Kind.LRU);
+    }
+
+    /**
+     * Creates a BufferPool of numPages pages of PAGE_SIZE bytes that evicts
+     * the pages the specified policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy of the pool
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
+        this((long) numPages * PAGE_SIZE, null, policy);
+    }
+
+    private BufferPool(long bytes, FrameArena arena, ReplacementPolicy.Kind policy) {
+        this.numPages = (int) (bytes / PAGE_SIZE);
+        this.arena = arena;
+        this.policy = policy;
+        this.LRUPagesPool = new LRUCache<PageId, Page>(bytes, policy.<PageId>create(numPages)) {
+            protected void evicted(PageId pid, Page page) {
+                pageTable.remove(pid);
+                dirtyPages.remove(pid);
+                releaseFrame(pid, page);
+            }
+
+            protected boolean evictable(PageId pid, Page page) {
+                // dirty pages are written back by evictPage
+                if (page.isDirty() != null) {
+                    return false;
+                }
+                CachedPage cached = pageTable.get(pid);
+                return cached == null || cached.claim();
+            }
+        };
+        this.readAhead = new ReadAhead(numPages);
+    }
+
+    /**
+     * Creates a BufferPool of bytes of direct memory, cut into frames of
+     * PAGE_SIZE, see {@link FrameArena}. Pages of HeapFiles whose format
+     * can be read in place and that fit in a frame are read into frames
+     * and kept as views over them, see {@link HeapFile#readPage(PageId,
+     * ByteBuffer)}; the frames of the pages evicted are reused. Other
+     * pages, e.g. those of indexes, are kept on the heap, and count
+     * against the same number of bytes.
+     *
+     * @param bytes the number of bytes of the pool, at least PAGE_SIZE
+     */
+    public static BufferPool offHeap(long bytes) {
+        return offHeap(bytes, ReplacementPolicy.Kind.LRU);
+    }
+
+    /**
+     * Creates an off-heap BufferPool of bytes, see {@link #offHeap(long)},
+     * that evicts the pages the specified policy chooses.
+     */
+    public static BufferPool offHeap(long bytes, ReplacementPolicy.Kind policy) {
+        return new BufferPool(bytes, new FrameArena(bytes, PAGE_SIZE), policy);
+    }
+
+    /**
+     * @return the replacement policy of this pool
+     */
+    public ReplacementPolicy.Kind getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of calls to getPage that found the page in the
+     *   pool
+     */
+    public long getHits() {
+        return accesses.recorded();
+    }
+
+    /**
+     * @return the number of calls to getPage that didn't find the page in
+     *   the pool, including those that took a page read ahead
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of dirty pages written back to make room
+     */
+    public long getWriteBacks() {
+        return writeBacks.get();
+    }
+
+    /**
+     * @return true if dirty pages can be evicted
+     */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Sets whether dirty pages can be evicted. In STEAL mode a transaction
+     * can update more pages than the pool holds, as the pages it dirtied
+     * are written back once no clean page is left; the update records are
+     * forced to the log first. An abort doesn't undo the pages written
+     * back, since {@link LogFile#rollback} doesn't undo updates yet. In NO
+     * STEAL mode the pages stay in the pool until they are flushed, and
+     * getPage throws a DbException if every page in the pool is dirty.
+     *
+     * @param steal true for STEAL mode, false for NO STEAL
+     */
+    public void setSteal(boolean steal) {
+        this.steal = steal;
+    }
+
+    /**
+     * @return the cleaner that writes the dirty pages of this pool in the
+     *   background, or null if there is none
+     */
+    public PageCleaner getCleaner() {
+        return cleaner;
+    }
+
+    /**
+     * Replaces the cleaner of this pool, stopping the old one, and starts
+     * the new one.
+     *
+     * @param cleaner a cleaner of this pool, or null to turn cleaning off
+     */
+    public synchronized void setCleaner(PageCleaner cleaner) {
+        if (this.cleaner != null) {
+            this.cleaner.stop();
+        }
+        this.cleaner = cleaner;
+        if (cleaner != null) {
+            cleaner.start();
+        }
+    }
+
+    /**
+     * @return the number of pages in the dirty page table
+     */
+    public int getDirtyPageCount() {
+        return dirtyPages.size();
+    }
+
+    /**
+     * @return a copy of the dirty page table: the pages dirtied through
+     *   insertTuple and deleteTuple and not written since, each with the
+     *   end of the log when it was first dirtied
+     */
+    public Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<PageId, Long>(dirtyPages);
+    }
+
+    /**
+     * @return the pages of the dirty page table, oldest recLSN first
+     */
+    List<PageId> getDirtyPagesByRecLSN() {
+        ArrayList<Map.Entry<PageId, Long>> entries = new ArrayList<Map.Entry<PageId, Long>>(dirtyPages.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<PageId, Long>>() {
+            public int compare(Map.Entry<PageId, Long> a, Map.Entry<PageId, Long> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        ArrayList<PageId> pids = new ArrayList<PageId>(entries.size());
+        for (Map.Entry<PageId, Long> e : entries) {
+            pids.add(e.getKey());
+        }
+        return pids;
+    }
+
+    /**
+     * @return the number of pages of PAGE_SIZE bytes this pool holds
+     */
+    int numFrames() {
+        return numPages;
+    }
+
+    /**
+     * Adds a page that was just dirtied to the dirty page table, with the
+     * end of the log as its recLSN, unless it is there already or is null
+     * or clean.
+     */
+    private void dirtied(Page page) {
+        if (page == null || page.isDirty() == null || dirtyPages.containsKey(page.getId())) {
+            return;
+        }
+        // read without the log's lock, which a force holds
+        if (dirtyPages.putIfAbsent(page.getId(), Database.getLogFile().getCurrentOffset()) == null) {
+            PageCleaner c = cleaner;
+            if (c != null) {
+                c.wake();
+            }
+        }
+    }
+
+    /**
+     * Writes a dirty page for the {@link PageCleaner}, the way a
+     * write-back does, see {@link #flushPage}.
+     *
+     * @return false if the page was not written, because it is pinned,
+     *   clean, not in the pool, or the pool is in NO STEAL mode
+     */
+    synchronized boolean cleanPage(PageId pid) throws IOException {
+        if (!steal) {
+            return false;
+        }
+        CachedPage cached = pageTable.get(pid);
+        if (cached == null || cached.page.isDirty() == null) {
+            dirtyPages.remove(pid);
+            return false;
+        }
+        if (cached.pins.get() != 0) {
+            return false;
+        }
+        flushPage(pid);
+        return true;
+    }
+
+    /**
+     * @return the frames of this pool, or null if it keeps its pages on
+     *   the heap
+     */
+    public FrameArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Hands out a frame, evicting clean pages until one is free.
+     *
+     * @return the frame, or -1 if every frame holds a page that is being
+     *   read or is dirty
+     */
+    private int allocateFrame() {
+        synchronized (LRUPagesPool) {
+            accesses.replay(LRUPagesPool);
+            int frame = arena.allocate();
+            while (frame < 0 && LRUPagesPool.evictEldest()) {
+                frame = arena.allocate();
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Frees the frame of a page that left the pool. The page is moved to
+     * the heap first, as a scan may still be reading it.
+     */
+    private void releaseFrame(PageId pid, Page page) {
+        Integer frame = frames.remove(pid);
+        if (frame != null) {
+            ((LazyHeapPage) page).detach();
+            arena.free(frame);
+        }
     }
 
     /**
@@ -45,6 +420,19 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * Pages of tables that are read sequentially are read ahead in the
+     * background, see {@link ReadAhead}; a miss on such a page takes the
+     * page that was read ahead instead of reading it.
+     * <p>
+     * Pages can be asked for by several threads at once, e.g. by the
+     * concurrent scans of a {@link PartitionedFile}. A page found in the
+     * pool is returned without taking a lock; a page that several threads
+     * miss on at once is read by the first, and the others wait for its
+     * read.
+     * <p>
+     * Room for a page that is not in the pool is made first, see
+     * {@link #evictPage}.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -52,27 +440,361 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        if (LRUPagesPool.containsKey(pid)) {
-            return LRUPagesPool.get(pid);
-        } else {
-            Page page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-            LRUPagesPool.put(pid, page);
-            return page;
+        return getPage(tid, pid, perm, AccessStrategy.NORMAL);
+    }
+
+    /**
+     * Retrieves a page, see {@link #getPage(TransactionId, PageId,
+     * Permissions)}, for an operation that uses the pool as the strategy
+     * says. A page the pool doesn't hold is read into the ring of the
+     * strategy, if it has one.
+     *
+     * @param strategy how the operation uses the pool
+     */
+    public Page getPage(TransactionId tid, final PageId pid, Permissions perm, final AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        CachedPage cached = pageTable.get(pid);
+        if (cached != null && cached.pin()) {
+            accesses.record(pid);
+            readAhead.access(pid, true);
+            pinned(tid, pid);
+            return cached.page;
+        }
+        readAhead.access(pid, false);
+        misses.incrementAndGet();
+        while (true) {
+            FutureTask<CachedPage> load = new FutureTask<CachedPage>(new Callable<CachedPage>() {
+                public CachedPage call() throws DbException {
+                    return readPage(pid, strategy);
+                }
+            });
+            FutureTask<CachedPage> running = loading.putIfAbsent(pid, load);
+            if (running == null) {
+                try {
+                    load.run();
+                } finally {
+                    loading.remove(pid, load);
+                }
+                // the page was read pinned
+                cached = await(pid, load);
+                pinned(tid, pid);
+                return cached.page;
+            }
+            cached = await(pid, running);
+            if (cached.pin()) {
+                pinned(tid, pid);
+                return cached.page;
+            }
+            // evicted right after it was read; read it again
+        }
+    }
+
+    private static CachedPage await(PageId pid, FutureTask<CachedPage> load)
+            throws TransactionAbortedException, DbException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException) {
+                throw (DbException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DbException("can't read page " + pid + ": " + cause);
+        }
+    }
+
+    /**
+     * Reads a page into the pool, for the one thread that missed on it
+     * while no other did.
+     *
+     * @return the page, pinned once for that thread
+     */
+    private CachedPage readPage(PageId pid, AccessStrategy strategy) throws DbException {
+        CachedPage cached = pageTable.get(pid);
+        if (cached != null && cached.pin()) {
+            // read by a thread whose read ended after this one missed
+            return cached;
+        }
+        if (strategy.getRingSize() > 0) {
+            PageId old = strategy.admit(pid);
+            if (old != null && recycle(old, strategy.writesBack())) {
+                strategy.recycled();
+            }
+        }
+        // read without holding the pool, so that concurrent scans of
+        // other pages don't wait for this read
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        boolean framed = arena != null && file instanceof HeapFile
+                && ((HeapFile) file).fitsFrames(arena.getFrameSize());
+        makeRoom(framed ? arena.getFrameSize() : getPageSize(file));
+        Page page = readAhead.take(pid);
+        int frame = -1;
+        if (framed) {
+            frame = allocateFrame();
+        }
+        if (frame >= 0) {
+            ByteBuffer view = arena.frame(frame, getPageSize(file));
+            page = page == null ? ((HeapFile) file).readPage(pid, view) : ((HeapFile) file).toView(page, view);
+            if (page == null) {
+                arena.free(frame);
+                frame = -1;
+            }
+        } else if (page == null) {
+            page = file.readPage(pid);
+        }
+        synchronized (LRUPagesPool) {
+            accesses.replay(LRUPagesPool);
+            cached = new CachedPage(page, 1);
+            // pinned before it is in the pool, so that the put can't evict it
+            pageTable.put(pid, cached);
+            LRUPagesPool.put(pid, page, frame >= 0 ? arena.getFrameSize() : getPageSize(file));
+            if (frame >= 0) {
+                frames.put(pid, frame);
+            }
+            return cached;
         }
     }
 
+    /**
+     * Evicts a page of the ring of an {@link AccessStrategy}, to make room
+     * for the page that takes its slot.
+     *
+     * @param writeBack true to write the page back if it is dirty, false
+     *   to leave a dirty page to the pool
+     * @return false if the page was not evicted, because it is pinned, is
+     *   dirty and not written back, or is not in the pool
+     */
+    private boolean recycle(PageId pid, boolean writeBack) throws DbException {
+        CachedPage cached = pageTable.get(pid);
+        if (cached == null) {
+            return false;
+        }
+        if (cached.page.isDirty() != null) {
+            try {
+                if (!writeBack || !cleanPage(pid)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                throw new DbException("can't write back page " + pid + ": " + e);
+            }
+            writeBacks.incrementAndGet();
+        }
+        synchronized (LRUPagesPool) {
+            if (pageTable.get(pid) != cached || cached.page.isDirty() != null || !cached.claim()) {
+                return false;
+            }
+            LRUPagesPool.remove(pid);
+            pageTable.remove(pid);
+            dirtyPages.remove(pid);
+            releaseFrame(pid, cached.page);
+            return true;
+        }
+    }
+
+    /**
+     * Unpins a page the transaction got from {@link #getPage}; once no one
+     * holds a pin on it, the page can be evicted. A page must be unpinned
+     * once per getPage.
+     *
+     * @param tid the transaction that got the page
+     * @param pid the page
+     * @throws IllegalStateException if the page is in the pool but not
+     *   pinned
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        CachedPage cached = pageTable.get(pid);
+        if (cached == null) {
+            // discarded while pinned
+            return;
+        }
+        if (!cached.unpin()) {
+            throw new IllegalStateException("page " + pid + " is not pinned");
+        }
+        if (leakDetection) {
+            ConcurrentLinkedQueue<PinSite> sites = pinSites.get(pid);
+            if (sites != null) {
+                PinSite any = null;
+                for (PinSite site : sites) {
+                    any = site;
+                    if (site.tid == null ? tid == null : site.tid.equals(tid)) {
+                        break;
+                    }
+                }
+                if (any != null) {
+                    sites.remove(any);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unpins pages the transaction got from {@link #getPage}, once per
+     * time each is in the list.
+     */
+    public void unpinPages(TransactionId tid, Collection<? extends Page> pages) {
+        for (Page page : pages) {
+            unpinPage(tid, page.getId());
+        }
+    }
+
+    /**
+     * @return the number of pins on a page, or 0 if it is not in the pool
+     */
+    public int getPinCount(PageId pid) {
+        CachedPage cached = pageTable.get(pid);
+        return cached == null ? 0 : Math.max(0, cached.pins.get());
+    }
+
+    /**
+     * @return the number of pins that transactions still held when they
+     *   completed, found in debug mode
+     */
+    public long getLeakedPins() {
+        return leakedPins.get();
+    }
+
+    /**
+     * Sets whether the pool remembers where pages were pinned, to report
+     * the pins transactions leak; on in debug mode.
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        if (!leakDetection) {
+            pinSites.clear();
+        }
+    }
+
+    /**
+     * Remembers where a page was pinned, in debug mode.
+     */
+    private void pinned(TransactionId tid, PageId pid) {
+        if (!leakDetection) {
+            return;
+        }
+        ConcurrentLinkedQueue<PinSite> sites = pinSites.get(pid);
+        if (sites == null) {
+            ConcurrentLinkedQueue<PinSite> created = new ConcurrentLinkedQueue<PinSite>();
+            sites = pinSites.putIfAbsent(pid, created);
+            if (sites == null) {
+                sites = created;
+            }
+        }
+        sites.add(new PinSite(tid, pid));
+    }
+
+    /**
+     * Reports and releases the pins a completed transaction still holds,
+     * in debug mode.
+     */
+    private void releaseLeakedPins(TransactionId tid) {
+        if (!leakDetection) {
+            return;
+        }
+        for (Map.Entry<PageId, ConcurrentLinkedQueue<PinSite>> e : pinSites.entrySet()) {
+            for (PinSite site : e.getValue()) {
+                if (site.tid != null && site.tid.equals(tid) && e.getValue().remove(site)) {
+                    leakedPins.incrementAndGet();
+                    if (Debug.isEnabled()) {
+                        StringWriter where = new StringWriter();
+                        site.where.printStackTrace(new PrintWriter(where));
+                        Debug.log("BufferPool: leaked pin on page %s\n%s", e.getKey(), where);
+                    }
+                    CachedPage cached = pageTable.get(e.getKey());
+                    if (cached != null) {
+                        cached.unpin();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts pages until a page of the specified number of bytes fits in
+     * the pool. Clean pages are evicted here, without waiting for the
+     * writes of other threads; evictPage is called only once the pool is
+     * full of dirty pages.
+     */
+    private void makeRoom(int bytes) throws DbException {
+        while (true) {
+            synchronized (LRUPagesPool) {
+                accesses.replay(LRUPagesPool);
+                while (!hasRoom(bytes) && LRUPagesPool.evictEldest()) {
+                    // evicted a clean page
+                }
+                if (hasRoom(bytes)) {
+                    return;
+                }
+            }
+            evictPage();
+        }
+    }
+
+    /**
+     * @return true if a page of bytes fits in the pool; a page larger
+     *   than the pool fits in it alone. Must hold LRUPagesPool.
+     */
+    private boolean hasRoom(int bytes) {
+        return LRUPagesPool.size() == 0 || LRUPagesPool.weight() + bytes <= LRUPagesPool.capacity();
+    }
+
+    /**
+     * @return the number of bytes per page of file
+     */
+    static int getPageSize(DbFile file) {
+        return file instanceof HeapFile ? ((HeapFile) file).getPageSize() : PAGE_SIZE;
+    }
+
+    /**
+     * @return the number of bytes of the pages in this pool
+     */
+    long getCachedBytes() {
+        synchronized (LRUPagesPool) {
+            return LRUPagesPool.weight();
+        }
+    }
+
+    /**
+     * @return true if the page is in this pool
+     */
+    public boolean isCached(PageId pid) {
+        return pageTable.containsKey(pid);
+    }
+
+    /**
+     * @return the read-ahead of this pool
+     */
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Replace the read-ahead of this pool, e.g. to turn it off.
+     */
+    public synchronized void setReadAhead(ReadAhead readAhead) {
+        this.readAhead.clear();
+        this.readAhead = readAhead;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
      * about who needs to call this and why, and why they can run the risk of
      * calling it.
      *
+     * <p>
+     * There are no page locks; the page is unpinned, see {@link #unpinPage}.
+     *
      * @param tid the ID of the transaction requesting the unlock
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for proj1
+        unpinPage(tid, pid);
     }
 
     /**
@@ -81,8 +803,7 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -95,14 +816,38 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * An abort drops the pages the transaction dirtied from the pool, so
+     * that they are read again as they are on disk. In NO STEAL mode that
+     * undoes its updates; the pages STEAL wrote back keep them.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for proj1
+        releaseLeakedPins(tid);
+        if (!commit) {
+            discardPages(tid);
+        }
+    }
+
+    /**
+     * Removes the pages a transaction dirtied from the buffer pool.
+     */
+    private synchronized void discardPages(TransactionId tid) {
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        synchronized (LRUPagesPool) {
+            for (PageId pid : LRUPagesPool.keySet()) {
+                Page page = LRUPagesPool.peek(pid);
+                if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
+                    pids.add(pid);
+                }
+            }
+        }
+        for (PageId pid : pids) {
+            discardPage(pid);
+        }
     }
 
     /**
@@ -114,6 +859,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have
      * been dirtied so that future requests see up-to-date pages.
+     * <p>
+     * The entry of the tuple is added to every index of the table.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -121,10 +868,28 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
-        ArrayList<Page> affectedPages = file.insertTuple(tid, t);
+        insertTuple(tid, tableId, t, AccessStrategy.NORMAL);
+    }
+
+    /**
+     * Adds a tuple to a table, see {@link #insertTuple(TransactionId, int,
+     * Tuple)}, reading the pages of a HeapFile with a strategy, e.g. the
+     * ring of a bulk insert. The pages of indexes are read as usual.
+     */
+    public void insertTuple(TransactionId tid, int tableId, Tuple t, AccessStrategy strategy)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        ArrayList<Page> affectedPages = file instanceof HeapFile ? ((HeapFile) file).insertTuple(tid, t, strategy)
+                : file.insertTuple(tid, t);
         for (Page page : affectedPages) {
             page.markDirty(true, tid);
+            dirtied(page);
+        }
+        for (DbIndex index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page page : index.insertTuple(tid, t)) {
+                page.markDirty(true, tid);
+                dirtied(page);
+            }
         }
     }
 
@@ -137,6 +902,8 @@ public class BufferPool {
      * their markDirty bit.  Does not need to update cached versions of any pages that have
      * been dirtied, as it is not possible that a new page was created during the deletion
      * (note difference from addTuple).
+     * <p>
+     * The entry of the tuple is removed from every index of its table.
      *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
@@ -145,22 +912,114 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         RecordId rid = t.getRecordId();
         int tableId = rid.getPageId().getTableId();
-        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        DbFile file = Database.getCatalog().getDbFile(tableId);
         Page affectedPage = file.deleteTuple(tid, t);
-        affectedPage.markDirty(true, tid);
+        if (affectedPage != null) {
+            // LsmFiles and MemoryFiles change no page
+            affectedPage.markDirty(true, tid);
+            dirtied(affectedPage);
+        }
+        for (DbIndex index : Database.getCatalog().getIndexes(tableId)) {
+            // the entry may not have been there
+            dirtied(index.deleteTuple(tid, t));
+        }
     }
 
     /**
      * Flush all dirty pages to disk.
+     * <p>
+     * The dirty pages are grouped by table and written in page number
+     * order, with consecutive pages of a table written at once, see
+     * {@link HeapFile#writePages}. The tables are written concurrently.
+     * In-memory tables that persist are snapshotted, see
+     * {@link MemoryFile#snapshot}, and the indexes of the tables written
+     * are recorded as up to date, see {@link Catalog#indexesWritten}.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        for (Page page : LRUPagesPool.values()) {
-            if (page.isDirty() != null) {
-                DbFile file = Database.getCatalog().getDbFile(page.getId().getTableId());
-                file.writePage(page);
+        Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+        while (tableIds.hasNext()) {
+            DbFile file = Database.getCatalog().getDbFile(tableIds.next());
+            if (file instanceof MemoryFile) {
+                ((MemoryFile) file).snapshot();
+            }
+        }
+        LinkedHashMap<Integer, ArrayList<Page>> dirty = new LinkedHashMap<Integer, ArrayList<Page>>();
+        synchronized (LRUPagesPool) {
+            for (Page page : LRUPagesPool.values()) {
+                if (page.isDirty() != null) {
+                    int tableId = page.getId().getTableId();
+                    ArrayList<Page> pages = dirty.get(tableId);
+                    if (pages == null) {
+                        pages = new ArrayList<Page>();
+                        dirty.put(tableId, pages);
+                    }
+                    pages.add(page);
+                }
+            }
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        ArrayList<Future<Void>> writes = new ArrayList<Future<Void>>();
+        Iterator<Map.Entry<Integer, ArrayList<Page>>> it = dirty.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, ArrayList<Page>> e = it.next();
+            final DbFile file = Database.getCatalog().getDbFile(e.getKey());
+            final ArrayList<Page> pages = e.getValue();
+            if (!it.hasNext()) {
+                // the last table is written on this thread
+                writePages(file, pages);
+                break;
+            }
+            writes.add(writers.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    writePages(file, pages);
+                    return null;
+                }
+            }));
+        }
+        IOException failure = null;
+        for (Future<Void> write : writes) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new IOException("interrupted while flushing pages");
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException("failed to flush pages: " + e.getCause());
+            }
+        }
+        if (failure != null) {
+            // pages that were written stay dirty; writing them again is harmless
+            throw failure;
+        }
+
+        for (ArrayList<Page> pages : dirty.values()) {
+            for (Page page : pages) {
+                readAhead.invalidate(page.getId());
                 page.markDirty(false, null);
+                dirtyPages.remove(page.getId());
+            }
+        }
+        for (Integer tableId : dirty.keySet()) {
+            // a table and its indexes on disk match again
+            Database.getCatalog().indexesWritten(tableId);
+        }
+    }
+
+    /**
+     * Write pages of a file, at once if the file supports it.
+     */
+    private static void writePages(DbFile file, ArrayList<Page> pages) throws IOException {
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).writePages(pages);
+        } else {
+            for (Page page : pages) {
+                file.writePage(page);
             }
         }
     }
@@ -171,23 +1030,84 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-	// not necessary for proj1
+        synchronized (LRUPagesPool) {
+            Page page = LRUPagesPool.remove(pid);
+            if (page != null) {
+                pageTable.remove(pid);
+                releaseFrame(pid, page);
+            }
+            dirtyPages.remove(pid);
+        }
+        readAhead.invalidate(pid);
+    }
+
+    /**
+     * @param tableId the table
+     * @return a transaction that dirtied a page of the table that is in the
+     *   buffer pool, or null if none of them is dirty
+     */
+    public TransactionId getDirtier(int tableId) {
+        synchronized (LRUPagesPool) {
+            for (PageId pid : LRUPagesPool.keySet()) {
+                if (pid.getTableId() == tableId) {
+                    Page page = LRUPagesPool.peek(pid);
+                    if (page != null && page.isDirty() != null) {
+                        return page.isDirty();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove all pages of a table from the buffer pool, dirty or not, e.g.
+     * because its file was replaced by one that holds their contents.
+     *
+     * @param tableId the table
+     */
+    public synchronized void discardPages(int tableId) {
+        synchronized (LRUPagesPool) {
+            ArrayList<PageId> pids = new ArrayList<PageId>();
+            for (PageId pid : LRUPagesPool.keySet()) {
+                if (pid.getTableId() == tableId) {
+                    pids.add(pid);
+                }
+            }
+            for (PageId pid : pids) {
+                pageTable.remove(pid);
+                dirtyPages.remove(pid);
+                releaseFrame(pid, LRUPagesPool.remove(pid));
+            }
+        }
+        readAhead.invalidate(tableId);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. The update of the transaction that
+     * dirtied the page is logged and the log forced before the page is
+     * written, so that it can be undone.
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        if (!LRUPagesPool.containsKey(pid)) {
+        Page page;
+        synchronized (LRUPagesPool) {
+            page = LRUPagesPool.peek(pid);
+        }
+        if (page == null) {
             throw new IOException("page not in memmery, pid=" + pid.toString());
         }
-        Page page = LRUPagesPool.get(pid);
-        if (page.isDirty() != null) {
+        TransactionId dirtier = page.isDirty();
+        if (dirtier != null) {
+            // the pool holds the lock of the log after its own, as the
+            // LogFile asks
+            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+            Database.getLogFile().force();
             DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
             file.writePage(page);
+            readAhead.invalidate(pid);
             page.markDirty(false, null);
+            dirtyPages.remove(pid);
         }
     }
 
@@ -201,10 +1121,51 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * The page the replacement policy chooses among the clean pages that
+     * are not pinned is evicted. If there is none, in STEAL mode the first
+     * dirty page the policy chose that is not pinned is written back, see
+     * {@link #flushPage}, and evicted unless it was used again meanwhile.
+     *
+     * @throws DbException if every page is pinned, in NO STEAL mode if
+     *   every page is dirty or pinned, or if the page can't be written
      */
     private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for proj1
+        ArrayList<PageId> passedOver = new ArrayList<PageId>();
+        synchronized (LRUPagesPool) {
+            accesses.replay(LRUPagesPool);
+            if (LRUPagesPool.evictEldest(passedOver) || passedOver.isEmpty()) {
+                return;
+            }
+        }
+        PageId pid = null;
+        for (PageId candidate : passedOver) {
+            // passed over but not pinned: dirty
+            if (getPinCount(candidate) == 0) {
+                pid = candidate;
+                break;
+            }
+        }
+        if (pid == null) {
+            throw new DbException("all " + passedOver.size() + " pages in the buffer pool are pinned");
+        }
+        if (!steal) {
+            throw new DbException("all " + passedOver.size() + " pages in the buffer pool are dirty or pinned");
+        }
+        try {
+            flushPage(pid);
+        } catch (IOException e) {
+            throw new DbException("can't write back page " + pid + ": " + e.getMessage());
+        }
+        writeBacks.incrementAndGet();
+        synchronized (LRUPagesPool) {
+            CachedPage cached = pageTable.get(pid);
+            if (cached != null && cached.page.isDirty() == null && cached.claim()) {
+                LRUPagesPool.remove(pid);
+                pageTable.remove(pid);
+                releaseFrame(pid, cached.page);
+            }
+        }
     }
 
 }
@@ -0,0 +1,473 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader converts delimited text files into HeapFile pages in
+ * parallel. It replaces HeapFileEncoder for large inputs.
+ * <p>
+ * The input is split into chunks of about chunkSize bytes at line
+ * boundaries. A pool of worker threads parses the chunks straight from
+ * their bytes and encodes the tuples directly into page images, without
+ * building Tuple objects for the fixed-slot formats. The pages of each
+ * chunk are then written in input order with one large write per chunk,
+ * either to a new data file or appended to an existing table. Loading into
+ * a table bypasses the buffer pool and the log, so it is not part of any
+ * transaction.
+ * <p>
+ * Each chunk starts a new page, so a loaded file has up to one partly
+ * filled page per chunk.
+ * <p>
+ * The input must be encoded in Type.STRING_CHARSET, since the bytes of
+ * string fields are copied into the pages as they are.
+ *
+ * @see HeapFileEncoder
+ * @see HeapFile#appendPages
+ */
+public class BulkLoader {
+
+    /** Default number of input bytes per chunk. */
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private final Type[] types;
+    private final char fieldSeparator;
+    private final PageFormat format;
+    private final int threads;
+    private final int chunkSize;
+    private final int pageSize;
+
+    /**
+     * Create a loader that uses one thread per processor.
+     *
+     * @param types the types of the fields of each line
+     * @param fieldSeparator the character between fields
+     * @param format the format of the pages to write
+     */
+    public BulkLoader(Type[] types, char fieldSeparator, PageFormat format) {
+        this(types, fieldSeparator, format, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_CHUNK_SIZE, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @param types the types of the fields of each line
+     * @param fieldSeparator the character between fields
+     * @param format the format of the pages to write
+     * @param threads the number of worker threads
+     * @param chunkSize the number of input bytes per chunk
+     * @param pageSize the number of bytes per page
+     */
+    public BulkLoader(Type[] types, char fieldSeparator, PageFormat format, int threads,
+            int chunkSize, int pageSize) {
+        this.types = types.clone();
+        this.fieldSeparator = fieldSeparator;
+        this.format = format;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return a loader for the schema and page format of table.
+     */
+    public static BulkLoader forTable(HeapFile table, char fieldSeparator) {
+        TupleDesc td = table.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        return new BulkLoader(types, fieldSeparator, table.getPageFormat(),
+                Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE, table.getPageSize());
+    }
+
+    /** The page images encoded from one chunk of input. */
+    private static class Chunk {
+        byte[] data;
+        int npages = 0;
+        int[] freeSlots = new int[16];
+        long tuples = 0;
+    }
+
+    /**
+     * Load inFile into a new data file outFile. As with HeapFileEncoder, an
+     * empty input produces one empty page.
+     *
+     * @return the number of tuples loaded
+     */
+    public long load(File inFile, File outFile) throws IOException {
+        final FileOutputStream os = new FileOutputStream(outFile);
+        try {
+            final FileChannel out = os.getChannel();
+            long tuples = run(inFile, new ChunkWriter() {
+                public void write(Chunk c) throws IOException {
+                    ByteBuffer buf = ByteBuffer.wrap(c.data, 0, c.npages * pageSize);
+                    while (buf.hasRemaining()) {
+                        out.write(buf);
+                    }
+                }
+            });
+            if (out.size() == 0) {
+                out.write(ByteBuffer.wrap(format.createEmptyPageData(pageSize)));
+            }
+            return tuples;
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Append the tuples of inFile to the end of table, which must have the
+     * schema and page format of this loader. The indexes the catalog keeps
+     * on the table are rebuilt afterwards, see {@link Catalog#rebuildIndexes}.
+     *
+     * @return the number of tuples loaded
+     */
+    public long load(File inFile, final HeapFile table) throws IOException {
+        if (table.getPageFormat() != format || pageSize != table.getPageSize()) {
+            throw new IllegalArgumentException("loader does not match the pages of " + table.getFile());
+        }
+        long tuples = run(inFile, new ChunkWriter() {
+            public void write(Chunk c) throws IOException {
+                table.appendPages(c.data, c.npages, c.freeSlots);
+            }
+        });
+        try {
+            Database.getCatalog().rebuildIndexes(table.getId());
+        } catch (DbException e) {
+            throw new IOException("failed to rebuild the indexes of " + table.getFile() + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("failed to rebuild the indexes of " + table.getFile());
+        }
+        return tuples;
+    }
+
+    private interface ChunkWriter {
+        void write(Chunk c) throws IOException;
+    }
+
+    /**
+     * Parse inFile in parallel and hand the chunks to out in input order.
+     * At most two chunks per thread are in flight, to bound memory use.
+     */
+    private long run(final File inFile, ChunkWriter out) throws IOException {
+        List<long[]> ranges = split(inFile);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+        long tuples = 0;
+        try {
+            Iterator<long[]> next = ranges.iterator();
+            while (next.hasNext() || !inFlight.isEmpty()) {
+                while (next.hasNext() && inFlight.size() < 2 * threads) {
+                    final long[] range = next.next();
+                    inFlight.add(pool.submit(new Callable<Chunk>() {
+                        public Chunk call() throws IOException {
+                            return encode(read(inFile, range[0], range[1]));
+                        }
+                    }));
+                }
+                Chunk c = inFlight.removeFirst().get();
+                if (c.npages > 0) {
+                    out.write(c);
+                }
+                tuples += c.tuples;
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the [start, end) byte ranges of the chunks of f; each ends
+     *   just after a newline or at the end of the file.
+     */
+    private List<long[]> split(File f) throws IOException {
+        ArrayList<long[]> ranges = new ArrayList<long[]>();
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            long length = raf.length();
+            long start = 0;
+            byte[] buf = new byte[4096];
+            while (start < length) {
+                long end = Math.min(start + chunkSize, length);
+                raf.seek(end);
+                boolean found = end == length;
+                while (!found) {
+                    int n = raf.read(buf);
+                    if (n < 0) {
+                        end = length;
+                        break;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        if (buf[i] == '\n') {
+                            end += i + 1;
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        end += n;
+                    }
+                }
+                ranges.add(new long[] {start, end});
+                start = end;
+            }
+        } finally {
+            raf.close();
+        }
+        return ranges;
+    }
+
+    private static byte[] read(File f, long start, long end) throws IOException {
+        byte[] data = new byte[(int) (end - start)];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, start + buf.position()) < 0) {
+                    throw new EOFException(f + " shrank while loading");
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        return data;
+    }
+
+    /**
+     * Parse the lines of in and encode them into pages.
+     */
+    private Chunk encode(byte[] in) {
+        PageBuilder pages = format == PageFormat.SLOTTED ? new SlottedPages() : new FixedPages();
+        int n = types.length;
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        int[] ints = new int[n];
+        int pos = 0;
+        while (pos < in.length) {
+            int eol = pos;
+            while (eol < in.length && in[eol] != '\n') {
+                eol++;
+            }
+            int lineEnd = eol;
+            if (lineEnd > pos && in[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > pos) {
+                if (parse(in, pos, lineEnd, starts, ends, ints)) {
+                    pages.add(in, starts, ends, ints);
+                } else {
+                    System.out.println("BAD LINE : " + new String(in, pos, lineEnd - pos, Type.STRING_CHARSET));
+                }
+            }
+            pos = eol + 1;
+        }
+        return pages.finish();
+    }
+
+    /**
+     * Split the line in[start, end) into trimmed fields and parse the
+     * INT_TYPE ones.
+     *
+     * @return false if the line is malformed
+     */
+    private boolean parse(byte[] in, int start, int end, int[] starts, int[] ends, int[] ints) {
+        int pos = start;
+        for (int j = 0; j < types.length; j++) {
+            if (pos > end) {
+                return false;
+            }
+            int fend = pos;
+            while (fend < end && in[fend] != fieldSeparator) {
+                fend++;
+            }
+            int s = pos;
+            int e = fend;
+            while (s < e && (in[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (in[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (types[j] == Type.INT_TYPE) {
+                if (!parseInt(in, s, e, ints, j)) {
+                    return false;
+                }
+            } else {
+                if (e - s > Type.STRING_LEN) {
+                    // cut on a character boundary
+                    e = s + Type.STRING_LEN;
+                    while (e > s && (in[e] & 0xc0) == 0x80) {
+                        e--;
+                    }
+                }
+            }
+            starts[j] = s;
+            ends[j] = e;
+            pos = fend + 1;
+        }
+        return true;
+    }
+
+    private static boolean parseInt(byte[] in, int s, int e, int[] ints, int j) {
+        boolean negative = false;
+        if (s < e && (in[s] == '-' || in[s] == '+')) {
+            negative = in[s] == '-';
+            s++;
+        }
+        if (s == e) {
+            return false;
+        }
+        long v = 0;
+        for (int i = s; i < e; i++) {
+            int d = in[i] - '0';
+            if (d < 0 || d > 9) {
+                return false;
+            }
+            v = v * 10 + d;
+            if (v > (long) Integer.MAX_VALUE + 1) {
+                return false;
+            }
+        }
+        v = negative ? -v : v;
+        if (v > Integer.MAX_VALUE) {
+            return false;
+        }
+        ints[j] = (int) v;
+        return true;
+    }
+
+    /** Encodes parsed lines into the pages of one chunk. */
+    private abstract class PageBuilder {
+        protected final Chunk chunk = new Chunk();
+
+        PageBuilder() {
+            chunk.data = new byte[pageSize * 16];
+        }
+
+        /** Add the parsed line to the current page. */
+        abstract void add(byte[] in, int[] starts, int[] ends, int[] ints);
+
+        /** @return the chunk, with the current page closed. */
+        abstract Chunk finish();
+
+        /**
+         * @return the offset in chunk.data of a new, zeroed page, which
+         *   has freeSlots empty slots once it is full.
+         */
+        protected int newPage() {
+            int off = chunk.npages * pageSize;
+            if (off + pageSize > chunk.data.length) {
+                chunk.data = Arrays.copyOf(chunk.data, chunk.data.length * 2);
+            }
+            if (chunk.npages == chunk.freeSlots.length) {
+                chunk.freeSlots = Arrays.copyOf(chunk.freeSlots, chunk.freeSlots.length * 2);
+            }
+            chunk.npages++;
+            return off;
+        }
+    }
+
+    /** Builds pages of the ROW, LAZY and PAX formats in place. */
+    private class FixedPages extends PageBuilder {
+        private final int numSlots;
+        private final int[][] offsets;
+        private int page = -1;
+        private int slot;
+
+        FixedPages() {
+            TupleDesc td = new TupleDesc(types);
+            int tupleSize = td.getSize();
+            numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+            int headerSize = (numSlots + 7) / 8;
+            offsets = new int[types.length][numSlots];
+            int columnStart = headerSize;
+            int fieldStart = 0;
+            for (int j = 0; j < types.length; j++) {
+                int len = types[j].getLen();
+                for (int i = 0; i < numSlots; i++) {
+                    offsets[j][i] = format == PageFormat.PAX
+                            ? columnStart + i * len
+                            : headerSize + i * tupleSize + fieldStart;
+                }
+                columnStart += numSlots * len;
+                fieldStart += len;
+            }
+        }
+
+        void add(byte[] in, int[] starts, int[] ends, int[] ints) {
+            if (page < 0 || slot == numSlots) {
+                page = newPage();
+                slot = 0;
+            }
+            byte[] data = chunk.data;
+            for (int j = 0; j < types.length; j++) {
+                int off = page + offsets[j][slot];
+                int v = types[j] == Type.INT_TYPE ? ints[j] : ends[j] - starts[j];
+                data[off] = (byte) (v >>> 24);
+                data[off + 1] = (byte) (v >>> 16);
+                data[off + 2] = (byte) (v >>> 8);
+                data[off + 3] = (byte) v;
+                if (types[j] == Type.STRING_TYPE) {
+                    System.arraycopy(in, starts[j], data, off + 4, v);
+                }
+            }
+            data[page + slot / 8] |= (byte) (1 << (slot % 8));
+            slot++;
+            chunk.freeSlots[chunk.npages - 1] = numSlots - slot;
+            chunk.tuples++;
+        }
+
+        Chunk finish() {
+            return chunk;
+        }
+    }
+
+    /** Builds SLOTTED pages with SlottedHeapPage.Builder. */
+    private class SlottedPages extends PageBuilder {
+        private final TupleDesc td = new TupleDesc(types);
+        private final SlottedHeapPage.Builder builder = new SlottedHeapPage.Builder(pageSize);
+
+        void add(byte[] in, int[] starts, int[] ends, int[] ints) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < types.length; j++) {
+                if (types[j] == Type.INT_TYPE) {
+                    t.setField(j, new IntField(ints[j]));
+                } else {
+                    t.setField(j, new StringField(new String(in, starts[j], ends[j] - starts[j], Type.STRING_CHARSET), Type.STRING_LEN));
+                }
+            }
+            if (!builder.add(t)) {
+                flush();
+                builder.add(t);
+            }
+            chunk.tuples++;
+        }
+
+        private void flush() {
+            int off = newPage();
+            System.arraycopy(builder.finish(), 0, chunk.data, off, pageSize);
+            // a slotted page has no fixed number of slots; the free space
+            // map learns the real count when an insert looks at the page
+            chunk.freeSlots[chunk.npages - 1] = FreeSpaceMap.UNKNOWN;
+        }
+
+        Chunk finish() {
+            if (builder.size() > 0) {
+                flush();
+            }
+            return chunk;
+        }
+    }
+}
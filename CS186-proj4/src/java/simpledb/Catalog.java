@@ -1,7 +1,11 @@
 package simpledb;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
@@ -19,6 +23,9 @@ public class Catalog {
     private HashMap<String, DbFile> nameDbFileMap;
     private HashMap<String, String> namePKeyFieldMap;
     private HashMap<Integer, String> tableIdNameMap;
+    private HashMap<Integer, DbIndex> indexIdMap;
+    private HashMap<Integer, ArrayList<DbIndex>> tableIndexMap;
+    private HashMap<Integer, HeapFile> partitionIdMap;
 
     /**
      * Constructor.
@@ -28,6 +35,9 @@ public class Catalog {
         nameDbFileMap = new HashMap<String, DbFile>();
         namePKeyFieldMap = new HashMap<String, String>();
         tableIdNameMap = new HashMap<Integer, String>();
+        indexIdMap = new HashMap<Integer, DbIndex>();
+        tableIndexMap = new HashMap<Integer, ArrayList<DbIndex>>();
+        partitionIdMap = new HashMap<Integer, HeapFile>();
     }
 
     /**
@@ -41,8 +51,27 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         if (nameDbFileMap.containsKey(name)) {
-            Integer tableId = nameDbFileMap.get(name).getId();
+            DbFile old = nameDbFileMap.get(name);
+            Integer tableId = old.getId();
             tableIdNameMap.remove(tableId);
+            ArrayList<DbIndex> indexes = tableIndexMap.remove(tableId);
+            if (indexes != null) {
+                for (DbIndex index : indexes) {
+                    indexIdMap.remove(index.getId());
+                }
+            }
+            if (old instanceof PartitionedFile) {
+                for (int i = 0; i < ((PartitionedFile) old).numPartitions(); i++) {
+                    partitionIdMap.remove(((PartitionedFile) old).getPartition(i).getId());
+                }
+            }
+        }
+        if (file instanceof PartitionedFile) {
+            // like indexes, partitions are not tables, but their pages are read by id
+            for (int i = 0; i < ((PartitionedFile) file).numPartitions(); i++) {
+                HeapFile partition = ((PartitionedFile) file).getPartition(i);
+                partitionIdMap.put(partition.getId(), partition);
+            }
         }
         tableIdNameMap.put(file.getId(), name);
         nameDbFileMap.put(name, file);
@@ -81,10 +110,14 @@ public class Catalog {
     /**
      * Returns the tuple descriptor (schema) of the specified table
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *     function passed to addTable
+     *     function passed to addTable, or of a partition of a table
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
+        HeapFile partition = partitionIdMap.get(tableid);
+        if (partition != null) {
+            return partition.getTupleDesc();
+        }
         if (!tableIdNameMap.containsKey(tableid)) {
             throw new NoSuchElementException("tableid=" + Integer.toString(tableid) + " not exist");
         }
@@ -92,13 +125,53 @@ public class Catalog {
         return nameDbFileMap.get(name).getTupleDesc();
     }
 
+    /**
+     * Add an index to the catalog. Indexes are not tables: they don't show
+     * up in tableIdIterator, but getDbFile returns them, so that their pages
+     * can be read through the BufferPool.
+     * @param index the index to add; the table it is on must have been added
+     * @throws NoSuchElementException if the indexed table doesn't exist
+     */
+    public void addIndex(DbIndex index) {
+        int tableid = index.getIndexedTableId();
+        if (!tableIdNameMap.containsKey(tableid)) {
+            throw new NoSuchElementException("tableid=" + Integer.toString(tableid) + " not exist");
+        }
+        ArrayList<DbIndex> indexes = tableIndexMap.get(tableid);
+        if (indexes == null) {
+            indexes = new ArrayList<DbIndex>();
+            tableIndexMap.put(tableid, indexes);
+        }
+        indexes.add(index);
+        indexIdMap.put(index.getId(), index);
+    }
+
+    /**
+     * @return the indexes of the specified table; empty if it has none
+     */
+    public List<DbIndex> getIndexes(int tableid) {
+        ArrayList<DbIndex> indexes = tableIndexMap.get(tableid);
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(indexes);
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, index or partition of a {@link PartitionedFile}.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
+        DbIndex index = indexIdMap.get(tableid);
+        if (index != null) {
+            return index;
+        }
+        HeapFile partition = partitionIdMap.get(tableid);
+        if (partition != null) {
+            return partition;
+        }
         if (!tableIdNameMap.containsKey(tableid)) {
             throw new NoSuchElementException("tableid=" + Integer.toString(tableid) + " not exist");
         }
@@ -127,10 +200,15 @@ public class Catalog {
         tableIdNameMap.clear();
         nameDbFileMap.clear();
         namePKeyFieldMap.clear();
+        indexIdMap.clear();
+        tableIndexMap.clear();
+        partitionIdMap.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Only the indexes the table options declare are opened, or built if
+     * they are not up to date, see {@link #createTable}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -171,8 +249,20 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HashMap<String, String> options = parseTableOptions(line.substring(line.indexOf(")") + 1));
+                DbFile tabHf = createTable(new File(baseFolder+"/"+name + ".dat"), t, options);
                 addTable(tabHf,name,primaryKey);
+                if (options.containsKey("index")) {
+                    for (String field : options.get("index").split(",")) {
+                        addIndex(createIndex(new File(baseFolder + "/" + name + "." + field + ".idx"), tabHf, field));
+                    }
+                }
+                if (options.containsKey("hashindex")) {
+                    for (String field : options.get("hashindex").split(",")) {
+                        addIndex(createHashIndex(new File(baseFolder + "/" + name + "." + field + ".hash"), tabHf,
+                                field));
+                    }
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -181,7 +271,378 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            System.out.println ("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
         }
     }
-}
 
+    /**
+     * Parses the table options that may follow the schema of a catalog
+     * entry, e.g. <tt>Movie (id int pk, name string, year int) io=mmap</tt>.
+     * Options are whitespace separated key=value pairs.
+     * @throws IllegalArgumentException if an option is not of the form key=value
+     */
+    static HashMap<String, String> parseTableOptions(String s) {
+        HashMap<String, String> options = new HashMap<String, String>();
+        s = s.trim();
+        if (s.isEmpty()) {
+            return options;
+        }
+        for (String opt : s.split("\\s+")) {
+            int eq = opt.indexOf('=');
+            if (eq <= 0 || eq == opt.length() - 1) {
+                throw new IllegalArgumentException("malformed table option " + opt);
+            }
+            options.put(opt.substring(0, eq).toLowerCase(), opt.substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Creates the DbFile for a catalog entry.
+     * <p>
+     * Supported table options:
+     * <ul>
+     * <li> <tt>io=raf|channel|mmap</tt> selects the {@link PageIO.Mode} of the table
+     * <li> <tt>format=row|lazy|slotted|pax</tt> selects the {@link PageFormat} of the table
+     * <li> <tt>compress=light|deflate</tt> stores the table compressed, see {@link PageCompression}
+     * <li> <tt>pagesize=bytes</tt> sets the page size of the table, a power of two
+     *      between {@link HeapFile#MIN_PAGE_SIZE} and {@link HeapFile#MAX_PAGE_SIZE};
+     *      the default is {@link BufferPool#PAGE_SIZE}
+     * <li> <tt>index=field[,field...]</tt> keeps a B+tree index on each field, see
+     *      {@link #createIndex}
+     * <li> <tt>hashindex=field[,field...]</tt> keeps a hash index on each INT field, see
+     *      {@link #createHashIndex}
+     * <li> <tt>bloom=field[,field...]</tt> keeps an in-memory Bloom filter of the
+     *      values of each field on each page, see {@link PageBloomFilters}
+     * <li> <tt>bloomfpp=rate</tt> sets the false positive rate of those filters;
+     *      the default is {@link PageBloomFilters#DEFAULT_FPP}
+     * <li> <tt>lsm=field</tt> stores the table as an {@link LsmFile} sorted by field,
+     *      in runs named after the table file; the page size is its block size.
+     *      It takes no other options.
+     * <li> <tt>memory=volatile|snapshot[:field]</tt> keeps the table in direct memory
+     *      as a {@link MemoryFile}, with its rows chained by the hash of field if given;
+     *      it starts with the rows of the heap table file, which it doesn't write. A
+     *      snapshot table is written to <tt>name.dat.mem</tt> by
+     *      {@link BufferPool#flushAllPages}, and loaded from it when it exists. It
+     *      takes no other options.
+     * <li> <tt>partition=range:field:b1,...,bn</tt> or <tt>partition=hash:field:n</tt>
+     *      stores the table as a {@link PartitionedFile}, see {@link Partitioning};
+     *      partition i is kept in <tt>name.p<i>i</i>.dat</tt>, and the other options
+     *      apply to each partition. Partitioned tables can't have indexes.
+     * </ul>
+     * @param f the file holding the table
+     * @param td the schema of the table
+     * @param options the table options of the catalog entry
+     * @throws IllegalArgumentException if an option is unknown or has a bad value
+     */
+    DbFile createTable(File f, TupleDesc td, Map<String, String> options) {
+        PageIO.Mode ioMode = PageIO.Mode.RANDOM_ACCESS;
+        PageFormat format = PageFormat.ROW;
+        PageCompression compression = null;
+        int pageSize = BufferPool.PAGE_SIZE;
+        Partitioning partitioning = null;
+        int[] bloomFields = null;
+        double bloomFpp = PageBloomFilters.DEFAULT_FPP;
+        int lsmKey = -1;
+        String memory = null;
+        int memoryKey = -1;
+        for (Map.Entry<String, String> opt : options.entrySet()) {
+            String key = opt.getKey();
+            if (key.equals("io")) {
+                ioMode = PageIO.Mode.parse(opt.getValue());
+            } else if (key.equals("format")) {
+                format = PageFormat.parse(opt.getValue());
+            } else if (key.equals("compress")) {
+                compression = PageCompression.parse(opt.getValue());
+            } else if (key.equals("pagesize")) {
+                try {
+                    pageSize = Integer.parseInt(opt.getValue());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad page size " + opt.getValue());
+                }
+                HeapFile.checkPageSize(pageSize);
+            } else if (key.equals("partition")) {
+                partitioning = Partitioning.parse(opt.getValue(), td);
+            } else if (key.equals("bloom")) {
+                String[] names = opt.getValue().split(",");
+                bloomFields = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    try {
+                        bloomFields[i] = td.fieldNameToIndex(names[i].trim());
+                    } catch (NoSuchElementException e) {
+                        throw new IllegalArgumentException("unknown Bloom filter field " + names[i]);
+                    }
+                }
+            } else if (key.equals("bloomfpp")) {
+                try {
+                    bloomFpp = Double.parseDouble(opt.getValue());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("bad Bloom filter false positive rate " + opt.getValue());
+                }
+                if (!(bloomFpp > 0 && bloomFpp < 1)) {
+                    throw new IllegalArgumentException("bad Bloom filter false positive rate " + opt.getValue());
+                }
+            } else if (key.equals("lsm")) {
+                try {
+                    lsmKey = td.fieldNameToIndex(opt.getValue().trim());
+                } catch (NoSuchElementException e) {
+                    throw new IllegalArgumentException("unknown LSM key field " + opt.getValue());
+                }
+            } else if (key.equals("memory")) {
+                String[] parts = opt.getValue().trim().split(":");
+                if (parts.length > 2 || !(parts[0].equals("volatile") || parts[0].equals("snapshot"))) {
+                    throw new IllegalArgumentException("bad in-memory table mode " + opt.getValue());
+                }
+                memory = parts[0];
+                if (parts.length == 2) {
+                    try {
+                        memoryKey = td.fieldNameToIndex(parts[1].trim());
+                    } catch (NoSuchElementException e) {
+                        throw new IllegalArgumentException("unknown in-memory key field " + parts[1]);
+                    }
+                }
+            } else if (key.equals("index") || key.equals("hashindex")) {
+                // the indexes are created once the table is in the catalog
+            } else {
+                throw new IllegalArgumentException("unknown table option " + key);
+            }
+        }
+        if (lsmKey >= 0) {
+            for (String other : options.keySet()) {
+                if (!other.equals("lsm") && !other.equals("pagesize")) {
+                    throw new IllegalArgumentException("LSM tables can't take option " + other);
+                }
+            }
+            return new LsmFile(f, td, lsmKey, pageSize, LsmFile.DEFAULT_MEMTABLE_BYTES);
+        }
+        if (memory != null) {
+            if (options.size() > 1) {
+                throw new IllegalArgumentException("in-memory tables take no other options");
+            }
+            return new MemoryFile(f, td, memoryKey, memory.equals("snapshot"));
+        }
+        if (partitioning == null) {
+            HeapFile hf = new HeapFile(f, td, ioMode, format, compression, pageSize);
+            if (bloomFields != null) {
+                hf.useBloomFilters(bloomFields, bloomFpp);
+            }
+            return hf;
+        }
+        if (options.containsKey("index") || options.containsKey("hashindex")) {
+            throw new IllegalArgumentException("partitioned tables can't have indexes");
+        }
+        HeapFile[] partitions = new HeapFile[partitioning.numPartitions()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new HeapFile(PartitionedFile.partitionFile(f, i), td, ioMode, format, compression, pageSize);
+            if (bloomFields != null) {
+                partitions[i].useBloomFilters(bloomFields, bloomFpp);
+            }
+        }
+        return new PartitionedFile(f, td, partitioning, partitions);
+    }
+
+    /**
+     * Opens the B+tree index on a field of a table, stored in file f. The
+     * index is built from the table when the file doesn't exist or is not
+     * {@link #isCurrent current}, e.g. because the table was reloaded.
+     * @throws IllegalArgumentException if the table has no such field, or
+     *     it can't be indexed
+     */
+    DbIndex createIndex(File f, DbFile table, String field) throws IOException {
+        int keyField = indexField(table, field);
+        if (isCurrent(f, table)) {
+            return new BTreeFile(f, table, keyField);
+        }
+        try {
+            DbIndex index = BTreeFile.build(f, table, keyField);
+            writeIndexedPages(f, table);
+            return index;
+        } catch (DbException e) {
+            throw new IOException("failed to build index " + f + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("failed to build index " + f + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the hash index on an INT field of a table, stored in file f and
+     * the directory file next to it. Like {@link #createIndex}, the index is
+     * rebuilt when either file is missing or the index is not current.
+     * @throws IllegalArgumentException if the table has no such field, or
+     *     it is not an INT field
+     */
+    DbIndex createHashIndex(File f, DbFile table, String field) throws IOException {
+        int keyField = indexField(table, field);
+        if (isCurrent(f, table) && HashIndexFile.directoryFile(f).exists()) {
+            return new HashIndexFile(f, table, keyField);
+        }
+        try {
+            DbIndex index = HashIndexFile.build(f, table, keyField);
+            writeIndexedPages(f, table);
+            return index;
+        } catch (DbException e) {
+            throw new IOException("failed to build index " + f + ": " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("failed to build index " + f + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the indexes of a table from scratch, because the records of
+     * the table moved, e.g. by {@link HeapFile#compact}. Each index is built
+     * in the file it was stored in, so it keeps its id; its pages are
+     * dropped from the BufferPool first.
+     * @param tableid the id of the table
+     */
+    public void rebuildIndexes(int tableid) throws IOException, DbException, TransactionAbortedException {
+        ArrayList<DbIndex> indexes = tableIndexMap.get(tableid);
+        if (indexes == null) {
+            return;
+        }
+        DbFile table = getDbFile(tableid);
+        // a new list, so that threads iterating the old one aren't disturbed
+        ArrayList<DbIndex> rebuilt = new ArrayList<DbIndex>();
+        for (DbIndex index : indexes) {
+            DbIndex fresh;
+            if (index instanceof BTreeFile) {
+                BTreeFile old = (BTreeFile) index;
+                old.close();
+                Database.getBufferPool().discardPages(old.getId());
+                fresh = BTreeFile.build(old.getFile(), table, old.getKeyField());
+            } else if (index instanceof HashIndexFile) {
+                HashIndexFile old = (HashIndexFile) index;
+                old.close();
+                Database.getBufferPool().discardPages(old.getId());
+                fresh = HashIndexFile.build(old.getFile(), table, old.getKeyField());
+            } else {
+                throw new DbException("don't know how to rebuild index " + index.getId());
+            }
+            writeIndexedPages(fresh.getFile(), table);
+            rebuilt.add(fresh);
+            indexIdMap.put(fresh.getId(), fresh);
+        }
+        tableIndexMap.put(tableid, rebuilt);
+    }
+
+    /**
+     * Records that the indexes of a table are up to date with the table
+     * as it is on disk, see {@link #isCurrent}. Called once the pages of
+     * the table and its indexes are written.
+     * @param tableid the id of the table
+     */
+    void indexesWritten(int tableid) throws IOException {
+        ArrayList<DbIndex> indexes = tableIndexMap.get(tableid);
+        if (indexes == null) {
+            return;
+        }
+        DbFile table = getDbFile(tableid);
+        for (DbIndex index : indexes) {
+            writeIndexedPages(index.getFile(), table);
+        }
+    }
+
+    /**
+     * Compacts a table, or each partition of a partitioned one, see
+     * {@link HeapFile#compact}, and recomputes its statistics. The runs of
+     * an {@link LsmFile} are merged into one instead; they are sorted by
+     * their key already.
+     * @param name the name of the table
+     * @param clusterField the name of the field to sort the table by, or
+     *     null to keep the order of the table
+     * @return the number of pages freed
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws UnsupportedOperationException if the table can't be
+     *     compacted, or clustered by that field
+     */
+    public int compactTable(String name, String clusterField)
+            throws IOException, DbException, TransactionAbortedException {
+        int tableid = getTableId(name);
+        DbFile file = getDbFile(tableid);
+        int field = clusterField == null ? -1 : file.getTupleDesc().fieldNameToIndex(clusterField);
+        int freed = 0;
+        if (file instanceof HeapFile) {
+            freed = ((HeapFile) file).compact(field);
+        } else if (file instanceof PartitionedFile) {
+            for (int i = 0; i < ((PartitionedFile) file).numPartitions(); i++) {
+                freed += ((PartitionedFile) file).getPartition(i).compact(field);
+            }
+        } else if (file instanceof LsmFile) {
+            LsmFile lsm = (LsmFile) file;
+            if (field >= 0 && field != lsm.getKeyField()) {
+                throw new UnsupportedOperationException("LSM table " + name + " is sorted by its key field");
+            }
+            int before = lsm.numPages();
+            lsm.flush();
+            lsm.mergeRuns();
+            freed = before - lsm.numPages();
+        } else {
+            throw new UnsupportedOperationException("can't compact table " + name);
+        }
+        TableStats.setTableStats(name, new TableStats(tableid, TableStats.IOCOSTPERPAGE));
+        return freed;
+    }
+
+    /**
+     * @return the position of field in the tuples of table
+     * @throws IllegalArgumentException if table has no such field
+     */
+    private static int indexField(DbFile table, String field) {
+        try {
+            return table.getTupleDesc().fieldNameToIndex(field.trim());
+        } catch (NoSuchElementException e) {
+            throw new IllegalArgumentException("unknown index field " + field);
+        }
+    }
+
+    /**
+     * @return the sidecar of index file f that holds the number of pages
+     *     of the table when the index was last known to match it
+     */
+    static File indexedPagesFile(File f) {
+        return new File(f.getPath() + ".pages");
+    }
+
+    /**
+     * @return the number of pages of a HeapFile, or -1 for other tables,
+     *     whose indexes are then never current
+     */
+    private static int numPages(DbFile table) {
+        return table instanceof HeapFile ? ((HeapFile) table).numPages() : -1;
+    }
+
+    private static void writeIndexedPages(File f, DbFile table) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(indexedPagesFile(f)));
+        try {
+            out.writeInt(numPages(table));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return true if the index file f exists and was last known to match
+     *     the table when it had as many pages as it has now. A table that
+     *     was changed without its indexes, e.g. reloaded, almost always
+     *     changes size; file times are not trusted, since copies and coarse
+     *     timestamps make them wrong.
+     */
+    private static boolean isCurrent(File f, DbFile table) {
+        File meta = indexedPagesFile(f);
+        if (!f.exists() || !meta.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(meta));
+            try {
+                int pages = in.readInt();
+                return pages >= 0 && pages == numPages(table);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ChannelPageIO keeps one FileChannel open for the lifetime of the table
+ * and turns page accesses into positional reads and writes, so a buffer
+ * pool miss costs a single pread() instead of open/seek/read/close.
+ * Positional I/O does not move the channel position, so concurrent readers
+ * don't need to coordinate.
+ */
+public class ChannelPageIO implements PageIO {
+
+    protected final File f;
+    protected final int pageSize;
+    private RandomAccessFile rafile = null;
+    private FileChannel channel = null;
+
+    public ChannelPageIO(File f, int pageSize) {
+        this.f = f;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the open channel, opening it on first use or if close() was
+     *   called.
+     */
+    protected synchronized FileChannel channel() throws IOException {
+        if (channel == null) {
+            rafile = new RandomAccessFile(f, "rw");
+            channel = rafile.getChannel();
+        }
+        return channel;
+    }
+
+    public void readPage(int pgNo, byte[] data) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, pageSize);
+        long pos = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) {
+                break;
+            }
+        }
+    }
+
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        write(pgNo, data, 1);
+    }
+
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        write(pgNo, data, npages);
+    }
+
+    private void write(int pgNo, byte[] data, int npages) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, npages * pageSize);
+        long pos = (long) pgNo * pageSize;
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+    }
+
+    public synchronized long length() throws IOException {
+        // don't create a missing file just to learn that it is empty
+        return channel == null ? f.length() : channel.size();
+    }
+
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            rafile.close();
+            channel = null;
+            rafile = null;
+        }
+    }
+}
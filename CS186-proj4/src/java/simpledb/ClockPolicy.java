@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy approximates LRU with a reference bit per key. The keys sit
+ * on a circle that a hand sweeps when a victim is needed: a key whose bit
+ * is set has it cleared and is passed over, and the first key whose bit is
+ * clear is evicted. A key is admitted with its bit clear, so a page read
+ * once is evicted at the first sweep that reaches it, before any page
+ * used twice.
+ *
+ * @see ReplacementPolicy.Kind#CLOCK
+ */
+public class ClockPolicy<Key> implements ReplacementPolicy<Key> {
+
+    private final ArrayList<Key> keys = new ArrayList<Key>();
+    private final BitSet referenced = new BitSet();
+    /** The position of each key on the circle. */
+    private final HashMap<Key, Integer> positions = new HashMap<Key, Integer>();
+    /** The positions of removed keys, reused before the circle grows. */
+    private final ArrayList<Integer> holes = new ArrayList<Integer>();
+    private int hand = 0;
+
+    public void admitted(Key key) {
+        int pos;
+        if (holes.isEmpty()) {
+            pos = keys.size();
+            keys.add(key);
+        } else {
+            pos = holes.remove(holes.size() - 1);
+            keys.set(pos, key);
+        }
+        referenced.clear(pos);
+        positions.put(key, pos);
+    }
+
+    public void accessed(Key key) {
+        Integer pos = positions.get(key);
+        if (pos != null) {
+            referenced.set(pos);
+        }
+    }
+
+    public void removed(Key key) {
+        Integer pos = positions.remove(key);
+        if (pos != null) {
+            keys.set(pos, null);
+            referenced.clear(pos);
+            holes.add(pos);
+        }
+    }
+
+    public Key evict() {
+        if (positions.isEmpty()) {
+            return null;
+        }
+        // at most two turns: the first clears every bit
+        while (true) {
+            if (hand >= keys.size()) {
+                hand = 0;
+            }
+            Key key = keys.get(hand);
+            if (key != null) {
+                if (!referenced.get(hand)) {
+                    removed(key);
+                    hand++;
+                    return key;
+                }
+                referenced.clear(hand);
+            }
+            hand++;
+        }
+    }
+
+    public void kept(Key key) {
+        admitted(key);
+        referenced.set(positions.get(key));
+    }
+}
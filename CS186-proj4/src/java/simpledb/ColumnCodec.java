@@ -0,0 +1,419 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import com.jcraft.jzlib.JZlib;
+import com.jcraft.jzlib.ZStream;
+
+/**
+ * ColumnCodec compresses page images of the fixed-slot page formats (ROW,
+ * LAZY and PAX) column by column, and can deflate the result with jzlib.
+ * <p>
+ * A compressed page is a record that starts with a one byte tag:
+ * <ul>
+ * <li> RAW: the page image follows unchanged
+ * <li> LIGHT: the slot bitmap follows, then each column in turn, encoded
+ *      with whichever of these encodings is smallest for it:
+ *      <ul>
+ *      <li> INT_TYPE: run-length, dictionary (up to 256 distinct values) or
+ *           frame-of-reference (the minimum plus bit-packed offsets)
+ *      <li> STRING_TYPE: dictionary or plain, each string stored with a one
+ *           byte length instead of padded to STRING_LEN
+ *      </ul>
+ *      Values of empty slots are encoded too; they are all zero.
+ * <li> DEFLATE: a deflated RAW or LIGHT record follows
+ * </ul>
+ * Pages the light encodings can't reproduce exactly are stored RAW, so
+ * every page round trips.
+ *
+ * @see CompressedPageIO
+ */
+public class ColumnCodec {
+
+    static final byte RAW = 0;
+    static final byte LIGHT = 1;
+    static final byte DEFLATE = 2;
+
+    private static final byte INT_RLE = 1;
+    private static final byte INT_DICT = 2;
+    private static final byte INT_FOR = 3;
+    private static final byte STRING_DICT = 4;
+    private static final byte STRING_PLAIN = 5;
+
+    private final TupleDesc td;
+    private final int pageSize;
+    /** null if the page format has no fixed column layout. */
+    private final int[][] offsets;
+    private final int headerSize;
+
+    /**
+     * @param td the schema of the pages
+     * @param format the format of the pages
+     * @param pageSize the size of a page image
+     */
+    public ColumnCodec(TupleDesc td, PageFormat format, int pageSize) {
+        this.td = td;
+        this.pageSize = pageSize;
+        if (format == PageFormat.SLOTTED) {
+            this.offsets = null;
+            this.headerSize = 0;
+            return;
+        }
+        int tupleSize = td.getSize();
+        int numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        this.offsets = new int[td.numFields()][numSlots];
+        int columnStart = headerSize;
+        int fieldStart = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            for (int i = 0; i < numSlots; i++) {
+                if (format == PageFormat.PAX) {
+                    offsets[j][i] = columnStart + i * len;
+                } else {
+                    offsets[j][i] = headerSize + i * tupleSize + fieldStart;
+                }
+            }
+            columnStart += numSlots * len;
+            fieldStart += len;
+        }
+    }
+
+    /**
+     * Compress a page image.
+     *
+     * @param page the page image
+     * @param deflate whether to deflate the lightly encoded page as well
+     * @return the compressed record
+     */
+    public byte[] encode(byte[] page, boolean deflate) {
+        byte[] rec = encodeLight(page);
+        if (rec == null) {
+            rec = new byte[page.length + 1];
+            rec[0] = RAW;
+            System.arraycopy(page, 0, rec, 1, page.length);
+        }
+        if (deflate) {
+            byte[] deflated = deflate(rec);
+            if (deflated.length < rec.length) {
+                return deflated;
+            }
+        }
+        return rec;
+    }
+
+    /**
+     * Decompress a record produced by encode.
+     *
+     * @param rec the buffer holding the record
+     * @param len the length of the record
+     * @param page the buffer to decompress the page image into
+     * @throws IOException if the record is corrupt
+     */
+    public void decode(byte[] rec, int len, byte[] page) throws IOException {
+        try {
+            switch (rec[0]) {
+            case RAW:
+                if (len - 1 != pageSize) {
+                    throw new IOException("raw page record of " + (len - 1) + " bytes");
+                }
+                System.arraycopy(rec, 1, page, 0, pageSize);
+                break;
+            case LIGHT:
+                decodeLight(ByteBuffer.wrap(rec, 1, len - 1), page);
+                break;
+            case DEFLATE:
+                byte[] inner = inflate(rec, len);
+                decode(inner, inner.length, page);
+                break;
+            default:
+                throw new IOException("unknown page record tag " + rec[0]);
+            }
+        } catch (RuntimeException e) {
+            // a truncated or garbled record runs off the end of a buffer
+            throw new IOException("corrupt page record: " + e);
+        }
+    }
+
+    /**
+     * @return the LIGHT record for page, or null if the page can't be
+     *   lightly encoded.
+     */
+    private byte[] encodeLight(byte[] page) {
+        if (offsets == null) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize / 4);
+        DataOutputStream out = new DataOutputStream(baos);
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        try {
+            out.writeByte(LIGHT);
+            out.write(page, 0, headerSize);
+            for (int j = 0; j < offsets.length; j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    int[] values = new int[offsets[j].length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = buf.getInt(offsets[j][i]);
+                    }
+                    encodeInts(values, out);
+                } else {
+                    String[] values = new String[offsets[j].length];
+                    for (int i = 0; i < values.length; i++) {
+                        int len = buf.getInt(offsets[j][i]);
+                        if (len < 0 || len > Type.STRING_LEN) {
+                            return null;
+                        }
+                        values[i] = new String(page, offsets[j][i] + 4, len, "ISO-8859-1");
+                    }
+                    encodeStrings(values, out);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // can't happen with a ByteArrayOutputStream
+            throw new RuntimeException(e);
+        }
+        byte[] rec = baos.toByteArray();
+
+        // the encodings assume zeroed padding; check that they reproduce the page
+        byte[] check = new byte[pageSize];
+        try {
+            decodeLight(ByteBuffer.wrap(rec, 1, rec.length - 1), check);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return Arrays.equals(check, page) ? rec : null;
+    }
+
+    private void decodeLight(ByteBuffer in, byte[] page) {
+        Arrays.fill(page, (byte) 0);
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        in.get(page, 0, headerSize);
+        for (int j = 0; j < offsets.length; j++) {
+            int n = offsets[j].length;
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                int[] values = decodeInts(in, n);
+                for (int i = 0; i < n; i++) {
+                    buf.putInt(offsets[j][i], values[i]);
+                }
+            } else {
+                byte[][] values = decodeStrings(in, n);
+                for (int i = 0; i < n; i++) {
+                    buf.putInt(offsets[j][i], values[i].length);
+                    System.arraycopy(values[i], 0, page, offsets[j][i] + 4, values[i].length);
+                }
+            }
+        }
+    }
+
+    private static void encodeInts(int[] values, DataOutputStream out) throws IOException {
+        int n = values.length;
+        int runs = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        LinkedHashMap<Integer, Integer> dict = new LinkedHashMap<Integer, Integer>();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                runs++;
+            }
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            if (dict.size() <= 256 && !dict.containsKey(values[i])) {
+                dict.put(values[i], dict.size());
+            }
+        }
+        int bits = bitsFor((long) max - min);
+        int rleSize = 4 + runs * 6;
+        int dictSize = dict.size() <= 256 ? 1 + dict.size() * 4 + n : Integer.MAX_VALUE;
+        int forSize = 5 + (int) (((long) n * bits + 7) / 8);
+
+        if (rleSize <= dictSize && rleSize <= forSize) {
+            out.writeByte(INT_RLE);
+            out.writeInt(runs);
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i == n || values[i] != values[start]) {
+                    out.writeInt(values[start]);
+                    out.writeShort(i - start);
+                    start = i;
+                }
+            }
+        } else if (dictSize <= forSize) {
+            out.writeByte(INT_DICT);
+            out.writeByte(dict.size() - 1);
+            for (Integer v : dict.keySet()) {
+                out.writeInt(v);
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeByte(dict.get(values[i]));
+            }
+        } else {
+            out.writeByte(INT_FOR);
+            out.writeInt(min);
+            out.writeByte(bits);
+            long acc = 0;
+            int nbits = 0;
+            for (int i = 0; i < n; i++) {
+                acc |= ((long) values[i] - min) << nbits;
+                nbits += bits;
+                while (nbits >= 8) {
+                    out.writeByte((int) acc);
+                    acc >>>= 8;
+                    nbits -= 8;
+                }
+            }
+            if (nbits > 0) {
+                out.writeByte((int) acc);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bits needed to store values from 0 to range.
+     */
+    private static int bitsFor(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static int[] decodeInts(ByteBuffer in, int n) {
+        int[] values = new int[n];
+        byte enc = in.get();
+        if (enc == INT_RLE) {
+            int runs = in.getInt();
+            int i = 0;
+            for (int r = 0; r < runs; r++) {
+                int v = in.getInt();
+                int count = in.getShort() & 0xffff;
+                Arrays.fill(values, i, i + count, v);
+                i += count;
+            }
+        } else if (enc == INT_DICT) {
+            int[] dict = new int[(in.get() & 0xff) + 1];
+            for (int d = 0; d < dict.length; d++) {
+                dict[d] = in.getInt();
+            }
+            for (int i = 0; i < n; i++) {
+                values[i] = dict[in.get() & 0xff];
+            }
+        } else if (enc == INT_FOR) {
+            int min = in.getInt();
+            int bits = in.get();
+            long mask = (1L << bits) - 1;
+            long acc = 0;
+            int nbits = 0;
+            for (int i = 0; i < n; i++) {
+                while (nbits < bits) {
+                    acc |= (long) (in.get() & 0xff) << nbits;
+                    nbits += 8;
+                }
+                values[i] = (int) (min + (acc & mask));
+                acc >>>= bits;
+                nbits -= bits;
+            }
+        } else {
+            throw new IllegalStateException("unknown int column encoding " + enc);
+        }
+        return values;
+    }
+
+    private static void encodeStrings(String[] values, DataOutputStream out) throws IOException {
+        int n = values.length;
+        int plainSize = 0;
+        LinkedHashMap<String, Integer> dict = new LinkedHashMap<String, Integer>();
+        int dictSize = 1 + n;
+        for (int i = 0; i < n; i++) {
+            plainSize += 1 + values[i].length();
+            if (dict.size() <= 256 && !dict.containsKey(values[i])) {
+                dict.put(values[i], dict.size());
+                dictSize += 1 + values[i].length();
+            }
+        }
+        if (dict.size() <= 256 && dictSize < plainSize) {
+            out.writeByte(STRING_DICT);
+            out.writeByte(dict.size() - 1);
+            for (String s : dict.keySet()) {
+                writeString(s, out);
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeByte(dict.get(values[i]));
+            }
+        } else {
+            out.writeByte(STRING_PLAIN);
+            for (int i = 0; i < n; i++) {
+                writeString(values[i], out);
+            }
+        }
+    }
+
+    private static void writeString(String s, DataOutputStream out) throws IOException {
+        out.writeByte(s.length());
+        out.write(s.getBytes("ISO-8859-1"));
+    }
+
+    private static byte[] readString(ByteBuffer in) {
+        byte[] bs = new byte[in.get() & 0xff];
+        in.get(bs);
+        return bs;
+    }
+
+    private static byte[][] decodeStrings(ByteBuffer in, int n) {
+        byte[][] values = new byte[n][];
+        byte enc = in.get();
+        if (enc == STRING_DICT) {
+            byte[][] dict = new byte[(in.get() & 0xff) + 1][];
+            for (int d = 0; d < dict.length; d++) {
+                dict[d] = readString(in);
+            }
+            for (int i = 0; i < n; i++) {
+                values[i] = dict[in.get() & 0xff];
+            }
+        } else if (enc == STRING_PLAIN) {
+            for (int i = 0; i < n; i++) {
+                values[i] = readString(in);
+            }
+        } else {
+            throw new IllegalStateException("unknown string column encoding " + enc);
+        }
+        return values;
+    }
+
+    private byte[] deflate(byte[] rec) {
+        ZStream z = new ZStream();
+        z.deflateInit(JZlib.Z_BEST_COMPRESSION);
+        byte[] out = new byte[rec.length + rec.length / 100 + 64];
+        out[0] = DEFLATE;
+        z.next_in = rec;
+        z.next_in_index = 0;
+        z.avail_in = rec.length;
+        z.next_out = out;
+        z.next_out_index = 1;
+        z.avail_out = out.length - 1;
+        int err = z.deflate(JZlib.Z_FINISH);
+        z.deflateEnd();
+        if (err != JZlib.Z_STREAM_END) {
+            // didn't fit; the caller keeps the uncompressed record
+            return rec;
+        }
+        return Arrays.copyOf(out, (int) z.total_out + 1);
+    }
+
+    private byte[] inflate(byte[] rec, int len) throws IOException {
+        ZStream z = new ZStream();
+        z.inflateInit();
+        byte[] out = new byte[pageSize + 1];
+        z.next_in = rec;
+        z.next_in_index = 1;
+        z.avail_in = len - 1;
+        z.next_out = out;
+        z.next_out_index = 0;
+        z.avail_out = out.length;
+        int err = z.inflate(JZlib.Z_FINISH);
+        z.inflateEnd();
+        if (err != JZlib.Z_STREAM_END) {
+            throw new IOException("inflate failed: " + err + " " + z.msg);
+        }
+        return Arrays.copyOf(out, (int) z.total_out);
+    }
+}
@@ -0,0 +1,323 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * CompressedPageIO stores the pages of a table compressed with a
+ * ColumnCodec, and decompresses them into full page images on read, so the
+ * buffer pool and the page classes never see compressed data.
+ * <p>
+ * Compressed pages have different lengths, so the data file is a sequence
+ * of records and a sidecar index file, named after the data file with
+ * <tt>.idx</tt> appended, maps each page number to the offset, length and
+ * allocated capacity of its record. Both files start with a magic number.
+ * A page that is written back and still fits its capacity is overwritten in
+ * place; otherwise it moves to the end of the data file, with some room to
+ * grow. The record is always written before the index entry pointing to it.
+ * <p>
+ * A data file that is not compressed yet, such as one written by
+ * HeapFileEncoder, is compressed the first time it is opened; the original
+ * is kept until its compressed version has replaced it. A data file that
+ * is compressed but has lost its index, e.g. because it was copied without
+ * it, can't be read.
+ *
+ * @see PageCompression
+ * @see ColumnCodec
+ */
+public class CompressedPageIO extends ChannelPageIO {
+
+    private static final int MAGIC = 0x53444243; // "SDBC"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 16;
+
+    private final File indexFile;
+    private final ColumnCodec codec;
+    private final PageCompression compression;
+
+    private boolean loaded = false;
+    private int numPages = 0;
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    private long end = FILE_HEADER_SIZE;
+    private RandomAccessFile index = null;
+
+    /**
+     * @param f the data file
+     * @param pageSize the size of an uncompressed page image
+     * @param td the schema of the table
+     * @param format the page format of the table
+     * @param compression how to compress cold pages
+     */
+    public CompressedPageIO(File f, int pageSize, TupleDesc td, PageFormat format, PageCompression compression) {
+        super(f, pageSize);
+        this.indexFile = indexFile(f);
+        this.codec = new ColumnCodec(td, format, pageSize);
+        this.compression = compression;
+    }
+
+    /**
+     * @return the index file of the compressed data file f.
+     */
+    public static File indexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /**
+     * Read the index, compressing the data file first if needed.
+     */
+    private synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        if (f.length() > 0 && !isCompressed()) {
+            compressFile();
+        }
+        if (f.length() > 0) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                checkHeader(in.readInt(), in.readInt(), indexFile);
+                int n = (int) ((indexFile.length() - FILE_HEADER_SIZE) / ENTRY_SIZE);
+                grow(n);
+                end = f.length();
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    capacities[i] = in.readInt();
+                    end = Math.max(end, offsets[i] + capacities[i]);
+                }
+                numPages = n;
+            } finally {
+                in.close();
+            }
+        }
+        loaded = true;
+    }
+
+    private static void checkHeader(int magic, int version, File file) throws IOException {
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException(file + " is not a compressed table file");
+        }
+    }
+
+    /**
+     * @return true if f starts with the magic number and has an index.
+     * @throws IOException if f starts with the magic number but has no
+     *   index, as compressing it again would garble it
+     */
+    private boolean isCompressed() throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        boolean magic;
+        try {
+            magic = f.length() >= 4 && in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+        if (magic && !indexFile.exists()) {
+            throw new IOException(f + " is compressed, but its index " + indexFile + " is missing");
+        }
+        return magic;
+    }
+
+    /**
+     * Replace the uncompressed pages in f by a compressed data file and its
+     * index. These pages are cold, so they are deflated if the compression
+     * asks for it.
+     */
+    private void compressFile() throws IOException {
+        super.close();
+        File tmpData = new File(f.getPath() + ".tmp");
+        File tmpIndex = new File(indexFile.getPath() + ".tmp");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpData)));
+        DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndex)));
+        boolean written = false;
+        try {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            idx.writeInt(MAGIC);
+            idx.writeInt(VERSION);
+            long off = FILE_HEADER_SIZE;
+            int pages = (int) ((f.length() + pageSize - 1) / pageSize);
+            byte[] page = new byte[pageSize];
+            for (int i = 0; i < pages; i++) {
+                Arrays.fill(page, (byte) 0);
+                int n = 0;
+                while (n < pageSize) {
+                    int r = in.read(page, n, pageSize - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                byte[] rec = codec.encode(page, compression == PageCompression.DEFLATE);
+                data.write(rec);
+                idx.writeLong(off);
+                idx.writeInt(rec.length);
+                idx.writeInt(rec.length);
+                off += rec.length;
+            }
+            written = true;
+        } finally {
+            in.close();
+            data.close();
+            idx.close();
+            if (!written) {
+                tmpData.delete();
+                tmpIndex.delete();
+            }
+        }
+        // the index is replaced first: until the data file is replaced too,
+        // the data file lacks the magic number and is compressed again
+        replace(tmpIndex, indexFile);
+        replace(tmpData, f);
+    }
+
+    /**
+     * Replaces a file by another one. Where renameTo doesn't replace files,
+     * the old file is moved aside first, and only deleted once the new one
+     * took its place.
+     */
+    private static void replace(File from, File to) throws IOException {
+        if (from.renameTo(to)) {
+            return;
+        }
+        File old = new File(to.getPath() + ".old");
+        if (!to.renameTo(old)) {
+            throw new IOException("failed to replace " + to + " by " + from);
+        }
+        if (!from.renameTo(to)) {
+            old.renameTo(to);
+            throw new IOException("failed to replace " + to + " by " + from);
+        }
+        old.delete();
+    }
+
+    private void grow(int n) {
+        if (n > offsets.length) {
+            int cap = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+            capacities = Arrays.copyOf(capacities, cap);
+        }
+    }
+
+    public void readPage(int pgNo, byte[] data) throws IOException {
+        load();
+        byte[] rec;
+        // a write back may overwrite the record in place
+        synchronized (this) {
+            if (pgNo >= numPages || lengths[pgNo] == 0) {
+                return;
+            }
+            rec = new byte[lengths[pgNo]];
+            ByteBuffer buf = ByteBuffer.wrap(rec);
+            FileChannel ch = channel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offsets[pgNo] + buf.position()) < 0) {
+                    throw new IOException("page " + pgNo + " of " + f + " is truncated");
+                }
+            }
+        }
+        codec.decode(rec, rec.length, data);
+    }
+
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        load();
+        // pages written back by the buffer pool are hot: light encodings only
+        byte[] rec = codec.encode(data, false);
+        synchronized (this) {
+            FileChannel ch = channel();
+            if (ch.size() == 0) {
+                ch.write((ByteBuffer) ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+                index().setLength(0);
+                index().writeInt(MAGIC);
+                index().writeInt(VERSION);
+            }
+            if (pgNo >= numPages) {
+                grow(pgNo + 1);
+                numPages = pgNo + 1;
+            }
+            if (rec.length > capacities[pgNo]) {
+                offsets[pgNo] = end;
+                capacities[pgNo] = rec.length + rec.length / 8;
+                end += capacities[pgNo];
+            }
+            lengths[pgNo] = rec.length;
+            ByteBuffer buf = ByteBuffer.wrap(rec);
+            while (buf.hasRemaining()) {
+                ch.write(buf, offsets[pgNo] + buf.position());
+            }
+            // pages skipped over by this write get empty entries
+            int entries = (int) ((index().length() - FILE_HEADER_SIZE) / ENTRY_SIZE);
+            for (int i = Math.min(entries, pgNo); i <= pgNo; i++) {
+                writeEntry(i);
+            }
+        }
+    }
+
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        // every page is compressed on its own anyway
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < npages; i++) {
+            System.arraycopy(data, i * pageSize, page, 0, pageSize);
+            writePage(pgNo + i, page);
+        }
+    }
+
+    private void writeEntry(int pgNo) throws IOException {
+        RandomAccessFile idx = index();
+        idx.seek(FILE_HEADER_SIZE + (long) pgNo * ENTRY_SIZE);
+        idx.writeLong(offsets[pgNo]);
+        idx.writeInt(lengths[pgNo]);
+        idx.writeInt(capacities[pgNo]);
+    }
+
+    /**
+     * @return the open index file, opening it on first use.
+     */
+    private synchronized RandomAccessFile index() throws IOException {
+        if (index == null) {
+            index = new RandomAccessFile(indexFile, "rw");
+        }
+        return index;
+    }
+
+    /**
+     * @return the uncompressed length of the table: the number of pages
+     *   times the page size.
+     */
+    public long length() throws IOException {
+        load();
+        synchronized (this) {
+            return (long) numPages * pageSize;
+        }
+    }
+
+    /**
+     * @return the number of bytes the table takes on disk, including its
+     *   index.
+     */
+    public long storedLength() {
+        return f.length() + indexFile.length();
+    }
+
+    public synchronized void force() throws IOException {
+        super.force();
+        if (index != null) {
+            index.getChannel().force(false);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        super.close();
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+}
@@ -16,11 +16,43 @@ public class Database {
     private BufferPool _bufferpool; 
 
     private final static String LOGFILENAME = "log";
+    /**
+     * The system property that sets the number of bytes of an off-heap
+     * buffer pool, see {@link BufferPool#offHeap}; without it the pool
+     * keeps {@link BufferPool#DEFAULT_PAGES} pages on the heap.
+     */
+    public final static String POOLBYTESPROPERTY = "simpledb.bufferpool.bytes";
+    /**
+     * The system property that selects the replacement policy of the
+     * buffer pool, one of those parsed by
+     * {@link ReplacementPolicy.Kind#parse}; LRU by default.
+     */
+    public final static String POOLPOLICYPROPERTY = "simpledb.bufferpool.policy";
+    private final ReplacementPolicy.Kind _policy;
+    /**
+     * The system property that turns on STEAL mode when "true", see
+     * {@link BufferPool#setSteal}. An abort can't undo the pages STEAL
+     * wrote back, so NO STEAL is the default.
+     */
+    public final static String POOLSTEALPROPERTY = "simpledb.bufferpool.steal";
+    private final boolean _steal;
+    /**
+     * The system property that turns on the background writing of dirty
+     * pages when "true", see {@link PageCleaner}. It writes uncommitted
+     * pages, which only STEAL mode allows, so it is off by default.
+     */
+    public final static String POOLCLEANERPROPERTY = "simpledb.bufferpool.cleaner";
+    private final boolean _cleaner;
     private LogFile _logfile;
 
     private Database() {
     	_catalog = new Catalog();
-    	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	_policy = ReplacementPolicy.Kind.parse(System.getProperty(POOLPOLICYPROPERTY, "lru"));
+    	_steal = Boolean.parseBoolean(System.getProperty(POOLSTEALPROPERTY, "false"));
+    	_cleaner = Boolean.parseBoolean(System.getProperty(POOLCLEANERPROPERTY, "false"));
+    	Long poolBytes = Long.getLong(POOLBYTESPROPERTY);
+    	install(poolBytes == null ? new BufferPool(BufferPool.DEFAULT_PAGES, _policy)
+    	        : BufferPool.offHeap(poolBytes, _policy));
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -50,12 +82,42 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
-        _instance._bufferpool = new BufferPool(pages);
-        return _instance._bufferpool;
+        return resetBufferPool(pages, _instance._policy);
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the specified replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        return _instance.install(new BufferPool(pages, policy));
+    }
+
+    /** Method used for testing -- create a new off-heap buffer pool of
+        the specified number of bytes and return it
+    */
+    public static BufferPool resetOffHeapBufferPool(long bytes) {
+        return _instance.install(BufferPool.offHeap(bytes, _instance._policy));
+    }
+
+    /**
+     * Makes a new pool the buffer pool, in the modes the properties set,
+     * and stops the cleaner of the one it replaces.
+     */
+    private BufferPool install(BufferPool pool) {
+        if (_bufferpool != null) {
+            _bufferpool.setCleaner(null);
+        }
+        pool.setSteal(_steal);
+        if (_cleaner) {
+            pool.setCleaner(new PageCleaner(pool));
+        }
+        _bufferpool = pool;
+        return pool;
     }
 
     //reset the database, used for unit tests only.
     public static void reset() {
+    	_instance._bufferpool.setCleaner(null);
     	_instance = new Database();
     }
 
@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.io.File;
+
+/**
+ * The interface for secondary indexes. An index is a DbFile whose tuples are
+ * entries of the form (key, page, slot): the value of the key field of a
+ * record of the indexed table, and the page number and slot of that record.
+ * <p>
+ * Inserting or deleting a tuple of the indexed table through the index adds
+ * or removes the entry for that tuple, whose RecordId must be set.
+ * BufferPool does so for every index of a table that the {@link Catalog}
+ * knows of, so indexes stay in sync with inserts and deletes.
+ *
+ * @see IndexScan
+ */
+public interface DbIndex extends DbFile {
+
+    /** The positions of the fields of an index entry. */
+    public static final int KEY = 0;
+    public static final int PAGE = 1;
+    public static final int SLOT = 2;
+
+    /**
+     * @return the id of the table this index is on
+     */
+    public int getIndexedTableId();
+
+    /**
+     * @return the position of the indexed field in the tuples of the table
+     */
+    public int getKeyField();
+
+    /**
+     * @return the file the index is stored in
+     */
+    public File getFile();
+
+    /**
+     * @return true if lookup can answer predicates with the specified operator
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * @return the number of index pages a lookup reads before it reaches
+     *   the first matching entry
+     */
+    public int probeCost();
+
+    /**
+     * Returns an iterator over the entries whose key satisfies
+     * <tt>key op operand</tt>.
+     *
+     * @throws UnsupportedOperationException if the index doesn't support op
+     */
+    public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field operand);
+}
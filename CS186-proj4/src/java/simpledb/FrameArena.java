@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FrameArena is a fixed amount of direct memory, outside of the Java heap,
+ * cut into frames of the same size. The BufferPool reads pages into frames
+ * and keeps them as views over their frames, so the pages it caches are
+ * neither decoded into objects nor copied into arrays that the garbage
+ * collector has to trace and move.
+ * <p>
+ * The memory is allocated once, in chunks of at most CHUNK_BYTES, as a
+ * ByteBuffer can't be larger than 2GB. Frames are handed out and freed by
+ * number; it is up to the caller not to use a frame after freeing it.
+ *
+ * @see BufferPool#offHeap
+ */
+public class FrameArena {
+
+    /** The largest number of bytes allocated at once. */
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final int[] free;
+    private int numFree;
+
+    /**
+     * Allocates an arena of bytes / frameSize frames.
+     *
+     * @param bytes the number of bytes of the arena
+     * @param frameSize the number of bytes per frame
+     * @throws IllegalArgumentException if the arena has no frames, or too
+     *   many to number
+     */
+    public FrameArena(long bytes, int frameSize) {
+        if (frameSize <= 0 || bytes / frameSize < 1 || bytes / frameSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("can't cut " + bytes + " bytes into frames of " + frameSize);
+        }
+        this.frameSize = frameSize;
+        this.numFrames = (int) (bytes / frameSize);
+        this.framesPerChunk = Math.max(1, CHUNK_BYTES / frameSize);
+        this.chunks = new ByteBuffer[(numFrames + framesPerChunk - 1) / framesPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.free = new int[numFrames];
+        // hand out the low frames first
+        for (int i = 0; i < numFrames; i++) {
+            free[i] = numFrames - 1 - i;
+        }
+        this.numFree = numFrames;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int numFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames not handed out
+     */
+    public synchronized int numFree() {
+        return numFree;
+    }
+
+    /**
+     * @return the number of bytes of the arena
+     */
+    public long bytes() {
+        return (long) numFrames * frameSize;
+    }
+
+    /**
+     * Hands out a free frame.
+     *
+     * @return the number of the frame, or -1 if all frames are in use
+     */
+    public synchronized int allocate() {
+        return numFree == 0 ? -1 : free[--numFree];
+    }
+
+    /**
+     * Takes back a frame handed out by {@link #allocate}.
+     *
+     * @throws IllegalArgumentException if the frame is not handed out
+     */
+    public synchronized void free(int frame) {
+        if (frame < 0 || frame >= numFrames || numFree == numFrames) {
+            throw new IllegalArgumentException("frame " + frame + " is not in use");
+        }
+        free[numFree++] = frame;
+    }
+
+    /**
+     * Returns a view of the first length bytes of a frame, from position 0
+     * to limit length. Views share the memory of the frame but not their
+     * positions, so each user can take its own.
+     *
+     * @param frame the number of the frame
+     * @param length the number of bytes of the view, at most the frame size
+     */
+    public ByteBuffer frame(int frame, int length) {
+        if (length > frameSize) {
+            throw new IllegalArgumentException(length + " bytes don't fit in a frame of " + frameSize);
+        }
+        ByteBuffer view = chunks[frame / framesPerChunk].duplicate();
+        int start = (frame % framesPerChunk) * frameSize;
+        view.limit(start + length);
+        view.position(start);
+        return view.slice();
+    }
+}
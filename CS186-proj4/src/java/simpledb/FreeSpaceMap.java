@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * FreeSpaceMap tracks how many empty slots each page of a HeapFile has, so
+ * that an insert can go straight to a page with room instead of reading
+ * every page of the table.
+ * <p>
+ * The map is kept in memory and persisted in a sidecar file named after
+ * the data file with <tt>.fsm</tt> appended, holding a 2 byte count per
+ * page. A page's entry is written when the page itself is written, so the
+ * sidecar describes the pages on disk. Pages without an entry, such as
+ * those of a table without a sidecar, are of unknown free space and are
+ * treated as candidates until an insert has looked at them.
+ * <p>
+ * The map is only a hint: HeapFile checks the page before inserting into
+ * it, and corrects the map when it was wrong.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** The count of a page whose free space is not known. */
+    public static final int UNKNOWN = 0xffff;
+
+    private final File file;
+    private int[] free;
+    private int numPages;
+    /** Pages that have, or may have, empty slots. */
+    private final BitSet candidates = new BitSet();
+    private RandomAccessFile raf = null;
+
+    /**
+     * Load the free space map of a data file.
+     *
+     * @param dataFile the data file of the table
+     * @param numPages the number of pages of the table
+     */
+    public FreeSpaceMap(File dataFile, int numPages) {
+        this.file = mapFile(dataFile);
+        this.numPages = numPages;
+        this.free = new int[Math.max(numPages, 16)];
+        Arrays.fill(free, UNKNOWN);
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    int n = (int) Math.min(numPages, file.length() / 2);
+                    for (int i = 0; i < n; i++) {
+                        free[i] = in.readUnsignedShort();
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // the map is only a hint; pages we couldn't read stay unknown
+                e.printStackTrace();
+            }
+        }
+        for (int i = 0; i < numPages; i++) {
+            if (free[i] != 0) {
+                candidates.set(i);
+            }
+        }
+    }
+
+    /**
+     * @return the sidecar file of the free space map of dataFile.
+     */
+    public static File mapFile(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    /**
+     * @return the number of a page that has, or may have, an empty slot, or
+     *   -1 if every page is known to be full.
+     */
+    public synchronized int findPage() {
+        int i = candidates.nextSetBit(0);
+        return i < numPages ? i : -1;
+    }
+
+    /**
+     * @return the number of empty slots of page pgNo, or -1 if not known.
+     */
+    public synchronized int getFreeSlots(int pgNo) {
+        if (pgNo >= numPages || free[pgNo] == UNKNOWN) {
+            return -1;
+        }
+        return free[pgNo];
+    }
+
+    /**
+     * @return the count to store for freeSlots empty slots, which may be
+     *   UNKNOWN.
+     */
+    private static int clamp(int freeSlots) {
+        return freeSlots == UNKNOWN ? UNKNOWN : Math.min(freeSlots, UNKNOWN - 1);
+    }
+
+    /**
+     * Record that page pgNo now has freeSlots empty slots, or UNKNOWN. Pages past the
+     * end of the table extend it.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        if (pgNo >= free.length) {
+            int old = free.length;
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, old * 2));
+            Arrays.fill(free, old, free.length, UNKNOWN);
+        }
+        numPages = Math.max(numPages, pgNo + 1);
+        free[pgNo] = clamp(freeSlots);
+        candidates.set(pgNo, freeSlots > 0);
+    }
+
+    /**
+     * Persist the entry of page pgNo, with freeSlots empty slots as written
+     * to disk.
+     */
+    public synchronized void write(int pgNo, int freeSlots) throws IOException {
+        write(pgNo, new int[] {freeSlots}, 1);
+    }
+
+    /**
+     * Persist the entries of n consecutive pages starting with pgNo in one
+     * write.
+     *
+     * @param freeSlots the empty slots of each page as written to disk
+     */
+    public synchronized void write(int pgNo, int[] freeSlots, int n) throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        long len = raf.length();
+        if (len < 2L * pgNo) {
+            // pages between the old end of the map and pgNo are unknown
+            raf.seek(len & ~1L);
+            for (long i = len / 2; i < pgNo; i++) {
+                raf.writeShort(UNKNOWN);
+            }
+        }
+        byte[] entries = new byte[2 * n];
+        for (int i = 0; i < n; i++) {
+            int count = clamp(freeSlots[i]);
+            entries[2 * i] = (byte) (count >>> 8);
+            entries[2 * i + 1] = (byte) count;
+        }
+        raf.seek(2L * pgNo);
+        raf.write(entries);
+    }
+
+    /**
+     * Close the sidecar file. It is reopened when needed.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of HashBucketPage stores one page of a bucket of a
+ * {@link HashIndexFile} and implements the Page interface that is used by
+ * BufferPool.
+ * <p>
+ * A page starts with an 8 byte header:
+ * <pre>
+ *     byte   unused
+ *     byte   depth     the local depth of the bucket
+ *     short  n         the number of entries
+ *     int    overflow  the next page of the bucket, or NONE
+ * </pre>
+ * followed by n entries of 12 bytes (key, page, slot) in no particular
+ * order. A bucket is its primary page, which the directory points to, and
+ * the overflow pages chained to it; only the local depth of the primary
+ * page is used.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage implements Page {
+
+    /** No overflow page. */
+    public static final int NONE = -1;
+
+    static final int HEADER_SIZE = 8;
+    static final int ENTRY_SIZE = 12;
+
+    /** The number of entries a page holds. */
+    public static final int CAPACITY = (BufferPool.PAGE_SIZE - HEADER_SIZE) / ENTRY_SIZE;
+
+    private HashPageId pid;
+    private int depth;
+    private int n;
+    private int overflow;
+    private int[] keys = new int[CAPACITY];
+    private int[] recPages = new int[CAPACITY];
+    private int[] recSlots = new int[CAPACITY];
+
+    private byte[] oldData;
+    private TransactionId lastDirtyTid = null;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the page is not a page of a hash index
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.depth = buf.get(1);
+        this.n = buf.getShort(2);
+        this.overflow = buf.getInt(4);
+        if (n < 0 || n > CAPACITY) {
+            throw new IOException("bad entry count " + n + " on page " + id.pageNumber());
+        }
+        buf.position(HEADER_SIZE);
+        for (int i = 0; i < n; i++) {
+            keys[i] = buf.getInt();
+            recPages[i] = buf.getInt();
+            recSlots[i] = buf.getInt();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the image of an empty page of a bucket of the specified local depth
+     */
+    public static byte[] createEmptyPageData(int depth) {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        buf.put(1, (byte) depth);
+        buf.putInt(4, NONE);
+        return buf.array();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public int getLocalDepth() {
+        return depth;
+    }
+
+    public void setLocalDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /** @return the next page of the bucket, or NONE */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(int pgNo) {
+        overflow = pgNo;
+    }
+
+    public int getNumEntries() {
+        return n;
+    }
+
+    public boolean isFull() {
+        return n == CAPACITY;
+    }
+
+    public int getKey(int i) {
+        return keys[i];
+    }
+
+    public int getRecordPage(int i) {
+        return recPages[i];
+    }
+
+    public int getRecordSlot(int i) {
+        return recSlots[i];
+    }
+
+    /**
+     * @return the position of the entry on this page, or -1
+     */
+    public int indexOf(int key, int page, int slot) {
+        for (int i = 0; i < n; i++) {
+            if (keys[i] == key && recPages[i] == page && recSlots[i] == slot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add an entry to a page that isn't full.
+     */
+    public void addEntry(int key, int page, int slot) {
+        if (isFull()) {
+            throw new IllegalStateException("page " + pid.pageNumber() + " is full");
+        }
+        keys[n] = key;
+        recPages[n] = page;
+        recSlots[n] = slot;
+        n++;
+    }
+
+    /**
+     * Remove entry i; the last entry takes its place.
+     */
+    public void removeEntry(int i) {
+        n--;
+        keys[i] = keys[n];
+        recPages[i] = recPages[n];
+        recSlots[i] = recSlots[n];
+    }
+
+    /** Remove all entries. */
+    public void clear() {
+        n = 0;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        buf.put(1, (byte) depth);
+        buf.putShort(2, (short) n);
+        buf.putInt(4, overflow);
+        buf.position(HEADER_SIZE);
+        for (int i = 0; i < n; i++) {
+            buf.putInt(keys[i]);
+            buf.putInt(recPages[i]);
+            buf.putInt(recSlots[i]);
+        }
+        return buf.array();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, oldData.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        lastDirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return lastDirtyTid;
+    }
+}
@@ -0,0 +1,628 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one INT field of a table,
+ * whose entries are (key, page, slot) tuples; see {@link DbIndex}. It only
+ * answers equality lookups, but answers them by reading a single bucket.
+ * <p>
+ * The directory maps the low globalDepth bits of the hash of a key to the
+ * primary page of a bucket, and is small enough to be kept in memory. It
+ * is persisted in a sidecar file named after the index file with
+ * <tt>.dir</tt> appended, holding the global depth followed by the page
+ * number of every directory entry, and rewritten whenever a bucket split
+ * changes it. The pages of the buckets are read and modified through the
+ * BufferPool; their format is described in {@link HashBucketPage}. The
+ * pages an operation gets from the BufferPool stay pinned until it is done
+ * with them.
+ * <p>
+ * A full bucket is split in two on the next bit of the hash, doubling the
+ * directory if needed. A bucket whose entries all have the same key can't
+ * be split, and grows a chain of overflow pages instead. Buckets are never
+ * merged.
+ *
+ * @see HashBucketPage
+ */
+public class HashIndexFile implements DbIndex {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The largest global depth; past it, buckets overflow instead of splitting. */
+    static final int MAX_DEPTH = 20;
+
+    private File f = null;
+    private File dirFile = null;
+    private int tableId = 0;
+    private int keyField = 0;
+    private TupleDesc td = null;
+    private PageIO io = null;
+    private int numPages = 0;
+    private int globalDepth = 0;
+    private int[] dir = null;
+    private ReentrantReadWriteLock indexLock = null;
+
+    /**
+     * Opens the hash index stored in the specified file, creating an empty
+     * one if the file is empty. An existing file must have been built for
+     * the same table and field.
+     *
+     * @param f the file that stores the buckets of the index
+     * @param table the table the index is on
+     * @param keyField the position of the indexed field in the tuples of table
+     * @throws IllegalArgumentException if the field is not an INT field
+     */
+    public HashIndexFile(File f, DbFile table, int keyField) {
+        TupleDesc tableTd = table.getTupleDesc();
+        if (tableTd.getFieldType(keyField) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("hash index keys must be INT, "
+                    + tableTd.getFieldName(keyField) + " is " + tableTd.getFieldType(keyField));
+        }
+        this.f = f;
+        this.dirFile = directoryFile(f);
+        this.tableId = table.getId();
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {tableTd.getFieldName(keyField), "page", "slot"});
+        this.indexLock = new ReentrantReadWriteLock(true);
+        try {
+            this.io = PageIO.Mode.CHANNEL.open(f, BufferPool.PAGE_SIZE);
+            this.numPages = (int) (io.length() / BufferPool.PAGE_SIZE);
+            if (numPages == 0) {
+                // a single bucket that every key hashes to
+                io.writePage(0, HashBucketPage.createEmptyPageData(0));
+                numPages = 1;
+                globalDepth = 0;
+                dir = new int[] {0};
+                writeDirectory();
+            } else {
+                readDirectory();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open " + f + ": " + e);
+        }
+    }
+
+    /**
+     * Builds a hash index on a field of a table from scratch, replacing the
+     * contents of the file. The directory is sized so that buckets start
+     * out about three quarters full, and every bucket is written once.
+     *
+     * @param f the file to store the index in
+     * @param table the table to index
+     * @param keyField the position of the indexed field in the tuples of table
+     * @return the new index
+     */
+    public static HashIndexFile build(File f, DbFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        int[] keys = new int[1024];
+        int[] pages = new int[1024];
+        int[] slots = new int[1024];
+        int n = 0;
+        DbFileIterator it = table.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * n);
+                pages = Arrays.copyOf(pages, 2 * n);
+                slots = Arrays.copyOf(slots, 2 * n);
+            }
+            RecordId rid = t.getRecordId();
+            keys[n] = ((IntField) t.getField(keyField)).getValue();
+            pages[n] = rid.getPageId().pageNumber();
+            slots[n] = rid.tupleno();
+            n++;
+        }
+        it.close();
+
+        int depth = 0;
+        while (depth < MAX_DEPTH && (long) n * 4 > (3L * HashBucketPage.CAPACITY) << depth) {
+            depth++;
+        }
+        int buckets = 1 << depth;
+        int mask = buckets - 1;
+        // counting sort of the entries by bucket
+        int[] start = new int[buckets + 1];
+        for (int i = 0; i < n; i++) {
+            start[(hash(keys[i]) & mask) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            start[b + 1] += start[b];
+        }
+        int[] order = new int[n];
+        int[] fill = Arrays.copyOf(start, buckets);
+        for (int i = 0; i < n; i++) {
+            order[fill[hash(keys[i]) & mask]++] = i;
+        }
+
+        File dirFile = directoryFile(f);
+        if ((f.exists() && !f.delete()) || (dirFile.exists() && !dirFile.delete())) {
+            throw new IOException("failed to replace " + f);
+        }
+        int fileId = f.getAbsoluteFile().hashCode();
+        PageIO out = PageIO.Mode.CHANNEL.open(f, BufferPool.PAGE_SIZE);
+        try {
+            // bucket b starts on page b; its overflow pages follow all the buckets
+            int nextOverflow = buckets;
+            for (int b = 0; b < buckets; b++) {
+                int pgNo = b;
+                int i = start[b];
+                do {
+                    HashBucketPage page = new HashBucketPage(new HashPageId(fileId, pgNo),
+                            HashBucketPage.createEmptyPageData(depth));
+                    for (int end = Math.min(start[b + 1], i + HashBucketPage.CAPACITY); i < end; i++) {
+                        page.addEntry(keys[order[i]], pages[order[i]], slots[order[i]]);
+                    }
+                    int next = HashBucketPage.NONE;
+                    if (i < start[b + 1]) {
+                        next = nextOverflow++;
+                        page.setOverflow(next);
+                    }
+                    out.writePage(pgNo, page.getPageData());
+                    pgNo = next;
+                } while (i < start[b + 1]);
+            }
+        } finally {
+            out.close();
+        }
+        int[] dir = new int[buckets];
+        for (int b = 0; b < buckets; b++) {
+            dir[b] = b;
+        }
+        writeDirectory(dirFile, depth, dir);
+        return new HashIndexFile(f, table, keyField);
+    }
+
+    /**
+     * @return the sidecar file of the directory of the index stored in f.
+     */
+    public static File directoryFile(File f) {
+        return new File(f.getPath() + ".dir");
+    }
+
+    /**
+     * Scrambles the bits of a key, so that the low bits of the hash depend
+     * on all of them. The mapping is a bijection: distinct keys have
+     * distinct hashes, so splitting a bucket eventually separates them.
+     */
+    static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private void readDirectory() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dirFile)));
+        try {
+            globalDepth = in.readInt();
+            if (globalDepth < 0 || globalDepth > MAX_DEPTH) {
+                throw new IOException("bad global depth " + globalDepth + " in " + dirFile);
+            }
+            dir = new int[1 << globalDepth];
+            for (int i = 0; i < dir.length; i++) {
+                dir[i] = in.readInt();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeDirectory() throws IOException {
+        writeDirectory(dirFile, globalDepth, dir);
+    }
+
+    private static void writeDirectory(File dirFile, int globalDepth, int[] dir) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dirFile)));
+        try {
+            out.writeInt(globalDepth);
+            for (int i = 0; i < dir.length; i++) {
+                out.writeInt(dir[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Releases the file handles of this index. They are reopened on demand.
+     */
+    public void close() throws IOException {
+        io.close();
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the TupleDesc of the entries of this index: the key field,
+     *   named as in the table, and the page and slot of the record.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getIndexedTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile.
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of bits of the hash the directory uses
+     */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        Page page = null;
+        try {
+            io.readPage(pid.pageNumber(), data);
+            page = new HashBucketPage((HashPageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.writePage(page.getId().pageNumber(), page.getPageData());
+    }
+
+    /**
+     * @param pinned receives the page, which the caller must unpin, see
+     *   {@link BufferPool#unpinPages}
+     */
+    private HashBucketPage getBucketPage(TransactionId tid, int pgNo, Permissions perm, ArrayList<Page> pinned)
+            throws TransactionAbortedException, DbException {
+        HashBucketPage p = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(getId(), pgNo), perm);
+        pinned.add(p);
+        return p;
+    }
+
+    /**
+     * Appends an empty page to the file. Called with the index write locked.
+     */
+    private HashBucketPage newPage(TransactionId tid, int depth, ArrayList<Page> pinned) throws IOException,
+            TransactionAbortedException, DbException {
+        int pgNo = numPages;
+        io.writePage(pgNo, HashBucketPage.createEmptyPageData(depth));
+        numPages++;
+        return getBucketPage(tid, pgNo, Permissions.READ_WRITE, pinned);
+    }
+
+    /**
+     * @return the pages of the bucket of a key, primary page first
+     */
+    private ArrayList<HashBucketPage> bucket(TransactionId tid, int key, Permissions perm, ArrayList<Page> pinned)
+            throws TransactionAbortedException, DbException {
+        return chain(tid, dir[hash(key) & ((1 << globalDepth) - 1)], perm, pinned);
+    }
+
+    private ArrayList<HashBucketPage> chain(TransactionId tid, int pgNo, Permissions perm, ArrayList<Page> pinned)
+            throws TransactionAbortedException, DbException {
+        ArrayList<HashBucketPage> pages = new ArrayList<HashBucketPage>();
+        for (int p = pgNo; p != HashBucketPage.NONE; p = pages.get(pages.size() - 1).getOverflow()) {
+            pages.add(getBucketPage(tid, p, perm, pinned));
+        }
+        return pages;
+    }
+
+    private int key(Tuple t) {
+        return ((IntField) t.getField(keyField)).getValue();
+    }
+
+    /**
+     * Add an entry to the first page of a bucket with room, chaining a new
+     * overflow page to the bucket if they are all full.
+     */
+    private void addToChain(TransactionId tid, ArrayList<HashBucketPage> chain, int key, int page, int slot,
+            ArrayList<Page> dirtied, ArrayList<Page> pinned)
+            throws IOException, TransactionAbortedException, DbException {
+        for (HashBucketPage p : chain) {
+            if (!p.isFull()) {
+                p.addEntry(key, page, slot);
+                dirtied.add(p);
+                return;
+            }
+        }
+        HashBucketPage last = chain.get(chain.size() - 1);
+        HashBucketPage p = newPage(tid, 0, pinned);
+        last.setOverflow(p.getId().pageNumber());
+        p.addEntry(key, page, slot);
+        chain.add(p);
+        dirtied.add(last);
+        dirtied.add(p);
+    }
+
+    /**
+     * @return true if splitting the bucket would separate some of its entries
+     */
+    private boolean canSplit(ArrayList<HashBucketPage> chain) {
+        if (chain.get(0).getLocalDepth() >= MAX_DEPTH) {
+            return false;
+        }
+        int first = chain.get(0).getKey(0);
+        for (HashBucketPage p : chain) {
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                if (p.getKey(i) != first) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split a bucket in two on the next bit of the hash, doubling the
+     * directory if the bucket already uses all of its bits.
+     */
+    private void split(TransactionId tid, ArrayList<HashBucketPage> chain, ArrayList<Page> dirtied,
+            ArrayList<Page> pinned) throws IOException, TransactionAbortedException, DbException {
+        HashBucketPage primary = chain.get(0);
+        int depth = primary.getLocalDepth();
+        if (depth == globalDepth) {
+            dir = Arrays.copyOf(dir, 2 * dir.length);
+            System.arraycopy(dir, 0, dir, dir.length / 2, dir.length / 2);
+            globalDepth++;
+        }
+        HashBucketPage sibling = newPage(tid, depth + 1, pinned);
+        primary.setLocalDepth(depth + 1);
+        int oldPgNo = primary.getId().pageNumber();
+        for (int i = 0; i < dir.length; i++) {
+            if (dir[i] == oldPgNo && ((i >>> depth) & 1) == 1) {
+                dir[i] = sibling.getId().pageNumber();
+            }
+        }
+
+        // redistribute the entries; the overflow pages stay with the old bucket
+        ArrayList<int[]> entries = new ArrayList<int[]>();
+        for (HashBucketPage p : chain) {
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                entries.add(new int[] {p.getKey(i), p.getRecordPage(i), p.getRecordSlot(i)});
+            }
+            p.clear();
+            dirtied.add(p);
+        }
+        ArrayList<HashBucketPage> siblingChain = new ArrayList<HashBucketPage>();
+        siblingChain.add(sibling);
+        dirtied.add(sibling);
+        for (int[] e : entries) {
+            boolean high = ((hash(e[0]) >>> depth) & 1) == 1;
+            addToChain(tid, high ? siblingChain : chain, e[0], e[1], e[2], dirtied, pinned);
+        }
+        writeDirectory();
+    }
+
+    /**
+     * Adds the entry of a tuple of the indexed table, whose RecordId must be
+     * set. Adding an entry that is already there changes nothing.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no RecordId to index");
+        }
+        int key = key(t);
+        int page = rid.getPageId().pageNumber();
+        int slot = rid.tupleno();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        ArrayList<Page> pinned = new ArrayList<Page>();
+        Lock wLock = indexLock.writeLock();
+        try {
+            wLock.lock();
+            while (true) {
+                ArrayList<HashBucketPage> chain = bucket(tid, key, Permissions.READ_WRITE, pinned);
+                for (HashBucketPage p : chain) {
+                    if (p.indexOf(key, page, slot) >= 0) {
+                        return dirtied;
+                    }
+                }
+                if (!chain.get(0).isFull() || !canSplit(chain)) {
+                    addToChain(tid, chain, key, page, slot, dirtied, pinned);
+                    break;
+                }
+                split(tid, chain, dirtied, pinned);
+            }
+            for (Page d : dirtied) {
+                d.markDirty(true, tid);
+            }
+            return dirtied;
+        } finally {
+            Database.getBufferPool().unpinPages(tid, pinned);
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry of a tuple of the indexed table, whose RecordId must
+     * be set. Removing an entry that isn't there changes nothing.
+     *
+     * @return the page the entry was on, or the primary page of its bucket
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no RecordId to index");
+        }
+        int key = key(t);
+        ArrayList<Page> pinned = new ArrayList<Page>();
+        Lock wLock = indexLock.writeLock();
+        try {
+            wLock.lock();
+            ArrayList<HashBucketPage> chain = bucket(tid, key, Permissions.READ_WRITE, pinned);
+            for (HashBucketPage p : chain) {
+                int i = p.indexOf(key, rid.getPageId().pageNumber(), rid.tupleno());
+                if (i >= 0) {
+                    p.removeEntry(i);
+                    p.markDirty(true, tid);
+                    return p;
+                }
+            }
+            return chain.get(0);
+        } finally {
+            Database.getBufferPool().unpinPages(tid, pinned);
+            wLock.unlock();
+        }
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public int probeCost() {
+        return 1;
+    }
+
+    public DbFileIterator lookup(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new UnsupportedOperationException("hash index can't look up " + op);
+        }
+        return new HashIndexIterator(tid, ((IntField) operand).getValue(), true);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(tid, 0, false);
+    }
+
+    /**
+     * Iterates over the entries of one key, or of the whole index page by
+     * page. The entries of a bucket or page are copied when it is reached,
+     * so that the caller may modify the index while iterating.
+     */
+    private class HashIndexIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private TransactionId tid;
+        private int operand;
+        /** false to iterate over all entries */
+        private boolean lookup;
+
+        private int[] keys = new int[HashBucketPage.CAPACITY];
+        private int[] pages = new int[HashBucketPage.CAPACITY];
+        private int[] slots = new int[HashBucketPage.CAPACITY];
+        private int n = 0;
+        private int pos = 0;
+        private int nextPage = 0;
+        private boolean open = false;
+
+        HashIndexIterator(TransactionId tid, int operand, boolean lookup) {
+            this.tid = tid;
+            this.operand = operand;
+            this.lookup = lookup;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            n = 0;
+            pos = 0;
+            nextPage = 0;
+            if (!lookup) {
+                return;
+            }
+            ArrayList<Page> pinned = new ArrayList<Page>();
+            Lock rLock = indexLock.readLock();
+            try {
+                rLock.lock();
+                for (HashBucketPage p : bucket(tid, operand, Permissions.READ_ONLY, pinned)) {
+                    for (int i = 0; i < p.getNumEntries(); i++) {
+                        if (p.getKey(i) == operand) {
+                            add(p.getKey(i), p.getRecordPage(i), p.getRecordSlot(i));
+                        }
+                    }
+                }
+            } finally {
+                Database.getBufferPool().unpinPages(tid, pinned);
+                rLock.unlock();
+            }
+        }
+
+        private void add(int key, int page, int slot) {
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * n);
+                pages = Arrays.copyOf(pages, 2 * n);
+                slots = Arrays.copyOf(slots, 2 * n);
+            }
+            keys[n] = key;
+            pages[n] = page;
+            slots[n] = slot;
+            n++;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            while (pos == n && !lookup && nextPage < numPages) {
+                ArrayList<Page> pinned = new ArrayList<Page>();
+                try {
+                    HashBucketPage p = getBucketPage(tid, nextPage++, Permissions.READ_ONLY, pinned);
+                    n = 0;
+                    pos = 0;
+                    for (int i = 0; i < p.getNumEntries(); i++) {
+                        add(p.getKey(i), p.getRecordPage(i), p.getRecordSlot(i));
+                    }
+                } finally {
+                    Database.getBufferPool().unpinPages(tid, pinned);
+                }
+            }
+            return pos < n;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            t.setField(KEY, new IntField(keys[pos]));
+            t.setField(PAGE, new IntField(pages[pos]));
+            t.setField(SLOT, new IntField(slots[pos]));
+            pos++;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            open = false;
+        }
+    }
+}
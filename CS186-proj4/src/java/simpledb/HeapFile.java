@@ -1,26 +1,61 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.locks.*;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
- * size, and the file is simply a collection of those pages. HeapFile works
+ * size, and the file is simply a collection of those pages. The page size is
+ * a property of the file; it is BufferPool.PAGE_SIZE unless the catalog
+ * entry of the table asks for another. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Other page layouts can be selected with a {@link PageFormat}.
  *
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** The most pages {@link #writePages} writes at once. */
+    static final int MAX_RUN = 64;
+    /** How long {@link #compact} waits for the scans of the file to end before it gives up. */
+    static final long SCAN_DRAIN_MILLIS = 10000;
+    /** The smallest page size of a HeapFile. */
+    public static final int MIN_PAGE_SIZE = 512;
+    /** The largest page size of a HeapFile. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
     private File f = null;
     private TupleDesc td = null;
+    private PageIO.Mode ioMode = null;
+    private PageIO io = null;
+    private PageFormat format = null;
+    private PageCompression compression = null;
+    private int pageSize = BufferPool.PAGE_SIZE;
     private int numPages = 0;
+    private FreeSpaceMap fsm = null;
+    private ZoneMap zones = null;
+    private volatile PageBloomFilters blooms = null;
     private ArrayList<ReentrantReadWriteLock> rwLocks = null;
     private ReentrantReadWriteLock fLock = null;
+    /** Held to read or write pages, and exclusively to swap in a compacted file. */
+    private ReentrantReadWriteLock swapLock = null;
+    /** Guards activeScans and swapper. */
+    private final Object scanGate = new Object();
+    private int activeScans = 0;
+    /** The thread swapping in a compacted file, or null. */
+    private Thread swapper = null;
+    /** The number of times the file was swapped. */
+    private volatile int generation = 0;
+    /** The buffer of each thread that reads pages into frames. */
+    private final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[pageSize];
+        }
+    };
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -30,14 +65,107 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageIO.Mode.RANDOM_ACCESS, PageFormat.ROW);
+    }
+
+    public HeapFile(File f, TupleDesc td, PageIO.Mode ioMode) {
+        this(f, td, ioMode, PageFormat.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, reading and
+     * writing its pages through the specified I/O backend.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param ioMode
+     *            how pages are moved between the file and memory
+     * @param format
+     *            the layout of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, PageIO.Mode ioMode, PageFormat format) {
+        this(f, td, ioMode, format, null);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * storing its pages compressed.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param ioMode
+     *            how pages are moved between the file and memory; ignored
+     *            for compressed files, which use a {@link CompressedPageIO}
+     * @param format
+     *            the layout of the pages of the file
+     * @param compression
+     *            how to compress the pages, or null to store them as they are
+     */
+    public HeapFile(File f, TupleDesc td, PageIO.Mode ioMode, PageFormat format, PageCompression compression) {
+        this(f, td, ioMode, format, compression, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * the specified size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param ioMode
+     *            how pages are moved between the file and memory; ignored
+     *            for compressed files, which use a {@link CompressedPageIO}
+     * @param format
+     *            the layout of the pages of the file
+     * @param compression
+     *            how to compress the pages, or null to store them as they are
+     * @param pageSize
+     *            the number of bytes per page, see {@link #checkPageSize}
+     * @throws IllegalArgumentException if pageSize is not a valid page size
+     */
+    public HeapFile(File f, TupleDesc td, PageIO.Mode ioMode, PageFormat format, PageCompression compression,
+            int pageSize) {
+        checkPageSize(pageSize);
         this.f = f;
         this.td = td;
-        this.numPages = (int)Math.ceil(1.0 * f.length() / BufferPool.PAGE_SIZE);
-        this.rwLocks = new ArrayList<ReentrantReadWriteLock>();
+        this.ioMode = ioMode;
+        this.format = format;
+        this.compression = compression;
+        this.pageSize = pageSize;
+        open();
+        this.fLock = new ReentrantReadWriteLock(true);
+        this.swapLock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Opens the file and the maps of its pages; when the file was replaced
+     * by a compacted copy, the maps are those of the copy.
+     */
+    private void open() {
+        long length;
+        try {
+            if (compression != null) {
+                this.io = new CompressedPageIO(f, pageSize, td, format, compression);
+            } else {
+                this.io = ioMode.open(f, pageSize);
+            }
+            length = io.length();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open " + f + ": " + e);
+        }
+        this.numPages = (int)Math.ceil(1.0 * length / pageSize);
+        this.fsm = new FreeSpaceMap(f, numPages);
+        this.zones = new ZoneMap(f, td, numPages);
+        if (blooms != null) {
+            blooms = new PageBloomFilters(td, blooms.getFields(), blooms.getFalsePositiveRate(), tuplesPerPage());
+        }
+        ArrayList<ReentrantReadWriteLock> locks = new ArrayList<ReentrantReadWriteLock>();
         for (int i = 0; i < this.numPages; i++) {
-            this.rwLocks.add(new ReentrantReadWriteLock(true));
+            locks.add(new ReentrantReadWriteLock(true));
         }
-        this.fLock = new ReentrantReadWriteLock(true);
+        this.rwLocks = locks;
     }
 
     /**
@@ -49,6 +177,58 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * @return the I/O backend this HeapFile reads and writes pages with.
+     */
+    public PageIO.Mode getIOMode() {
+        return ioMode;
+    }
+
+    /**
+     * @return the layout of the pages of this HeapFile.
+     */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
+    /**
+     * @return how the pages of this HeapFile are compressed, or null if they
+     *   are not.
+     */
+    public PageCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the number of bytes per page of this HeapFile.
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Checks that pages of pageSize bytes can be stored in a HeapFile: the
+     * size must be a power of two between MIN_PAGE_SIZE and MAX_PAGE_SIZE.
+     *
+     * @throws IllegalArgumentException if pageSize is not a valid page size
+     */
+    public static void checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("page size " + pageSize + " is not a power of two between "
+                    + MIN_PAGE_SIZE + " and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Releases any file handles held by the I/O backend of this HeapFile.
+     * The file can still be used afterwards; handles are reopened on demand.
+     */
+    public void close() throws IOException {
+        io.close();
+        fsm.close();
+        zones.close();
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -73,31 +253,150 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        return readPage(pid, null);
+    }
+
+    /**
+     * @return true if the pages of this file can be read into frames of
+     *   frameSize bytes, see {@link #readPage(PageId, ByteBuffer)}
+     */
+    public boolean fitsFrames(int frameSize) {
+        return format.hasViews() && pageSize <= frameSize;
+    }
+
+    /**
+     * Copies the image of a page of this file, e.g. one that was read
+     * ahead, into a frame of a {@link FrameArena}.
+     *
+     * @return the page as a view over the frame, or null if it can't be
+     *   made
+     * @param frame a frame of at least getPageSize() bytes that the file
+     *   {@link #fitsFrames fits}
+     */
+    public Page toView(Page page, ByteBuffer frame) {
+        ByteBuffer image = frame.duplicate();
+        image.clear();
+        image.limit(pageSize);
+        image.put(page.getPageData());
+        image.flip();
+        try {
+            return format.createView((HeapPageId) page.getId(), image);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads a page into a frame of a {@link FrameArena}, and returns the
+     * page as a view over the frame, see {@link PageFormat#createView}.
+     *
+     * @param pid the page to read
+     * @param frame a frame of at least getPageSize() bytes that the file
+     *   {@link #fitsFrames fits}, or null to read the page onto the heap
+     */
+    public Page readPage(PageId pid, ByteBuffer frame) {
+        byte[] data = frame == null ? new byte[pageSize] : scratch.get();
         Page page = null;
+        Lock rLock = swapLock.readLock();
+        rLock.lock();
         try {
-            RandomAccessFile rafile = new RandomAccessFile(this.f, "r");
-            int offset = pid.pageNumber() * BufferPool.PAGE_SIZE;
-            rafile.seek(offset);
-            rafile.read(data, 0, BufferPool.PAGE_SIZE);
-            page = new HeapPage((HeapPageId) pid, data);
-            rafile.close();
+            if (pid.pageNumber() >= numPages) {
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " of " + f + " does not exist");
+            }
+            TuplePage tp;
+            if (frame == null) {
+                io.readPage(pid.pageNumber(), data);
+                tp = format.createPage((HeapPageId) pid, data);
+            } else {
+                Arrays.fill(data, (byte) 0);
+                io.readPage(pid.pageNumber(), data);
+                ByteBuffer image = frame.duplicate();
+                image.clear();
+                image.limit(pageSize);
+                image.put(data);
+                image.flip();
+                tp = format.createView((HeapPageId) pid, image);
+            }
+            // the page on disk is the truth; refresh what the map believes
+            fsm.update(pid.pageNumber(), tp.getNumEmptySlots());
+            zones.read(tp);
+            PageBloomFilters b = blooms;
+            if (b != null) {
+                b.learn(tp);
+            }
+            page = tp;
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            rLock.unlock();
         }
         return page;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
+        Lock rLock = swapLock.readLock();
+        rLock.lock();
         try {
-            RandomAccessFile rafile = new RandomAccessFile(this.f, "rw");
-            int offset = page.getId().pageNumber() * BufferPool.PAGE_SIZE;
-            rafile.seek(offset);
-            rafile.write(page.getPageData(), 0, BufferPool.PAGE_SIZE);
-            rafile.close();
+            io.writePage(page.getId().pageNumber(), page.getPageData());
+            fsm.write(page.getId().pageNumber(), ((TuplePage) page).getNumEmptySlots());
+            zones.write(page.getId().pageNumber(), new TuplePage[] {(TuplePage) page}, 1);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a set of pages of this file, turning each run of consecutive
+     * page numbers into a single write of up to MAX_RUN pages. Used by the
+     * BufferPool to flush many pages at once.
+     *
+     * @param pages the pages to write, in any order
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        Page[] sorted = pages.toArray(new Page[pages.size()]);
+        Arrays.sort(sorted, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                int x = a.getId().pageNumber();
+                int y = b.getId().pageNumber();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        Lock rLock = swapLock.readLock();
+        rLock.lock();
+        try {
+            writeRuns(sorted);
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    private void writeRuns(Page[] sorted) throws IOException {
+        int start = 0;
+        while (start < sorted.length) {
+            int first = sorted[start].getId().pageNumber();
+            int end = start + 1;
+            while (end < sorted.length && end - start < MAX_RUN
+                    && sorted[end].getId().pageNumber() == first + (end - start)) {
+                end++;
+            }
+            int n = end - start;
+            byte[] data = new byte[n * pageSize];
+            int[] freeSlots = new int[n];
+            TuplePage[] written = new TuplePage[n];
+            for (int i = 0; i < n; i++) {
+                TuplePage page = (TuplePage) sorted[start + i];
+                System.arraycopy(page.getPageData(), 0, data, i * pageSize, pageSize);
+                freeSlots[i] = page.getNumEmptySlots();
+                written[i] = page;
+            }
+            io.writePages(first, data, n);
+            fsm.write(first, freeSlots, n);
+            zones.write(first, written, n);
+            start = end;
         }
     }
 
@@ -108,39 +407,131 @@ public class HeapFile implements DbFile {
         return this.numPages;
     }
 
-    // see DbFile.java for javadocs
-    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
-            throws DbException, IOException, TransactionAbortedException {
+    /**
+     * Appends complete page images to the end of this file, bypassing the
+     * buffer pool and the log. The pages are not part of any transaction.
+     *
+     * @param data the page images, back to back
+     * @param npages the number of pages in data
+     * @param freeSlots the number of empty slots of each page
+     * @return the page number of the first appended page
+     * @see BulkLoader
+     */
+    public int appendPages(byte[] data, int npages, int[] freeSlots) throws IOException {
+        Lock wLock = fLock.writeLock();
+        try {
+            wLock.lock();
+            int first = numPages;
+            io.writePages(first, data, npages);
+            fsm.write(first, freeSlots, npages);
+            // the zones of the new pages are learned when they are read
+            zones.forget(first, npages);
+            PageBloomFilters b = blooms;
+            if (b != null) {
+                for (int i = 0; i < npages; i++) {
+                    byte[] image = Arrays.copyOfRange(data, i * pageSize, (i + 1) * pageSize);
+                    b.learn(format.createPage(new HeapPageId(getId(), first + i), image));
+                }
+            }
+            for (int i = 0; i < npages; i++) {
+                rwLocks.add(new ReentrantReadWriteLock(true));
+                fsm.update(first + i, freeSlots[i]);
+            }
+            numPages += npages;
+            return first;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the tuple into a page that has room; only pages the free
+     * space map says have room are visited. The map is a hint, so it is
+     * corrected when a page turns out to be full.
+     *
+     * @param pages receives the page the tuple was inserted into
+     * @return false if no page has room
+     */
+    private boolean insertIntoFreePage(TransactionId tid, Tuple t, ArrayList<Page> pages,
+            AccessStrategy strategy) throws DbException, TransactionAbortedException {
         BufferPool bufferPool = Database.getBufferPool();
-        ArrayList<Page> pages = new ArrayList<Page>();
-        for (int i = 0; i < numPages; i++) {
+        for (int i = fsm.findPage(); i >= 0; i = fsm.findPage()) {
             HeapPageId pid = new HeapPageId(getId(), i);
             Lock wLock = rwLocks.get(i).writeLock();
             try {
                 wLock.lock();
-                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
-                if (page.getNumEmptySlots() > 0) {
-                    page.insertTuple(t);
-                    page.markDirty(true, tid);
-                    pages.add(page);
-                    return pages;
+                TuplePage page = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE, strategy);
+                try {
+                    if (page.getNumEmptySlots() > 0) {
+                        page.insertTuple(t);
+                        zones.insert(i, t);
+                        PageBloomFilters b = blooms;
+                        if (b != null) {
+                            b.insert(i, t);
+                        }
+                        page.markDirty(true, tid);
+                        fsm.update(i, page.getNumEmptySlots());
+                        pages.add(page);
+                        return true;
+                    }
+                } finally {
+                    bufferPool.unpinPage(tid, pid);
                 }
+                fsm.update(i, 0);
             } finally {
                 wLock.unlock();
             }
         }
-        int numPage = numPages;
+        return false;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertTuple(tid, t, AccessStrategy.NORMAL);
+    }
+
+    /**
+     * Inserts a tuple, see {@link DbFile#insertTuple}, reading the pages
+     * with a strategy, e.g. the ring of a bulk insert.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t, AccessStrategy strategy)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        Lock fileLock = fLock.readLock();
+        fileLock.lock();
+        try {
+            if (insertIntoFreePage(tid, t, pages, strategy)) {
+                return pages;
+            }
+        } finally {
+            fileLock.unlock();
+        }
         Lock wLock = fLock.writeLock();
         try {
             wLock.lock();
+            int numPage = numPages;
             HeapPageId pid = new HeapPageId(getId(), numPage);
-            HeapPage emptyPage = new HeapPage(pid, HeapPage.createEmptyPageData());
+            TuplePage emptyPage = format.createPage(pid, format.createEmptyPageData(pageSize));
+            rwLocks.add(new ReentrantReadWriteLock(true));
             numPages += 1;
             writePage(emptyPage);
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
-            page.insertTuple(t);
-            page.markDirty(true, tid);
-            rwLocks.add(new ReentrantReadWriteLock(true));
+            // a scan may have read the page ahead before it was written
+            bufferPool.getReadAhead().invalidate(pid);
+            TuplePage page = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE, strategy);
+            try {
+                page.insertTuple(t);
+                zones.insert(numPage, t);
+                PageBloomFilters b = blooms;
+                if (b != null) {
+                    b.insert(numPage, t);
+                }
+                page.markDirty(true, tid);
+                fsm.update(numPage, page.getNumEmptySlots());
+            } finally {
+                bufferPool.unpinPage(tid, pid);
+            }
             pages.add(page);
             return pages;
         } finally {
@@ -153,17 +544,52 @@ public class HeapFile implements DbFile {
             TransactionAbortedException {
         PageId pid = t.getRecordId().getPageId();
         int pageNumber = pid.pageNumber();
-        Lock wLock = rwLocks.get(pageNumber).writeLock();
+        Lock fileLock = fLock.readLock();
+        fileLock.lock();
         try {
-            wLock.lock();
-            BufferPool bufferPool = Database.getBufferPool();
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
-            page.deleteTuple(t);
-            page.markDirty(true, tid);
-            return page;
+            if (pageNumber >= numPages) {
+                throw new DbException("tuple " + t.getRecordId() + " is not in " + f
+                        + "; the table may have been compacted");
+            }
+            Lock wLock = rwLocks.get(pageNumber).writeLock();
+            try {
+                wLock.lock();
+                BufferPool bufferPool = Database.getBufferPool();
+                TuplePage page = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                try {
+                    int slot = t.getRecordId().tupleno();
+                    // the record id of a tuple read before a compaction may be another tuple's now
+                    if (slot < page.getNumSlots() && page.isSlotUsed(slot) && !sameFields(page.getTuple(slot), t)) {
+                        throw new DbException("tuple " + t.getRecordId() + " is not the one stored there"
+                                + "; the table may have been compacted");
+                    }
+                    page.deleteTuple(t);
+                    page.markDirty(true, tid);
+                    fsm.update(pageNumber, page.getNumEmptySlots());
+                } finally {
+                    bufferPool.unpinPage(tid, pid);
+                }
+                return page;
+            } finally {
+                wLock.unlock();
+            }
         } finally {
-            wLock.unlock();
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * @return false if a field that t has differs from that of stored
+     */
+    private boolean sameFields(Tuple stored, Tuple t) {
+        int n = Math.min(td.numFields(), t.getTupleDesc().numFields());
+        for (int i = 0; i < n; i++) {
+            Field field = t.getField(i);
+            if (field != null && !field.equals(stored.getField(i))) {
+                return false;
+            }
         }
+        return true;
     }
 
     // see DbFile.java for javadocs
@@ -171,5 +597,321 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid, this);
     }
 
-}
+    /**
+     * Returns an iterator over the tuples of the pages whose zones and
+     * Bloom filters don't rule out a tuple that satisfies all of predicates. Tuples of the pages
+     * that are read are returned whether they satisfy the predicates or not, except that pages
+     * that decode fields lazily leave out those that fail a predicate on an INT_TYPE field, see
+     * {@link LazyHeapPage#iterator(List)}.
+     *
+     * @param predicates predicates on the fields of this table; the pages
+     *   of a scan with none are all read
+     * @see #mayMatch
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, this, predicates);
+    }
+
+    /**
+     * Keep a Bloom filter of the values of some fields on each page, see
+     * {@link PageBloomFilters}. The filters start out empty and are learned
+     * as the pages are read.
+     *
+     * @param fields the fields to keep filters of
+     * @param fpp the false positive rate of the filter of a full page
+     * @throws IllegalArgumentException if a field or fpp is out of range
+     */
+    public void useBloomFilters(int[] fields, double fpp) {
+        this.blooms = new PageBloomFilters(td, fields, fpp, tuplesPerPage());
+    }
+
+    /**
+     * @return the number of tuples a page holds: the slots of a row page;
+     *   the other formats hold about as many
+     */
+    private int tuplesPerPage() {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the Bloom filters of the pages of this HeapFile, or null if it
+     *   keeps none
+     */
+    public PageBloomFilters getBloomFilters() {
+        return blooms;
+    }
+
+    /**
+     * @return true unless the zone map or the Bloom filters of page pgNo rule
+     *   out a tuple that satisfies all of predicates
+     */
+    public boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        PageBloomFilters b = blooms;
+        return zones.mayMatch(pgNo, predicates) && (b == null || b.mayMatch(pgNo, predicates));
+    }
+
+    /**
+     * @return the zone map of the pages of this HeapFile.
+     */
+    public ZoneMap getZoneMap() {
+        return zones;
+    }
+
+
+    /**
+     * Registers a scan of this file; {@link #compact} doesn't swap the file
+     * while scans are registered. Waits while the file is being swapped.
+     *
+     * @return the generation of the file the scan reads, to hand to endScan
+     * @throws TransactionAbortedException if interrupted while waiting
+     */
+    int beginScan() throws TransactionAbortedException {
+        synchronized (scanGate) {
+            while (swapper != null && swapper != Thread.currentThread()) {
+                try {
+                    scanGate.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            }
+            activeScans++;
+            return generation;
+        }
+    }
+
+    /**
+     * Unregisters a scan registered with {@link #beginScan}. Scans of an
+     * older generation, which ended before the file was swapped, are
+     * ignored.
+     *
+     * @param generation the generation beginScan returned
+     */
+    void endScan(int generation) {
+        synchronized (scanGate) {
+            if (generation == this.generation) {
+                activeScans--;
+                scanGate.notifyAll();
+            }
+        }
+    }
 
+    /**
+     * @return the number of times a compacted copy replaced this file; the
+     *   record ids of tuples read before it changed are no longer valid
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Rewrites this file into densely packed pages, optionally sorted by a
+     * field, and frees the pages it no longer needs.
+     * <p>
+     * The tuples are copied into a new file next to this one while readers
+     * go on reading this one; inserts and deletes wait until the compaction
+     * is done. Then the copy replaces this file: the swap waits up to
+     * SCAN_DRAIN_MILLIS for the scans of the file to end, and holds off new
+     * ones; if they don't end in time the copy is deleted and the compaction
+     * fails. A table with pages dirtied by a running transaction isn't
+     * compacted, since the copy would hold its updates where an abort
+     * can't undo them. The pages of the file are dropped
+     * from the BufferPool, since their contents are in the copy, and the
+     * indexes of the table are rebuilt for the new record ids, see
+     * {@link Catalog#rebuildIndexes}.
+     *
+     * @param clusterField the field to sort the tuples by, or -1 to keep
+     *   them in the order of the file
+     * @return the number of pages freed
+     * @throws IllegalArgumentException if clusterField is not a field
+     * @throws DbException if a page of the table in the BufferPool is
+     *   dirty, or the scans of the file didn't end in time
+     */
+    public int compact(int clusterField) throws IOException, DbException, TransactionAbortedException {
+        if (clusterField < -1 || clusterField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + clusterField + " to cluster by");
+        }
+        Lock wLock = fLock.writeLock();
+        wLock.lock();
+        try {
+            // inserts and deletes dirty their pages under the file lock, so none is dirtied from here on
+            TransactionId dirtier = Database.getBufferPool().getDirtier(getId());
+            if (dirtier != null) {
+                throw new DbException("transaction " + dirtier.getId() + " has uncommitted updates to " + f);
+            }
+            File copy = new File(f.getPath() + ".compact");
+            deleteWithSidecars(copy);
+            HeapFile out = new HeapFile(copy, td, ioMode, format, compression, pageSize);
+            try {
+                copyTuples(out, clusterField);
+            } finally {
+                out.close();
+            }
+            int freed = numPages - out.numPages();
+            swap(copy);
+            return freed;
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    private static void deleteWithSidecars(File f) throws IOException {
+        for (File file : new File[] {f, FreeSpaceMap.mapFile(f), ZoneMap.mapFile(f),
+                CompressedPageIO.indexFile(f)}) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("failed to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Packs the tuples of this file into full pages appended to out.
+     */
+    private void copyTuples(HeapFile out, final int clusterField)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<Tuple> sorted = clusterField >= 0 ? new ArrayList<Tuple>() : null;
+        byte[] data = new byte[MAX_RUN * pageSize];
+        int[] freeSlots = new int[MAX_RUN];
+        int n = 0;
+        TuplePage page = null;
+        DbFileIterator it = iterator(new TransactionId());
+        Iterator<Tuple> sortedIt = null;
+        it.open();
+        try {
+            while (true) {
+                Tuple t;
+                if (sortedIt != null) {
+                    if (!sortedIt.hasNext()) {
+                        break;
+                    }
+                    t = sortedIt.next();
+                } else if (it.hasNext()) {
+                    // a copy, so that the tuples of the pages in the BufferPool keep their record ids
+                    Tuple next = it.next();
+                    t = new Tuple(td);
+                    for (int i = 0; i < td.numFields(); i++) {
+                        t.setField(i, next.getField(i));
+                    }
+                    if (sorted != null) {
+                        sorted.add(t);
+                        continue;
+                    }
+                } else if (sorted != null) {
+                    // a stable sort, so equal keys stay in the order of the file
+                    Collections.sort(sorted, new Comparator<Tuple>() {
+                        public int compare(Tuple a, Tuple b) {
+                            Field x = a.getField(clusterField);
+                            Field y = b.getField(clusterField);
+                            return x.compare(Predicate.Op.LESS_THAN, y) ? -1
+                                    : (x.compare(Predicate.Op.EQUALS, y) ? 0 : 1);
+                        }
+                    });
+                    sortedIt = sorted.iterator();
+                    continue;
+                } else {
+                    break;
+                }
+                if (page == null || page.getNumEmptySlots() == 0) {
+                    if (page != null) {
+                        n = addPage(out, page, data, freeSlots, n);
+                    }
+                    // the copy isn't in the catalog; its pages have the schema of this file
+                    page = format.createPage(new HeapPageId(getId(), out.numPages() + n),
+                            format.createEmptyPageData(pageSize));
+                }
+                page.insertTuple(t);
+            }
+        } finally {
+            it.close();
+        }
+        if (page != null) {
+            n = addPage(out, page, data, freeSlots, n);
+        }
+        if (n > 0) {
+            out.appendPages(data, n, freeSlots);
+        }
+    }
+
+    /**
+     * Adds a full page to the run of pages to append to out, appending the
+     * run when it is as long as it gets.
+     *
+     * @return the number of pages in the run
+     */
+    private int addPage(HeapFile out, TuplePage page, byte[] data, int[] freeSlots, int n) throws IOException {
+        System.arraycopy(page.getPageData(), 0, data, n * pageSize, pageSize);
+        freeSlots[n] = page.getNumEmptySlots();
+        n++;
+        if (n == MAX_RUN) {
+            out.appendPages(data, n, freeSlots);
+            n = 0;
+        }
+        return n;
+    }
+
+    /**
+     * Replaces this file by a compacted copy, once the scans of this file
+     * have ended; deletes the copy if they don't end in time.
+     */
+    private void swap(File copy) throws IOException, DbException, TransactionAbortedException {
+        synchronized (scanGate) {
+            swapper = Thread.currentThread();
+            long deadline = System.currentTimeMillis() + SCAN_DRAIN_MILLIS;
+            long left;
+            while (activeScans > 0 && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    scanGate.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    swapper = null;
+                    scanGate.notifyAll();
+                    deleteWithSidecars(copy);
+                    throw new TransactionAbortedException();
+                }
+            }
+            if (activeScans > 0) {
+                swapper = null;
+                scanGate.notifyAll();
+                deleteWithSidecars(copy);
+                throw new DbException(activeScans + " scans of " + f + " didn't end in "
+                        + SCAN_DRAIN_MILLIS + " ms; not compacted");
+            }
+        }
+        try {
+            BufferPool bufferPool = Database.getBufferPool();
+            // no flush writes a page of the old file into the new one
+            synchronized (bufferPool) {
+                Lock sLock = swapLock.writeLock();
+                sLock.lock();
+                try {
+                    bufferPool.discardPages(getId());
+                    close();
+                    if (!copy.renameTo(f) || !FreeSpaceMap.mapFile(copy).renameTo(FreeSpaceMap.mapFile(f))) {
+                        throw new IOException("failed to replace " + f + " with " + copy);
+                    }
+                    // a compressed copy comes with its own index; an empty one has none
+                    File index = CompressedPageIO.indexFile(f);
+                    File copyIndex = CompressedPageIO.indexFile(copy);
+                    if (copyIndex.exists() ? !copyIndex.renameTo(index) : index.exists() && !index.delete()) {
+                        throw new IOException("failed to replace the index of " + f + " with that of " + copy);
+                    }
+                    // the zones are learned again as the pages are read
+                    deleteWithSidecars(ZoneMap.mapFile(copy));
+                    deleteWithSidecars(ZoneMap.mapFile(f));
+                    open();
+                    synchronized (scanGate) {
+                        generation++;
+                    }
+                } finally {
+                    sLock.unlock();
+                }
+            }
+            Database.getCatalog().rebuildIndexes(getId());
+        } finally {
+            synchronized (scanGate) {
+                swapper = null;
+                scanGate.notifyAll();
+            }
+        }
+    }
+}
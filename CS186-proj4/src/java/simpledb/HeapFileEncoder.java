@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -90,6 +92,51 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, PageFormat.ROW);
+  }
+
+   /** Convert the specified input text file into a binary page file in the
+    * specified page format.  ROW and LAZY share the fixed-size slot layout
+    * of HeapPage; SLOTTED writes variable-length records as specified in
+    * SlottedHeapPage, packing as many rows onto each page as fit; PAX
+    * writes the pages of ROW with their columns grouped into minipages.
+    *
+    * @see SlottedHeapPage
+    * @see PaxHeapPage
+    * @param format the page format of the output file
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageFormat format)
+      throws IOException {
+      if (format == PageFormat.SLOTTED) {
+          convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+      } else {
+          convertFixed(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          if (format == PageFormat.PAX)
+              rowToPax(outFile, npagebytes, Arrays.copyOf(typeAr, numFields));
+      }
+  }
+
+  /** Rewrite each page of a file of HeapPages in place in the PAX layout. */
+  private static void rowToPax(File file, int npagebytes, Type[] typeAr)
+      throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+          byte[] page = new byte[npagebytes];
+          for (long off = 0; off + npagebytes <= raf.length(); off += npagebytes) {
+              raf.seek(off);
+              raf.readFully(page);
+              raf.seek(off);
+              raf.write(PaxHeapPage.fromRowImage(typeAr, page));
+          }
+      } finally {
+          raf.close();
+      }
+  }
+
+  private static void convertFixed(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -104,7 +151,7 @@ public class HeapFileEncoder {
         nheaderbytes++;  //ceiling
     int nheaderbits = nheaderbytes * 8;
 
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), Type.STRING_CHARSET));
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -146,16 +193,7 @@ public class HeapFileEncoder {
                 }
             }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
+                new StringField(s.trim(), Type.STRING_LEN).serialize(pageStream);
             }
             curpos = 0;
             if (c == '\n')
@@ -223,4 +261,49 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      SlottedHeapPage.Builder page = new SlottedHeapPage.Builder(npagebytes);
+      BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inFile), Type.STRING_CHARSET));
+      FileOutputStream os = new FileOutputStream(outFile);
+      String sep = Pattern.quote(String.valueOf(fieldSeparator));
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.length() == 0)
+              continue;
+          String[] values = line.split(sep, -1);
+          if (values.length < numFields) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < numFields; i++) {
+                  String s = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  else
+                      t.setField(i, new StringField(s, Type.STRING_LEN));
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          if (!page.add(t)) {
+              os.write(page.finish());
+              npages++;
+              page.add(t);
+          }
+      }
+      // as for fixed-size pages, an empty input still gets one empty page
+      if (page.size() > 0 || npages == 0)
+          os.write(page.finish());
+      br.close();
+      os.close();
+  }
 }
@@ -6,23 +6,87 @@ import java.util.*;
  * HeapFileIterator is an implementation of DbFileIterator that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * An open iterator is registered with its file, so that a compaction of
+ * the file waits for it before replacing the file, see
+ * {@link HeapFile#compact}. An iterator that reads on after the file was
+ * replaced anyway fails with a TransactionAbortedException.
+ * <p>
+ * The page whose tuples are being returned is kept pinned in the
+ * BufferPool; it is unpinned when the iterator moves to the next page,
+ * reaches the end, or is closed.
+ * <p>
+ * A scan of a table larger than the BufferPool reads it through a ring of
+ * a few pages, so that it doesn't evict the pages other
+ * transactions use, see {@link AccessStrategy#choose}.
  */
 public class HeapFileIterator implements DbFileIterator {
 
     private TransactionId tid = null;
     private HeapFile file = null;
+    private List<Predicate> predicates = null;
     private int pagePos = 0;
     private Iterator<Tuple> tuplesInPage = null;
+    /** The generation of the file this iterator is registered with, or -1. */
+    private int generation = -1;
+    /** The page this iterator keeps pinned, or null. */
+    private HeapPageId pinned = null;
+    /** The strategy asked for, or null to choose one when opened. */
+    private AccessStrategy strategy = null;
+    private AccessStrategy scanStrategy = AccessStrategy.NORMAL;
 
     public HeapFileIterator(TransactionId tid, HeapFile file) {
+        this(tid, file, null);
+    }
+
+    /**
+     * Creates an iterator that skips the pages whose zones or Bloom filters
+     * rule out a tuple satisfying all of predicates, see
+     * {@link HeapFile#mayMatch}. Pages that decode fields lazily, e.g. PAX
+     * pages, also leave out the tuples that fail a predicate on an
+     * INT_TYPE field, see {@link LazyHeapPage#iterator(List)}.
+     *
+     * @param predicates the predicates, or null to read every page
+     */
+    public HeapFileIterator(TransactionId tid, HeapFile file, List<Predicate> predicates) {
+        this(tid, file, predicates, null);
+    }
+
+    /**
+     * Creates an iterator that reads the pages with a strategy, see
+     * {@link BufferPool#getPage(TransactionId, PageId, Permissions,
+     * AccessStrategy)}.
+     *
+     * @param predicates the predicates, or null to read every page
+     * @param strategy the strategy, or null to choose one from the sizes
+     *   of the table and the pool when opened
+     */
+    public HeapFileIterator(TransactionId tid, HeapFile file, List<Predicate> predicates,
+            AccessStrategy strategy) {
+        this.strategy = strategy;
         this.tid = tid;
         this.file = file;
+        this.predicates = predicates == null || predicates.isEmpty() ? null : predicates;
         this.pagePos = 0;
         this.tuplesInPage = null;
     }
 
+    /**
+     * Pins the page, unpinning the page pinned before, and returns its
+     * tuples.
+     */
     public Iterator<Tuple> getTuplesInPage(HeapPageId pid) throws TransactionAbortedException, DbException {
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        unpin();
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY,
+                scanStrategy);
+        pinned = pid;
+        PageBloomFilters blooms = file.getBloomFilters();
+        if (blooms != null && page.isDirty() == null) {
+            blooms.learn(page);
+        }
+        if (predicates != null && page instanceof LazyHeapPage) {
+            return ((LazyHeapPage) page).iterator(predicates);
+        }
         return page.iterator();
     }
 
@@ -33,13 +97,23 @@ public class HeapFileIterator implements DbFileIterator {
      */
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        pagePos = 0;
-        HeapPageId pid = new HeapPageId(file.getId(), pagePos);
-        tuplesInPage = getTuplesInPage(pid);
+        endScan();
+        if (strategy != null) {
+            scanStrategy = strategy;
+        } else if (scanStrategy.getRingSize() == 0) {
+            // a rewound scan keeps its ring
+            scanStrategy = AccessStrategy.choose(AccessStrategy.Kind.BULK_READ, Database.getBufferPool(),
+                    (long) file.numPages() * file.getPageSize());
+        }
+        generation = file.beginScan();
+        // the first page is read by hasNext
+        pagePos = -1;
+        tuplesInPage = Collections.<Tuple>emptyList().iterator();
     }
 
     /**
-     * Returns true if the iterator has more tuples.
+     * Returns true if the iterator has more tuples. Pages without tuples,
+     * and pages their zone map or Bloom filters rule out, are passed over.
      *
      * @return true f the iterator has more tuples.
      * @throws IllegalStateException If the iterator has not been opened
@@ -49,16 +123,21 @@ public class HeapFileIterator implements DbFileIterator {
         if (tuplesInPage == null) {
             return false;
         }
-        if (tuplesInPage.hasNext()) {
-            return true;
-        }
-        if (pagePos < file.numPages() - 1) {
+        while (!tuplesInPage.hasNext()) {
+            if (generation >= 0 && generation != file.getGeneration()) {
+                throw new TransactionAbortedException();
+            }
+            if (pagePos >= file.numPages() - 1) {
+                endScan();
+                return false;
+            }
             pagePos += 1;
-            HeapPageId pid = new HeapPageId(file.getId(), pagePos);
-            tuplesInPage = getTuplesInPage(pid);
-            return tuplesInPage.hasNext();
+            if (predicates != null && !file.mayMatch(pagePos, predicates)) {
+                continue;
+            }
+            tuplesInPage = getTuplesInPage(new HeapPageId(file.getId(), pagePos));
         }
-        return false;
+        return true;
     }
 
     /**
@@ -94,8 +173,24 @@ public class HeapFileIterator implements DbFileIterator {
      */
     @Override
     public void close() {
+        endScan();
         tuplesInPage = null;
-        pagePos = 0;
+        pagePos = -1;
+    }
+
+    private void unpin() {
+        if (pinned != null) {
+            Database.getBufferPool().unpinPage(tid, pinned);
+            pinned = null;
+        }
+    }
+
+    private void endScan() {
+        unpin();
+        if (generation >= 0) {
+            file.endScan(generation);
+            generation = -1;
+        }
     }
 
 }
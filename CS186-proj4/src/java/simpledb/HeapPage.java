@@ -11,13 +11,14 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     private HeapPageId pid;
     private TupleDesc td;
     private byte header[];
     private Tuple tuples[];
     private int numSlots;
+    private int pageSize;
 
     private byte[] oldData;
     private TransactionId lastDirtyTid = null;
@@ -27,20 +28,22 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the length of data, the page size of the table.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see HeapFile#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
         this.numSlots = getNumTuples();
         this.lastDirtyTid = null;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
@@ -67,7 +70,14 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {
-        return (int)Math.floor((BufferPool.PAGE_SIZE * 8.0) / (td.getSize() * 8.0 + 1));
+        return (int)Math.floor((pageSize * 8.0) / (td.getSize() * 8.0 + 1));
+    }
+
+    /**
+     * @return the number of slots on this page, used or not.
+     */
+    public int getNumSlots() {
+        return numSlots;
     }
 
     /**
@@ -102,6 +112,27 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /**
+     * @return the tuple stored in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        return tuples[i];
+    }
+
+    /**
+     * @return field j of the tuple stored in slot i.
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public Field getField(int i, int j) {
+        if (!isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " is empty");
+        }
+        return tuples[i].getField(j);
+    }
+
     /**
      * Suck up tuples from the source file.
      */
@@ -148,7 +179,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -191,7 +222,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -218,8 +249,14 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the image of an empty HeapPage of pageSize bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexJoin is an index nested loops equi-join: for each tuple of the outer
+ * child, it looks up the matching tuples of the inner table in an index on
+ * the inner join field, instead of scanning the inner table. It suits a
+ * small outer relation joined against a large table on its key.
+ *
+ * @see LogicalPlan#physicalPlan
+ */
+public class IndexJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p = null;
+    private DbIterator outer = null;
+    private IndexScan inner = null;
+    private Tuple outerTuple = null;
+
+    /**
+     * Constructor. Accepts the children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to join on; must be an EQUALS predicate whose
+     *            second field is the key field of the index of inner
+     * @param outer
+     *            Iterator for the left(outer) relation to join
+     * @param inner
+     *            An EQUALS index scan over the right(inner) relation; its
+     *            operand is reset for every outer tuple
+     */
+    public IndexJoin(JoinPredicate p, DbIterator outer, IndexScan inner) {
+        super(p, outer, inner);
+        if (p.getOperator() != Predicate.Op.EQUALS
+                || p.getField2() != inner.getIndex().getKeyField()) {
+            throw new IllegalArgumentException("an index join needs an EQUALS predicate on the indexed field");
+        }
+        this.p = p;
+        this.outer = outer;
+        this.inner = inner;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.outerTuple = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.outerTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        this.outerTuple = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples; see {@link Join#fetchNext} for the layout of the tuples.
+     * Outer tuples come out in the order of the outer child.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTuple != null && inner.hasNext()) {
+                return mergeTuples(outerTuple, inner.next());
+            }
+            if (!outer.hasNext()) {
+                return null;
+            }
+            outerTuple = outer.next();
+            inner.reset(outerTuple.getField(p.getField1()));
+        }
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        super.setChildren(children);
+        this.outer = children[0];
+        this.inner = (IndexScan) children[1];
+    }
+
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        TupleDesc td = getTupleDesc();
+        Tuple t = new Tuple(td);
+        int k = 0;
+        for (int i = 0; i < left.getTupleDesc().numFields(); i++) {
+            t.setField(k++, left.getField(i));
+        }
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++) {
+            t.setField(k++, right.getField(i));
+        }
+        return t;
+    }
+}
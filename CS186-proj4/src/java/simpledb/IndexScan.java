@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies <tt>field op constant</tt>, by looking up the
+ * matching entries in a {@link DbIndex} and fetching their records. Tuples
+ * come out in the order of the index, not the order of the table.
+ * <p>
+ * Like a scan of a {@link HeapFile}, an open index scan holds off the swap
+ * of a compaction of its table, and fails if the table was compacted
+ * under it anyway, because the records of the entries it read are gone.
+ *
+ * @see LogicalPlan#physicalPlan
+ */
+public class IndexScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid = null;
+    private DbIndex index = null;
+    private Predicate.Op op = null;
+    private Field operand = null;
+    private String tableAlias = null;
+    private DbFileIterator entries = null;
+    private TupleDesc td = null;
+    /** The generation of the table this scan is registered with, or -1. */
+    private int generation = -1;
+
+    /**
+     * Creates an index scan over the table of the specified index as a part
+     * of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in
+     * @param op
+     *            the operator of the predicate; must be supported by index
+     * @param operand
+     *            the constant the indexed field is compared against, or null
+     *            to leave it to {@link #reset} to set it
+     * @param tableAlias
+     *            the alias of the table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as those of {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, DbIndex index, Predicate.Op op, Field operand, String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.operand = operand;
+        this.tableAlias = tableAlias;
+        TupleDesc oldTd = Database.getCatalog().getTupleDesc(index.getIndexedTableId());
+        int numFields = oldTd.numFields();
+        Type[] typeAr = new Type[numFields];
+        String[] fieldAr = new String[numFields];
+        if (tableAlias == null) {
+            tableAlias = "null";
+        }
+        for (int i = 0; i < numFields; i++) {
+            typeAr[i] = oldTd.getFieldType(i);
+            String field = oldTd.getFieldName(i);
+            if (field == null) {
+                field = "null";
+            }
+            fieldAr[i] = tableAlias + "." + field;
+        }
+        this.td = new TupleDesc(typeAr, fieldAr);
+    }
+
+    /**
+     * @return the name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getIndexedTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the predicate this scan answers, on the fields of getTupleDesc
+     */
+    public Predicate getPredicate() {
+        return new Predicate(index.getKeyField(), op, operand);
+    }
+
+    public DbIndex getIndex() {
+        return index;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile table = getHeapFile();
+        if (table != null) {
+            endScan(table);
+            generation = table.beginScan();
+        }
+        // a compaction rebuilds the indexes of its table under the same ids
+        DbFile current = null;
+        try {
+            current = Database.getCatalog().getDbFile(index.getId());
+        } catch (NoSuchElementException e) {
+            // an index that isn't in the catalog is never rebuilt
+        }
+        if (current instanceof DbIndex && current != index) {
+            index = (DbIndex) current;
+            if (entries != null) {
+                entries.close();
+                entries = null;
+            }
+        }
+        if (entries == null && operand != null) {
+            entries = index.lookup(tid, op, operand);
+        }
+        if (entries != null) {
+            entries.open();
+        }
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (entries != null) {
+            entries.close();
+        }
+        HeapFile table = getHeapFile();
+        if (table != null) {
+            endScan(table);
+        }
+    }
+
+    /**
+     * @return the table of the index if it is a HeapFile, or null
+     */
+    private HeapFile getHeapFile() {
+        try {
+            DbFile table = Database.getCatalog().getDbFile(index.getIndexedTableId());
+            return table instanceof HeapFile ? (HeapFile) table : null;
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    private void endScan(HeapFile table) {
+        if (generation >= 0) {
+            table.endScan(generation);
+            generation = -1;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (entries != null) {
+            entries.rewind();
+        }
+    }
+
+    /**
+     * Looks up a new constant in the index of an open scan, so that the scan
+     * returns the tuples that match it from the start. Used by
+     * {@link IndexJoin} to probe the index once per outer tuple.
+     *
+     * @param operand
+     *            the constant the indexed field is compared against
+     */
+    public void reset(Field operand) throws DbException, TransactionAbortedException {
+        if (entries != null) {
+            entries.close();
+        }
+        this.operand = operand;
+        this.entries = index.lookup(tid, op, operand);
+        entries.open();
+    }
+
+    /**
+     * Fetches the record of the next matching index entry. Entries whose
+     * record is gone are skipped.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapFile table = getHeapFile();
+        if (table != null && generation >= 0 && generation != table.getGeneration()) {
+            throw new TransactionAbortedException();
+        }
+        while (entries != null && entries.hasNext()) {
+            Tuple entry = entries.next();
+            int page = ((IntField) entry.getField(DbIndex.PAGE)).getValue();
+            int slot = ((IntField) entry.getField(DbIndex.SLOT)).getValue();
+            HeapPageId pid = new HeapPageId(index.getIndexedTableId(), page);
+            TuplePage p = (TuplePage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            Tuple oldTuple;
+            try {
+                if (slot >= p.getNumSlots() || !p.isSlotUsed(slot)) {
+                    continue;
+                }
+                oldTuple = p.getTuple(slot);
+            } finally {
+                bufferPool.unpinPage(tid, pid);
+            }
+            if (oldTuple instanceof LazyTuple) {
+                return ((LazyTuple) oldTuple).withTupleDesc(this.td);
+            }
+            Tuple result = new Tuple(this.td);
+            result.setRecordId(oldTuple.getRecordId());
+            for (int i = 0; i < td.numFields(); i++) {
+                result.setField(i, oldTuple.getField(i));
+            }
+            return result;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
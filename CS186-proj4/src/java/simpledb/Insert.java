@@ -5,11 +5,19 @@ import java.io.*;
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
+ * <p>
+ * Once it has inserted more than a quarter of the BufferPool's worth of
+ * tuples, the insert is a bulk insert, and reads the rest of the pages
+ * through a ring of its own, see {@link AccessStrategy}, so that it
+ * doesn't evict the pages other transactions use.
  */
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The share of the pool after which an insert is a bulk insert. */
+    private static final int BULK_SHARE = 4;
+
     private TransactionId tid = null;
     private DbIterator child = null;
     private TupleDesc td = null;
@@ -50,10 +58,17 @@ public class Insert extends Operator {
         super.open();
         count = 0;
         hasAccessed = false;
+        BufferPool pool = Database.getBufferPool();
+        AccessStrategy strategy = AccessStrategy.NORMAL;
+        long bulk = (long) pool.numFrames() * BufferPool.PAGE_SIZE / BULK_SHARE
+                / Database.getCatalog().getTupleDesc(tableId).getSize();
         while (child.hasNext()) {
             Tuple t = child.next();
+            if (count == bulk) {
+                strategy = AccessStrategy.of(AccessStrategy.Kind.BULK_WRITE, pool);
+            }
             try {
-                Database.getBufferPool().insertTuple(this.tid, this.tableId, t);
+                pool.insertTuple(this.tid, this.tableId, t, strategy);
                 count += 1;
             } catch (IOException e) {
                 throw new DbException(e.toString());
@@ -257,6 +257,10 @@ public class JoinOptimizer {
         // 11. return optjoin(j)
 
         int numJoinNodes = joins.size();
+        if (numJoinNodes == 0) {
+            // a single table query; there is nothing to order
+            return joins;
+        }
         PlanCache pc = new PlanCache();
         Set<LogicalJoinNode> wholeSet = null;
         for (int i = 1; i <= numJoinNodes; i++) {
@@ -2,17 +2,59 @@ package simpledb;
 
 import java.util.*;
 
+/**
+ * A map that holds entries up to a total weight, dropping the least
+ * recently used entries to make room for new ones. Entries put without a
+ * weight weigh 1, so the capacity is then a number of entries.
+ * <p>
+ * Another {@link ReplacementPolicy} can choose the entries to drop
+ * instead of LRU.
+ * <p>
+ * Subclasses can override {@link #evicted} to release what the dropped
+ * entries hold.
+ */
 public class LRUCache<Key, Value> {
 
-    private int capacity;
-    private LinkedHashMap<Key, Value> map;
+    private long capacity;
+    private long weight = 0;
+    private HashMap<Key, Value> map;
+    private HashMap<Key, Integer> weights;
+    private ReplacementPolicy<Key> policy;
 
-    public LRUCache(int capacity) {
+    public LRUCache(long capacity) {
+        this(capacity, new LruPolicy<Key>());
+    }
+
+    /**
+     * @param capacity the total weight of the entries
+     * @param policy the policy that chooses the entries to drop
+     */
+    public LRUCache(long capacity, ReplacementPolicy<Key> policy) {
         this.capacity = capacity;
-        this.map = new LinkedHashMap<Key, Value>(16, 0.75f, true);
+        this.map = new HashMap<Key, Value>();
+        this.weights = new HashMap<Key, Integer>();
+        this.policy = policy;
     }
 
+    public ReplacementPolicy<Key> getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Get the value of an entry, which counts as a use of it.
+     */
     public Value get(Key key) {
+        Value value = this.map.get(key);
+        if (value != null) {
+            this.policy.accessed(key);
+        }
+        return value;
+    }
+
+    /**
+     * Get the value of an entry without counting it as a use.
+     */
+    public Value peek(Key key) {
         return this.map.get(key);
     }
 
@@ -24,6 +66,17 @@ public class LRUCache<Key, Value> {
         return this.map.size();
     }
 
+    /**
+     * @return the total weight of the entries
+     */
+    public long weight() {
+        return this.weight;
+    }
+
+    public long capacity() {
+        return this.capacity;
+    }
+
     public java.util.Set<Key> keySet() {
         return this.map.keySet();
     }
@@ -36,12 +89,128 @@ public class LRUCache<Key, Value> {
       return this.map.entrySet();
     }
 
+    /**
+     * Remove an entry.
+     *
+     * @return its value, or null if there was none
+     */
+    public Value remove(Key key) {
+        Integer old = this.weights.remove(key);
+        if (old != null) {
+            this.weight -= old;
+            this.policy.removed(key);
+        }
+        return this.map.remove(key);
+    }
+
     public void put(Key key, Value value) {
-        if (!this.map.containsKey(key) && this.map.size() == this.capacity) {
-            Iterator<Key> it = this.map.keySet().iterator();
-            it.next();
-            it.remove();
+        put(key, value, 1);
+    }
+
+    /**
+     * Called with each entry that is dropped to make room, after it is
+     * removed. Does nothing; entries removed by {@link #remove} are not
+     * passed to it.
+     */
+    protected void evicted(Key key, Value value) {
+    }
+
+    /**
+     * Whether an entry can be dropped to make room. The entries that can't,
+     * e.g. dirty pages, are passed over for the next ones the policy
+     * chooses, and kept. Always true.
+     */
+    protected boolean evictable(Key key, Value value) {
+        return true;
+    }
+
+    /**
+     * Drop the entry the policy chooses.
+     *
+     * @return false if there was none
+     */
+    public boolean evictEldest() {
+        return evictEldest(null);
+    }
+
+    /**
+     * Drop the entry the policy chooses among those that can be dropped,
+     * see {@link #evictable}.
+     *
+     * @param passedOver if not null, the keys of the entries passed over
+     *   are added to it, in the order the policy chose them
+     * @return false if no entry could be dropped
+     */
+    public boolean evictEldest(List<Key> passedOver) {
+        ArrayList<Key> kept = new ArrayList<Key>();
+        boolean dropped = false;
+        Key victim;
+        while ((victim = this.policy.evict()) != null) {
+            if (evictable(victim, this.map.get(victim))) {
+                drop(victim);
+                dropped = true;
+                break;
+            }
+            kept.add(victim);
+        }
+        keep(kept);
+        if (passedOver != null) {
+            passedOver.addAll(kept);
+        }
+        return dropped;
+    }
+
+    private void drop(Key victim) {
+        this.weight -= this.weights.remove(victim);
+        evicted(victim, this.map.remove(victim));
+    }
+
+    /**
+     * Hand the entries passed over back to the policy, once it chose all
+     * the victims it needed to.
+     */
+    private void keep(List<Key> kept) {
+        for (Key key : kept) {
+            this.policy.kept(key);
+        }
+    }
+
+    /**
+     * Put an entry of the specified weight, first dropping the entries the
+     * policy chooses until it fits. An entry heavier than the capacity is
+     * kept on its own, and the cache grows past its capacity if the
+     * entries that can't be dropped leave no room.
+     */
+    public void put(Key key, Value value, int weight) {
+        Integer old = this.weights.get(key);
+        long needed = weight - (old == null ? 0 : old);
+        if (old != null) {
+            this.policy.accessed(key);
+        }
+        boolean chosen = false;
+        ArrayList<Key> kept = new ArrayList<Key>();
+        while (this.weight + needed > this.capacity) {
+            Key victim = this.policy.evict();
+            if (victim == null) {
+                break;
+            }
+            if (victim.equals(key)) {
+                // the entry is replaced, not dropped
+                chosen = true;
+                continue;
+            }
+            if (evictable(victim, this.map.get(victim))) {
+                drop(victim);
+            } else {
+                kept.add(victim);
+            }
+        }
+        keep(kept);
+        if (old == null || chosen) {
+            this.policy.admitted(key);
         }
         this.map.put(key, value);
+        this.weights.put(key, weight);
+        this.weight += needed;
     }
-}
\ No newline at end of file
+}
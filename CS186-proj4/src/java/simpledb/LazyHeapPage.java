@@ -0,0 +1,424 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * LazyHeapPage stores one page of a HeapFile in the same format as
+ * HeapPage, but never decodes the page as a whole. The raw page image is
+ * kept in a ByteBuffer, and a field is decoded only when it is asked for,
+ * at its fixed offset: slot i starts at headerSize + i * tupleSize, and the
+ * offset of field j within a slot is the sum of the sizes of the fields
+ * before it.
+ * <p>
+ * Tuples handed out by {@link #iterator} and {@link #getTuple} are
+ * {@link LazyTuple}s over a copy of their slot that decode their fields on
+ * first access, so a scan that looks at one column or rejects a row early
+ * never builds the other Field objects.
+ * <p>
+ * The image can be a view over a frame of a {@link FrameArena}. The page
+ * then holds no copy of it on the heap, not even of its before image,
+ * which is copied only when the page is first modified.
+ *
+ * @see HeapPage
+ * @see LazyTuple
+ */
+public class LazyHeapPage implements TuplePage {
+
+    private final HeapPageId pid;
+    protected final TupleDesc td;
+    protected final int numSlots;
+    protected final int headerSize;
+    private final int tupleSize;
+    private final int pageSize;
+    private final int[] fieldOffsets;
+    private final LazyTuple.RecordDecoder decoder;
+    protected volatile ByteBuffer buf;
+
+    /** The image before the page was modified, or null if it wasn't. */
+    protected byte[] oldData;
+    private TransactionId lastDirtyTid = null;
+
+    /**
+     * Create a LazyHeapPage over a page image read from disk. The page
+     * keeps using data; it is not copied. The page is as large as data.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public LazyHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a LazyHeapPage over the bytes of image from its position to
+     * its limit, e.g. a frame of a {@link FrameArena}. The page reads and
+     * writes those bytes; they are not copied.
+     */
+    public LazyHeapPage(HeapPageId id, ByteBuffer image) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tupleSize = td.getSize();
+        this.pageSize = image.remaining();
+        this.numSlots = (int) Math.floor((pageSize * 8.0) / (tupleSize * 8.0 + 1));
+        this.headerSize = (int) Math.ceil(numSlots / 8.0);
+        this.fieldOffsets = new int[td.numFields()];
+        int off = 0;
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = off;
+            off += td.getFieldType(j).getLen();
+        }
+        this.decoder = new RowDecoder(td, fieldOffsets);
+        this.buf = image.slice();
+        setBeforeImage();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public LazyHeapPage getBeforeImage() {
+        try {
+            return new LazyHeapPage(pid, beforeImage());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /**
+     * @return a copy of the image before the page was modified
+     */
+    protected byte[] beforeImage() {
+        return oldData != null ? oldData.clone() : copyPageData();
+    }
+
+    /**
+     * Keeps the image as the before image, if the page wasn't modified
+     * since it was last set.
+     */
+    private void saveBeforeImage() {
+        if (oldData == null) {
+            oldData = copyPageData();
+        }
+    }
+
+    private byte[] copyPageData() {
+        byte[] data = new byte[pageSize];
+        ByteBuffer view = buf.duplicate();
+        view.clear();
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Moves the image of the page from a frame to the heap, so that the
+     * frame can be reused while the page is still read, e.g. by a scan.
+     */
+    public void detach() {
+        if (!buf.hasArray()) {
+            buf = ByteBuffer.wrap(copyPageData());
+        }
+    }
+
+    /**
+     * @return true if the image of the page is not on the heap
+     */
+    public boolean isDirect() {
+        return buf.isDirect();
+    }
+
+    /**
+     * Returns the page image. When the page is backed by a heap array, the
+     * array itself is returned without copying; callers must not modify it.
+     *
+     * @see HeapPage#getPageData
+     */
+    public byte[] getPageData() {
+        ByteBuffer b = buf;
+        if (b.hasArray() && b.arrayOffset() == 0 && b.array().length == pageSize) {
+            return b.array();
+        }
+        return copyPageData();
+    }
+
+    /**
+     * @return the byte offset of field j of slot i within the page image.
+     */
+    protected int offsetOf(int i, int j) {
+        return headerSize + i * tupleSize + fieldOffsets[j];
+    }
+
+    public Field getField(int i, int j) {
+        if (!isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " is empty");
+        }
+        return decodeField(buf, offsetOf(i, j), td.getFieldType(j));
+    }
+
+    /**
+     * Decode a field of the specified type at byte offset off of b.
+     */
+    private static Field decodeField(ByteBuffer b, int off, Type type) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(b.getInt(off));
+        }
+        int len = b.getInt(off);
+        if (len < 0 || len > Type.STRING_LEN) {
+            throw new NoSuchElementException("corrupt string length " + len);
+        }
+        byte[] bs = new byte[len];
+        for (int k = 0; k < len; k++) {
+            bs[k] = b.get(off + 4 + k);
+        }
+        return new StringField(new String(bs, Type.STRING_CHARSET), Type.STRING_LEN);
+    }
+
+    /** Decodes records laid out as the slots of a HeapPage. */
+    private static class RowDecoder implements LazyTuple.RecordDecoder {
+        private final TupleDesc td;
+        private final int[] fieldOffsets;
+
+        RowDecoder(TupleDesc td, int[] fieldOffsets) {
+            this.td = td;
+            this.fieldOffsets = fieldOffsets;
+        }
+
+        public Field decode(ByteBuffer record, int j) {
+            return decodeField(record, fieldOffsets[j], td.getFieldType(j));
+        }
+    }
+
+    /**
+     * @return a tuple over a copy of the fields of slot i, laid out as a
+     *   slot of a HeapPage whatever the layout of this page
+     */
+    protected LazyTuple tuple(int i) {
+        byte[] record = new byte[tupleSize];
+        ByteBuffer view = buf.duplicate();
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            view.clear();
+            view.position(offsetOf(i, j));
+            view.get(record, fieldOffsets[j], td.getFieldType(j).getLen());
+        }
+        return new LazyTuple(td, pid, i, ByteBuffer.wrap(record), decoder);
+    }
+
+    /**
+     * @return the value of INT_TYPE field j of slot i, without building an
+     *   IntField.
+     */
+    public int getInt(int i, int j) {
+        return buf.getInt(offsetOf(i, j));
+    }
+
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        return tuple(i);
+    }
+
+    /**
+     * Encode field f at byte offset off of the page image.
+     */
+    private void putField(int off, Field f) {
+        if (f.getType() == Type.INT_TYPE) {
+            buf.putInt(off, ((IntField) f).getValue());
+            return;
+        }
+        String s = ((StringField) f).getValue();
+        byte[] bs = StringField.encode(s, Type.STRING_LEN);
+        int len = bs.length;
+        buf.putInt(off, len);
+        for (int k = 0; k < Type.STRING_LEN; k++) {
+            buf.put(off + 4 + k, k < len ? bs[k] : 0);
+        }
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int tupleno = rid.tupleno();
+        if (!this.pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        if (!isSlotUsed(tupleno)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        saveBeforeImage();
+        markSlotUsed(tupleno, false);
+        for (int j = 0; j < td.numFields(); j++) {
+            int off = offsetOf(tupleno, j);
+            for (int k = 0; k < td.getFieldType(j).getLen(); k++) {
+                buf.put(off + k, (byte) 0);
+            }
+        }
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (getNumEmptySlots() == 0) {
+            throw new DbException("page is full");
+        }
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                saveBeforeImage();
+                for (int j = 0; j < td.numFields(); j++) {
+                    putField(offsetOf(i, j), t.getField(j));
+                }
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                return;
+            }
+        }
+        throw new DbException("page is full");
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        lastDirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return lastDirtyTid;
+    }
+
+    public int getNumEmptySlots() {
+        int used = 0;
+        for (int j = 0; j < headerSize; j++) {
+            used += Integer.bitCount(buf.get(j) & 0xff);
+        }
+        return numSlots - used;
+    }
+
+    public boolean isSlotUsed(int i) {
+        if (i < 0 || i >= numSlots) {
+            return false;
+        }
+        return ((buf.get(i / 8) >>> (i % 8)) & 0x1) == 1;
+    }
+
+    /**
+     * Abstraction to fill or clear a slot on this page.
+     */
+    private void markSlotUsed(int i, boolean value) {
+        int j = i / 8;
+        byte b = buf.get(j);
+        if (value) {
+            b |= (0x1 << (i % 8));
+        } else {
+            b &= ~(0x1 << (i % 8));
+        }
+        buf.put(j, b);
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < numSlots && !isSlotUsed(i)) {
+                    i++;
+                }
+                return i;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = tuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy every predicate on
+     * an INT_TYPE field, whose values are compared without building their
+     * IntFields, see {@link #getInt}. Other predicates are not applied.
+     *
+     * @param predicates predicates on the fields of the table
+     */
+    public Iterator<Tuple> iterator(List<Predicate> predicates) {
+        List<Predicate> ints = intPredicates(predicates);
+        if (ints.isEmpty()) {
+            return iterator();
+        }
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            boolean match = true;
+            for (int k = 0; k < ints.size() && match; k++) {
+                Predicate p = ints.get(k);
+                match = matches(p, getInt(i, p.getField()));
+            }
+            if (match) {
+                tuples.add(tuple(i));
+            }
+        }
+        return tuples.iterator();
+    }
+
+    /**
+     * @return the predicates on an INT_TYPE field of this page
+     */
+    protected List<Predicate> intPredicates(List<Predicate> predicates) {
+        ArrayList<Predicate> ints = new ArrayList<Predicate>();
+        for (Predicate p : predicates) {
+            if (p.getField() >= 0 && p.getField() < td.numFields()
+                    && td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+                ints.add(p);
+            }
+        }
+        return ints;
+    }
+
+    /**
+     * @return true if value satisfies p, as an IntField of value would
+     */
+    protected static boolean matches(Predicate p, int value) {
+        int operand = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return value == operand;
+        case NOT_EQUALS:
+            return value != operand;
+        case GREATER_THAN:
+            return value > operand;
+        case GREATER_THAN_OR_EQ:
+            return value >= operand;
+        case LESS_THAN:
+            return value < operand;
+        case LESS_THAN_OR_EQ:
+            return value <= operand;
+        default:
+            return true;
+        }
+    }
+}
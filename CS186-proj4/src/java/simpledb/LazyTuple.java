@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * LazyTuple is a Tuple whose fields are still encoded. The page that hands
+ * out the tuple copies the bytes of its slot into it, so the tuple does not
+ * change when the slot is later deleted or reused, even once the page is
+ * unpinned. A field is decoded from those bytes the first time it is read
+ * and cached afterwards; fields that are never read are never decoded.
+ * The RecordId is likewise only built when asked for.
+ * <p>
+ * Fields that are set explicitly take precedence over the encoded record.
+ *
+ * @see LazyHeapPage
+ */
+public class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Decodes the fields of records copied out of pages of one format.
+     */
+    interface RecordDecoder {
+        /**
+         * @return field j of record
+         */
+        Field decode(ByteBuffer record, int j);
+    }
+
+    private transient ByteBuffer record;
+    private transient RecordDecoder decoder;
+    private final HeapPageId pid;
+    private final int slot;
+
+    /**
+     * Create a tuple over a copy of the record stored in slot slot of page
+     * pid.
+     *
+     * @param td the schema of the tuple; must match the layout of the
+     *   record, but field names may differ
+     * @param pid the page the record was copied from
+     * @param slot the slot of the record on that page
+     * @param record the record; not copied again
+     * @param decoder decodes the fields of record
+     */
+    LazyTuple(TupleDesc td, HeapPageId pid, int slot, ByteBuffer record, RecordDecoder decoder) {
+        super(td);
+        this.pid = pid;
+        this.slot = slot;
+        this.record = record;
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return a tuple over the same record, described by td instead. Fields
+     *   that were already decoded are shared.
+     */
+    public LazyTuple withTupleDesc(TupleDesc td) {
+        LazyTuple t = new LazyTuple(td, pid, slot, record, decoder);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, super.getField(i));
+        }
+        t.setRecordId(super.getRecordId());
+        return t;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && record != null) {
+            f = decoder.decode(record, i);
+            setField(i, f);
+        }
+        return f;
+    }
+
+    @Override
+    public RecordId getRecordId() {
+        RecordId rid = super.getRecordId();
+        if (rid == null && record != null) {
+            rid = new RecordId(pid, slot);
+            setRecordId(rid);
+        }
+        return rid;
+    }
+
+    /**
+     * Decode all remaining fields and drop the encoded record.
+     */
+    public void materialize() {
+        if (record == null) {
+            return;
+        }
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            getField(i);
+        }
+        getRecordId();
+        record = null;
+        decoder = null;
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        materialize();
+        return super.fields();
+    }
+
+    @Override
+    public String toString() {
+        materialize();
+        return super.toString();
+    }
+}
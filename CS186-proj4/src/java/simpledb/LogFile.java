@@ -87,7 +87,7 @@ public class LogFile {
     static int INT_SIZE = 4;
     static int LONG_SIZE = 8;
 
-    long currentOffset = -1;
+    volatile long currentOffset = -1;
     int pageSize;
     int totalRecords = 0; // for PatchTest
 
@@ -138,6 +138,16 @@ public class LogFile {
     public int getTotalRecords() {
         return totalRecords;
     }
+
+    /**
+     * @return the offset the next record will be written at, or -1 if no
+     *   record was written yet; the LSN of the end of the log. The offset
+     *   is published as each record is appended, so it is read without
+     *   waiting for the lock of the log.
+     */
+    public long getCurrentOffset() {
+        return currentOffset;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
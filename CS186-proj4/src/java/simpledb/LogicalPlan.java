@@ -6,6 +6,10 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.BitSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -271,6 +275,262 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Prune the partitions of a partitioned table: a partition that can't
+     * hold a tuple satisfying the filters on the partitioning field is not
+     * scanned. The filters are still applied to the partitions that are.
+     *
+     * @return the partitions to scan, or null if the table isn't partitioned
+     *   or all its partitions must be scanned
+     */
+    private BitSet choosePartitions(LogicalScanNode table, TupleDesc td) {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        if (!(file instanceof PartitionedFile)) {
+            return null;
+        }
+        Partitioning partitioning = ((PartitionedFile) file).getPartitioning();
+        BitSet parts = partitioning.all();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)) {
+                continue;
+            }
+            Field operand;
+            try {
+                int field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+                if (field != partitioning.getField()) {
+                    continue;
+                }
+                operand = td.getFieldType(field) == Type.INT_TYPE ? new IntField(Integer.parseInt(lf.c))
+                        : new StringField(lf.c, Type.STRING_LEN);
+            } catch (NoSuchElementException e) {
+                // reported when the filter is planned
+                continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            parts.and(partitioning.partitionsFor(lf.p, operand));
+        }
+        return parts.equals(partitioning.all()) ? null : parts;
+    }
+
+    /**
+     * Collect the filters on a table as predicates over the fields of a
+     * scan of it, so the scan can skip the pages whose zone maps rule out a
+     * match, see {@link ZoneMap}, or read only the keys of an
+     * {@link LsmFile} or the rows of a {@link MemoryFile} that may match. The filters are still applied to the
+     * tuples that are read.
+     *
+     * @return the predicates, or null if the table can't use them or
+     *   there are no filters on it
+     */
+    private List<Predicate> choosePagePredicates(LogicalScanNode table, TupleDesc td) {
+        DbFile file = Database.getCatalog().getDbFile(table.t);
+        if (!(file instanceof HeapFile) && !(file instanceof PartitionedFile) && !(file instanceof LsmFile)
+                && !(file instanceof MemoryFile)) {
+            return null;
+        }
+        ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)) {
+                continue;
+            }
+            try {
+                int field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+                Field operand = td.getFieldType(field) == Type.INT_TYPE ? new IntField(Integer.parseInt(lf.c))
+                        : new StringField(lf.c, Type.STRING_LEN);
+                predicates.add(new Predicate(field, lf.p, operand));
+            } catch (NoSuchElementException e) {
+                // reported when the filter is planned
+                continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        return predicates.isEmpty() ? null : predicates;
+    }
+
+    /**
+     * Pick the filter on a table that is cheapest to answer with an index
+     * lookup, if that is cheaper than scanning the whole table.
+     *
+     * @param td the TupleDesc of a scan of the table
+     * @param stats the statistics of the table, or null if there are none
+     * @param indexFilters receives the filter the returned IndexScan answers
+     * @return an IndexScan of the table, or null to scan it
+     */
+    private IndexScan chooseIndexScan(TransactionId t, LogicalScanNode table, TupleDesc td,
+            TableStats stats, Set<LogicalFilterNode> indexFilters) {
+        List<DbIndex> indexes = Database.getCatalog().getIndexes(table.t);
+        if (stats == null || indexes.isEmpty()) {
+            return null;
+        }
+        double bestCost = stats.estimateScanCost();
+        LogicalFilterNode bestFilter = null;
+        DbIndex bestIndex = null;
+        Field bestOperand = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)) {
+                continue;
+            }
+            int field;
+            Field operand;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+                if (td.getFieldType(field) != Type.INT_TYPE) {
+                    continue;
+                }
+                operand = new IntField(Integer.parseInt(lf.c));
+            } catch (NoSuchElementException e) {
+                // reported when the filter is planned
+                continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            for (DbIndex index : indexes) {
+                if (index.getKeyField() != field || !index.supports(lf.p)) {
+                    continue;
+                }
+                double cost = stats.estimateIndexScanCost(index, stats.estimateSelectivity(field, lf.p, operand));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestFilter = lf;
+                    bestIndex = index;
+                    bestOperand = operand;
+                }
+            }
+        }
+        if (bestFilter == null) {
+            return null;
+        }
+        indexFilters.add(bestFilter);
+        return new IndexScan(t, bestIndex, bestFilter.p, bestOperand, table.alias);
+    }
+
+    /**
+     * Decide whether to answer an equi-join by probing an index on the join
+     * field of one side once per tuple of the other side, rather than with
+     * {@link JoinOptimizer#instantiateJoin}. Only an unfiltered table can be
+     * probed, as the probe side has to be the IndexScan itself; either side
+     * of the join may be.
+     *
+     * @param baseTableStats the statistics of the tables of the plan
+     * @return an IndexJoin of plan1 and plan2, or null to join them with
+     *   {@link JoinOptimizer#instantiateJoin}
+     */
+    private IndexJoin chooseIndexJoin(TransactionId t, JoinOptimizer jo, LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, Map<String,TableStats> baseTableStats) {
+        if (lj.p != Predicate.Op.EQUALS) {
+            return null;
+        }
+        for (int tableId : tableMap.values()) {
+            if (baseTableStats.get(Database.getCatalog().getTableName(tableId)) == null) {
+                return null;
+            }
+        }
+        int field1, field2;
+        try {
+            field1 = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+            field2 = plan2.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            // reported by instantiateJoin
+            return null;
+        }
+        if (plan1.getTupleDesc().getFieldType(field1) != Type.INT_TYPE) {
+            return null;
+        }
+        int card1 = estimateCardinality(plan1, baseTableStats);
+        int card2 = estimateCardinality(plan2, baseTableStats);
+        double cost1 = estimateScanCost(plan1, baseTableStats);
+        double cost2 = estimateScanCost(plan2, baseTableStats);
+        double bestCost = jo.estimateJoinCost(lj, card1, card2, Math.max(cost1, 0), Math.max(cost2, 0));
+
+        IndexJoin best = null;
+        DbIndex index = findJoinIndex(plan2, field2);
+        if (index != null) {
+            double cost = Math.max(cost1, 0) + card1 * estimateProbeCost(index, baseTableStats);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = new IndexJoin(new JoinPredicate(field1, lj.p, field2), plan1,
+                        new IndexScan(t, index, lj.p, null, ((SeqScan) plan2).getAlias()));
+            }
+        }
+        // probing plan1 puts plan2 on the outside, whose cost then counts
+        index = cost2 < 0 ? null : findJoinIndex(plan1, field1);
+        if (index != null) {
+            double cost = cost2 + card2 * estimateProbeCost(index, baseTableStats);
+            if (cost < bestCost) {
+                best = new IndexJoin(new JoinPredicate(field2, lj.p, field1), plan2,
+                        new IndexScan(t, index, lj.p, null, ((SeqScan) plan1).getAlias()));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the cheapest index to probe for a field of plan on equality,
+     *   or null if plan is not a scan of a table with such an index
+     */
+    private static DbIndex findJoinIndex(DbIterator plan, int field) {
+        if (!(plan instanceof SeqScan)) {
+            return null;
+        }
+        DbIndex best = null;
+        int tableId = Database.getCatalog().getTableId(((SeqScan) plan).getTableName());
+        for (DbIndex index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.getKeyField() == field && index.supports(Predicate.Op.EQUALS)
+                    && (best == null || index.probeCost() < best.probeCost())) {
+                best = index;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the cost of looking up the tuples of one key in index
+     */
+    private static double estimateProbeCost(DbIndex index, Map<String,TableStats> baseTableStats) {
+        int tableId = index.getIndexedTableId();
+        TableStats stats = baseTableStats.get(Database.getCatalog().getTableName(tableId));
+        // a primary key matches at most one tuple
+        double sel = Database.getCatalog().getPrimaryKey(tableId).equals(
+                Database.getCatalog().getTupleDesc(tableId).getFieldName(index.getKeyField()))
+                ? 1.0 / Math.max(stats.totalTuples(), 1)
+                : stats.avgSelectivity(index.getKeyField(), Predicate.Op.EQUALS);
+        return stats.estimateIndexScanCost(index, sel);
+    }
+
+    private int estimateCardinality(DbIterator plan, Map<String,TableStats> baseTableStats) {
+        if (plan instanceof SeqScan) {
+            return baseTableStats.get(((SeqScan) plan).getTableName()).estimateTableCardinality(1.0);
+        }
+        if (!(plan instanceof Operator)) {
+            return 1;
+        }
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, tableMap, baseTableStats);
+        return ((Operator) plan).getEstimatedCardinality();
+    }
+
+    /**
+     * @return the cost of reading the table plan is a scan of, possibly
+     *   filtered, or -1 if plan is not one
+     */
+    private static double estimateScanCost(DbIterator plan, Map<String,TableStats> baseTableStats) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (plan instanceof SeqScan) {
+            return baseTableStats.get(((SeqScan) plan).getTableName()).estimateScanCost();
+        }
+        if (plan instanceof IndexScan) {
+            IndexScan s = (IndexScan) plan;
+            Predicate p = s.getPredicate();
+            TableStats stats = baseTableStats.get(s.getTableName());
+            return stats.estimateIndexScanCost(s.getIndex(),
+                    stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand()));
+        }
+        return -1;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,6 +549,7 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -299,8 +560,16 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
-            subplanMap.put(table.alias,ss);
+            BitSet partitions = choosePartitions(table, ss.getTupleDesc());
+            List<Predicate> pagePredicates = choosePagePredicates(table, ss.getTupleDesc());
+            if (partitions != null || pagePredicates != null) {
+                ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias,
+                        partitions, pagePredicates);
+            }
+
             String baseTableName = Database.getCatalog().getTableName(table.t);
+            IndexScan is = chooseIndexScan(t, table, ss.getTupleDesc(), baseTableStats.get(baseTableName), indexFilters);
+            subplanMap.put(table.alias, is != null ? is : ss);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -334,7 +603,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexFilters.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -382,7 +653,9 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = isSubqueryJoin ? null : chooseIndexJoin(t, jo, lj, plan1, plan2, baseTableStats);
+            if (j == null)
+                j = jo.instantiateJoin(lj,plan1,plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -0,0 +1,43 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruPolicy evicts the least recently used key. A single scan of more
+ * pages than the cache holds evicts every other page.
+ *
+ * @see ReplacementPolicy.Kind#LRU
+ */
+public class LruPolicy<Key> implements ReplacementPolicy<Key> {
+
+    /** The keys, least recently used first. */
+    private final LinkedHashSet<Key> order = new LinkedHashSet<Key>();
+
+    public void admitted(Key key) {
+        order.add(key);
+    }
+
+    public void accessed(Key key) {
+        if (order.remove(key)) {
+            order.add(key);
+        }
+    }
+
+    public void removed(Key key) {
+        order.remove(key);
+    }
+
+    public Key evict() {
+        Iterator<Key> it = order.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Key victim = it.next();
+        it.remove();
+        return victim;
+    }
+
+    public void kept(Key key) {
+        order.add(key);
+    }
+}
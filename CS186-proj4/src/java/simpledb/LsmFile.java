@@ -0,0 +1,1116 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.*;
+
+/**
+ * LsmFile is a DbFile that stores a table as a log-structured merge tree,
+ * for tables that take many small inserts. Its tuples are kept sorted by a
+ * key field, and then by the other fields in order.
+ * <p>
+ * Inserts and deletes go to an in-memory sorted memtable, and are appended
+ * to a log, <tt>name.log</tt>, that is replayed when the table is opened.
+ * When the memtable holds memtableBytes of tuples it is written out, in
+ * order, as an immutable run file, <tt>name.run<i>lo</i>-<i>hi</i></tt>,
+ * and the log starts over. When there are MAX_RUNS runs, a background
+ * thread merges them into one. So every write to disk is sequential: the
+ * log is appended to, and runs are written once from start to end.
+ * <p>
+ * The table is a multiset: each entry of the memtable or a run holds a
+ * tuple and how many times it was inserted, minus how many times it was
+ * deleted. A delete is an entry with a negative count, and the count of a
+ * tuple is the sum over the memtable and all runs. Scans merge the
+ * memtable and the runs in key order; a scan restricted to a range of keys
+ * only reads the blocks of each run that may hold them, found through the
+ * first key of every block, which the run keeps at its end. Merging runs
+ * drops the entries that sum to nothing.
+ * <p>
+ * The runs are numbered in the order they are written: the memtable that
+ * becomes run n has sequence number n, and a merged run is named after the
+ * oldest and newest run it covers. A run or log that is covered by another
+ * run is left over from a merge or a flush that was interrupted, and is
+ * dropped when the table is opened.
+ * <p>
+ * The tuples of an LsmFile are not on pages and don't go through the
+ * BufferPool; the record ids of the tuples it returns only name the table.
+ * LsmFiles can't have indexes.
+ *
+ * @see Catalog#createTable
+ */
+public class LsmFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The bytes of tuples the memtable holds when the catalog doesn't say. */
+    public static final long DEFAULT_MEMTABLE_BYTES = 4L << 20;
+    /** The number of runs the background thread merges into one. */
+    static final int MAX_RUNS = 4;
+
+    private static final ExecutorService merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-lsm-merge");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    private final int blockSize;
+    private final long memtableBytes;
+    /** The bytes of an entry: a count and a tuple. */
+    private final int entrySize;
+    private final int entriesPerBlock;
+
+    private final Comparator<Field> keyOrder = new Comparator<Field>() {
+        public int compare(Field a, Field b) {
+            return compareFields(a, b);
+        }
+    };
+    private final Comparator<Tuple> tupleOrder = new Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            int c = compareFields(a.getField(keyField), b.getField(keyField));
+            for (int i = 0; c == 0 && i < td.numFields(); i++) {
+                if (i != keyField) {
+                    c = compareFields(a.getField(i), b.getField(i));
+                }
+            }
+            return c;
+        }
+    };
+
+    /** Guards the memtable and the log, and is held exclusively to change runs. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** The counts of the tuples of the memtable, by key. */
+    private TreeMap<Field, TreeMap<Tuple, int[]>> memtable;
+    private int memEntries = 0;
+    /** The sequence number of the run the memtable becomes. */
+    private int memSeq;
+    private DataOutputStream log = null;
+    /** The runs, oldest first; the list is replaced, never changed. */
+    private volatile List<Run> runs;
+    /** Held while runs are merged. */
+    private final Object merging = new Object();
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean(false);
+
+    /**
+     * Opens the LsmFile stored in files named after f, creating an empty
+     * one if there are none.
+     *
+     * @param f the name of the table; the runs and log are named after it
+     * @param td the schema of the table
+     * @param keyField the field the tuples are sorted by
+     * @param blockSize the number of bytes per block of a run, which must
+     *   hold at least one tuple
+     * @param memtableBytes the bytes of tuples the memtable holds before it
+     *   is written out as a run
+     * @throws IllegalArgumentException if keyField is not a field, or a
+     *   block can't hold a tuple
+     */
+    public LsmFile(File f, TupleDesc td, int keyField, int blockSize, long memtableBytes) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " to sort by");
+        }
+        this.f = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.blockSize = blockSize;
+        this.memtableBytes = memtableBytes;
+        this.entrySize = 4 + td.getSize();
+        this.entriesPerBlock = (blockSize - 4) / entrySize;
+        if (entriesPerBlock < 1) {
+            throw new IllegalArgumentException("blocks of " + blockSize + " bytes can't hold a tuple of " + td);
+        }
+        try {
+            open();
+        } catch (IOException e) {
+            throw new RuntimeException("failed to open " + f + ": " + e);
+        }
+    }
+
+    public LsmFile(File f, TupleDesc td, int keyField) {
+        this(f, td, keyField, BufferPool.PAGE_SIZE, DEFAULT_MEMTABLE_BYTES);
+    }
+
+    static int compareFields(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b)) {
+            return -1;
+        }
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    /**
+     * @return the run file covering sequence numbers lo to hi
+     */
+    private File runFile(int lo, int hi) {
+        return new File(f.getPath() + ".run" + lo + "-" + hi);
+    }
+
+    private File logFile() {
+        return new File(f.getPath() + ".log");
+    }
+
+    /**
+     * Loads the runs, dropping those covered by others, and replays the
+     * log into the memtable.
+     */
+    private void open() throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        String prefix = f.getName() + ".run";
+        ArrayList<int[]> found = new ArrayList<int[]>();
+        File[] files = dir.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            if (name.endsWith(".tmp")) {
+                // a run that was being written
+                file.delete();
+                continue;
+            }
+            String[] seqs = name.substring(prefix.length()).split("-");
+            try {
+                found.add(new int[] {Integer.parseInt(seqs[0]), Integer.parseInt(seqs[1])});
+            } catch (RuntimeException e) {
+                // not a run
+            }
+        }
+        ArrayList<Run> loaded = new ArrayList<Run>();
+        int nextSeq = 0;
+        for (int[] r : found) {
+            if (covered(found, r[0], r[1])) {
+                runFile(r[0], r[1]).delete();
+                continue;
+            }
+            loaded.add(openRun(r[0], r[1]));
+            nextSeq = Math.max(nextSeq, r[1] + 1);
+        }
+        Collections.sort(loaded, new Comparator<Run>() {
+            public int compare(Run a, Run b) {
+                return a.minSeq < b.minSeq ? -1 : (a.minSeq == b.minSeq ? 0 : 1);
+            }
+        });
+        this.runs = Collections.unmodifiableList(loaded);
+
+        this.memtable = new TreeMap<Field, TreeMap<Tuple, int[]>>(keyOrder);
+        this.memSeq = nextSeq;
+        File logFile = logFile();
+        boolean replayed = false;
+        if (logFile.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+            try {
+                int seq = in.readInt();
+                if (!flushed(found, seq)) {
+                    memSeq = Math.max(seq, nextSeq);
+                    while (true) {
+                        int count = in.readInt();
+                        add(readTuple(in), count);
+                    }
+                }
+            } catch (EOFException e) {
+                // the end of the log, or a record that wasn't finished
+            } catch (ParseException e) {
+                // likewise
+            } finally {
+                in.close();
+            }
+            replayed = memEntries > 0;
+        }
+        if (!replayed) {
+            resetLog();
+        } else {
+            log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+        }
+    }
+
+    /**
+     * @return true if a run of found, other than lo-hi itself, covers
+     *   sequence numbers lo to hi
+     */
+    private static boolean covered(List<int[]> found, int lo, int hi) {
+        for (int[] r : found) {
+            if (r[0] <= lo && hi <= r[1] && !(r[0] == lo && r[1] == hi)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the memtable of sequence number seq is in a run of
+     *   found
+     */
+    private static boolean flushed(List<int[]> found, int seq) {
+        for (int[] r : found) {
+            if (r[0] <= seq && seq <= r[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts an empty log for the memtable.
+     */
+    private void resetLog() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile())));
+        log.writeInt(memSeq);
+        log.flush();
+    }
+
+    private Tuple readTuple(DataInputStream in) throws ParseException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, td.getFieldType(i).parse(in));
+        }
+        return t;
+    }
+
+    private static void writeEntry(DataOutputStream out, Tuple t, int count) throws IOException {
+        out.writeInt(count);
+        Iterator<Field> it = t.fields();
+        while (it.hasNext()) {
+            it.next().serialize(out);
+        }
+    }
+
+    /**
+     * Adds count to the count of t in the memtable.
+     */
+    private void add(Tuple t, int count) {
+        Field key = t.getField(keyField);
+        TreeMap<Tuple, int[]> tuples = memtable.get(key);
+        if (tuples == null) {
+            tuples = new TreeMap<Tuple, int[]>(tupleOrder);
+            memtable.put(key, tuples);
+        }
+        int[] c = tuples.get(t);
+        if (c == null) {
+            tuples.put(t, new int[] {count});
+            memEntries++;
+        } else {
+            c[0] += count;
+        }
+    }
+
+    /**
+     * @return a copy of the fields of t, without its record id
+     */
+    private Tuple copy(Tuple t) {
+        Tuple c = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            c.setField(i, t.getField(i));
+        }
+        return c;
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of runs
+     */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * @return the number of blocks of the runs, plus the blocks the
+     *   memtable would take
+     */
+    public int numPages() {
+        int n = 0;
+        for (Run r : runs) {
+            n += r.numBlocks;
+        }
+        lock.readLock().lock();
+        try {
+            return n + (memEntries + entriesPerBlock - 1) / entriesPerBlock;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * LsmFiles have no pages.
+     *
+     * @throws IllegalArgumentException always
+     */
+    public Page readPage(PageId pid) {
+        throw new IllegalArgumentException("LsmFile " + f + " has no pages");
+    }
+
+    /**
+     * LsmFiles have no pages.
+     *
+     * @throws IOException always
+     */
+    public void writePage(Page p) throws IOException {
+        throw new IOException("LsmFile " + f + " has no pages");
+    }
+
+    /**
+     * Adds the tuple to the memtable and the log, writing the memtable out
+     * as a run when it is full.
+     *
+     * @return no pages
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!sameTypes(t.getTupleDesc())) {
+            throw new DbException("tuple does not match the schema of " + f);
+        }
+        Tuple c = copy(t);
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            writeEntry(log, c, 1);
+            log.flush();
+            add(c, 1);
+            t.setRecordId(new RecordId(new HeapPageId(getId(), 0), 0));
+            if ((long) memEntries * entrySize >= memtableBytes) {
+                flushMemtable();
+            }
+        } finally {
+            wLock.unlock();
+        }
+        return new ArrayList<Page>();
+    }
+
+    private boolean sameTypes(TupleDesc other) {
+        if (other.numFields() != td.numFields()) {
+            return false;
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (other.getFieldType(i) != td.getFieldType(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes one copy of a tuple with the fields of t.
+     *
+     * @return null, as no page is changed
+     * @throws DbException if the table has no such tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        Tuple c = copy(t);
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            if (count(c) <= 0) {
+                throw new DbException("tuple " + t + " is not in " + f);
+            }
+            writeEntry(log, c, -1);
+            log.flush();
+            add(c, -1);
+        } catch (IOException e) {
+            throw new DbException("failed to delete from " + f + ": " + e);
+        } finally {
+            wLock.unlock();
+        }
+        return null;
+    }
+
+    /**
+     * @return how many times t is in the table; the lock must be held
+     */
+    private int count(Tuple t) throws IOException {
+        KeyRange range = new KeyRange();
+        range.lower(t.getField(keyField), true);
+        range.upper(t.getField(keyField), true);
+        Cursor entries = new Merge(cursors(range, runs, true));
+        int n = 0;
+        while (entries.advance()) {
+            if (tupleOrder.compare(entries.tuple, t) == 0) {
+                n += entries.count;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes the memtable out as a run now, if it isn't empty.
+     */
+    public void flush() throws IOException {
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            flushMemtable();
+        } finally {
+            wLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the memtable out as a run and starts a new one; the write lock
+     * must be held.
+     */
+    private void flushMemtable() throws IOException {
+        if (memEntries == 0) {
+            return;
+        }
+        // deletes of tuples of older runs are kept
+        Run run = writeRun(memCursor(new KeyRange()), memSeq, memSeq, false);
+        ArrayList<Run> newRuns = new ArrayList<Run>(runs);
+        if (run != null) {
+            newRuns.add(run);
+        }
+        runs = Collections.unmodifiableList(newRuns);
+        memtable = new TreeMap<Field, TreeMap<Tuple, int[]>>(keyOrder);
+        memEntries = 0;
+        memSeq++;
+        resetLog();
+        if (newRuns.size() >= MAX_RUNS && mergeScheduled.compareAndSet(false, true)) {
+            merger.execute(new Runnable() {
+                public void run() {
+                    mergeScheduled.set(false);
+                    try {
+                        mergeRuns();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Merges all runs into one, dropping the entries that sum to nothing.
+     * Readers and writers go on meanwhile; scans that are reading the old
+     * runs keep them until they are done.
+     */
+    public void mergeRuns() throws IOException {
+        synchronized (merging) {
+            List<Run> inputs = runs;
+            if (inputs.size() < 2) {
+                return;
+            }
+            for (Run r : inputs) {
+                r.retain();
+            }
+            Run merged;
+            try {
+                merged = writeRun(new Merge(cursors(new KeyRange(), inputs, false)),
+                        inputs.get(0).minSeq, inputs.get(inputs.size() - 1).maxSeq, true);
+            } finally {
+                for (Run r : inputs) {
+                    r.release();
+                }
+            }
+            Lock wLock = lock.writeLock();
+            wLock.lock();
+            try {
+                // runs flushed during the merge are newer than the inputs
+                ArrayList<Run> newRuns = new ArrayList<Run>();
+                if (merged != null) {
+                    newRuns.add(merged);
+                }
+                newRuns.addAll(runs.subList(inputs.size(), runs.size()));
+                runs = Collections.unmodifiableList(newRuns);
+            } finally {
+                wLock.unlock();
+            }
+            for (Run r : inputs) {
+                r.obsolete();
+            }
+        }
+    }
+
+    /**
+     * Writes sorted entries to a new run file.
+     *
+     * @param dropDeleted drop the entries whose count is negative, because
+     *   the entries cover the oldest run
+     * @return the run, or null if no entries were left to write
+     */
+    private Run writeRun(Cursor entries, int minSeq, int maxSeq, boolean dropDeleted) throws IOException {
+        File file = runFile(minSeq, maxSeq);
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        ArrayList<Field> firstKeys = new ArrayList<Field>();
+        ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize);
+        DataOutputStream blockOut = new DataOutputStream(block);
+        int n = 0;
+        int numEntries = 0;
+        try {
+            // the header is written last
+            out.write(new byte[blockSize]);
+            while (entries.advance()) {
+                if (entries.count == 0 || (dropDeleted && entries.count < 0)) {
+                    continue;
+                }
+                if (n == 0) {
+                    firstKeys.add(entries.tuple.getField(keyField));
+                }
+                writeEntry(blockOut, entries.tuple, entries.count);
+                numEntries++;
+                if (++n == entriesPerBlock) {
+                    writeBlock(out, block, n);
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                writeBlock(out, block, n);
+            }
+            for (Field key : firstKeys) {
+                key.serialize(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (numEntries == 0) {
+            tmp.delete();
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.writeInt(firstKeys.size());
+            raf.writeInt(numEntries);
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("failed to rename " + tmp + " to " + file);
+        }
+        return new Run(file, minSeq, maxSeq, firstKeys.size(), numEntries,
+                firstKeys.toArray(new Field[firstKeys.size()]));
+    }
+
+    private void writeBlock(DataOutputStream out, ByteArrayOutputStream block, int n) throws IOException {
+        out.writeInt(n);
+        block.writeTo(out);
+        out.write(new byte[blockSize - 4 - block.size()]);
+        block.reset();
+    }
+
+    private Run openRun(int minSeq, int maxSeq) throws IOException {
+        File file = runFile(minSeq, maxSeq);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int numBlocks = raf.readInt();
+            int numEntries = raf.readInt();
+            long keysAt = (1L + numBlocks) * blockSize;
+            byte[] keys = new byte[(int) (raf.length() - keysAt)];
+            raf.seek(keysAt);
+            raf.readFully(keys);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(keys));
+            Field[] firstKeys = new Field[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                firstKeys[i] = td.getFieldType(keyField).parse(in);
+            }
+            return new Run(file, minSeq, maxSeq, numBlocks, numEntries, firstKeys);
+        } catch (ParseException e) {
+            throw new IOException("bad run " + file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Releases the file handles of the runs and flushes the log. They are
+     * reopened on demand.
+     */
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            log.flush();
+            for (Run r : runs) {
+                r.closeChannel();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples, in key order
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new LsmIterator(new KeyRange());
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key may satisfy all of
+     * predicates: those in the narrowest range of keys that the predicates
+     * on the key field allow. Other predicates are ignored, and the tuples
+     * returned are not checked against them.
+     *
+     * @param predicates the predicates, or null to read every tuple
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        KeyRange range = new KeyRange();
+        if (predicates != null) {
+            for (Predicate p : predicates) {
+                Field v = p.getOperand();
+                if (p.getField() != keyField
+                        || (p.getOp() == Predicate.Op.LIKE && v.getType() != Type.INT_TYPE)) {
+                    continue;
+                }
+                switch (p.getOp()) {
+                case LIKE: // like is equals for ints
+                case EQUALS:
+                    range.lower(v, true);
+                    range.upper(v, true);
+                    break;
+                case GREATER_THAN:
+                    range.lower(v, false);
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    range.lower(v, true);
+                    break;
+                case LESS_THAN:
+                    range.upper(v, false);
+                    break;
+                case LESS_THAN_OR_EQ:
+                    range.upper(v, true);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        return new LsmIterator(range);
+    }
+
+    /**
+     * @return cursors over the entries of runs in range, and of the
+     *   memtable if withMemtable is set, in which case the read or the
+     *   write lock must be held
+     */
+    private List<Cursor> cursors(KeyRange range, List<Run> runs, boolean withMemtable) {
+        ArrayList<Cursor> cursors = new ArrayList<Cursor>();
+        if (withMemtable) {
+            cursors.add(memCursor(range));
+        }
+        for (Run r : runs) {
+            cursors.add(new RunCursor(r, range));
+        }
+        return cursors;
+    }
+
+    /**
+     * @return a cursor over a copy of the entries of the memtable in range;
+     *   the read or the write lock must be held
+     */
+    private Cursor memCursor(KeyRange range) {
+        final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        final ArrayList<Integer> counts = new ArrayList<Integer>();
+        for (TreeMap<Tuple, int[]> sameKey : range.of(memtable).values()) {
+            for (Map.Entry<Tuple, int[]> e : sameKey.entrySet()) {
+                tuples.add(e.getKey());
+                counts.add(e.getValue()[0]);
+            }
+        }
+        return new Cursor() {
+            private int next = 0;
+
+            boolean advance() {
+                if (next == tuples.size()) {
+                    return false;
+                }
+                tuple = tuples.get(next);
+                count = counts.get(next);
+                next++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * A range of keys; null bounds are unbounded.
+     */
+    private class KeyRange {
+        Field lo = null;
+        boolean loInclusive = true;
+        Field hi = null;
+        boolean hiInclusive = true;
+
+        void lower(Field v, boolean inclusive) {
+            int c = lo == null ? 1 : compareFields(v, lo);
+            if (c > 0 || (c == 0 && !inclusive)) {
+                lo = v;
+                loInclusive = inclusive;
+            }
+        }
+
+        void upper(Field v, boolean inclusive) {
+            int c = hi == null ? -1 : compareFields(v, hi);
+            if (c < 0 || (c == 0 && !inclusive)) {
+                hi = v;
+                hiInclusive = inclusive;
+            }
+        }
+
+        boolean isEmpty() {
+            if (lo == null || hi == null) {
+                return false;
+            }
+            int c = compareFields(lo, hi);
+            return c > 0 || (c == 0 && !(loInclusive && hiInclusive));
+        }
+
+        /** @return true if key comes before the range */
+        boolean before(Field key) {
+            if (lo == null) {
+                return false;
+            }
+            int c = compareFields(key, lo);
+            return c < 0 || (c == 0 && !loInclusive);
+        }
+
+        /** @return true if key comes after the range */
+        boolean after(Field key) {
+            if (hi == null) {
+                return false;
+            }
+            int c = compareFields(key, hi);
+            return c > 0 || (c == 0 && !hiInclusive);
+        }
+
+        <V> SortedMap<Field, V> of(TreeMap<Field, V> map) {
+            if (isEmpty()) {
+                return new TreeMap<Field, V>(keyOrder);
+            }
+            if (lo == null && hi == null) {
+                return map;
+            }
+            if (lo == null) {
+                return map.headMap(hi, hiInclusive);
+            }
+            if (hi == null) {
+                return map.tailMap(lo, loInclusive);
+            }
+            return map.subMap(lo, loInclusive, hi, hiInclusive);
+        }
+    }
+
+    /**
+     * A sorted stream of entries: tuples and their counts.
+     */
+    private abstract static class Cursor {
+        Tuple tuple;
+        int count;
+
+        /**
+         * Moves to the next entry.
+         *
+         * @return false if there is none
+         */
+        abstract boolean advance() throws IOException;
+    }
+
+    /**
+     * Merges cursors into one, summing the counts of equal tuples.
+     */
+    private class Merge extends Cursor {
+        private final PriorityQueue<Cursor> heap;
+        private final List<Cursor> cursors;
+        private boolean started = false;
+
+        Merge(List<Cursor> cursors) {
+            this.cursors = cursors;
+            this.heap = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), new Comparator<Cursor>() {
+                public int compare(Cursor a, Cursor b) {
+                    return tupleOrder.compare(a.tuple, b.tuple);
+                }
+            });
+        }
+
+        boolean advance() throws IOException {
+            if (!started) {
+                started = true;
+                for (Cursor c : cursors) {
+                    if (c.advance()) {
+                        heap.add(c);
+                    }
+                }
+            }
+            if (heap.isEmpty()) {
+                return false;
+            }
+            Cursor c = heap.poll();
+            tuple = c.tuple;
+            count = c.count;
+            if (c.advance()) {
+                heap.add(c);
+            }
+            while (!heap.isEmpty() && tupleOrder.compare(heap.peek().tuple, tuple) == 0) {
+                Cursor d = heap.poll();
+                count += d.count;
+                if (d.advance()) {
+                    heap.add(d);
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An immutable sorted run. The first block holds the number of blocks
+     * and of entries; each block after it holds a count of entries and the
+     * entries; the first key of every block follows the last.
+     */
+    private class Run {
+        final File file;
+        final int minSeq;
+        final int maxSeq;
+        final int numBlocks;
+        final int numEntries;
+        final Field[] firstKeys;
+        private FileChannel channel = null;
+        /** The scans and merges reading the run, plus one while it is live. */
+        private int refs = 1;
+        private boolean obsolete = false;
+
+        Run(File file, int minSeq, int maxSeq, int numBlocks, int numEntries, Field[] firstKeys) {
+            this.file = file;
+            this.minSeq = minSeq;
+            this.maxSeq = maxSeq;
+            this.numBlocks = numBlocks;
+            this.numEntries = numEntries;
+            this.firstKeys = firstKeys;
+        }
+
+        synchronized void retain() {
+            refs++;
+        }
+
+        /**
+         * Drops a reference; the file of an obsolete run is deleted when
+         * nobody reads it any more.
+         */
+        synchronized void release() {
+            if (--refs == 0) {
+                closeChannel();
+                if (obsolete) {
+                    file.delete();
+                }
+            }
+        }
+
+        /**
+         * Marks a run that was merged into another.
+         */
+        void obsolete() {
+            synchronized (this) {
+                obsolete = true;
+            }
+            release();
+        }
+
+        synchronized void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                channel = null;
+            }
+        }
+
+        /**
+         * @return the entries of block b
+         */
+        DataInputStream readBlock(int b) throws IOException {
+            FileChannel ch;
+            synchronized (this) {
+                if (channel == null) {
+                    channel = new RandomAccessFile(file, "r").getChannel();
+                }
+                ch = channel;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(blockSize);
+            long pos = (1L + b) * blockSize;
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) {
+                    throw new EOFException("block " + b + " of " + file + " is cut short");
+                }
+            }
+            return new DataInputStream(new ByteArrayInputStream(buf.array()));
+        }
+
+        /**
+         * @return the first block that may hold a key in range
+         */
+        int firstBlock(KeyRange range) {
+            if (range.lo == null) {
+                return 0;
+            }
+            // the last block that starts before lo; equal keys may spill over from it
+            int lo = 0;
+            int hi = numBlocks - 1;
+            int found = 0;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareFields(firstKeys[mid], range.lo) < 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Reads the entries of a run in range, block by block.
+     */
+    private class RunCursor extends Cursor {
+        private final Run run;
+        private final KeyRange range;
+        private int block;
+        private DataInputStream in = null;
+        private int left = 0;
+        private boolean done;
+
+        RunCursor(Run run, KeyRange range) {
+            this.run = run;
+            this.range = range;
+            this.block = run.firstBlock(range);
+            this.done = range.isEmpty();
+        }
+
+        boolean advance() throws IOException {
+            while (!done) {
+                if (left == 0) {
+                    if (block >= run.numBlocks) {
+                        done = true;
+                        return false;
+                    }
+                    in = run.readBlock(block++);
+                    left = in.readInt();
+                    continue;
+                }
+                left--;
+                int c = in.readInt();
+                Tuple t;
+                try {
+                    t = readTuple(in);
+                } catch (ParseException e) {
+                    throw new IOException("bad entry in " + run.file);
+                }
+                Field key = t.getField(keyField);
+                if (range.after(key)) {
+                    done = true;
+                    return false;
+                }
+                if (!range.before(key)) {
+                    tuple = t;
+                    count = c;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Merges the memtable and the runs as of when it is opened. A tuple
+     * with a count of n is returned n times.
+     */
+    private class LsmIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final KeyRange range;
+        private List<Run> snapshot = null;
+        private Cursor entries = null;
+        private int repeat = 0;
+
+        LsmIterator(KeyRange range) {
+            this.range = range;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            Lock rLock = lock.readLock();
+            rLock.lock();
+            try {
+                snapshot = runs;
+                for (Run r : snapshot) {
+                    r.retain();
+                }
+                entries = new Merge(cursors(range, snapshot, true));
+            } finally {
+                rLock.unlock();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (entries == null) {
+                return false;
+            }
+            try {
+                while (repeat == 0) {
+                    if (!entries.advance()) {
+                        release();
+                        entries = null;
+                        return false;
+                    }
+                    repeat = Math.max(0, entries.count);
+                }
+            } catch (IOException e) {
+                throw new DbException("failed to read " + f + ": " + e);
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("not opened or no tuple remained");
+            }
+            repeat--;
+            Tuple t = copy(entries.tuple);
+            t.setRecordId(new RecordId(new HeapPageId(getId(), 0), 0));
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            release();
+            entries = null;
+            repeat = 0;
+        }
+
+        private void release() {
+            if (snapshot != null) {
+                for (Run r : snapshot) {
+                    r.release();
+                }
+                snapshot = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedPageIO maps the table file into memory and serves page reads as
+ * copies out of the mapping, avoiding a system call per page. Writes to
+ * pages inside the mapping go straight into it; writes that extend the file
+ * go through the channel and cause the file to be remapped on the next read
+ * past the old end. This is meant for read-mostly tables: a table that
+ * grows one page at a time is remapped often.
+ * <p>
+ * At most Integer.MAX_VALUE bytes are mapped; pages past that point are
+ * read through the channel.
+ */
+public class MappedPageIO extends ChannelPageIO {
+
+    private MappedByteBuffer mapped = null;
+
+    public MappedPageIO(File f, int pageSize) {
+        super(f, pageSize);
+    }
+
+    /**
+     * @return the current mapping, (re)mapping the file if pages were
+     *   appended since it was last mapped.
+     */
+    private synchronized MappedByteBuffer mapping() throws IOException {
+        FileChannel ch = channel();
+        long size = Math.min(ch.size(), Integer.MAX_VALUE);
+        if (mapped == null || mapped.capacity() < size) {
+            mapped = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        return mapped;
+    }
+
+    @Override
+    public void readPage(int pgNo, byte[] data) throws IOException {
+        long pos = (long) pgNo * pageSize;
+        MappedByteBuffer m = mapping();
+        if (pos + pageSize > m.capacity()) {
+            super.readPage(pgNo, data);
+            return;
+        }
+        ByteBuffer view = m.duplicate();
+        view.position((int) pos);
+        view.get(data, 0, pageSize);
+    }
+
+    @Override
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        long pos = (long) pgNo * pageSize;
+        MappedByteBuffer m;
+        synchronized (this) {
+            m = mapped;
+        }
+        if (m == null || pos + pageSize > m.capacity()) {
+            super.writePage(pgNo, data);
+            return;
+        }
+        ByteBuffer view = m.duplicate();
+        view.position((int) pos);
+        view.put(data, 0, pageSize);
+    }
+
+    @Override
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        long pos = (long) pgNo * pageSize;
+        synchronized (this) {
+            if (mapped == null || pos >= mapped.capacity()) {
+                // nothing to keep in sync with the mapping
+                super.writePages(pgNo, data, npages);
+                return;
+            }
+        }
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < npages; i++) {
+            System.arraycopy(data, i * pageSize, page, 0, pageSize);
+            writePage(pgNo + i, page);
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        synchronized (this) {
+            if (mapped != null) {
+                mapped.force();
+            }
+        }
+        super.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mapped != null) {
+            mapped.force();
+            mapped = null;
+        }
+        super.close();
+    }
+}
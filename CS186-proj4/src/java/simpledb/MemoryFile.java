@@ -0,0 +1,627 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * MemoryFile is a DbFile that keeps a small table, such as a dimension or
+ * lookup table, in direct memory outside of the Java heap. Its tuples are
+ * read without going through the BufferPool or decoding pages.
+ * <p>
+ * Rows are fixed width, held in direct ByteBuffer segments of up to
+ * SEGMENT_BYTES: an int linking the row to the next one with the same key
+ * hash, a byte that is set while the row is used, and the fields, ints as
+ * 4 bytes and strings as their length and STRING_LEN bytes. The slots of
+ * deleted rows are reused by inserts. The record id of a row names its
+ * segment as the page number and its position in the segment as the slot.
+ * <p>
+ * A table can have a key field. The rows are then also chained by the hash
+ * of their key from an off-heap table of buckets, so that a scan for a key
+ * only reads the rows with its hash, see {@link #iterator(TransactionId,
+ * List)}.
+ * <p>
+ * When opened, the table holds the rows of its file, if there is one: heap
+ * pages of BufferPool.PAGE_SIZE, as a HeapFile of the table stores them, so
+ * that an existing table can be kept in memory. The file is only read.
+ * A table that persists is written to a snapshot file next to it instead,
+ * see {@link #snapshotFile}: {@link #snapshot} writes the rows there, which
+ * {@link BufferPool#flushAllPages} does when they changed, and the table
+ * is loaded from the snapshot rather than its file once there is one. The
+ * snapshot holds the number of rows followed by the rows, serialized as
+ * fields.
+ *
+ * @see Catalog#createTable
+ */
+public class MemoryFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The largest number of bytes of a segment. */
+    static final int SEGMENT_BYTES = 1 << 16;
+
+    private static final int NEXT = 0;
+    private static final int USED = 4;
+    private static final int FIELDS = 5;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    private final boolean persistent;
+    private final int rowSize;
+    private final int rowsPerSegment;
+    private final int[] offsets;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ArrayList<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    /** The number of slots handed out, used or free. */
+    private int numSlots = 0;
+    private int numRows = 0;
+    private int[] free = new int[16];
+    private int numFree = 0;
+    /** The first row of each hash bucket plus one, or 0; null without a key field. */
+    private IntBuffer buckets = null;
+    private boolean changed = false;
+
+    /**
+     * Opens a table kept in memory.
+     *
+     * @param f the heap file of the table, only read
+     * @param td the schema of the table
+     * @param keyField the field to chain rows by, or -1 for none
+     * @param persistent whether the table is snapshotted, and loaded from
+     *   its snapshot
+     * @throws IllegalArgumentException if keyField is not a field
+     */
+    public MemoryFile(File f, TupleDesc td, int keyField, boolean persistent) {
+        if (keyField < -1 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no key field " + keyField);
+        }
+        this.f = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.persistent = persistent;
+        this.offsets = new int[td.numFields()];
+        int size = FIELDS;
+        for (int i = 0; i < td.numFields(); i++) {
+            offsets[i] = size;
+            size += td.getFieldType(i).getLen();
+        }
+        this.rowSize = size;
+        this.rowsPerSegment = Math.max(1, SEGMENT_BYTES / rowSize);
+        if (keyField >= 0) {
+            buckets = ByteBuffer.allocateDirect(4 * 64).asIntBuffer();
+        }
+        File from = persistent && snapshotFile(f).exists() ? snapshotFile(f) : f;
+        try {
+            if (from != f) {
+                load(from);
+            } else if (f.exists()) {
+                loadPages();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to load " + from + ": " + e);
+        }
+    }
+
+    /**
+     * @return the snapshot file of the in-memory table with heap file f
+     */
+    public static File snapshotFile(File f) {
+        return new File(f.getPath() + ".mem");
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int numRows() {
+        lock.readLock().lock();
+        try {
+            return numRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of pages of BufferPool.PAGE_SIZE the rows would
+     *   take
+     */
+    public int numPages() {
+        lock.readLock().lock();
+        try {
+            return (int) (((long) numSlots * rowSize + BufferPool.PAGE_SIZE - 1) / BufferPool.PAGE_SIZE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes of direct memory the table holds
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) segments.size() * rowsPerSegment * rowSize + (buckets == null ? 0 : 4L * buckets.capacity());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * MemoryFiles have no pages.
+     *
+     * @throws IllegalArgumentException always
+     */
+    public Page readPage(PageId pid) {
+        throw new IllegalArgumentException("MemoryFile " + f + " has no pages");
+    }
+
+    /**
+     * MemoryFiles have no pages.
+     *
+     * @throws IOException always
+     */
+    public void writePage(Page p) throws IOException {
+        throw new IOException("MemoryFile " + f + " has no pages");
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments.get(slot / rowsPerSegment);
+    }
+
+    private int position(int slot) {
+        return (slot % rowsPerSegment) * rowSize;
+    }
+
+    private boolean isUsed(int slot) {
+        return segment(slot).get(position(slot) + USED) != 0;
+    }
+
+    private void putField(ByteBuffer b, int pos, Field field) {
+        if (field.getType() == Type.INT_TYPE) {
+            b.putInt(pos, ((IntField) field).getValue());
+        } else {
+            byte[] bytes = StringField.encode(((StringField) field).getValue(), Type.STRING_LEN);
+            int len = bytes.length;
+            b.putInt(pos, len);
+            for (int i = 0; i < len; i++) {
+                b.put(pos + 4 + i, bytes[i]);
+            }
+        }
+    }
+
+    private Field getField(ByteBuffer b, int pos, Type type) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(b.getInt(pos));
+        }
+        byte[] bytes = new byte[b.getInt(pos)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = b.get(pos + 4 + i);
+        }
+        return new StringField(new String(bytes, Type.STRING_CHARSET), Type.STRING_LEN);
+    }
+
+    /**
+     * @return the tuple in a used slot
+     */
+    private Tuple readRow(int slot) {
+        ByteBuffer b = segment(slot);
+        int pos = position(slot);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            t.setField(i, getField(b, pos + offsets[i], td.getFieldType(i)));
+        }
+        t.setRecordId(new RecordId(new HeapPageId(getId(), slot / rowsPerSegment), slot % rowsPerSegment));
+        return t;
+    }
+
+    private static int hash(Field key) {
+        int h = key.hashCode();
+        // spread the high bits over the low ones the mask keeps
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private boolean keyEquals(int slot, Field key) {
+        ByteBuffer b = segment(slot);
+        int pos = position(slot) + offsets[keyField];
+        if (key.getType() == Type.INT_TYPE) {
+            return b.getInt(pos) == ((IntField) key).getValue();
+        }
+        return getField(b, pos, Type.STRING_TYPE).equals(key);
+    }
+
+    private void link(int slot, Field key) {
+        int bucket = hash(key) & (buckets.capacity() - 1);
+        segment(slot).putInt(position(slot) + NEXT, buckets.get(bucket) - 1);
+        buckets.put(bucket, slot + 1);
+    }
+
+    private void unlink(int slot, Field key) {
+        int bucket = hash(key) & (buckets.capacity() - 1);
+        int prev = -1;
+        for (int s = buckets.get(bucket) - 1; s >= 0; prev = s, s = segment(s).getInt(position(s) + NEXT)) {
+            if (s == slot) {
+                int next = segment(s).getInt(position(s) + NEXT);
+                if (prev < 0) {
+                    buckets.put(bucket, next + 1);
+                } else {
+                    segment(prev).putInt(position(prev) + NEXT, next);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Doubles the buckets and chains the rows again, to keep the chains
+     * short.
+     */
+    private void growBuckets() {
+        buckets = ByteBuffer.allocateDirect(8 * buckets.capacity()).asIntBuffer();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (isUsed(slot)) {
+                ByteBuffer b = segment(slot);
+                link(slot, getField(b, position(slot) + offsets[keyField], td.getFieldType(keyField)));
+            }
+        }
+    }
+
+    /**
+     * Writes the tuple into a free slot.
+     *
+     * @return no pages
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getTupleDesc().numFields() != td.numFields()) {
+            throw new DbException("tuple does not match the schema of " + f);
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (t.getField(i).getType() != td.getFieldType(i)) {
+                throw new DbException("tuple does not match the schema of " + f);
+            }
+        }
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            int slot;
+            if (numFree > 0) {
+                slot = free[--numFree];
+            } else {
+                if (numSlots == segments.size() * rowsPerSegment) {
+                    segments.add(ByteBuffer.allocateDirect(rowsPerSegment * rowSize));
+                }
+                slot = numSlots++;
+            }
+            ByteBuffer b = segment(slot);
+            int pos = position(slot);
+            for (int i = 0; i < td.numFields(); i++) {
+                putField(b, pos + offsets[i], t.getField(i));
+            }
+            b.put(pos + USED, (byte) 1);
+            numRows++;
+            if (buckets != null) {
+                if (numRows > buckets.capacity() / 4 * 3) {
+                    growBuckets();
+                } else {
+                    link(slot, t.getField(keyField));
+                }
+            }
+            changed = true;
+            t.setRecordId(new RecordId(new HeapPageId(getId(), slot / rowsPerSegment), slot % rowsPerSegment));
+        } finally {
+            wLock.unlock();
+        }
+        return new ArrayList<Page>();
+    }
+
+    /**
+     * Frees the slot of the tuple.
+     *
+     * @return null, as no page is changed
+     * @throws DbException if the slot doesn't hold the tuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        Lock wLock = lock.writeLock();
+        wLock.lock();
+        try {
+            int slot = rid.getPageId().pageNumber() * rowsPerSegment + rid.tupleno();
+            if (rid.tupleno() >= rowsPerSegment || slot >= numSlots || !isUsed(slot)) {
+                throw new DbException("tuple " + rid + " is not in " + f);
+            }
+            Tuple stored = readRow(slot);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (!stored.getField(i).equals(t.getField(i))) {
+                    throw new DbException("tuple " + rid + " is not the one stored there");
+                }
+            }
+            if (buckets != null) {
+                unlink(slot, stored.getField(keyField));
+            }
+            segment(slot).put(position(slot) + USED, (byte) 0);
+            if (numFree == free.length) {
+                free = Arrays.copyOf(free, 2 * numFree);
+            }
+            free[numFree++] = slot;
+            numRows--;
+            changed = true;
+        } finally {
+            wLock.unlock();
+        }
+        return null;
+    }
+
+    /**
+     * @return an iterator over all rows, in slot order
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlotIterator();
+    }
+
+    /**
+     * Returns an iterator over the rows that may satisfy all of predicates:
+     * only the rows chained from the bucket of the key if one of them is an
+     * equality on the key field, else all of them. The rows returned are
+     * not checked against the predicates.
+     *
+     * @param predicates the predicates, or null to read every row
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        if (keyField >= 0 && predicates != null) {
+            for (Predicate p : predicates) {
+                if (p.getField() == keyField && p.getOp() == Predicate.Op.EQUALS) {
+                    return new KeyIterator(p.getOperand());
+                }
+            }
+        }
+        return new SlotIterator();
+    }
+
+    /**
+     * Reads the rows slot by slot, holding the lock for one row at a time.
+     */
+    private class SlotIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private int slot = -1;
+        private boolean open = false;
+
+        public void open() {
+            slot = -1;
+            open = true;
+        }
+
+        public boolean hasNext() {
+            if (!open) {
+                return false;
+            }
+            lock.readLock().lock();
+            try {
+                int s = slot + 1;
+                while (s < numSlots && !isUsed(s)) {
+                    s++;
+                }
+                return s < numSlots;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public Tuple next() throws NoSuchElementException {
+            if (!open) {
+                throw new NoSuchElementException("not opened");
+            }
+            lock.readLock().lock();
+            try {
+                int s = slot + 1;
+                while (s < numSlots && !isUsed(s)) {
+                    s++;
+                }
+                if (s >= numSlots) {
+                    throw new NoSuchElementException("no tuple remained");
+                }
+                slot = s;
+                return readRow(s);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Reads the rows with a key, collected from its chain when opened.
+     */
+    private class KeyIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Field key;
+        private Iterator<Tuple> rows = null;
+
+        KeyIterator(Field key) {
+            this.key = key;
+        }
+
+        public void open() {
+            ArrayList<Tuple> found = new ArrayList<Tuple>();
+            lock.readLock().lock();
+            try {
+                int bucket = hash(key) & (buckets.capacity() - 1);
+                for (int s = buckets.get(bucket) - 1; s >= 0; s = segment(s).getInt(position(s) + NEXT)) {
+                    if (keyEquals(s, key)) {
+                        found.add(readRow(s));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            // the chain is newest first
+            Collections.reverse(found);
+            rows = found.iterator();
+        }
+
+        public boolean hasNext() {
+            return rows != null && rows.hasNext();
+        }
+
+        public Tuple next() throws NoSuchElementException {
+            if (rows == null) {
+                throw new NoSuchElementException("not opened");
+            }
+            return rows.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            rows = null;
+        }
+    }
+
+    /**
+     * Writes the rows to the snapshot file of the table, if it persists and
+     * they changed since they were last written. The rows are written to a
+     * new file that then replaces the old snapshot.
+     */
+    public void snapshot() throws IOException {
+        if (!persistent) {
+            return;
+        }
+        Lock rLock = lock.readLock();
+        rLock.lock();
+        try {
+            if (!changed) {
+                return;
+            }
+            File snapshot = snapshotFile(f);
+            File tmp = new File(snapshot.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                out.writeInt(numRows);
+                for (int slot = 0; slot < numSlots; slot++) {
+                    if (isUsed(slot)) {
+                        Iterator<Field> fields = readRow(slot).fields();
+                        while (fields.hasNext()) {
+                            fields.next().serialize(out);
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(snapshot) && !(snapshot.delete() && tmp.renameTo(snapshot))) {
+                throw new IOException("failed to replace " + snapshot + " with " + tmp);
+            }
+            // a later change sets it again; the lock keeps writers out until then
+            changed = false;
+        } finally {
+            rLock.unlock();
+        }
+    }
+
+    /**
+     * Loads the rows of a snapshot.
+     */
+    private void load(File snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+        try {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(in));
+                }
+                insert(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad row in " + snapshot);
+        } finally {
+            in.close();
+        }
+        changed = false;
+    }
+
+    /**
+     * Loads the rows of the heap pages of f, in the layout of HeapPage: a
+     * bitmap of the used slots followed by the slots.
+     */
+    private void loadPages() throws IOException {
+        int tupleSize = td.getSize();
+        int slots = (BufferPool.PAGE_SIZE * 8) / (tupleSize * 8 + 1);
+        int headerSize = (slots + 7) / 8;
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            long pages = f.length() / BufferPool.PAGE_SIZE;
+            for (long p = 0; p < pages; p++) {
+                in.readFully(page);
+                for (int i = 0; i < slots; i++) {
+                    if (((page[i / 8] >>> (i % 8)) & 1) == 0) {
+                        continue;
+                    }
+                    DataInputStream slot = new DataInputStream(
+                            new ByteArrayInputStream(page, headerSize + i * tupleSize, tupleSize));
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); j++) {
+                        t.setField(j, td.getFieldType(j).parse(slot));
+                    }
+                    insert(t);
+                }
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad row in " + f);
+        } finally {
+            in.close();
+        }
+        changed = false;
+    }
+
+    private void insert(Tuple t) throws IOException {
+        try {
+            insertTuple(null, t);
+        } catch (DbException e) {
+            throw new IOException("bad row: " + e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException("failed to load a row");
+        }
+    }
+}
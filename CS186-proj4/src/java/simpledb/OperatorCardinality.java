@@ -32,6 +32,16 @@ public class OperatorCardinality {
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof IndexScan) {
+            IndexScan s = (IndexScan) o;
+            Predicate pred = s.getPredicate();
+            TableStats stats = tableStats.get(s.getTableName());
+            // without an operand, the scan is the probe side of an IndexJoin
+            double selectivity = pred.getOperand() == null ? 1.0 : stats
+                    .estimateSelectivity(pred.getField(), pred.getOp(),
+                            pred.getOperand());
+            o.setEstimatedCardinality(stats.estimateTableCardinality(selectivity));
+            return false;
         } else {
             DbIterator[] children = o.getChildren();
             int childC = 1;
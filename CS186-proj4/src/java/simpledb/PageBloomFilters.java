@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PageBloomFilters keeps a Bloom filter of the values of some fields on
+ * each page of a HeapFile, so that a scan for a value can skip the pages
+ * that certainly don't hold it. The filters are selected in the catalog
+ * with the <tt>bloom=field[,field...]</tt> table option, and sized by a
+ * target false positive rate, <tt>bloomfpp=</tt>, for a full page.
+ * <p>
+ * The filters are kept in memory only. Values are never taken out of a
+ * filter, so a filter may only be too full:
+ * <ul>
+ * <li> An insert adds its values to the filter of its page.
+ * <li> A delete leaves the filter as it is.
+ * <li> Pages of unknown content, such as all pages of a table that was just
+ *      opened, may hold anything. A page is learned when its image is read
+ *      from disk or appended by a bulk load, or when a scan reads it while
+ *      it is clean, e.g. when the {@link TableStats} of the table are
+ *      computed.
+ * </ul>
+ * Pages are learned from clean images only: a dirty page may lack tuples
+ * that an abort brings back.
+ *
+ * @see HeapFile#useBloomFilters
+ * @see ZoneMap
+ */
+public class PageBloomFilters {
+
+    /** The false positive rate of a full page when the catalog doesn't set one. */
+    public static final double DEFAULT_FPP = 0.01;
+
+    private final int[] fields;
+    /** The position of each field of the table in fields, or -1. */
+    private final int[] column;
+    private final double fpp;
+    private final int words;
+    private final int numHashes;
+    /** The filter of field fields[c] of page i is at words (i * fields.length + c) * words on. */
+    private long[] bits;
+    /** Pages whose filters cover what is on them; the others only collect inserts. */
+    private final BitSet known = new BitSet();
+
+    /**
+     * @param td the schema of the table
+     * @param fields the fields to keep filters of
+     * @param fpp the false positive rate of the filter of a full page
+     * @param tuplesPerPage the number of tuples a page holds
+     * @throws IllegalArgumentException if a field or fpp is out of range
+     */
+    public PageBloomFilters(TupleDesc td, int[] fields, double fpp, int tuplesPerPage) {
+        if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("bad Bloom filter false positive rate " + fpp);
+        }
+        this.fields = fields.clone();
+        this.column = new int[td.numFields()];
+        Arrays.fill(column, -1);
+        for (int c = 0; c < fields.length; c++) {
+            if (fields[c] < 0 || fields[c] >= td.numFields()) {
+                throw new IllegalArgumentException("no field " + fields[c] + " to keep a Bloom filter of");
+            }
+            column[fields[c]] = c;
+        }
+        this.fpp = fpp;
+        int n = Math.max(1, tuplesPerPage);
+        long m = numBits(n, fpp);
+        this.words = (int) ((m + 63) / 64);
+        this.numHashes = numHashes(64L * words, n);
+        this.bits = new long[16 * fields.length * words];
+    }
+
+    /**
+     * @return the number of bits a filter of n values needs for a false
+     *   positive rate of fpp
+     */
+    static long numBits(int n, double fpp) {
+        return Math.max(64, (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+    }
+
+    /**
+     * @return the number of hash functions that minimizes the false positive
+     *   rate of a filter of m bits holding n values
+     */
+    static int numHashes(long m, int n) {
+        return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    public double getFalsePositiveRate() {
+        return fpp;
+    }
+
+    /**
+     * @return the number of bits of the filter of one field of one page
+     */
+    public int bitsPerFilter() {
+        return 64 * words;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * @return a 64 bit hash of the value of f
+     */
+    private static long hash(Field f) {
+        long h = f.getType() == Type.INT_TYPE ? ((IntField) f).getValue()
+                : ((StringField) f).getValue().hashCode();
+        // the finalizer of MurmurHash3, to spread the bits of both halves
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void ensureCapacity(int pgNo) {
+        int perPage = fields.length * words;
+        if ((long) (pgNo + 1) * perPage > bits.length) {
+            int pages = Math.max(pgNo + 1, 2 * (bits.length / perPage));
+            bits = Arrays.copyOf(bits, pages * perPage);
+        }
+    }
+
+    private void add(int pgNo, Tuple t) {
+        for (int c = 0; c < fields.length; c++) {
+            long h = hash(t.getField(fields[c]));
+            int h1 = (int) h;
+            int h2 = (int) (h >>> 32);
+            int base = (pgNo * fields.length + c) * words;
+            for (int i = 0; i < numHashes; i++) {
+                int bit = ((h1 + i * h2) & 0x7fffffff) % (64 * words);
+                bits[base + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Add the values of a tuple inserted into page pgNo.
+     */
+    public synchronized void insert(int pgNo, Tuple t) {
+        ensureCapacity(pgNo);
+        add(pgNo, t);
+    }
+
+    /**
+     * Learn the values on a page, if it is not known yet.
+     *
+     * @param page a page image that is not dirty
+     */
+    public synchronized void learn(TuplePage page) {
+        int pgNo = page.getId().pageNumber();
+        if (known.get(pgNo)) {
+            return;
+        }
+        ensureCapacity(pgNo);
+        // on top of the inserts collected so far
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            add(pgNo, it.next());
+        }
+        known.set(pgNo);
+    }
+
+    /**
+     * @return true if the filter of page pgNo is known
+     */
+    public synchronized boolean isKnown(int pgNo) {
+        return known.get(pgNo);
+    }
+
+    /**
+     * @return true if page pgNo may hold a tuple that satisfies p: false
+     *   only if p is an equality on a field with a filter, and the filter
+     *   doesn't have its operand
+     */
+    public boolean mayMatch(int pgNo, Predicate p) {
+        boolean equality = p.getOp() == Predicate.Op.EQUALS
+                || (p.getOp() == Predicate.Op.LIKE && p.getOperand().getType() == Type.INT_TYPE);
+        int c = column[p.getField()];
+        if (!equality || c < 0) {
+            return true;
+        }
+        long h = hash(p.getOperand());
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        synchronized (this) {
+            if (!known.get(pgNo)) {
+                return true;
+            }
+            int base = (pgNo * fields.length + c) * words;
+            for (int i = 0; i < numHashes; i++) {
+                int bit = ((h1 + i * h2) & 0x7fffffff) % (64 * words);
+                if ((bits[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if page pgNo may hold a tuple that satisfies every one of
+     *   predicates
+     */
+    public boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            if (!mayMatch(pgNo, p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
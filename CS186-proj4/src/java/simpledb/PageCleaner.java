@@ -0,0 +1,172 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * PageCleaner writes the dirty pages of a BufferPool to disk in the
+ * background, so that a getPage that misses finds a clean page to evict
+ * instead of writing a dirty one back first, see {@link BufferPool#evictPage}.
+ * <p>
+ * The pool keeps a dirty page table: the pages its insertTuple and
+ * deleteTuple dirtied, each with its recLSN, the end of the log when it
+ * was first dirtied. The cleaner keeps a target number of frames of the
+ * pool free or clean: whenever more pages than the pool holds minus the
+ * target are dirty, it writes the difference, oldest recLSN first, so
+ * that the pages that hold back the log the longest go first. A page is
+ * written the way a write-back is, see {@link BufferPool#cleanPage}: its
+ * update is logged and the log forced before the page is written. Pinned
+ * pages are passed over, and nothing is written in NO STEAL mode.
+ * <p>
+ * A round runs whenever a page joins the dirty page table while the pool
+ * is short of clean frames, and every interval otherwise. The rounds of
+ * all pools run on one background thread.
+ */
+public class PageCleaner {
+
+    /** The interval between rounds of a cleaner that is not woken. */
+    static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private static final ScheduledExecutorService cleaners = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-cleaner");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final BufferPool pool;
+    private final int target;
+    private final long intervalMillis;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicBoolean woken = new AtomicBoolean();
+    private final long started = System.nanoTime();
+    private volatile ScheduledFuture<?> rounds = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a cleaner that keeps an eighth of the frames of the pool
+     * free or clean.
+     */
+    public PageCleaner(BufferPool pool) {
+        this(pool, Math.max(1, pool.numFrames() / 8), DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param pool the pool whose pages are written
+     * @param target the number of frames to keep free or clean
+     * @param intervalMillis the interval between rounds of a cleaner that
+     *   is not woken
+     */
+    public PageCleaner(BufferPool pool, int target, long intervalMillis) {
+        this.pool = pool;
+        this.target = target;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @return the number of frames this cleaner keeps free or clean
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the number of dirty pages a round writes now
+     */
+    public int deficit() {
+        return Math.max(0, pool.getDirtyPageCount() - (pool.numFrames() - target));
+    }
+
+    /**
+     * Starts the rounds in the background.
+     */
+    synchronized void start() {
+        if (rounds == null && !stopped) {
+            rounds = cleaners.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    runRound();
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the rounds in the background; a round that is running
+     * finishes.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (rounds != null) {
+            rounds.cancel(false);
+        }
+    }
+
+    /**
+     * Runs a round soon if the pool is short of clean frames. Doesn't block.
+     */
+    void wake() {
+        if (!stopped && deficit() > 0 && woken.compareAndSet(false, true)) {
+            cleaners.execute(new Runnable() {
+                public void run() {
+                    woken.set(false);
+                    runRound();
+                }
+            });
+        }
+    }
+
+    private void runRound() {
+        if (stopped) {
+            return;
+        }
+        try {
+            clean();
+        } catch (IOException e) {
+            // the pages stay dirty, and are written back on eviction
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the dirty pages the pool is short of clean frames by, oldest
+     * recLSN first.
+     *
+     * @return the number of pages written
+     */
+    public int clean() throws IOException {
+        int deficit = deficit();
+        if (deficit == 0) {
+            return 0;
+        }
+        int n = 0;
+        for (PageId pid : pool.getDirtyPagesByRecLSN()) {
+            if (n == deficit || stopped) {
+                break;
+            }
+            if (pool.cleanPage(pid)) {
+                n++;
+            }
+        }
+        written.addAndGet(n);
+        return n;
+    }
+
+    /**
+     * @return the number of pages this cleaner wrote
+     */
+    public long getPagesWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the pages this cleaner wrote per second since it was created
+     */
+    public double getFlushRate() {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return seconds > 0 ? written.get() / seconds : 0;
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb;
+
+/**
+ * How a compressed HeapFile stores its pages. The compression of a table is
+ * selected in the catalog file with the <tt>compress=</tt> table option;
+ * tables without it are not compressed.
+ *
+ * @see CompressedPageIO
+ * @see ColumnCodec
+ */
+public enum PageCompression {
+    /** Only the lightweight per-column encodings, cheap to decode. */
+    LIGHT,
+    /**
+     * Cold pages, those compressed when the table is first opened, are
+     * deflated on top of the lightweight encodings. Pages written back by
+     * the buffer pool are hot and only get the lightweight encodings, so
+     * writes stay cheap.
+     */
+    DEFLATE;
+
+    /**
+     * Parse the value of a <tt>compress=</tt> catalog option.
+     *
+     * @param s "light" or "deflate" (case insensitive)
+     * @throws IllegalArgumentException if s names no known compression
+     */
+    public static PageCompression parse(String s) {
+        try {
+            return valueOf(s.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown page compression " + s);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The page layouts a HeapFile can store its tuples in. The format of a
+ * table is selected in the catalog file with the <tt>format=</tt> table
+ * option.
+ *
+ * @see HeapFile
+ * @see Catalog#loadSchema
+ */
+public enum PageFormat {
+    /**
+     * Fixed-size slots decoded into Tuples when the page is read. The
+     * decoded page is kept on the heap; tables that should live in the
+     * frames of an off-heap pool use LAZY, which has the same layout.
+     */
+    ROW() {
+        @Override
+        public TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+            return new HeapPage(pid, data);
+        }
+
+        @Override
+        public boolean hasViews() {
+            // a HeapPage holds decoded Tuples, not the page image
+            return false;
+        }
+    },
+    /**
+     * The same on-disk layout as ROW, but fields are decoded from the raw
+     * page image only when they are accessed.
+     */
+    LAZY() {
+        @Override
+        public TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+            return new LazyHeapPage(pid, data);
+        }
+
+        @Override
+        public TuplePage createView(HeapPageId pid, ByteBuffer image) throws IOException {
+            return new LazyHeapPage(pid, image);
+        }
+    },
+    /**
+     * A slot directory with variable-length records, so strings take only
+     * the bytes they use.
+     */
+    SLOTTED() {
+        @Override
+        public TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+            return new SlottedHeapPage(pid, data);
+        }
+
+        @Override
+        public boolean hasViews() {
+            // records move within the page as they are inserted and deleted
+            return false;
+        }
+    },
+    /**
+     * The slots of ROW, but the values of each column are stored together
+     * in a minipage.
+     */
+    PAX() {
+        @Override
+        public TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+            return new PaxHeapPage(pid, data);
+        }
+
+        @Override
+        public TuplePage createView(HeapPageId pid, ByteBuffer image) throws IOException {
+            return new PaxHeapPage(pid, image);
+        }
+    };
+
+    /**
+     * @return a page of this format over the specified page image.
+     * @param pid the id of the page
+     * @param data the page image read from disk
+     */
+    public abstract TuplePage createPage(HeapPageId pid, byte[] data) throws IOException;
+
+    /**
+     * @return true if pages of this format can be views, see
+     *   {@link #createView}
+     */
+    public boolean hasViews() {
+        return true;
+    }
+
+    /**
+     * @return a page of this format that reads and writes image in place,
+     *   e.g. a frame of a {@link FrameArena}
+     * @param pid the id of the page
+     * @param image the page image, from its position to its limit
+     * @throws UnsupportedOperationException if the pages of this format
+     *   can't be views
+     */
+    public TuplePage createView(HeapPageId pid, ByteBuffer image) throws IOException {
+        throw new UnsupportedOperationException(this + " pages can't be views");
+    }
+
+    /**
+     * @return the image of a page of this format with no tuples on it.
+     */
+    public byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the image of a page of pageSize bytes of this format with no
+     *   tuples on it.
+     */
+    public byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize];
+    }
+
+    /**
+     * Parse the value of a <tt>format=</tt> catalog option.
+     *
+     * @param s the name of a format (case insensitive)
+     * @throws IllegalArgumentException if s names no known format
+     */
+    public static PageFormat parse(String s) {
+        try {
+            return valueOf(s.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown page format " + s);
+        }
+    }
+}
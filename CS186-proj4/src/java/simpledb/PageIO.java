@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * PageIO moves fixed-size page images between a file on disk and memory.
+ * HeapFile delegates all of its disk access to a PageIO, so the way pages
+ * are read and written can be chosen per table without touching the page
+ * formats themselves.
+ *
+ * @see HeapFile
+ * @see PageIO.Mode
+ */
+public interface PageIO {
+
+    /**
+     * The available I/O backends. The mode of a table is selected in the
+     * catalog file with the <tt>io=</tt> table option.
+     *
+     * @see Catalog#loadSchema
+     */
+    public enum Mode {
+        /** Open, seek and close a RandomAccessFile on every page access. */
+        RANDOM_ACCESS() {
+            @Override
+            public PageIO open(File f, int pageSize) throws IOException {
+                return new RandomAccessPageIO(f, pageSize);
+            }
+        },
+        /** Keep one FileChannel open and use positional reads and writes. */
+        CHANNEL() {
+            @Override
+            public PageIO open(File f, int pageSize) throws IOException {
+                return new ChannelPageIO(f, pageSize);
+            }
+        },
+        /** Serve reads from a MappedByteBuffer; meant for read-mostly tables. */
+        MMAP() {
+            @Override
+            public PageIO open(File f, int pageSize) throws IOException {
+                return new MappedPageIO(f, pageSize);
+            }
+        };
+
+        /**
+         * @return a PageIO of this mode over the specified file.
+         * @param f the file holding the pages
+         * @param pageSize the number of bytes per page
+         * @throws IOException if the file can't be opened
+         */
+        public abstract PageIO open(File f, int pageSize) throws IOException;
+
+        /**
+         * Parse the value of an <tt>io=</tt> catalog option.
+         *
+         * @param s one of "raf", "channel" or "mmap" (case insensitive)
+         * @throws IllegalArgumentException if s names no known mode
+         */
+        public static Mode parse(String s) {
+            s = s.toLowerCase();
+            if (s.equals("raf"))
+                return RANDOM_ACCESS;
+            if (s.equals("channel"))
+                return CHANNEL;
+            if (s.equals("mmap"))
+                return MMAP;
+            throw new IllegalArgumentException("Unknown io mode " + s);
+        }
+    }
+
+    /**
+     * Read page pgNo into data. Bytes past the end of the file are left
+     * untouched, so data should be zeroed by the caller.
+     *
+     * @param pgNo the number of the page to read
+     * @param data a buffer of exactly one page
+     */
+    public void readPage(int pgNo, byte[] data) throws IOException;
+
+    /**
+     * Write data as page pgNo, extending the file if needed.
+     *
+     * @param pgNo the number of the page to write
+     * @param data a buffer of exactly one page
+     */
+    public void writePage(int pgNo, byte[] data) throws IOException;
+
+    /**
+     * Write npages consecutive page images, starting with page pgNo, with as
+     * few writes as possible. Used to append pages in bulk.
+     *
+     * @param pgNo the number of the first page to write
+     * @param data a buffer holding the page images back to back
+     * @param npages the number of pages in data to write
+     */
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException;
+
+    /**
+     * @return the current length of the underlying file in bytes.
+     */
+    public long length() throws IOException;
+
+    /**
+     * Make sure all writes issued so far have reached the disk.
+     */
+    public void force() throws IOException;
+
+    /**
+     * Release any file handles held by this PageIO. Calling readPage or
+     * writePage afterwards reopens them.
+     */
+    public void close() throws IOException;
+}
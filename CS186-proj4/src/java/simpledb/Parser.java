@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -582,7 +583,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "compact", "cluster by" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -604,6 +605,33 @@ public class Parser {
 
     protected boolean interactive = true;
 
+    private static final Pattern COMPACT = Pattern.compile(
+            "compact\\s+(\\w+)(\\s+cluster\\s+by\\s+(\\w+))?\\s*;", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Runs <tt>compact table [cluster by field];</tt>, which ZQL doesn't
+     * parse, see {@link Catalog#compactTable}.
+     *
+     * @return false if cmd is not a compact statement
+     */
+    protected boolean handleCompactStatement(String cmd) {
+        Matcher m = COMPACT.matcher(cmd.trim());
+        if (!m.matches()) {
+            return false;
+        }
+        try {
+            int freed = Database.getCatalog().compactTable(m.group(1), m.group(3));
+            System.out.println("Compacted " + m.group(1) + ", freed " + freed + " pages");
+        } catch (NoSuchElementException e) {
+            System.out.println("Invalid compact statement: " + e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            System.out.println("Invalid compact statement: " + e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
@@ -675,6 +703,11 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (handleCompactStatement(cmd)) {
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
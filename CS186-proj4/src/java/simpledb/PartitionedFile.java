@@ -0,0 +1,445 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PartitionedFile is a DbFile that stores a table in several HeapFiles, its
+ * partitions, each of which holds the tuples whose partitioning field falls
+ * in it, see {@link Partitioning}.
+ * <p>
+ * The partitions keep their own ids: the pages, and so the RecordIds, of
+ * the tuples of a partitioned table are those of its partitions. The
+ * Catalog resolves partition ids to the partitions, so their pages are
+ * read through the BufferPool like those of any table.
+ * <p>
+ * A scan can be restricted to the partitions that may match its
+ * predicates, see {@link #iterator(TransactionId, BitSet)}; scans of more
+ * than one partition read the partitions concurrently.
+ *
+ * @see Catalog#createTable
+ * @see LogicalPlan#physicalPlan
+ */
+public class PartitionedFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The most partitions one scan reads at once. */
+    static final int SCAN_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    /** The number of tuples handed from a partition scan at once. */
+    static final int BATCH = 256;
+    /**
+     * How long a partition scan waits for its consumer to take a batch
+     * before it gives up, so that an iterator that is never closed doesn't
+     * keep reader threads alive.
+     */
+    static final long ABANDON_MILLIS = 60000;
+
+    private static final ExecutorService scanners = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-partition-scan");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final File f;
+    private final TupleDesc td;
+    private final Partitioning partitioning;
+    private final HeapFile[] partitions;
+
+    /**
+     * @param f the name of the table; it identifies the table but is not read
+     * @param td the schema of the table
+     * @param partitioning how tuples are split among the partitions
+     * @param partitions the partitions, one per partition of partitioning
+     * @throws IllegalArgumentException if the number of partitions is wrong
+     */
+    public PartitionedFile(File f, TupleDesc td, Partitioning partitioning, HeapFile[] partitions) {
+        if (partitions.length != partitioning.numPartitions()) {
+            throw new IllegalArgumentException(partitioning + " needs " + partitioning.numPartitions()
+                    + " partitions, got " + partitions.length);
+        }
+        this.f = f;
+        this.td = td;
+        this.partitioning = partitioning;
+        this.partitions = partitions.clone();
+    }
+
+    /**
+     * @return the file partition i of the table stored in f is kept in:
+     *   <tt>name.dat</tt> becomes <tt>name.p<i>i</i>.dat</tt>
+     */
+    public static File partitionFile(File f, int i) {
+        String path = f.getPath();
+        if (path.endsWith(".dat")) {
+            path = path.substring(0, path.length() - 4);
+        }
+        return new File(path + ".p" + i + ".dat");
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public int numPartitions() {
+        return partitions.length;
+    }
+
+    public HeapFile getPartition(int i) {
+        return partitions[i];
+    }
+
+    /**
+     * @return the partition with the specified id, or null if there is none
+     */
+    private HeapFile partitionWithId(int id) {
+        for (HeapFile p : partitions) {
+            if (p.getId() == id) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases the file handles of all partitions.
+     */
+    public void close() throws IOException {
+        for (HeapFile p : partitions) {
+            p.close();
+        }
+    }
+
+    /**
+     * Appends the tuples of a text file to the partitions they fall in,
+     * with a {@link BulkLoader} per partition. Lines whose partitioning
+     * field can't be parsed are skipped, as the loader skips malformed
+     * lines.
+     *
+     * @param inFile the tuples, one per line
+     * @param fieldSeparator the character between fields
+     * @return the number of tuples loaded
+     */
+    public long load(File inFile, char fieldSeparator) throws IOException {
+        int field = partitioning.getField();
+        boolean isInt = td.getFieldType(field) == Type.INT_TYPE;
+        String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+        File[] parts = new File[partitions.length];
+        Writer[] out = new Writer[partitions.length];
+        BufferedReader in = new BufferedReader(new FileReader(inFile));
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = File.createTempFile("partition", ".txt");
+                out[i] = new BufferedWriter(new FileWriter(parts[i]));
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(separator, -1);
+                if (fields.length <= field) {
+                    continue;
+                }
+                Field key;
+                try {
+                    key = isInt ? new IntField(Integer.parseInt(fields[field].trim()))
+                            : new StringField(fields[field].trim(), Type.STRING_LEN);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Writer w = out[partitioning.partitionOf(key)];
+                w.write(line);
+                w.write('\n');
+            }
+            for (Writer w : out) {
+                w.close();
+            }
+            long n = 0;
+            for (int i = 0; i < partitions.length; i++) {
+                n += BulkLoader.forTable(partitions[i], fieldSeparator).load(parts[i], partitions[i]);
+            }
+            return n;
+        } finally {
+            in.close();
+            for (int i = 0; i < parts.length; i++) {
+                if (out[i] != null) {
+                    out[i].close();
+                }
+                if (parts[i] != null) {
+                    parts[i].delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of pages of all partitions
+     */
+    public int numPages() {
+        int n = 0;
+        for (HeapFile p : partitions) {
+            n += p.numPages();
+        }
+        return n;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapFile p = partitionWithId(pid.getTableId());
+        if (p == null) {
+            throw new IllegalArgumentException("page " + pid + " is not in a partition of this table");
+        }
+        return p.readPage(pid);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        HeapFile p = partitionWithId(page.getId().getTableId());
+        if (p == null) {
+            throw new IOException("page " + page.getId() + " is not in a partition of this table");
+        }
+        p.writePage(page);
+    }
+
+    /**
+     * Adds the tuple to the partition its partitioning field falls in.
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return partitions[partitioning.partitionOf(t.getField(partitioning.getField()))].insertTuple(tid, t);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        HeapFile p = partitionWithId(t.getRecordId().getPageId().getTableId());
+        if (p == null) {
+            throw new DbException("tuple is not in a partition of this table");
+        }
+        return p.deleteTuple(tid, t);
+    }
+
+    /**
+     * @return an iterator over the tuples of all partitions
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, partitioning.all());
+    }
+
+    /**
+     * Returns an iterator over the tuples of some of the partitions, in no
+     * particular order. When there is more than one, the partitions are
+     * read concurrently, up to SCAN_THREADS at a time.
+     *
+     * @param parts the partitions to read
+     */
+    public DbFileIterator iterator(TransactionId tid, BitSet parts) {
+        return iterator(tid, parts, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of some of the partitions that
+     * skips the pages whose zones rule out a match of predicates.
+     *
+     * @param parts the partitions to read
+     * @param predicates the predicates, or null to read every page
+     * @see HeapFile#iterator(TransactionId, List)
+     */
+    public DbFileIterator iterator(TransactionId tid, BitSet parts, List<Predicate> predicates) {
+        return iterator(tid, parts, predicates, ABANDON_MILLIS);
+    }
+
+    /**
+     * As iterator(tid, parts, predicates), but abandons a concurrent scan
+     * whose consumer takes no tuples for abandonMillis.
+     */
+    DbFileIterator iterator(TransactionId tid, BitSet parts, List<Predicate> predicates, long abandonMillis) {
+        ArrayList<HeapFile> files = new ArrayList<HeapFile>();
+        for (int i = parts.nextSetBit(0); i >= 0 && i < partitions.length; i = parts.nextSetBit(i + 1)) {
+            files.add(partitions[i]);
+        }
+        if (files.size() == 1) {
+            return files.get(0).iterator(tid, predicates);
+        }
+        return new ConcurrentIterator(tid, files.toArray(new HeapFile[files.size()]), predicates, abandonMillis);
+    }
+
+    /**
+     * Reads several HeapFiles on background threads, handing their tuples to
+     * the consumer through a bounded queue of batches. If the consumer takes
+     * nothing for abandonMillis, the readers stop and the next hasNext
+     * throws a DbException; rewind starts a new pass.
+     */
+    private static class ConcurrentIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Marks that a reader is done. */
+        private static final List<Tuple> DONE = new ArrayList<Tuple>();
+
+        /** The state of one pass over the files, so readers of an old pass can't disturb a new one. */
+        private static class Pass {
+            final BlockingQueue<List<Tuple>> queue = new ArrayBlockingQueue<List<Tuple>>(4 * SCAN_THREADS);
+            final AtomicInteger nextFile = new AtomicInteger();
+            volatile boolean closed = false;
+            volatile boolean abandoned = false;
+            volatile long lastTake = System.currentTimeMillis();
+            volatile Exception failure = null;
+            int live;
+        }
+
+        private final TransactionId tid;
+        private final HeapFile[] files;
+        private final List<Predicate> predicates;
+        private final long abandonMillis;
+        private Pass pass = null;
+        private Iterator<Tuple> batch = null;
+
+        ConcurrentIterator(TransactionId tid, HeapFile[] files, List<Predicate> predicates, long abandonMillis) {
+            this.tid = tid;
+            this.files = files;
+            this.predicates = predicates;
+            this.abandonMillis = abandonMillis;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            close();
+            final Pass p = new Pass();
+            p.live = Math.min(SCAN_THREADS, files.length);
+            for (int i = 0; i < p.live; i++) {
+                scanners.execute(new Runnable() {
+                    public void run() {
+                        read(p);
+                    }
+                });
+            }
+            this.pass = p;
+            this.batch = Collections.<Tuple>emptyList().iterator();
+        }
+
+        /**
+         * Read files until there are none left, or the pass is closed.
+         */
+        private void read(Pass p) {
+            try {
+                for (int i = p.nextFile.getAndIncrement(); i < files.length && !p.closed;
+                        i = p.nextFile.getAndIncrement()) {
+                    DbFileIterator it = files[i].iterator(tid, predicates);
+                    ArrayList<Tuple> tuples = new ArrayList<Tuple>(BATCH);
+                    try {
+                        it.open();
+                        while (!p.closed && it.hasNext()) {
+                            tuples.add(it.next());
+                            if (tuples.size() == BATCH) {
+                                put(p, tuples);
+                                tuples = new ArrayList<Tuple>(BATCH);
+                            }
+                        }
+                    } finally {
+                        // unpins the current page and ends the scan
+                        it.close();
+                    }
+                    if (!tuples.isEmpty()) {
+                        put(p, tuples);
+                    }
+                }
+            } catch (Exception e) {
+                p.failure = e;
+            } finally {
+                put(p, DONE);
+            }
+        }
+
+        /**
+         * Hand tuples to the consumer, waiting while the queue is full.
+         * Abandons the pass if the consumer has taken nothing for
+         * abandonMillis.
+         */
+        private void put(Pass p, List<Tuple> tuples) {
+            try {
+                while (!p.closed && !p.queue.offer(tuples, 10, TimeUnit.MILLISECONDS)) {
+                    if (System.currentTimeMillis() - p.lastTake > abandonMillis) {
+                        p.abandoned = true;
+                        p.closed = true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (pass == null) {
+                return false;
+            }
+            while (!batch.hasNext()) {
+                if (pass.live == 0) {
+                    return false;
+                }
+                List<Tuple> tuples;
+                try {
+                    tuples = pass.queue.poll(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while scanning partitions");
+                }
+                if (tuples == null) {
+                    if (pass.abandoned) {
+                        close();
+                        throw new DbException("the partition scan was abandoned after " + abandonMillis
+                                + " ms without a take");
+                    }
+                    continue;
+                }
+                pass.lastTake = System.currentTimeMillis();
+                if (tuples == DONE) {
+                    pass.live--;
+                    if (pass.failure != null) {
+                        Exception e = pass.failure;
+                        close();
+                        if (e instanceof TransactionAbortedException) {
+                            throw (TransactionAbortedException) e;
+                        }
+                        throw new DbException("failed to scan a partition: " + e);
+                    }
+                    continue;
+                }
+                batch = tuples.iterator();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("not opened or no tuple remained");
+            }
+            return batch.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        public void close() {
+            if (pass != null) {
+                pass.closed = true;
+                pass.queue.clear();
+                pass = null;
+            }
+            batch = null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * How the tuples of a {@link PartitionedFile} are split among its
+ * partitions, by the value of one field. The partitioning of a table is
+ * selected in the catalog file with the <tt>partition=</tt> table option:
+ * <ul>
+ * <li> <tt>partition=range:field:b1,b2,...,bn</tt> splits an INT field into
+ *      n + 1 ranges: partition 0 holds the values below b1, partition i the
+ *      values from bi up to but not including bi+1, and partition n the
+ *      values from bn on. The bounds must be ascending.
+ * <li> <tt>partition=hash:field:n</tt> spreads the values of a field over n
+ *      partitions by their hash code.
+ * </ul>
+ *
+ * @see PartitionedFile
+ */
+public abstract class Partitioning implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int field;
+
+    protected Partitioning(int field) {
+        this.field = field;
+    }
+
+    /**
+     * @return the index of the field the tuples are partitioned on
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the number of partitions
+     */
+    public abstract int numPartitions();
+
+    /**
+     * @return the partition that holds the tuples whose partitioning field
+     *   has the specified value
+     */
+    public abstract int partitionOf(Field value);
+
+    /**
+     * Returns the partitions that may hold tuples whose partitioning field
+     * satisfies <tt>field op operand</tt>; all other partitions can be
+     * skipped by a scan with that predicate.
+     */
+    public abstract BitSet partitionsFor(Predicate.Op op, Field operand);
+
+    /**
+     * @return the set of all partitions
+     */
+    public BitSet all() {
+        BitSet all = new BitSet();
+        all.set(0, numPartitions());
+        return all;
+    }
+
+    /**
+     * Partitions an INT field into ranges between ascending bounds.
+     */
+    public static class Range extends Partitioning {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] bounds;
+
+        /**
+         * @param field the INT field to partition on
+         * @param bounds the lowest value of each partition but the first, ascending
+         * @throws IllegalArgumentException if the bounds are not strictly ascending
+         */
+        public Range(int field, int[] bounds) {
+            super(field);
+            for (int i = 1; i < bounds.length; i++) {
+                if (bounds[i] <= bounds[i - 1]) {
+                    throw new IllegalArgumentException("range bounds are not ascending: " + Arrays.toString(bounds));
+                }
+            }
+            this.bounds = bounds.clone();
+        }
+
+        public int numPartitions() {
+            return bounds.length + 1;
+        }
+
+        public int partitionOf(Field value) {
+            return partitionOf(((IntField) value).getValue());
+        }
+
+        private int partitionOf(int v) {
+            // the number of bounds that are <= v
+            int i = Arrays.binarySearch(bounds, v);
+            return i >= 0 ? i + 1 : -(i + 1);
+        }
+
+        public BitSet partitionsFor(Predicate.Op op, Field operand) {
+            int c = ((IntField) operand).getValue();
+            BitSet parts = new BitSet();
+            switch (op) {
+            case EQUALS:
+                parts.set(partitionOf(c));
+                break;
+            case LESS_THAN:
+                if (c != Integer.MIN_VALUE) {
+                    parts.set(0, partitionOf(c - 1) + 1);
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                parts.set(0, partitionOf(c) + 1);
+                break;
+            case GREATER_THAN:
+                if (c != Integer.MAX_VALUE) {
+                    parts.set(partitionOf(c + 1), numPartitions());
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                parts.set(partitionOf(c), numPartitions());
+                break;
+            default:
+                return all();
+            }
+            return parts;
+        }
+
+        public String toString() {
+            return "range(" + getField() + ": " + Arrays.toString(bounds) + ")";
+        }
+    }
+
+    /**
+     * Spreads the values of a field over a number of partitions by hash code.
+     */
+    public static class Hash extends Partitioning {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int n;
+
+        /**
+         * @param field the field to partition on
+         * @param n the number of partitions
+         * @throws IllegalArgumentException if n is not positive
+         */
+        public Hash(int field, int n) {
+            super(field);
+            if (n <= 0) {
+                throw new IllegalArgumentException("bad number of hash partitions " + n);
+            }
+            this.n = n;
+        }
+
+        public int numPartitions() {
+            return n;
+        }
+
+        public int partitionOf(Field value) {
+            return (value.hashCode() & 0x7fffffff) % n;
+        }
+
+        public BitSet partitionsFor(Predicate.Op op, Field operand) {
+            if (op != Predicate.Op.EQUALS) {
+                return all();
+            }
+            BitSet parts = new BitSet();
+            parts.set(partitionOf(operand));
+            return parts;
+        }
+
+        public String toString() {
+            return "hash(" + getField() + ": " + n + ")";
+        }
+    }
+
+    /**
+     * Parse the value of a <tt>partition=</tt> catalog option.
+     *
+     * @param s the partitioning, e.g. <tt>range:year:1950,2000</tt>
+     * @param td the schema of the table
+     * @throws IllegalArgumentException if s is malformed or names no field of td
+     */
+    public static Partitioning parse(String s, TupleDesc td) {
+        String[] parts = s.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("malformed partitioning " + s);
+        }
+        int field;
+        try {
+            field = td.fieldNameToIndex(parts[1]);
+        } catch (NoSuchElementException e) {
+            throw new IllegalArgumentException("unknown partitioning field " + parts[1]);
+        }
+        try {
+            if (parts[0].equalsIgnoreCase("range")) {
+                if (td.getFieldType(field) != Type.INT_TYPE) {
+                    throw new IllegalArgumentException("can only range partition on an int field");
+                }
+                String[] bs = parts[2].split(",");
+                int[] bounds = new int[bs.length];
+                for (int i = 0; i < bs.length; i++) {
+                    bounds[i] = Integer.parseInt(bs[i].trim());
+                }
+                return new Range(field, bounds);
+            } else if (parts[0].equalsIgnoreCase("hash")) {
+                return new Hash(field, Integer.parseInt(parts[2]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed partitioning " + s);
+        }
+        throw new IllegalArgumentException("unknown partitioning " + parts[0]);
+    }
+}
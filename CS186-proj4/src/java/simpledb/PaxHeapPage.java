@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxHeapPage stores one page of a HeapFile in the PAX layout: the page has
+ * the same header and number of slots as a HeapPage, but instead of storing
+ * each tuple contiguously, the values of each column are grouped together
+ * in a minipage.
+ * <p>
+ * The format of a PAX page is:
+ * <ul>
+ * <li> the slot bitmap of HeapPage
+ * <li> for each column j, a minipage of numSlots values of column j, each
+ *      of the fixed size given by its Type
+ * </ul>
+ * A scan that reads few columns of a wide table thus touches only the
+ * minipages of those columns, and an INT_TYPE column can be copied out in
+ * bulk with {@link #getInts}, which a scan with predicates on INT_TYPE
+ * columns filters the page with, see {@link #iterator(List)}.
+ * <p>
+ * Fields are decoded lazily, as in LazyHeapPage.
+ *
+ * @see PageFormat#PAX
+ * @see LazyHeapPage
+ */
+public class PaxHeapPage extends LazyHeapPage {
+
+    private final int[] columnStarts;
+
+    /**
+     * Create a PaxHeapPage over a page image read from disk. The page keeps
+     * using data; it is not copied.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.columnStarts = columnStarts(td, numSlots, headerSize);
+    }
+
+    /**
+     * Create a PaxHeapPage over the bytes of image from its position to its
+     * limit, e.g. a frame of a {@link FrameArena}; they are not copied.
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer image) throws IOException {
+        super(id, image);
+        this.columnStarts = columnStarts(td, numSlots, headerSize);
+    }
+
+    /**
+     * @return the offset of the minipage of each column of td.
+     */
+    private static int[] columnStarts(TupleDesc td, int numSlots, int headerSize) {
+        int[] starts = new int[td.numFields()];
+        int off = headerSize;
+        for (int j = 0; j < starts.length; j++) {
+            starts[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+        return starts;
+    }
+
+    @Override
+    protected int offsetOf(int i, int j) {
+        return columnStarts[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    @Override
+    public PaxHeapPage getBeforeImage() {
+        try {
+            return new PaxHeapPage(getId(), beforeImage());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Copy the values of INT_TYPE column j of all used slots, in slot order,
+     * into dst.
+     *
+     * @param j the column to read
+     * @param dst the array to fill; must have room for getNumSlots() values
+     * @return the number of values copied
+     */
+    public int getInts(int j, int[] dst) {
+        if (td.getFieldType(j) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("column " + j + " is not an INT_TYPE column");
+        }
+        if (getNumEmptySlots() == 0) {
+            ByteBuffer column = buf.duplicate();
+            column.position(columnStarts[j]);
+            column.asIntBuffer().get(dst, 0, numSlots);
+            return numSlots;
+        }
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                dst[n++] = buf.getInt(columnStarts[j] + i * 4);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy every predicate on
+     * an INT_TYPE field, like LazyHeapPage does, but a column at a time:
+     * the values of the column of each predicate are copied out with
+     * {@link #getInts}, and the slots still selected are checked against
+     * them.
+     */
+    @Override
+    public Iterator<Tuple> iterator(List<Predicate> predicates) {
+        List<Predicate> ints = intPredicates(predicates);
+        if (ints.isEmpty()) {
+            return iterator();
+        }
+        // getInts copies the values of the used slots, in slot order
+        int[] slots = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                slots[n++] = i;
+            }
+        }
+        int[] selected = new int[n];
+        for (int k = 0; k < n; k++) {
+            selected[k] = k;
+        }
+        int[] column = new int[numSlots];
+        for (Predicate p : ints) {
+            getInts(p.getField(), column);
+            int kept = 0;
+            for (int k = 0; k < n; k++) {
+                if (matches(p, column[selected[k]])) {
+                    selected[kept++] = selected[k];
+                }
+            }
+            n = kept;
+        }
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(n);
+        for (int k = 0; k < n; k++) {
+            tuples.add(getTuple(slots[selected[k]]));
+        }
+        return tuples.iterator();
+    }
+
+    /**
+     * Rearrange the image of a HeapPage with fields of the specified types
+     * into the PAX layout. The slot bitmap is unchanged.
+     *
+     * @param types the types of the fields of the table
+     * @param rowData the image of a HeapPage
+     * @return the image of the equivalent PaxHeapPage
+     */
+    public static byte[] fromRowImage(Type[] types, byte[] rowData) {
+        TupleDesc td = new TupleDesc(types);
+        int tupleSize = td.getSize();
+        int numSlots = (rowData.length * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] starts = columnStarts(td, numSlots, headerSize);
+        byte[] paxData = new byte[rowData.length];
+        System.arraycopy(rowData, 0, paxData, 0, headerSize);
+        for (int i = 0; i < numSlots; i++) {
+            int rowOff = headerSize + i * tupleSize;
+            for (int j = 0; j < types.length; j++) {
+                int len = types[j].getLen();
+                System.arraycopy(rowData, rowOff, paxData, starts[j] + i * len, len);
+                rowOff += len;
+            }
+        }
+        return paxData;
+    }
+}
@@ -9,10 +9,12 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index_scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -21,7 +23,7 @@ public class QueryPlanVisualizer {
         if (root == null)
             return 0;
 
-        if (!(root instanceof Operator))
+        if (!(root instanceof Operator) || root instanceof IndexScan)
             return 2;
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
@@ -65,24 +67,44 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan) {
+            String scan = SCAN;
+            String tableName;
+            String alias;
+            String cond = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                if (s.getPartitions() != null) {
+                    cond = ",partitions:" + s.getPartitions();
+                }
+            } else {
+                IndexScan s = (IndexScan) queryPlan;
+                Predicate p = s.getPredicate();
+                scan = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                if (p.getOperand() != null) {
+                    cond = "," + s.getTupleDesc().getFieldName(p.getField())
+                            + p.getOp() + p.getOperand();
+                }
+                cond += ",card:" + s.getEstimatedCardinality();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias + cond);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -114,7 +136,8 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d",
+                        j instanceof IndexJoin ? INDEX_JOIN : JOIN,
                         field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (JOIN.length() / 2 > parentUpperBarStartShift)
@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * RandomAccessPageIO opens a new RandomAccessFile for every page access.
+ * It holds no file handles between calls, which makes it the safest choice
+ * for short-lived tables, but costs an open/seek/close per page.
+ */
+public class RandomAccessPageIO implements PageIO {
+
+    private File f = null;
+    private int pageSize = 0;
+
+    public RandomAccessPageIO(File f, int pageSize) {
+        this.f = f;
+        this.pageSize = pageSize;
+    }
+
+    public void readPage(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile rafile = new RandomAccessFile(f, "r");
+        try {
+            rafile.seek((long) pgNo * pageSize);
+            int read = 0;
+            while (read < pageSize) {
+                int n = rafile.read(data, read, pageSize - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        } finally {
+            rafile.close();
+        }
+    }
+
+    public void writePage(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile rafile = new RandomAccessFile(f, "rw");
+        try {
+            rafile.seek((long) pgNo * pageSize);
+            rafile.write(data, 0, pageSize);
+        } finally {
+            rafile.close();
+        }
+    }
+
+    public void writePages(int pgNo, byte[] data, int npages) throws IOException {
+        RandomAccessFile rafile = new RandomAccessFile(f, "rw");
+        try {
+            rafile.seek((long) pgNo * pageSize);
+            rafile.write(data, 0, npages * pageSize);
+        } finally {
+            rafile.close();
+        }
+    }
+
+    public long length() {
+        return f.length();
+    }
+
+    public void force() {
+        // every write already went through a closed RandomAccessFile
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ReadAhead prefetches the pages of tables that are being read
+ * sequentially, so that a scan finds the next page already read from disk
+ * instead of stalling on every buffer pool miss.
+ * <p>
+ * The BufferPool reports every page it is asked for with {@link #access}.
+ * Once the pages of a table are asked for in order, the table is a
+ * sequential stream, and the next <i>window</i> pages past the last one
+ * asked for are read on background threads. The BufferPool asks for a page
+ * that missed with {@link #take}, which hands over a prefetched page,
+ * waiting for it if its read is still in flight.
+ * <p>
+ * The window adapts to the consumer: when it has to wait for a page, the
+ * reads are not far enough ahead and the window doubles; when a whole
+ * window of pages was ready before it was needed, the window halves, so
+ * that a slow consumer doesn't keep more pages than needed away from the
+ * pool. The window never exceeds a quarter of the pool; for a table with
+ * pages larger than BufferPool.PAGE_SIZE, it is as many fewer pages.
+ *
+ * @see BufferPool#getPage
+ */
+public class ReadAhead {
+
+    /** The window of a new stream. */
+    static final int MIN_WINDOW = 4;
+    /** The largest window, for pools large enough to hold it four times. */
+    static final int MAX_WINDOW = 64;
+    /** The number of background reader threads, shared by all pools. */
+    static final int THREADS = 2;
+
+    private static final ExecutorService readers = Executors.newFixedThreadPool(THREADS,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /** The state of the sequential reading of one table. */
+    private static class Stream {
+        /** the last page asked for; read without the lock by cached accesses */
+        volatile int last;
+        /** the number of pages asked for in order, up to last */
+        int run = 1;
+        int window = MIN_WINDOW;
+        /** the last page whose read was started */
+        int scheduled;
+        /** the number of prefetched pages in a row that were ready */
+        int ready = 0;
+
+        Stream(int pgNo) {
+            this.last = pgNo;
+            this.scheduled = pgNo;
+        }
+    }
+
+    private final int maxWindow;
+    private final ConcurrentHashMap<PageId, Future<Page>> pending = new ConcurrentHashMap<PageId, Future<Page>>();
+    /** The stream of each table; changed while holding this */
+    private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+
+    /**
+     * @param poolPages the capacity of the buffer pool the pages are read for
+     */
+    public ReadAhead(int poolPages) {
+        this(poolPages, MAX_WINDOW);
+    }
+
+    /**
+     * @param poolPages the capacity of the buffer pool the pages are read for
+     * @param maxWindow the largest window; less than MIN_WINDOW turns read-ahead off
+     */
+    public ReadAhead(int poolPages, int maxWindow) {
+        this.maxWindow = Math.min(maxWindow, poolPages / 4);
+    }
+
+    /**
+     * @return false if the pool is too small to read ahead into
+     */
+    public boolean isEnabled() {
+        return maxWindow >= MIN_WINDOW;
+    }
+
+    /**
+     * Record a request for a page, and start reading the pages that follow
+     * it if its table is being read sequentially. Only the pages of tables
+     * that are not in the buffer pool are read ahead.
+     */
+    public void access(PageId pid) {
+        access(pid, false);
+    }
+
+    /**
+     * Record a request for a page, see {@link #access(PageId)}. A page
+     * found in the buffer pool only moves the stream of its table on if it
+     * is the page after the last one asked for; it neither starts nor
+     * restarts a stream, so that the hits of concurrent scans don't take
+     * the lock of the read-ahead.
+     *
+     * @param cached true if the page was found in the buffer pool
+     */
+    public void access(PageId pid, boolean cached) {
+        if (!isEnabled() || !(pid instanceof HeapPageId)) {
+            return;
+        }
+        int tableId = pid.getTableId();
+        int pgNo = pid.pageNumber();
+        if (cached) {
+            Stream s = streams.get(tableId);
+            if (s == null || pgNo != s.last + 1) {
+                return;
+            }
+        }
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            return;
+        }
+        HeapFile hf = (HeapFile) file;
+        // the window is counted in pages of PAGE_SIZE bytes
+        int window = Math.max(1, (int) ((long) maxWindow * BufferPool.PAGE_SIZE / hf.getPageSize()));
+        int from, to;
+        synchronized (this) {
+            Stream s = streams.get(tableId);
+            if (cached && (s == null || pgNo != s.last + 1)) {
+                // another scan moved the stream meanwhile
+                return;
+            }
+            if (s == null) {
+                streams.put(tableId, new Stream(pgNo));
+                return;
+            }
+            if (pgNo == s.last) {
+                return;
+            }
+            if (pgNo != s.last + 1) {
+                // not sequential (anymore); drop what was read for the old position
+                cancel(tableId, s.last, s.scheduled);
+                streams.put(tableId, new Stream(pgNo));
+                return;
+            }
+            s.last = pgNo;
+            s.run++;
+            from = Math.max(s.scheduled, pgNo) + 1;
+            to = pgNo + Math.min(s.window, window);
+            if (to < from) {
+                return;
+            }
+            s.scheduled = to;
+        }
+        to = Math.min(to, hf.numPages() - 1);
+        BufferPool pool = Database.getBufferPool();
+        for (int i = from; i <= to; i++) {
+            HeapPageId next = new HeapPageId(tableId, i);
+            if (!pool.isCached(next)) {
+                schedule(file, next);
+            }
+        }
+    }
+
+    private void schedule(final DbFile file, final PageId pid) {
+        if (pending.containsKey(pid)) {
+            return;
+        }
+        FutureTask<Page> read = new FutureTask<Page>(new Callable<Page>() {
+            public Page call() {
+                return file.readPage(pid);
+            }
+        });
+        if (pending.putIfAbsent(pid, read) == null) {
+            readers.execute(read);
+        }
+    }
+
+    /**
+     * Drop the reads of pages after, up to and including to.
+     */
+    private void cancel(int tableId, int after, int to) {
+        for (int i = after + 1; i <= to; i++) {
+            Future<Page> read = pending.remove(new HeapPageId(tableId, i));
+            if (read != null) {
+                read.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Hand over a page that was read ahead, waiting for its read if it is
+     * in flight. The page is only handed over once.
+     *
+     * @return the page, or null if it wasn't read ahead or its read failed
+     */
+    public Page take(PageId pid) {
+        Future<Page> read = pending.remove(pid);
+        if (read == null) {
+            return null;
+        }
+        boolean waited = !read.isDone();
+        adapt(pid.getTableId(), waited);
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private synchronized void adapt(int tableId, boolean waited) {
+        Stream s = streams.get(tableId);
+        if (s == null) {
+            return;
+        }
+        if (waited) {
+            s.window = Math.min(2 * s.window, maxWindow);
+            s.ready = 0;
+        } else if (++s.ready >= s.window) {
+            s.window = Math.max(s.window / 2, MIN_WINDOW);
+            s.ready = 0;
+        }
+    }
+
+    /**
+     * @return the current window of the table, or 0 if it isn't being read
+     *   sequentially
+     */
+    public synchronized int getWindow(int tableId) {
+        Stream s = streams.get(tableId);
+        return s == null || s.run < 2 ? 0 : s.window;
+    }
+
+    /**
+     * Forget a page that was read ahead, because the copy on disk it was
+     * read from has changed since.
+     */
+    public void invalidate(PageId pid) {
+        Future<Page> read = pending.remove(pid);
+        if (read != null) {
+            read.cancel(false);
+        }
+    }
+
+    /**
+     * Forget the pages of a table that were read ahead, because its file
+     * was replaced.
+     */
+    public void invalidate(int tableId) {
+        Iterator<Map.Entry<PageId, Future<Page>>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, Future<Page>> e = it.next();
+            if (e.getKey().getTableId() == tableId) {
+                it.remove();
+                e.getValue().cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Forget all pages that were read ahead and all streams.
+     */
+    public synchronized void clear() {
+        for (Future<Page> read : pending.values()) {
+            read.cancel(false);
+        }
+        pending.clear();
+        streams.clear();
+    }
+}
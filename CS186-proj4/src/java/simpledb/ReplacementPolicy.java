@@ -0,0 +1,107 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which entry of an {@link LRUCache} is dropped
+ * to make room for a new one. The cache tells the policy about every entry
+ * that comes in, is used, or is removed, and asks it for a victim whenever
+ * it is full. A policy may remember entries it evicted, as ghosts, to
+ * tell a page that is read again soon from one read once by a scan.
+ * <p>
+ * Policies are not thread safe; the cache is used under a lock.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy<Key> {
+
+    /**
+     * The available policies. The policy of the BufferPool is selected
+     * when the Database is set up, see {@link Database#POOLPOLICYPROPERTY}.
+     */
+    public enum Kind {
+        /** Evict the least recently used entry. */
+        LRU() {
+            @Override
+            public <Key> ReplacementPolicy<Key> create(int capacity) {
+                return new LruPolicy<Key>();
+            }
+        },
+        /** Sweep a clock hand over the entries, sparing those used since it last passed. */
+        CLOCK() {
+            @Override
+            public <Key> ReplacementPolicy<Key> create(int capacity) {
+                return new ClockPolicy<Key>();
+            }
+        },
+        /** Keep entries used once in a FIFO queue apart from those used again. */
+        TWO_QUEUE() {
+            @Override
+            public <Key> ReplacementPolicy<Key> create(int capacity) {
+                return new TwoQueuePolicy<Key>(capacity);
+            }
+        },
+        /** Adapt the room for entries used once and used again to the ghosts hit. */
+        ARC() {
+            @Override
+            public <Key> ReplacementPolicy<Key> create(int capacity) {
+                return new ArcPolicy<Key>(capacity);
+            }
+        };
+
+        /**
+         * @return a policy of this kind.
+         * @param capacity the number of entries the cache holds when full,
+         *   which sizes the queues of some policies
+         */
+        public abstract <Key> ReplacementPolicy<Key> create(int capacity);
+
+        /**
+         * Parse the name of a policy.
+         *
+         * @param s one of "lru", "clock", "2q" or "arc" (case insensitive)
+         * @throws IllegalArgumentException if s names no known policy
+         */
+        public static Kind parse(String s) {
+            s = s.toLowerCase();
+            if (s.equals("lru"))
+                return LRU;
+            if (s.equals("clock"))
+                return CLOCK;
+            if (s.equals("2q"))
+                return TWO_QUEUE;
+            if (s.equals("arc"))
+                return ARC;
+            throw new IllegalArgumentException("Unknown replacement policy " + s);
+        }
+    }
+
+    /**
+     * A key that was not in the cache was put into it.
+     */
+    public void admitted(Key key);
+
+    /**
+     * A key in the cache was read, or put again.
+     */
+    public void accessed(Key key);
+
+    /**
+     * A key was removed from the cache other than by {@link #evict}. The
+     * policy forgets it.
+     */
+    public void removed(Key key);
+
+    /**
+     * Chooses the key to drop from the cache, and stops counting it as in
+     * the cache.
+     *
+     * @return the key, or null if no key is in the cache
+     */
+    public Key evict();
+
+    /**
+     * Takes back a key returned by {@link #evict} that the cache could not
+     * drop, e.g. a dirty page, and counts it as in the cache again. The key
+     * is treated as just used, and no ghost of it is remembered.
+     */
+    public void kept(Key key);
+}
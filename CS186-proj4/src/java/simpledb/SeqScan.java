@@ -18,6 +18,8 @@ public class SeqScan implements DbIterator {
     private String tableAlias = null;
     private DbFileIterator dbFileIterator = null;
     private TupleDesc td = null;
+    private BitSet partitions = null;
+    private List<Predicate> pagePredicates = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -40,6 +42,92 @@ public class SeqScan implements DbIterator {
         reset(tableid, tableAlias);
     }
 
+    /**
+     * Creates a sequential scan over some of the partitions of a
+     * partitioned table.
+     *
+     * @param partitions
+     *            the partitions of the table to read; all others are
+     *            skipped
+     * @throws IllegalArgumentException if the table is not partitioned
+     * @see PartitionedFile#iterator(TransactionId, BitSet)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, BitSet partitions) {
+        this(tid, tableid, tableAlias, partitions, null);
+    }
+
+    /**
+     * Creates a sequential scan that skips the pages whose zone map rules
+     * out a tuple satisfying p. The scan doesn't apply p to the tuples it
+     * returns: a Filter is still needed on top of it.
+     *
+     * @param p
+     *            the predicate, over the fields of the table
+     * @see ZoneMap
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate p) {
+        this(tid, tableid, tableAlias, null, Collections.singletonList(p));
+    }
+
+    /**
+     * Creates a sequential scan over some of the partitions of a table
+     * that skips the pages whose zone map rules out a tuple satisfying all
+     * of pagePredicates. As above, the predicates are not applied to the
+     * tuples returned.
+     *
+     * @param partitions
+     *            the partitions of the table to read, or null to read them
+     *            all
+     * @param pagePredicates
+     *            the predicates, over the fields of the table, or null to
+     *            read every page; tables that keep no zone map ignore them
+     * @throws IllegalArgumentException if partitions are given and the
+     *            table is not partitioned
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, BitSet partitions,
+            List<Predicate> pagePredicates) {
+        this(tid, tableid, tableAlias);
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (partitions != null && !(file instanceof PartitionedFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not partitioned");
+        }
+        if (partitions != null) {
+            this.partitions = (BitSet) partitions.clone();
+        }
+        if (pagePredicates != null && !pagePredicates.isEmpty()) {
+            this.pagePredicates = new ArrayList<Predicate>(pagePredicates);
+        }
+        if (file instanceof PartitionedFile) {
+            PartitionedFile pf = (PartitionedFile) file;
+            this.dbFileIterator = pf.iterator(tid,
+                    this.partitions == null ? pf.getPartitioning().all() : this.partitions, this.pagePredicates);
+        } else if (file instanceof HeapFile && this.pagePredicates != null) {
+            this.dbFileIterator = ((HeapFile) file).iterator(tid, this.pagePredicates);
+        } else if (file instanceof LsmFile && this.pagePredicates != null) {
+            // an LsmFile reads the range of keys the predicates allow
+            this.dbFileIterator = ((LsmFile) file).iterator(tid, this.pagePredicates);
+        } else if (file instanceof MemoryFile && this.pagePredicates != null) {
+            // a MemoryFile reads only the chain of a key it is filtered on
+            this.dbFileIterator = ((MemoryFile) file).iterator(tid, this.pagePredicates);
+        }
+    }
+
+    /**
+     * @return the partitions this scan reads, or null if it reads the whole
+     *   table
+     */
+    public BitSet getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @return the predicates this scan skips pages by, or null if it reads
+     *   every page
+     */
+    public List<Predicate> getPagePredicates() {
+        return pagePredicates;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -71,6 +159,8 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.partitions = null;
+        this.pagePredicates = null;
         this.dbFileIterator = Database.getCatalog().getDbFile(tableid).iterator(tid);
         TupleDesc oldTd = Database.getCatalog().getTupleDesc(tableid);
         int numFields = oldTd.numFields();
@@ -121,6 +211,10 @@ public class SeqScan implements DbIterator {
         if (oldTuple == null) {
             return null;
         }
+        if (oldTuple instanceof LazyTuple) {
+            // keep the fields encoded until somebody reads them
+            return ((LazyTuple) oldTuple).withTupleDesc(this.td);
+        }
         Tuple result = new Tuple(this.td);
         result.setRecordId(oldTuple.getRecordId());
         for (int i = 0; i < oldTuple.getTupleDesc().numFields(); i++) {
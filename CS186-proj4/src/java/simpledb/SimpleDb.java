@@ -8,7 +8,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -17,6 +17,7 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            PageFormat format = PageFormat.ROW;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -40,16 +41,52 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                if (args.length==6) {
+                    try {
+                        format = PageFormat.parse(args[5]);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e.getMessage());
+                        return;
+                    }
+                }
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            new BulkLoader(ts,fieldSeparator,format).load(sourceTxtFile,targetDatFile);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("load")) {
+            // append a text file to a table of a catalog
+            if (args.length<4 || args.length>5){
+                System.err.println("usage: load <catalog> <table> <file> [separator]");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            DbFile table;
+            try {
+                table = Database.getCatalog().getDbFile(Database.getCatalog().getTableId(args[2]));
+            } catch (NoSuchElementException e) {
+                System.err.println("Unknown table " + args[2]);
+                return;
+            }
+            char fieldSeparator = args.length==5 ? args[4].charAt(0) : ',';
+            if (table instanceof PartitionedFile) {
+                long n = ((PartitionedFile) table).load(new File(args[3]), fieldSeparator);
+                ((PartitionedFile) table).close();
+                System.out.println("Loaded " + n + " tuples into " + args[2]);
+                return;
+            }
+            if (!(table instanceof HeapFile)) {
+                System.err.println("Table " + args[2] + " is not a heap file");
+                return;
+            }
+            long n = BulkLoader.forTable((HeapFile) table, fieldSeparator)
+                .load(new File(args[3]), (HeapFile) table);
+            ((HeapFile) table).close();
+            System.out.println("Loaded " + n + " tuples into " + args[2]);
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -0,0 +1,466 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage stores one page of a HeapFile as variable-length
+ * records, so short strings take only as many bytes as they have
+ * characters instead of the fixed Type.STRING_LEN.
+ * <p>
+ * The format of a slotted page is:
+ * <ul>
+ * <li> a 2 byte count of slots in the slot directory
+ * <li> a 2 byte offset of the start of the record area; 0 means the page
+ *      is empty and the record area starts at the end of the page
+ * <li> the slot directory: for each slot a 2 byte record offset and a 2
+ *      byte record length.  An offset of 0 marks an empty slot.
+ * <li> free space
+ * <li> the records, packed against the end of the page.  In a record an
+ *      INT_TYPE field takes 4 bytes and a STRING_TYPE field takes 1 length
+ *      byte followed by that many bytes.
+ * </ul>
+ * An all-zero page is a valid empty page. Slot numbers of existing
+ * records never change, so RecordIds stay valid; deleting a record only
+ * clears its slot, and the page is compacted when an insert needs the
+ * space.
+ * <p>
+ * Like LazyHeapPage, fields are decoded on demand, and tuples handed out
+ * hold a copy of their record.
+ *
+ * @see PageFormat#SLOTTED
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Bytes used by the page header (slot count and record area start). */
+    static final int HEADER_SIZE = 4;
+    /** Bytes used per slot directory entry. */
+    static final int SLOT_SIZE = 4;
+    /** The largest page whose offsets fit in the 2 byte fields. */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    private final HeapPageId pid;
+    private final TupleDesc td;
+    private final int maxRecordSize;
+    private final int pageSize;
+    private final LazyTuple.RecordDecoder decoder;
+    private ByteBuffer buf;
+
+    private byte[] oldData;
+    private TransactionId lastDirtyTid = null;
+
+    /**
+     * Create a SlottedHeapPage over a page image read from disk. The page
+     * keeps using data; it is not copied. The page is as large as data,
+     * which can be at most MAX_PAGE_SIZE bytes.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.maxRecordSize = maxRecordSize(td);
+        this.decoder = new RecordDecoder(td);
+        if (data.length > MAX_PAGE_SIZE) {
+            throw new IOException("page image of " + data.length + " bytes, at most " + MAX_PAGE_SIZE + " allowed");
+        }
+        this.pageSize = data.length;
+        this.buf = ByteBuffer.wrap(data);
+        if (HEADER_SIZE + getNumSlots() * SLOT_SIZE > recordStart()) {
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the largest number of bytes a record of td can take.
+     */
+    static int maxRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            size += td.getFieldType(j) == Type.INT_TYPE ? 4 : 1 + Type.STRING_LEN;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes t takes as a record.
+     */
+    static int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            Field f = t.getField(j);
+            if (f.getType() == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 1 + stringBytes((StringField) f).length;
+            }
+        }
+        return size;
+    }
+
+    private static byte[] stringBytes(StringField f) {
+        return StringField.encode(f.getValue(), Type.STRING_LEN);
+    }
+
+    /**
+     * Encode the fields of t at offset off of buf.
+     */
+    private static void putRecord(ByteBuffer buf, int off, Tuple t) {
+        for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+            Field f = t.getField(j);
+            if (f.getType() == Type.INT_TYPE) {
+                buf.putInt(off, ((IntField) f).getValue());
+                off += 4;
+            } else {
+                byte[] bs = stringBytes((StringField) f);
+                buf.put(off++, (byte) bs.length);
+                for (int k = 0; k < bs.length; k++) {
+                    buf.put(off++, bs[k]);
+                }
+            }
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of entries in the slot directory, used or not.
+     */
+    public int getNumSlots() {
+        return buf.getShort(0) & 0xffff;
+    }
+
+    private void setNumSlots(int n) {
+        buf.putShort(0, (short) n);
+    }
+
+    /**
+     * @return the offset of the first byte of the record area.
+     */
+    private int recordStart() {
+        int start = buf.getShort(2) & 0xffff;
+        return start == 0 ? pageSize : start;
+    }
+
+    private void setRecordStart(int start) {
+        buf.putShort(2, (short) (start == pageSize ? 0 : start));
+    }
+
+    private int slotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+    }
+
+    private int slotLength(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, oldData.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    /**
+     * Returns the page image. The backing array is returned without
+     * copying; callers must not modify it.
+     */
+    public byte[] getPageData() {
+        return buf.array();
+    }
+
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * @return the number of bytes that are not used by the header, the slot
+     *   directory or a live record, whether contiguous or not.
+     */
+    private int freeBytes() {
+        int used = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        for (int i = 0; i < getNumSlots(); i++) {
+            used += slotLength(i);
+        }
+        return pageSize - used;
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that still
+     * fit on this page. Shorter tuples may fit even if this is 0, but a
+     * positive count guarantees that insertTuple succeeds.
+     */
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int unusedEntries = 0;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (slotOffset(i) == 0) {
+                unusedEntries++;
+            }
+        }
+        int n = Math.min(unusedEntries, free / maxRecordSize);
+        free -= n * maxRecordSize;
+        return n + free / (maxRecordSize + SLOT_SIZE);
+    }
+
+    /**
+     * @return the offset of field j within the record stored in slot i.
+     */
+    private int fieldOffset(int i, int j) {
+        int off = slotOffset(i);
+        for (int k = 0; k < j; k++) {
+            off += td.getFieldType(k) == Type.INT_TYPE ? 4 : 1 + (buf.get(off) & 0xff);
+        }
+        return off;
+    }
+
+    public Field getField(int i, int j) {
+        if (!isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " is empty");
+        }
+        return decodeField(buf, fieldOffset(i, j), td.getFieldType(j));
+    }
+
+    /**
+     * Decode a field of the specified type at byte offset off of b.
+     */
+    private static Field decodeField(ByteBuffer b, int off, Type type) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(b.getInt(off));
+        }
+        int len = b.get(off) & 0xff;
+        byte[] bs = new byte[len];
+        for (int k = 0; k < len; k++) {
+            bs[k] = b.get(off + 1 + k);
+        }
+        return new StringField(new String(bs, Type.STRING_CHARSET), Type.STRING_LEN);
+    }
+
+    /** Decodes records copied out of slotted pages. */
+    private static class RecordDecoder implements LazyTuple.RecordDecoder {
+        private final TupleDesc td;
+
+        RecordDecoder(TupleDesc td) {
+            this.td = td;
+        }
+
+        public Field decode(ByteBuffer record, int j) {
+            int off = 0;
+            for (int k = 0; k < j; k++) {
+                off += td.getFieldType(k) == Type.INT_TYPE ? 4 : 1 + (record.get(off) & 0xff);
+            }
+            return decodeField(record, off, td.getFieldType(j));
+        }
+    }
+
+    /**
+     * @return a tuple over a copy of the record stored in slot i
+     */
+    private LazyTuple tuple(int i) {
+        byte[] record = new byte[slotLength(i)];
+        ByteBuffer view = buf.duplicate();
+        view.position(slotOffset(i));
+        view.get(record);
+        return new LazyTuple(td, pid, i, ByteBuffer.wrap(record), decoder);
+    }
+
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        return tuple(i);
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int tupleno = rid.tupleno();
+        if (!this.pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        if (!isSlotUsed(tupleno)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        int off = slotOffset(tupleno);
+        setSlot(tupleno, 0, 0);
+        if (off == recordStart()) {
+            setRecordStart(off + recordLengthAt(off));
+        }
+    }
+
+    /**
+     * @return the length of the record starting at off, by walking its fields.
+     */
+    private int recordLengthAt(int off) {
+        int start = off;
+        for (int k = 0; k < td.numFields(); k++) {
+            off += td.getFieldType(k) == Type.INT_TYPE ? 4 : 1 + (buf.get(off) & 0xff);
+        }
+        return off - start;
+    }
+
+    /**
+     * Move all live records against the end of the page so that the free
+     * space between the slot directory and the record area is contiguous.
+     */
+    private void compact() {
+        byte[] data = buf.array();
+        byte[] records = new byte[pageSize];
+        int end = pageSize;
+        for (int i = 0; i < getNumSlots(); i++) {
+            int len = slotLength(i);
+            if (slotOffset(i) == 0) {
+                continue;
+            }
+            end -= len;
+            System.arraycopy(data, slotOffset(i), records, end, len);
+            setSlot(i, end, len);
+        }
+        int dirEnd = HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+        Arrays.fill(data, dirEnd, end, (byte) 0);
+        System.arraycopy(records, end, data, end, pageSize - end);
+        setRecordStart(end);
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int len = recordSize(t);
+        int slot = 0;
+        while (slot < getNumSlots() && slotOffset(slot) != 0) {
+            slot++;
+        }
+        int newEntry = slot == getNumSlots() ? SLOT_SIZE : 0;
+        if (freeBytes() < len + newEntry) {
+            throw new DbException("page is full");
+        }
+        int dirEnd = HEADER_SIZE + getNumSlots() * SLOT_SIZE + newEntry;
+        if (recordStart() - len < dirEnd) {
+            compact();
+        }
+        int off = recordStart() - len;
+        putRecord(buf, off, t);
+        if (newEntry > 0) {
+            setNumSlots(getNumSlots() + 1);
+        }
+        setSlot(slot, off, len);
+        setRecordStart(off);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        lastDirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return lastDirtyTid;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < getNumSlots() && !isSlotUsed(i)) {
+                    i++;
+                }
+                return i;
+            }
+
+            public boolean hasNext() {
+                return next < getNumSlots();
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = tuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Builds slotted page images without a Catalog, one tuple at a time.
+     * Used to write slotted files directly.
+     *
+     * @see HeapFileEncoder
+     */
+    public static class Builder {
+        private final int pageSize;
+        private ByteBuffer page;
+        private int numSlots;
+        private int recordStart;
+
+        public Builder(int pageSize) {
+            this.pageSize = pageSize;
+            reset();
+        }
+
+        private void reset() {
+            page = ByteBuffer.allocate(pageSize);
+            numSlots = 0;
+            recordStart = pageSize;
+        }
+
+        /**
+         * @return true if t was added to the current page, false if the
+         *   page has no room left for it.
+         */
+        public boolean add(Tuple t) {
+            int len = recordSize(t);
+            if (recordStart - len < HEADER_SIZE + (numSlots + 1) * SLOT_SIZE) {
+                return false;
+            }
+            recordStart -= len;
+            putRecord(page, recordStart, t);
+            page.putShort(HEADER_SIZE + numSlots * SLOT_SIZE, (short) recordStart);
+            page.putShort(HEADER_SIZE + numSlots * SLOT_SIZE + 2, (short) len);
+            numSlots++;
+            return true;
+        }
+
+        /**
+         * @return the number of tuples on the current page.
+         */
+        public int size() {
+            return numSlots;
+        }
+
+        /**
+         * @return the image of the current page; the builder starts a new
+         *   empty page.
+         */
+        public byte[] finish() {
+            page.putShort(0, (short) numSlots);
+            page.putShort(2, (short) (recordStart == pageSize ? 0 : recordStart));
+            byte[] data = page.array();
+            reset();
+            return data;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -47,25 +48,36 @@ public class StringField implements Field {
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
-	 * in dos. First four bytes are string length, next bytes are string, with
+	 * in dos. First four bytes are the length in bytes of the string encoded
+	 * in Type.STRING_CHARSET, next bytes are the encoded string, with
 	 * remainder padded with 0 to maxSize.
 	 * 
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
-		String s = value;
-		int overflow = maxSize - s.length();
-		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
-			s = news;
-		}
-		dos.writeInt(s.length());
-		dos.writeBytes(s);
-		while (overflow-- > 0)
+		byte[] bs = encode(value, maxSize);
+		dos.writeInt(bs.length);
+		dos.write(bs);
+		for (int i = bs.length; i < maxSize; i++)
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Encode s in Type.STRING_CHARSET, cut to at most maxBytes bytes on a
+	 * character boundary.
+	 */
+	static byte[] encode(String s, int maxBytes) {
+		byte[] bs = s.getBytes(Type.STRING_CHARSET);
+		if (bs.length <= maxBytes)
+			return bs;
+		int n = maxBytes;
+		// back off the continuation bytes of a cut character
+		while (n > 0 && (bs[n] & 0xc0) == 0x80)
+			n--;
+		return Arrays.copyOf(bs, n);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
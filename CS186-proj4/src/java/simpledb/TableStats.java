@@ -69,7 +69,7 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
-    private HeapFile heapFile = null;
+    private DbFile file = null;
     private Object[] histograms = null;
     private int ioCostPerPage = 0;
     private int ntups = 0;
@@ -92,12 +92,16 @@ public class TableStats {
         // You should try to do this reasonably efficiently, but you don't
         // necessarily have to (for example) do everything
         // in a single scan of the table.
-        this.heapFile = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        this.file = Database.getCatalog().getDbFile(tableid);
         TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
         int numFields = td.numFields();
         this.ioCostPerPage = ioCostPerPage;
         TransactionId tid = new TransactionId();
-        DbFileIterator iter = this.heapFile.iterator(tid);
+        // the pages of a table larger than the ring don't stay in the pool
+        DbFileIterator iter = this.file instanceof HeapFile
+                ? new HeapFileIterator(tid, (HeapFile) this.file, null,
+                        AccessStrategy.of(AccessStrategy.Kind.BULK_READ, Database.getBufferPool()))
+                : this.file.iterator(tid);
 
         this.ntups = 0;
         int[] mins = new int[numFields];
@@ -171,7 +175,28 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return 1.0 * this.heapFile.numPages() * this.ioCostPerPage;
+        int numPages = file instanceof PartitionedFile ? ((PartitionedFile) file).numPages()
+                : file instanceof LsmFile ? ((LsmFile) file).numPages()
+                : file instanceof MemoryFile ? ((MemoryFile) file).numPages()
+                : ((HeapFile) file).numPages();
+        return 1.0 * numPages * this.ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of fetching the tuples that satisfy a predicate
+     * through an index: the index pages read to find the first match, and
+     * then, as the tuples are fetched in index order rather than table
+     * order, one page read per matching tuple. Like estimateScanCost,
+     * assumes that no pages are in the buffer pool.
+     *
+     * @param index
+     *            the index on the field of the predicate
+     * @param selectivityFactor
+     *            The selectivity of the predicate
+     * @return The estimated cost of the index lookup.
+     */
+    public double estimateIndexScanCost(DbIndex index, double selectivityFactor) {
+        return 1.0 * (index.probeCost() + estimateTableCardinality(selectivityFactor)) * this.ioCostPerPage;
     }
 
     /**
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TuplePage is the interface for pages of a HeapFile. Such a page stores
+ * the tuples of one table in numbered slots; the slot number is the tuple
+ * number of the RecordId of each stored tuple.
+ *
+ * @see HeapFile
+ * @see PageFormat
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId();
+
+    /**
+     * @return the number of slots on this page, used or not.
+     */
+    public int getNumSlots();
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i);
+
+    /**
+     * @return the tuple stored in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i);
+
+    /**
+     * @return field j of the tuple stored in slot i. Pages that keep their
+     *   contents encoded only decode this one field.
+     * @throws NoSuchElementException if slot i is empty
+     */
+    public Field getField(int i, int j);
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> iterator();
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy is the 2Q policy of Johnson and Shasha. A key enters a
+ * FIFO queue, A1in, and is evicted from it into a queue of ghosts, A1out,
+ * unless the key is put again while its ghost is remembered: only then it
+ * moves to the LRU queue Am of keys known to be used more than once. A scan
+ * thus passes through A1in and leaves Am alone.
+ * <p>
+ * A1in holds a quarter of the capacity before its keys are evicted, and
+ * A1out remembers half the capacity of ghosts, as the paper suggests.
+ *
+ * @see ReplacementPolicy.Kind#TWO_QUEUE
+ */
+public class TwoQueuePolicy<Key> implements ReplacementPolicy<Key> {
+
+    private final int inCapacity;
+    private final int outCapacity;
+    private final LinkedHashSet<Key> in = new LinkedHashSet<Key>();
+    private final LinkedHashSet<Key> out = new LinkedHashSet<Key>();
+    /** The keys used again, least recently used first. */
+    private final LinkedHashSet<Key> main = new LinkedHashSet<Key>();
+
+    /**
+     * @param capacity the number of keys the cache holds when full
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.inCapacity = Math.max(1, capacity / 4);
+        this.outCapacity = Math.max(1, capacity / 2);
+    }
+
+    public void admitted(Key key) {
+        if (out.remove(key)) {
+            main.add(key);
+        } else {
+            in.add(key);
+        }
+    }
+
+    public void accessed(Key key) {
+        // uses of a key in A1in are taken to be correlated, as those of a scan
+        if (main.remove(key)) {
+            main.add(key);
+        }
+    }
+
+    public void removed(Key key) {
+        if (!in.remove(key)) {
+            main.remove(key);
+        }
+    }
+
+    public Key evict() {
+        if (in.size() > inCapacity || (main.isEmpty() && !in.isEmpty())) {
+            Key victim = first(in);
+            out.add(victim);
+            if (out.size() > outCapacity) {
+                first(out);
+            }
+            return victim;
+        }
+        return main.isEmpty() ? null : first(main);
+    }
+
+    public void kept(Key key) {
+        if (out.remove(key)) {
+            in.add(key);
+        } else {
+            main.add(key);
+        }
+    }
+
+    /**
+     * Removes and returns the first key of a non-empty queue.
+     */
+    private static <Key> Key first(LinkedHashSet<Key> queue) {
+        Iterator<Key> it = queue.iterator();
+        Key key = it.next();
+        it.remove();
+        return key;
+    }
+}
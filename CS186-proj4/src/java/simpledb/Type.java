@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.charset.Charset;
 
 /**
  * Class representing a type in SimpleDB.
@@ -37,7 +38,7 @@ public enum Type implements Serializable {
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return new StringField(new String(bs, STRING_CHARSET), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
@@ -45,6 +46,11 @@ public enum Type implements Serializable {
     };
     
     public static final int STRING_LEN = 128;
+    /**
+     * The charset string fields are stored in. A string takes at most
+     * STRING_LEN bytes of it; see StringField#encode.
+     */
+    public static final Charset STRING_CHARSET = Charset.forName("UTF-8");
 
   /**
    * @return the number of bytes required to store a field of this type.
@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every field on each page
+ * of a HeapFile, so that a scan with a predicate can skip the pages that
+ * can't hold a match without reading them. For a STRING_TYPE field, the
+ * bounds are those of the first PREFIX characters of its values.
+ * <p>
+ * The map is kept in memory and persisted in a sidecar file named after
+ * the data file with <tt>.zone</tt> appended, holding for each page a known
+ * flag byte followed by an 8 byte minimum and maximum per field. As with
+ * the {@link FreeSpaceMap}, a page's entry is written when the page itself
+ * is written, so the sidecar describes the pages on disk. A sidecar older
+ * than its data file was left behind by a rewrite of the table and is
+ * dropped.
+ * <p>
+ * Unlike the free space map, the zone map must never be wrong: its bounds
+ * may be wider than the values on a page, but never narrower.
+ * <ul>
+ * <li> An insert widens the zone of its page.
+ * <li> A delete leaves it as it is, until the page is written and its
+ *      zone is recomputed.
+ * <li> Pages of unknown zone, such as bulk loaded ones, may match
+ *      anything. Their zone is computed when they are first read. Values
+ *      inserted before that are collected and added to it, because the
+ *      copy on disk lacks them.
+ * </ul>
+ *
+ * @see HeapFile#iterator(TransactionId, List)
+ */
+public class ZoneMap {
+
+    /** The number of leading characters of a string its bounds keep. */
+    public static final int PREFIX = 3;
+
+    private final File file;
+    private final TupleDesc td;
+    private final int numFields;
+    private final int entrySize;
+    /** The bounds of page i are min[i * numFields + j] and max[i * numFields + j]. */
+    private long[] min;
+    private long[] max;
+    /** Pages whose bounds cover what is on disk; the others only collect inserts. */
+    private final BitSet known = new BitSet();
+    private RandomAccessFile raf = null;
+
+    /**
+     * Load the zone map of a data file.
+     *
+     * @param dataFile the data file of the table
+     * @param td the schema of the table
+     * @param numPages the number of pages of the table
+     */
+    public ZoneMap(File dataFile, TupleDesc td, int numPages) {
+        this.file = mapFile(dataFile);
+        this.td = td;
+        this.numFields = td.numFields();
+        this.entrySize = 1 + 16 * numFields;
+        int capacity = Math.max(numPages, 16);
+        this.min = new long[capacity * numFields];
+        this.max = new long[capacity * numFields];
+        clear(0, capacity);
+        if (file.exists() && file.lastModified() < dataFile.lastModified()) {
+            file.delete();
+        }
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    int n = (int) Math.min(numPages, file.length() / entrySize);
+                    for (int i = 0; i < n; i++) {
+                        boolean isKnown = in.readBoolean();
+                        for (int j = 0; j < numFields; j++) {
+                            long lo = in.readLong();
+                            long hi = in.readLong();
+                            if (isKnown) {
+                                min[i * numFields + j] = lo;
+                                max[i * numFields + j] = hi;
+                            }
+                        }
+                        known.set(i, isKnown);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // pages we couldn't read stay unknown, which is always safe
+                e.printStackTrace();
+                known.clear();
+                clear(0, min.length / numFields);
+            }
+        }
+    }
+
+    /**
+     * @return the sidecar file of the zone map of dataFile.
+     */
+    public static File mapFile(File dataFile) {
+        return new File(dataFile.getPath() + ".zone");
+    }
+
+    /**
+     * @return the bound of value f: its value for an INT_TYPE field, the
+     *   first PREFIX characters for a STRING_TYPE one
+     */
+    static long key(Field f) {
+        if (f.getType() == Type.INT_TYPE) {
+            return ((IntField) f).getValue();
+        }
+        String s = ((StringField) f).getValue();
+        long k = 0;
+        for (int i = 0; i < PREFIX; i++) {
+            k = (k << 16) | (i < s.length() ? s.charAt(i) : 0);
+        }
+        return k;
+    }
+
+    /**
+     * Make the zones of pages [from, to) empty.
+     */
+    private void clear(int from, int to) {
+        Arrays.fill(min, from * numFields, to * numFields, Long.MAX_VALUE);
+        Arrays.fill(max, from * numFields, to * numFields, Long.MIN_VALUE);
+    }
+
+    private void ensureCapacity(int pgNo) {
+        int capacity = min.length / numFields;
+        if (pgNo >= capacity) {
+            int grown = Math.max(pgNo + 1, capacity * 2);
+            min = Arrays.copyOf(min, grown * numFields);
+            max = Arrays.copyOf(max, grown * numFields);
+            clear(capacity, grown);
+        }
+    }
+
+    private void add(int pgNo, Tuple t) {
+        for (int j = 0; j < numFields; j++) {
+            long k = key(t.getField(j));
+            int e = pgNo * numFields + j;
+            if (k < min[e]) {
+                min[e] = k;
+            }
+            if (k > max[e]) {
+                max[e] = k;
+            }
+        }
+    }
+
+    /**
+     * Widen the zone of page pgNo to cover a tuple inserted into it.
+     */
+    public synchronized void insert(int pgNo, Tuple t) {
+        ensureCapacity(pgNo);
+        add(pgNo, t);
+    }
+
+    /**
+     * Learn the zone of a page that was read from disk, if it is not known
+     * yet, and persist it. Failing to persist it only loses it for the next
+     * time the table is opened.
+     */
+    public synchronized void read(TuplePage page) {
+        int pgNo = page.getId().pageNumber();
+        if (known.get(pgNo)) {
+            return;
+        }
+        ensureCapacity(pgNo);
+        // on top of the inserts collected so far
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            add(pgNo, it.next());
+        }
+        known.set(pgNo);
+        try {
+            persist(pgNo, 1);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Recompute the zones of n consecutive pages that are being written,
+     * and persist them.
+     *
+     * @param pages the pages, starting with page pgNo
+     */
+    public synchronized void write(int pgNo, TuplePage[] pages, int n) throws IOException {
+        ensureCapacity(pgNo + n - 1);
+        clear(pgNo, pgNo + n);
+        for (int i = 0; i < n; i++) {
+            Iterator<Tuple> it = pages[i].iterator();
+            while (it.hasNext()) {
+                add(pgNo + i, it.next());
+            }
+        }
+        known.set(pgNo, pgNo + n);
+        persist(pgNo, n);
+    }
+
+    /**
+     * Forget the zones of n consecutive pages whose images were written
+     * without being looked at, e.g. by a bulk load.
+     */
+    public synchronized void forget(int pgNo, int n) throws IOException {
+        ensureCapacity(pgNo + n - 1);
+        clear(pgNo, pgNo + n);
+        known.clear(pgNo, pgNo + n);
+        persist(pgNo, n);
+    }
+
+    /**
+     * Write the entries of n consecutive pages starting with pgNo.
+     */
+    private void persist(int pgNo, int n) throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        long len = raf.length();
+        if (len < (long) entrySize * pgNo) {
+            // pages between the old end of the map and pgNo are unknown
+            raf.setLength((long) entrySize * pgNo);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entrySize * n);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = pgNo; i < pgNo + n; i++) {
+            out.writeBoolean(known.get(i));
+            for (int j = 0; j < numFields; j++) {
+                out.writeLong(min[i * numFields + j]);
+                out.writeLong(max[i * numFields + j]);
+            }
+        }
+        raf.seek((long) entrySize * pgNo);
+        raf.write(bytes.toByteArray());
+    }
+
+    /**
+     * @return true if page pgNo may hold a tuple that satisfies p: false
+     *   only if its zone rules every match out
+     */
+    public boolean mayMatch(int pgNo, Predicate p) {
+        long k = key(p.getOperand());
+        long lo, hi;
+        synchronized (this) {
+            if (!known.get(pgNo)) {
+                return true;
+            }
+            lo = min[pgNo * numFields + p.getField()];
+            hi = max[pgNo * numFields + p.getField()];
+        }
+        if (lo > hi) {
+            // no tuples
+            return false;
+        }
+        boolean prefix = td.getFieldType(p.getField()) == Type.STRING_TYPE;
+        switch (p.getOp()) {
+        case EQUALS:
+            return lo <= k && k <= hi;
+        case LIKE:
+            // contains for strings, equals for ints
+            return prefix || (lo <= k && k <= hi);
+        case LESS_THAN:
+            return prefix ? lo <= k : lo < k;
+        case LESS_THAN_OR_EQ:
+            return lo <= k;
+        case GREATER_THAN:
+            return prefix ? hi >= k : hi > k;
+        case GREATER_THAN_OR_EQ:
+            return hi >= k;
+        case NOT_EQUALS:
+            return prefix || lo != k || hi != k;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * @return true if page pgNo may hold a tuple that satisfies every one of
+     *   predicates
+     */
+    public boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            if (!mayMatch(pgNo, p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close the sidecar file. It is reopened when needed.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class AccessStrategyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 40;
+
+    private HeapFile hot;
+    private HeapFile large;
+    private BufferPool pool;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        large = SystemTestUtil.createRandomHeapFile(2, 50000, null, null);
+        assertTrue(large.numPages() > 2 * POOL_PAGES);
+        pool = Database.resetBufferPool(POOL_PAGES);
+        pool.setCleaner(null);
+        pool.setSteal(true);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Reads every page of the hot table into the pool, as a working set.
+     */
+    private void touchHot() throws Exception {
+        for (int p = 0; p < hot.numPages(); p++) {
+            HeapPageId pid = new HeapPageId(hot.getId(), p);
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid);
+        }
+    }
+
+    private int hotCached() {
+        int n = 0;
+        for (int p = 0; p < hot.numPages(); p++) {
+            if (pool.isCached(new HeapPageId(hot.getId(), p))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static int scan(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Tables that fit in the pool are read as usual; larger ones through a
+     * ring sized for the pool.
+     */
+    @Test public void choose() {
+        long bytes = (long) POOL_PAGES * BufferPool.PAGE_SIZE;
+        assertSame(AccessStrategy.NORMAL, AccessStrategy.choose(AccessStrategy.Kind.BULK_READ, pool, bytes));
+        AccessStrategy read = AccessStrategy.choose(AccessStrategy.Kind.BULK_READ, pool, bytes + 1);
+        assertEquals(AccessStrategy.Kind.BULK_READ, read.getKind());
+        assertEquals(POOL_PAGES / 8, read.getRingSize());
+        assertEquals(POOL_PAGES / 4, AccessStrategy.of(AccessStrategy.Kind.BULK_WRITE, pool).getRingSize());
+        assertSame(AccessStrategy.NORMAL, AccessStrategy.of(AccessStrategy.Kind.NORMAL, pool));
+    }
+
+    /**
+     * A scan of a table larger than the pool leaves the working set in the
+     * pool, and only the pages of its ring; a scan that shares the pool
+     * evicts the working set.
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        touchHot();
+        int working = hotCached();
+        assertEquals(hot.numPages(), working);
+
+        HeapFileIterator it = new HeapFileIterator(tid, large, null, null);
+        assertEquals(50000, scan(it));
+        assertEquals(working, hotCached());
+        int scanned = 0;
+        for (int p = 0; p < large.numPages(); p++) {
+            if (pool.isCached(new HeapPageId(large.getId(), p))) {
+                scanned++;
+            }
+        }
+        assertTrue(scanned <= POOL_PAGES / 8);
+
+        assertEquals(50000, scan(new HeapFileIterator(tid, large, null, AccessStrategy.NORMAL)));
+        assertEquals(0, hotCached());
+    }
+
+    /**
+     * The pages a ring read are evicted to reuse their slot, once the ring
+     * went round; a pinned page is left in the pool.
+     */
+    @Test public void ringRecycles() throws Exception {
+        AccessStrategy ring = new AccessStrategy(AccessStrategy.Kind.BULK_READ, 4);
+        HeapPageId pinned = new HeapPageId(large.getId(), 0);
+        pool.getPage(tid, pinned, Permissions.READ_ONLY, ring);
+        for (int p = 1; p < 10; p++) {
+            HeapPageId pid = new HeapPageId(large.getId(), p);
+            pool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+            pool.unpinPage(tid, pid);
+        }
+        // pages 0, 4 and 8 took the first slot; 0 was pinned
+        assertEquals(5, ring.getRecycled());
+        assertTrue(pool.isCached(pinned));
+        assertFalse(pool.isCached(new HeapPageId(large.getId(), 4)));
+        for (int p = 6; p < 10; p++) {
+            assertTrue(pool.isCached(new HeapPageId(large.getId(), p)));
+        }
+        pool.unpinPage(tid, pinned);
+    }
+
+    /**
+     * A read ring leaves the dirty pages to the pool; a write ring writes
+     * them back to reuse their slot.
+     */
+    @Test public void dirtyPages() throws Exception {
+        for (AccessStrategy.Kind kind : new AccessStrategy.Kind[] {AccessStrategy.Kind.BULK_READ,
+                AccessStrategy.Kind.BULK_WRITE}) {
+            pool = Database.resetBufferPool(POOL_PAGES);
+            pool.setCleaner(null);
+        pool.setSteal(true);
+            AccessStrategy ring = new AccessStrategy(kind, 2);
+            HeapPageId first = new HeapPageId(large.getId(), 0);
+            Page page = pool.getPage(tid, first, Permissions.READ_WRITE, ring);
+            page.markDirty(true, tid);
+            pool.unpinPage(tid, first);
+            for (int p = 1; p < 3; p++) {
+                HeapPageId pid = new HeapPageId(large.getId(), p);
+                pool.getPage(tid, pid, Permissions.READ_ONLY, ring);
+                pool.unpinPage(tid, pid);
+            }
+            boolean writes = kind == AccessStrategy.Kind.BULK_WRITE;
+            assertEquals(kind.toString(), !writes, pool.isCached(first));
+            assertEquals(kind.toString(), writes ? 1 : 0, pool.getWriteBacks());
+            assertEquals(kind.toString(), writes ? 1 : 0, ring.getRecycled());
+        }
+    }
+
+    /**
+     * A bulk insert of more tuples than the pool holds leaves the working
+     * set in the pool, and inserts every tuple.
+     */
+    @Test public void bulkInsert() throws Exception {
+        HeapFile target = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        touchHot();
+        Insert insert = new Insert(tid, new SeqScan(tid, large.getId(), ""), target.getId());
+        insert.open();
+        assertEquals(new IntField(50000), insert.next().getField(0));
+        insert.close();
+        assertTrue(hotCached() >= hot.numPages() - POOL_PAGES / 4);
+        pool.flushAllPages();
+
+        Database.resetBufferPool(POOL_PAGES);
+        assertEquals(50000, scan(target.iterator(tid)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AccessStrategyTest.class);
+    }
+}
@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = new Predicate.Op[] {
+        Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // room for every page the tests touch, so no dirty page is dropped
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    private static File indexFile() throws IOException {
+        File f = File.createTempFile("btree", ".idx");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return the records of the entries index returns for key op operand
+     */
+    private Set<RecordId> lookup(DbIndex index, Predicate.Op op, int operand) throws Exception {
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        DbFileIterator it = index.lookup(tid, op, new IntField(operand));
+        it.open();
+        Integer last = null;
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            int key = ((IntField) e.getField(DbIndex.KEY)).getValue();
+            assertTrue(new IntField(key).compare(op, new IntField(operand)));
+            if (last != null) {
+                assertTrue(last <= key);
+            }
+            last = key;
+            assertTrue(rids.add(new RecordId(new HeapPageId(index.getIndexedTableId(),
+                    ((IntField) e.getField(DbIndex.PAGE)).getValue()),
+                    ((IntField) e.getField(DbIndex.SLOT)).getValue())));
+        }
+        it.close();
+        return rids;
+    }
+
+    /**
+     * @return the records of the table whose field 0 satisfies op operand
+     */
+    private Set<RecordId> scan(HeapFile hf, Predicate.Op op, int operand) throws Exception {
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getField(0).compare(op, new IntField(operand))) {
+                rids.add(t.getRecordId());
+            }
+        }
+        it.close();
+        return rids;
+    }
+
+    private void checkLookups(HeapFile hf, DbIndex index, int maxValue) throws Exception {
+        Random r = new Random(7);
+        for (int i = 0; i < 8; i++) {
+            int operand = r.nextInt(maxValue + 2) - 1;
+            for (Predicate.Op op : OPS) {
+                assertEquals(op + " " + operand, scan(hf, op, operand), lookup(index, op, operand));
+            }
+        }
+    }
+
+    /**
+     * An index built from a table finds the same records as a scan, with
+     * duplicate keys and a tree of more than two levels.
+     */
+    @Test public void build() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100000, 5000, null, null);
+        BTreeFile index = BTreeFile.build(indexFile(), hf, 0);
+        Database.getCatalog().addIndex(index);
+        assertTrue(index.probeCost() >= 3);
+        checkLookups(hf, index, 5000);
+
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        assertEquals(100000, n);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in sync,
+     * splitting leaves and internal pages as the tree grows.
+     */
+    @Test public void insertDelete() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile index = new BTreeFile(indexFile(), hf, 0);
+        Database.getCatalog().addIndex(index);
+        Random r = new Random(3);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 30000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {r.nextInt(20000), i});
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        assertTrue(index.numPages() > BTreePage.INTERNAL_CAPACITY / 2);
+        checkLookups(hf, index, 20000);
+
+        for (int i = 0; i < inserted.size(); i += 2) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        checkLookups(hf, index, 20000);
+
+        // the tree survives being written out and read back
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(2000);
+        checkLookups(hf, index, 20000);
+    }
+
+    /**
+     * The index=... table option of a catalog entry creates the indexes of
+     * the table.
+     */
+    @Test public void catalogOption() throws Exception {
+        File dir = File.createTempFile("btree", "");
+        dir.delete();
+        dir.mkdir();
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("idx (a int, b int) index=b");
+        w.close();
+        new File(dir, "idx.dat").createNewFile();
+        Database.getCatalog().loadSchema(catalog.getPath());
+
+        int tableId = Database.getCatalog().getTableId("idx");
+        List<DbIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        assertEquals(1, indexes.size());
+        assertEquals(1, indexes.get(0).getKeyField());
+        assertSame(indexes.get(0), Database.getCatalog().getDbFile(indexes.get(0).getId()));
+
+        Tuple t = Utility.getHeapTuple(new int[] {1, 2});
+        Database.getBufferPool().insertTuple(tid, tableId, t);
+        assertEquals(Collections.singleton(t.getRecordId()),
+                lookup(indexes.get(0), Predicate.Op.EQUALS, 2));
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Only INT fields can be indexed.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void stringKey() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, new TupleDesc(new Type[] {Type.STRING_TYPE}));
+        new BTreeFile(indexFile(), hf, 0);
+    }
+
+    /**
+     * @return the IndexScan in plan, or null if there is none
+     */
+    private static IndexScan findIndexScan(DbIterator plan) {
+        if (plan instanceof IndexScan) {
+            return (IndexScan) plan;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                IndexScan s = findIndexScan(child);
+                if (s != null) {
+                    return s;
+                }
+            }
+        }
+        return null;
+    }
+
+    private DbIterator plan(int tableId, Map<String, TableStats> stats, Predicate.Op op, String c)
+            throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.c0", op, c);
+        lp.addProjectField("t.c1", null);
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The planner uses the index for a selective filter and scans the table
+     * for an unselective one; both plans return the same tuples as a scan.
+     */
+    @Test public void physicalPlan() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 50000, 10000, null, null, "c");
+        BTreeFile index = BTreeFile.build(indexFile(), hf, 0);
+        Database.getCatalog().addIndex(index);
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+
+        DbIterator selective = plan(hf.getId(), stats, Predicate.Op.EQUALS, "42");
+        assertNotNull(findIndexScan(selective));
+        assertEquals(scan(hf, Predicate.Op.EQUALS, 42).size(), count(selective));
+
+        DbIterator range = plan(hf.getId(), stats, Predicate.Op.LESS_THAN, "10");
+        assertNotNull(findIndexScan(range));
+        assertEquals(scan(hf, Predicate.Op.LESS_THAN, 10).size(), count(range));
+
+        DbIterator unselective = plan(hf.getId(), stats, Predicate.Op.GREATER_THAN, "100");
+        assertNull(findIndexScan(unselective));
+        assertEquals(scan(hf, Predicate.Op.GREATER_THAN, 100).size(), count(unselective));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
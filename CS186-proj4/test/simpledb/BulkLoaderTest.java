@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final Type[] INTS = new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("bulk", suffix);
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Write rows random tuples to a text file, remembering them in tuples.
+     */
+    private static File textFile(int rows, ArrayList<ArrayList<Integer>> tuples) throws IOException {
+        File f = tempFile(".txt");
+        Random r = new Random(rows);
+        PrintWriter w = new PrintWriter(new FileWriter(f));
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            for (int j = 0; j < INTS.length; j++) {
+                t.add(r.nextInt() % 100000);
+            }
+            tuples.add(t);
+            w.println(t.get(0) + "," + t.get(1) + " , " + t.get(2));
+        }
+        w.close();
+        return f;
+    }
+
+    private static void checkFormat(PageFormat format) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File in = textFile(20000, tuples);
+        File out = tempFile(".dat");
+        // small chunks, so that many are parsed concurrently
+        BulkLoader loader = new BulkLoader(INTS, ',', format, 4, 16 * 1024, BufferPool.PAGE_SIZE);
+        assertEquals(tuples.size(), loader.load(in, out));
+
+        HeapFile hf = new HeapFile(out, Utility.getTupleDesc(3), PageIO.Mode.CHANNEL, format);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(hf, tuples);
+        hf.close();
+    }
+
+    /**
+     * Loading into a new file gives the same tuples in every page format.
+     */
+    @Test public void loadFile() throws Exception {
+        checkFormat(PageFormat.ROW);
+        checkFormat(PageFormat.PAX);
+        checkFormat(PageFormat.SLOTTED);
+    }
+
+    /**
+     * Pages of one chunk are packed as tightly as HeapFileEncoder packs them.
+     */
+    @Test public void sameAsEncoder() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File in = textFile(5000, tuples);
+        File bulk = tempFile(".dat");
+        File encoded = tempFile(".dat");
+        new BulkLoader(INTS, ',', PageFormat.ROW).load(in, bulk);
+        HeapFileEncoder.convert(in, encoded, BufferPool.PAGE_SIZE, 3, INTS, ',');
+        assertEquals(encoded.length(), bulk.length());
+    }
+
+    /**
+     * Malformed lines are skipped, and an empty input gives one empty page.
+     */
+    @Test public void badLines() throws Exception {
+        File in = tempFile(".txt");
+        PrintWriter w = new PrintWriter(new FileWriter(in));
+        w.println("1,2,3");
+        w.println("4,x,6");
+        w.println("7,8");
+        w.println("");
+        w.println("-9,+10,11");
+        w.close();
+        File out = tempFile(".dat");
+        assertEquals(2, new BulkLoader(INTS, ',', PageFormat.ROW).load(in, out));
+
+        File empty = tempFile(".txt");
+        assertEquals(0, new BulkLoader(INTS, ',', PageFormat.ROW).load(empty, out));
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+    }
+
+    /**
+     * Only blanks are trimmed from the edges of a string field; the bytes
+     * of a non-ASCII character are kept.
+     */
+    @Test public void nonAsciiStrings() throws Exception {
+        String[] names = new String[] {"Jos\u00e9", "Zo\u00eb", "\u00c9mile"};
+        File in = tempFile(".txt");
+        PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(in), Type.STRING_CHARSET));
+        for (int i = 0; i < names.length; i++) {
+            w.println(i + ", " + names[i] + " ");
+        }
+        w.close();
+        Type[] types = new Type[] {Type.INT_TYPE, Type.STRING_TYPE};
+        File out = tempFile(".dat");
+        assertEquals(names.length, new BulkLoader(types, ',', PageFormat.ROW).load(in, out));
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        for (int i = 0; i < names.length; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(names[i], ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A string longer than STRING_LEN bytes is cut on a character boundary,
+     * by the loader as by StringField.
+     */
+    @Test public void longStrings() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN - 1; i++) {
+            sb.append('a');
+        }
+        String kept = sb.toString();
+        String line = kept + "\u00e9tude";
+        File in = tempFile(".txt");
+        PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(in), Type.STRING_CHARSET));
+        w.println("1," + line);
+        w.close();
+        Type[] types = new Type[] {Type.INT_TYPE, Type.STRING_TYPE};
+        File out = tempFile(".dat");
+        assertEquals(1, new BulkLoader(types, ',', PageFormat.ROW).load(in, out));
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        assertEquals(kept, ((StringField) it.next().getField(1)).getValue());
+        it.close();
+        assertEquals(Type.STRING_LEN - 1, StringField.encode(line, Type.STRING_LEN).length);
+    }
+
+    /**
+     * Loading into an existing table appends pages after its own, which
+     * inserts can then fill.
+     */
+    @Test public void loadTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 1000, null, tuples);
+        FreeSpaceMap.mapFile(hf.getFile()).deleteOnExit();
+        int before = hf.numPages();
+
+        ArrayList<ArrayList<Integer>> loaded = new ArrayList<ArrayList<Integer>>();
+        File in = textFile(3000, loaded);
+        BulkLoader loader = new BulkLoader(INTS, ',', PageFormat.ROW, 2, 4096, BufferPool.PAGE_SIZE);
+        assertEquals(loaded.size(), loader.load(in, hf));
+        assertTrue(hf.numPages() > before);
+        tuples.addAll(loaded);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {1, 2, 3});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertTrue(t.getRecordId().getPageId().pageNumber() < hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Loading into a catalog table rebuilds its indexes, so that an index
+     * scan finds the loaded tuples.
+     */
+    @Test public void loadIndexedTable() throws Exception {
+        File dir = tempFile("");
+        dir.delete();
+        dir.mkdir();
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("bulk (a int pk, b int, c int) hashindex=a");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int id = Database.getCatalog().getTableId("bulk");
+        HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(id);
+        List<DbIndex> indexes = Database.getCatalog().getIndexes(id);
+        assertEquals(1, indexes.size());
+
+        File in = tempFile(".txt");
+        w = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < 2000; i++) {
+            w.println(i + "," + -i + "," + i % 7);
+        }
+        w.close();
+        assertEquals(2000, BulkLoader.forTable(hf, ',').load(in, hf));
+
+        TransactionId tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, Database.getCatalog().getIndexes(id).get(0), Predicate.Op.EQUALS,
+                new IntField(1234), "b");
+        scan.open();
+        assertTrue(scan.hasNext());
+        assertEquals(new IntField(-1234), scan.next().getField(1));
+        assertFalse(scan.hasNext());
+        scan.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,279 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompactionTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private File dir;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+        dir = File.createTempFile("compact", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Writes a catalog with one table and inserts rows (i, scattered(i))
+     * into it, keeping every third row.
+     */
+    private DbFile loadTable(String options, int rows) throws Exception {
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("comp (a int pk, b int) " + options);
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int id = Database.getCatalog().getTableId("comp");
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, scattered(i)});
+            Database.getBufferPool().insertTuple(tid, id, t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < rows; i++) {
+            if (i % 3 != 0) {
+                Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+            }
+        }
+        Database.getBufferPool().flushAllPages();
+        return Database.getCatalog().getDbFile(id);
+    }
+
+    private static int scattered(int i) {
+        return (int) ((i * 7919L) % 10007);
+    }
+
+    private static List<Integer> values(DbFileIterator it, int field) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(field)).getValue());
+        }
+        it.close();
+        return values;
+    }
+
+    private static List<Integer> kept(int rows) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < rows; i += 3) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * Compaction packs the tuples that are left into fewer pages, which
+     * are read through the BufferPool like before.
+     */
+    @Test public void shrink() throws Exception {
+        HeapFile hf = (HeapFile) loadTable("", 3000);
+        int before = hf.numPages();
+        List<Integer> expected = kept(3000);
+        assertEquals(expected, values(hf.iterator(tid), 0));
+
+        int freed = Database.getCatalog().compactTable("comp", null);
+        assertEquals(1, hf.getGeneration());
+        assertTrue("freed " + freed + " of " + before, freed >= before / 2);
+        assertEquals(before - freed, hf.numPages());
+        assertEquals(hf.numPages() * hf.getPageSize(), hf.getFile().length());
+        assertFalse(new File(hf.getFile().getPath() + ".compact").exists());
+        // the order of the table is kept
+        assertEquals(expected, values(hf.iterator(tid), 0));
+
+        // the free space map is that of the copy
+        Tuple t = Utility.getHeapTuple(new int[] {-1, -1});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(hf.numPages() - 1, t.getRecordId().getPageId().pageNumber());
+    }
+
+    /**
+     * A compressed table is read through the index of the copy after the
+     * swap, and the copy leaves no index behind.
+     */
+    @Test public void compressed() throws Exception {
+        HeapFile hf = (HeapFile) loadTable("compress=deflate", 3000);
+        File copyIndex = CompressedPageIO.indexFile(new File(hf.getFile().getPath() + ".compact"));
+        assertTrue(Database.getCatalog().compactTable("comp", null) > 0);
+        assertFalse(copyIndex.exists());
+        assertTrue(CompressedPageIO.indexFile(hf.getFile()).exists());
+        assertEquals(kept(3000), values(hf.iterator(tid), 0));
+
+        Database.resetBufferPool(2000);
+        assertEquals(kept(3000), values(hf.iterator(tid), 0));
+    }
+
+    /**
+     * Clustering sorts the table by a field, and the indexes of the table
+     * are rebuilt for the new record ids.
+     */
+    @Test public void clusterAndIndexes() throws Exception {
+        HeapFile hf = (HeapFile) loadTable("index=b hashindex=a", 3000);
+        Database.getCatalog().compactTable("comp", "b");
+
+        List<Integer> b = values(hf.iterator(tid), 1);
+        assertEquals(1000, b.size());
+        ArrayList<Integer> sorted = new ArrayList<Integer>(b);
+        Collections.sort(sorted);
+        assertEquals(sorted, b);
+
+        List<DbIndex> indexes = Database.getCatalog().getIndexes(hf.getId());
+        assertEquals(2, indexes.size());
+        for (DbIndex index : indexes) {
+            int key = index.getKeyField() == 0 ? 1500 : scattered(1500);
+            IndexScan scan = new IndexScan(tid, index, Predicate.Op.EQUALS, new IntField(key), "c");
+            scan.open();
+            assertTrue(scan.hasNext());
+            Tuple t = scan.next();
+            assertEquals(1500, ((IntField) t.getField(0)).getValue());
+            assertEquals(scattered(1500), ((IntField) t.getField(1)).getValue());
+            assertFalse(scan.hasNext());
+            scan.close();
+        }
+    }
+
+    /**
+     * A tuple read before a compaction can't be deleted after it, since its
+     * record id may name another tuple now.
+     */
+    @Test public void staleRecordId() throws Exception {
+        HeapFile hf = (HeapFile) loadTable("", 3000);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        it.next();
+        Tuple stale = it.next();
+        it.close();
+        Database.getCatalog().compactTable("comp", "b");
+        try {
+            Database.getBufferPool().deleteTuple(tid, stale);
+            fail("a tuple that moved should not be deleted");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(1000, values(hf.iterator(tid), 0).size());
+    }
+
+    /**
+     * The swap waits for a running scan, which sees the table as it was.
+     */
+    @Test public void concurrentReader() throws Exception {
+        final HeapFile hf = (HeapFile) loadTable("", 3000);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Integer> read = new ArrayList<Integer>();
+        read.add(((IntField) it.next().getField(0)).getValue());
+
+        final Exception[] failure = new Exception[1];
+        Thread compaction = new Thread() {
+            public void run() {
+                try {
+                    hf.compact(-1);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        compaction.start();
+        Thread.sleep(500);
+        assertTrue(compaction.isAlive());
+        assertEquals(0, hf.getGeneration());
+        while (it.hasNext()) {
+            read.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        compaction.join(HeapFile.SCAN_DRAIN_MILLIS);
+        assertFalse(compaction.isAlive());
+        assertNull(failure[0]);
+        assertEquals(1, hf.getGeneration());
+        assertEquals(kept(3000), read);
+        assertEquals(kept(3000), values(hf.iterator(tid), 0));
+    }
+
+    /**
+     * A table with uncommitted updates isn't compacted, so that an abort
+     * still rolls them back; once they are gone it is.
+     */
+    @Test public void uncommittedUpdates() throws Exception {
+        HeapFile hf = (HeapFile) loadTable("", 3000);
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().insertTuple(writer, hf.getId(), Utility.getHeapTuple(new int[] {-1, -1}));
+        try {
+            hf.compact(-1);
+            fail("a table with uncommitted updates should not be compacted");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(0, hf.getGeneration());
+        assertFalse(new File(hf.getFile().getPath() + ".compact").exists());
+
+        Database.getBufferPool().transactionComplete(writer, false);
+        assertEquals(kept(3000), values(hf.iterator(tid), 0));
+        assertTrue(hf.compact(-1) > 0);
+        assertEquals(kept(3000), values(hf.iterator(tid), 0));
+    }
+
+    /**
+     * A scan that outlasts SCAN_DRAIN_MILLIS fails the compaction instead
+     * of the scan, and the file is left as it was.
+     */
+    @Test public void scanOutlastsSwap() throws Exception {
+        HeapFile hf = (HeapFile) loadTable("", 3000);
+        int pages = hf.numPages();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Integer> read = new ArrayList<Integer>();
+        read.add(((IntField) it.next().getField(0)).getValue());
+        try {
+            hf.compact(-1);
+            fail("the compaction should not swap the file under a running scan");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(0, hf.getGeneration());
+        assertEquals(pages, hf.numPages());
+        assertFalse(new File(hf.getFile().getPath() + ".compact").exists());
+        while (it.hasNext()) {
+            read.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        assertEquals(kept(3000), read);
+    }
+
+    /**
+     * A partitioned table is compacted partition by partition.
+     */
+    @Test public void partitioned() throws Exception {
+        PartitionedFile table = (PartitionedFile) loadTable("partition=hash:a:4", 4000);
+        int before = table.numPages();
+        assertTrue(Database.getCatalog().compactTable("comp", null) > 0);
+        assertTrue(table.numPages() < before);
+        List<Integer> values = values(table.iterator(tid), 0);
+        Collections.sort(values);
+        assertEquals(kept(4000), values);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompactionTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedPageIOTest extends SimpleDbTestBase {
+
+    private static byte[] rowPage(TupleDesc td, int rows, Random r, int maxValue) throws IOException {
+        HeapPageId pid = new HeapPageId(-1, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    t.setField(j, new IntField(r.nextInt(maxValue)));
+                } else {
+                    t.setField(j, new StringField("s" + r.nextInt(maxValue), Type.STRING_LEN));
+                }
+            }
+            try {
+                page.insertTuple(t);
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return page.getPageData();
+    }
+
+    private static void checkCodec(TupleDesc td, PageFormat format, int maxValue) throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, td), SystemTestUtil.getUUID());
+        ColumnCodec codec = new ColumnCodec(td, format, BufferPool.PAGE_SIZE);
+        Random r = new Random(0);
+        byte[] page = rowPage(td, 20, r, maxValue);
+        if (format == PageFormat.PAX) {
+            page = PaxHeapPage.fromRowImage(new Type[] {td.getFieldType(0), td.getFieldType(1)}, page);
+        }
+        for (boolean deflate : new boolean[] {false, true}) {
+            byte[] rec = codec.encode(page, deflate);
+            assertTrue(rec.length < page.length / 4);
+            byte[] back = new byte[BufferPool.PAGE_SIZE];
+            codec.decode(rec, rec.length, back);
+            assertArrayEquals(page, back);
+        }
+    }
+
+    /**
+     * Pages with small integers and short strings encode to a fraction of
+     * their size and decode exactly.
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        checkCodec(Utility.getTupleDesc(2), PageFormat.ROW, 10);
+        checkCodec(Utility.getTupleDesc(2), PageFormat.ROW, 100000);
+        checkCodec(Utility.getTupleDesc(2), PageFormat.PAX, 1000);
+        checkCodec(new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}), PageFormat.ROW, 1000);
+    }
+
+    /**
+     * Pages that the light encodings don't describe are stored raw.
+     */
+    @Test public void rawFallback() throws Exception {
+        ColumnCodec codec = new ColumnCodec(Utility.getTupleDesc(2), PageFormat.SLOTTED, BufferPool.PAGE_SIZE);
+        byte[] page = new byte[BufferPool.PAGE_SIZE];
+        new Random(0).nextBytes(page);
+        byte[] rec = codec.encode(page, true);
+        byte[] back = new byte[BufferPool.PAGE_SIZE];
+        codec.decode(rec, rec.length, back);
+        assertArrayEquals(page, back);
+    }
+
+    /**
+     * An uncompressed table is compressed when opened, scans the same, and
+     * keeps inserted tuples across a reopen.
+     */
+    @Test public void heapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(3, 5000, 100, null, tuples);
+        CompressedPageIO.indexFile(f).deleteOnExit();
+        long rawLength = f.length();
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(3), PageIO.Mode.CHANNEL, PageFormat.ROW, PageCompression.DEFLATE);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals((int) (rawLength / BufferPool.PAGE_SIZE), hf.numPages());
+        assertTrue(f.length() + CompressedPageIO.indexFile(f).length() < rawLength / 3);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>(Arrays.asList(i, -i, 7));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, -i, 7}));
+            tuples.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        hf.close();
+
+        Database.reset();
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(3), PageIO.Mode.CHANNEL, PageFormat.ROW, PageCompression.DEFLATE);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * A compressed data file without its index is refused rather than
+     * compressed again, and is read once the index is back.
+     */
+    @Test public void missingIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, tuples);
+        File index = CompressedPageIO.indexFile(f);
+        index.deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), PageIO.Mode.CHANNEL, PageFormat.ROW, PageCompression.LIGHT);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        int pages = hf.numPages();
+        hf.close();
+
+        File moved = new File(index.getPath() + ".moved");
+        moved.deleteOnExit();
+        assertTrue(index.renameTo(moved));
+        long length = f.length();
+        try {
+            new HeapFile(f, Utility.getTupleDesc(2), PageIO.Mode.CHANNEL, PageFormat.ROW, PageCompression.LIGHT);
+            fail("a compressed file without its index should not be opened");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("index"));
+        }
+        assertEquals(length, f.length());
+        assertFalse(index.exists());
+
+        assertTrue(moved.renameTo(index));
+        Database.reset();
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), PageIO.Mode.CHANNEL, PageFormat.ROW, PageCompression.LIGHT);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(pages, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageIOTest.class);
+    }
+}
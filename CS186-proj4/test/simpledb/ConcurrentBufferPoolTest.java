@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ConcurrentBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private HeapFile hf;
+
+    /**
+     * Creates a table whose reads of pages are counted, and take some time
+     * if slow.
+     */
+    private HeapFile createTable(int rows, final boolean slow) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, null);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2)) {
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                if (slow) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static BufferPool resetPool(int pages) {
+        BufferPool pool = Database.resetBufferPool(pages);
+        pool.setReadAhead(new ReadAhead(pages, 0));
+        return pool;
+    }
+
+    /**
+     * Runs a task on THREADS threads started at once, and rethrows the
+     * first exception one of them threw.
+     */
+    private static void runConcurrently(final Callable<Void> task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(threads.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (Exception) e.getCause();
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    private static void getAndUnpin(BufferPool pool, TransactionId tid, PageId pid) throws Exception {
+        pool.getPage(tid, pid, Permissions.READ_ONLY);
+        pool.unpinPage(tid, pid);
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        reads.set(0);
+    }
+
+    /**
+     * Threads that miss on the same page at once wait for one read of it,
+     * and all get the same page.
+     */
+    @Test public void singleRead() throws Exception {
+        hf = createTable(100, true);
+        final BufferPool pool = resetPool(50);
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final Set<Page> pages = Collections.synchronizedSet(new HashSet<Page>());
+        runConcurrently(new Callable<Void>() {
+            public Void call() throws Exception {
+                TransactionId tid = new TransactionId();
+                pages.add(pool.getPage(tid, pid, Permissions.READ_ONLY));
+                pool.unpinPage(tid, pid);
+                return null;
+            }
+        });
+        assertEquals(1, reads.get());
+        assertEquals(1, pages.size());
+        assertEquals(THREADS, pool.getHits() + pool.getMisses());
+    }
+
+    /**
+     * Pages read and evicted by many threads at once stay in the pool at
+     * most once each, within the size of the pool, and every request is
+     * counted as a hit or a miss.
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        hf = createTable(20000, false);
+        final int numPages = hf.numPages();
+        assertTrue(numPages > 20);
+        final BufferPool pool = resetPool(numPages / 2);
+        final int requests = 5000;
+        runConcurrently(new Callable<Void>() {
+            public Void call() throws Exception {
+                Random random = new Random(Thread.currentThread().getId());
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < requests; i++) {
+                    // a hot quarter of the pages gets most requests
+                    int pgNo = random.nextInt(4) > 0 ? random.nextInt(numPages / 4) : random.nextInt(numPages);
+                    HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+                    Page page = pool.getPage(tid, pid, Permissions.READ_ONLY);
+                    assertEquals(pid, page.getId());
+                    pool.unpinPage(tid, pid);
+                }
+                return null;
+            }
+        });
+        assertEquals(THREADS * requests, pool.getHits() + pool.getMisses());
+        // threads that missed on a page being read didn't read it
+        assertTrue(reads.get() <= pool.getMisses());
+        assertTrue(pool.getHits() > pool.getMisses());
+        int cached = 0;
+        for (int p = 0; p < numPages; p++) {
+            if (pool.isCached(new HeapPageId(hf.getId(), p))) {
+                cached++;
+            }
+        }
+        assertEquals((long) cached * BufferPool.PAGE_SIZE, pool.getCachedBytes());
+        assertTrue(cached <= numPages / 2);
+    }
+
+    /**
+     * The hits of the pool, which don't lock it, still count as uses for
+     * the replacement policy.
+     */
+    @Test public void hitsReachPolicy() throws Exception {
+        hf = createTable(5000, false);
+        BufferPool pool = resetPool(4);
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < 4; p++) {
+            getAndUnpin(pool, tid, new HeapPageId(hf.getId(), p));
+        }
+        getAndUnpin(pool, tid, new HeapPageId(hf.getId(), 0));
+        getAndUnpin(pool, tid, new HeapPageId(hf.getId(), 4));
+        assertTrue(pool.isCached(new HeapPageId(hf.getId(), 0)));
+        assertFalse(pool.isCached(new HeapPageId(hf.getId(), 1)));
+        assertEquals(1, pool.getHits());
+        assertEquals(5, pool.getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ConcurrentBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionStealTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        assertTrue(hf.numPages() > 4 * POOL_PAGES);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Deletes the tuples of the table whose first field is even, page by
+     * page, and returns the tuples left.
+     */
+    private ArrayList<ArrayList<Integer>> deleteEven() throws Exception {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        BufferPool pool = Database.getBufferPool();
+        for (int p = 0; p < hf.numPages(); p++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), p);
+            ArrayList<Tuple> even = new ArrayList<Tuple>();
+            Iterator<Tuple> it = ((TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE)).iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                    even.add(t);
+                } else {
+                    left.add(SystemTestUtil.tupleToList(t));
+                }
+            }
+            pool.unpinPage(tid, pid);
+            for (Tuple t : even) {
+                pool.deleteTuple(tid, t);
+            }
+        }
+        return left;
+    }
+
+    /**
+     * A transaction that updates every page of a table four times larger
+     * than the pool writes its pages back as it goes, after logging them;
+     * none of its updates is lost, and the pool stays within its size.
+     */
+    @Test public void updateMorePagesThanPool() throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        // every page is written back by getPage
+        pool.setCleaner(null);
+        pool.setSteal(true);
+        int records = Database.getLogFile().getTotalRecords();
+        ArrayList<ArrayList<Integer>> left = deleteEven();
+        assertTrue(left.size() < tuples.size());
+        assertTrue(pool.getCachedBytes() <= POOL_PAGES * BufferPool.PAGE_SIZE);
+        long writeBacks = pool.getWriteBacks();
+        assertTrue(writeBacks >= hf.numPages() - POOL_PAGES);
+        assertEquals(writeBacks, Database.getLogFile().getTotalRecords() - records);
+        pool.flushAllPages();
+
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * Clean pages are evicted first: a scan through a small pool leaves
+     * a dirty page in it, without writing it back.
+     */
+    @Test public void cleanPagesFirst() throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        Tuple t = ((TuplePage) pool.getPage(tid, first, Permissions.READ_WRITE)).iterator().next();
+        pool.unpinPage(tid, first);
+        pool.deleteTuple(tid, t);
+        SystemTestUtil.matchTuples(hf, tid, tuples.subList(1, tuples.size()));
+        assertTrue(pool.isCached(first));
+        assertEquals(0, pool.getWriteBacks());
+    }
+
+    /**
+     * In NO STEAL mode, the default, the pool refuses to read a page once
+     * every page in it is dirty, and keeps the dirty pages.
+     */
+    @Test public void noSteal() throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        assertFalse(pool.isSteal());
+        try {
+            deleteEven();
+            fail("the pool should be full of dirty pages");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(0, pool.getWriteBacks());
+        for (int p = 0; p < POOL_PAGES; p++) {
+            assertTrue(pool.isCached(new HeapPageId(hf.getId(), p)));
+        }
+        pool.flushAllPages();
+        assertNotNull(pool.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionStealTest.class);
+    }
+}
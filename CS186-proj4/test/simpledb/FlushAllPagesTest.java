@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FlushAllPagesTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    /**
+     * @return the values of field 1 of the tuples of hf, sorted
+     */
+    private List<Integer> values(HeapFile hf) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(1)).getValue());
+        }
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * Dirty pages of several tables, in random order and with gaps between
+     * them, all reach the disk and are clean afterwards.
+     */
+    @Test public void severalTables() throws Exception {
+        Random r = new Random(11);
+        HeapFile[] tables = new HeapFile[3];
+        ArrayList<List<Integer>> expected = new ArrayList<List<Integer>>();
+        for (int t = 0; t < tables.length; t++) {
+            tables[t] = SystemTestUtil.createRandomHeapFile(2, 30000, null, null);
+            // change the tuples of some pages, some of them adjacent
+            ArrayList<Tuple> victims = new ArrayList<Tuple>();
+            DbFileIterator it = tables[t].iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple tuple = it.next();
+                if (r.nextInt(300) == 0) {
+                    victims.add(tuple);
+                }
+            }
+            it.close();
+            for (Tuple victim : victims) {
+                Database.getBufferPool().deleteTuple(tid, victim);
+                Database.getBufferPool().insertTuple(tid, tables[t].getId(),
+                        Utility.getHeapTuple(new int[] {0, -1}));
+            }
+            expected.add(values(tables[t]));
+        }
+        Database.getBufferPool().flushAllPages();
+        for (HeapFile hf : tables) {
+            for (int i = 0; i < hf.numPages(); i++) {
+                Page p = Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i),
+                        Permissions.READ_ONLY);
+                assertNull(p.isDirty());
+            }
+        }
+        Database.resetBufferPool(2000);
+        for (int t = 0; t < tables.length; t++) {
+            assertEquals(expected.get(t), values(tables[t]));
+        }
+    }
+
+    /**
+     * HeapFile.writePages writes every page where it belongs, whether or
+     * not it is next to another one.
+     */
+    @Test public void writePages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        int[] pgNos = new int[] {9, 3, 4, 0, 5, 12, 10};
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int pgNo : pgNos) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+            TuplePage p = (TuplePage) hf.readPage(pid);
+            Tuple t = p.iterator().next();
+            p.deleteTuple(t);
+            pages.add(p);
+        }
+        hf.writePages(pages);
+        for (Page p : pages) {
+            assertArrayEquals(p.getPageData(), hf.readPage(p.getId()).getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FlushAllPagesTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static File emptyTable() throws Exception {
+        File f = File.createTempFile("fsm", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for the in-memory map: full pages are skipped, freed pages
+     * become candidates again, and unknown pages are candidates.
+     */
+    @Test public void findPage() throws Exception {
+        FreeSpaceMap fsm = new FreeSpaceMap(emptyTable(), 3);
+        assertEquals(0, fsm.findPage());
+        assertEquals(-1, fsm.getFreeSlots(0));
+        fsm.update(0, 0);
+        fsm.update(1, 0);
+        assertEquals(2, fsm.findPage());
+        fsm.update(2, 0);
+        assertEquals(-1, fsm.findPage());
+        fsm.update(1, 5);
+        assertEquals(1, fsm.findPage());
+        assertEquals(5, fsm.getFreeSlots(1));
+        fsm.update(7, 3);
+        fsm.update(1, 0);
+        assertEquals(7, fsm.findPage());
+    }
+
+    /**
+     * Entries written with the pages survive reopening the map.
+     */
+    @Test public void persist() throws Exception {
+        File f = emptyTable();
+        FreeSpaceMap fsm = new FreeSpaceMap(f, 0);
+        fsm.write(0, 0);
+        fsm.write(3, 42);
+        fsm.close();
+
+        FreeSpaceMap reopened = new FreeSpaceMap(f, 4);
+        assertEquals(0, reopened.getFreeSlots(0));
+        assertEquals(-1, reopened.getFreeSlots(1));
+        assertEquals(42, reopened.getFreeSlots(3));
+        assertEquals(1, reopened.findPage());
+    }
+
+    /**
+     * HeapFile keeps the map up to date, and a delete makes room for the
+     * next insert on the page it freed.
+     */
+    @Test public void heapFileInsertDelete() throws Exception {
+        File f = emptyTable();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int slots = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData()).getNumEmptySlots();
+
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 3 * slots; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        assertEquals(3, hf.numPages());
+
+        Tuple victim = inserted.get(slots + 3);
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Tuple t = Utility.getHeapTuple(new int[] {-1, -1});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, hf.numPages());
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        hf.close();
+        FreeSpaceMap reopened = new FreeSpaceMap(f, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, reopened.getFreeSlots(i));
+        }
+        assertEquals(-1, reopened.findPage());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        // room for every page the tests touch, so no dirty page is dropped
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    private static File indexFile() throws IOException {
+        File f = File.createTempFile("hash", ".idx");
+        f.delete();
+        f.deleteOnExit();
+        HashIndexFile.directoryFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return the records of the entries index returns for key = operand
+     */
+    private Set<RecordId> lookup(DbIndex index, int operand) throws Exception {
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        DbFileIterator it = index.lookup(tid, Predicate.Op.EQUALS, new IntField(operand));
+        it.open();
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            assertEquals(operand, ((IntField) e.getField(DbIndex.KEY)).getValue());
+            assertTrue(rids.add(new RecordId(new HeapPageId(index.getIndexedTableId(),
+                    ((IntField) e.getField(DbIndex.PAGE)).getValue()),
+                    ((IntField) e.getField(DbIndex.SLOT)).getValue())));
+        }
+        it.close();
+        return rids;
+    }
+
+    /**
+     * @return the records of the table whose field 0 equals operand
+     */
+    private Set<RecordId> scan(HeapFile hf, int operand) throws Exception {
+        HashSet<RecordId> rids = new HashSet<RecordId>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == operand) {
+                rids.add(t.getRecordId());
+            }
+        }
+        it.close();
+        return rids;
+    }
+
+    private void checkLookups(HeapFile hf, DbIndex index, int maxValue) throws Exception {
+        Random r = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            int operand = r.nextInt(maxValue + 2) - 1;
+            assertEquals("= " + operand, scan(hf, operand), lookup(index, operand));
+        }
+    }
+
+    private static int countEntries(DbIndex index, TransactionId tid) throws Exception {
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * An index built from a table finds the same records as a scan, and
+     * is spread over enough buckets that a lookup reads a single page.
+     */
+    @Test public void build() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 50000, 100000, null, null);
+        HashIndexFile index = HashIndexFile.build(indexFile(), hf, 0);
+        Database.getCatalog().addIndex(index);
+        assertTrue(index.getGlobalDepth() >= 7);
+        assertEquals(1 << index.getGlobalDepth(), index.numPages());
+        checkLookups(hf, index, 100000);
+        assertEquals(50000, countEntries(index, tid));
+
+        // the directory is read back from its file
+        HashIndexFile reopened = new HashIndexFile(index.getFile(), hf, 0);
+        assertEquals(index.getGlobalDepth(), reopened.getGlobalDepth());
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in sync,
+     * splitting buckets as it grows and chaining overflow pages to a bucket
+     * of a single key.
+     */
+    @Test public void insertDelete() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashIndexFile index = new HashIndexFile(indexFile(), hf, 0);
+        Database.getCatalog().addIndex(index);
+        Random r = new Random(3);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 20000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {r.nextInt(50000), i});
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        // more copies of one key than a page holds
+        for (int i = 0; i < 2 * HashBucketPage.CAPACITY; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {-5, i});
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        assertTrue(index.getGlobalDepth() >= 6);
+        checkLookups(hf, index, 50000);
+        assertEquals(2 * HashBucketPage.CAPACITY, lookup(index, -5).size());
+
+        for (int i = 0; i < inserted.size(); i += 2) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        checkLookups(hf, index, 50000);
+        assertEquals(HashBucketPage.CAPACITY, lookup(index, -5).size());
+        assertEquals(inserted.size() / 2, countEntries(index, tid));
+
+        // the index survives being written out and read back
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(2000);
+        checkLookups(hf, index, 50000);
+    }
+
+    /**
+     * The hashindex=... table option of a catalog entry creates a hash
+     * index, which is reused while it is up to date and rebuilt once the
+     * table changed without it, whatever the file times say. A primary key
+     * alone gets no index.
+     */
+    @Test public void catalogOption() throws Exception {
+        File dir = File.createTempFile("hash", "");
+        dir.delete();
+        dir.mkdir();
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("pk (a int pk, b int) hashindex=a");
+        w.println("plain (a int pk, b int)");
+        w.close();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        tuples.add(new ArrayList<Integer>(Arrays.asList(1, 10)));
+        tuples.add(new ArrayList<Integer>(Arrays.asList(2, 20)));
+        HeapFileEncoder.convert(tuples, new File(dir, "pk.dat"), BufferPool.PAGE_SIZE, 2);
+        new File(dir, "plain.dat").createNewFile();
+        Database.getCatalog().loadSchema(catalog.getPath());
+
+        int tableId = Database.getCatalog().getTableId("pk");
+        List<DbIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        assertEquals(1, indexes.size());
+        assertTrue(indexes.get(0) instanceof HashIndexFile);
+        assertEquals(0, indexes.get(0).getKeyField());
+        assertEquals(1, lookup(indexes.get(0), 2).size());
+        assertTrue(Database.getCatalog().getIndexes(Database.getCatalog().getTableId("plain")).isEmpty());
+        assertFalse(new File(dir, "plain.a.hash").exists());
+
+        File f = new File(dir, "pk.a.hash");
+        long built = f.lastModified();
+        assertTrue(f.exists() && HashIndexFile.directoryFile(f).exists());
+        Database.getCatalog().loadSchema(catalog.getPath());
+        assertEquals(built, f.lastModified());
+
+        // a table file replaced by an older copy with more rows
+        for (int i = 3; i < 2000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 10 * i)));
+        }
+        File table = new File(dir, "pk.dat");
+        HeapFileEncoder.convert(tuples, table, BufferPool.PAGE_SIZE, 2);
+        assertTrue(table.setLastModified(built - 10000));
+        Database.getCatalog().loadSchema(catalog.getPath());
+        indexes = Database.getCatalog().getIndexes(Database.getCatalog().getTableId("pk"));
+        assertEquals(1, lookup(indexes.get(0), 1999).size());
+        for (File g : dir.listFiles()) {
+            g.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * @return the IndexJoin in plan, or null if there is none
+     */
+    private static IndexJoin findIndexJoin(DbIterator plan) {
+        if (plan instanceof IndexJoin) {
+            return (IndexJoin) plan;
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                IndexJoin j = findIndexJoin(child);
+                if (j != null) {
+                    return j;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * A selective join against the key of a large table probes its index
+     * instead of scanning it, and returns the same tuples as a plain join.
+     */
+    @Test public void indexJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> big = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; i++) {
+            big.add(new ArrayList<Integer>(Arrays.asList(i, i % 100)));
+        }
+        File bigData = File.createTempFile("hash", ".dat");
+        bigData.deleteOnExit();
+        HeapFileEncoder.convert(big, bigData, BufferPool.PAGE_SIZE, 2);
+        HeapFile bigFile = Utility.openHeapFile(2, "k", bigData);
+        Database.getCatalog().addTable(bigFile, "big", "k0");
+        HashIndexFile index = HashIndexFile.build(indexFile(), bigFile, 0);
+        Database.getCatalog().addIndex(index);
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20, 20000, null, null, "s");
+        Database.getCatalog().addTable(small, "small");
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("big", new TableStats(bigFile.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("small", new TableStats(small.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(bigFile.getId(), "b");
+        lp.addJoin("s.s1", "b.k0", Predicate.Op.EQUALS);
+        lp.addProjectField("b.k1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertNotNull(findIndexJoin(plan));
+
+        // the same join as a block nested loops join
+        DbIterator expected = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, bigFile.getId(), "b"));
+        int n = count(expected);
+        assertTrue(n > 0);
+        assertEquals(n, count(plan));
+        plan.open();
+        plan.rewind();
+        assertEquals(n, count(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -1,8 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.*;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -73,6 +76,59 @@ public class LRUCacheTest {
         assertTrue(c.get(2) == 6);
     }
 
+    /**
+     * Unit test for LRUCache weighted entries: old entries are removed until
+     * the new one fits
+     */
+    @Test public void testWeights() {
+        LRUCache<Integer, Integer> c = new LRUCache<Integer, Integer>(8);
+        c.put(1, 1, 2);
+        c.put(2, 4, 2);
+        c.put(3, 9, 2);
+        assertEquals(6, c.weight());
+        c.put(4, 16, 4);
+        assertTrue(c.get(1) == null);
+        assertTrue(c.get(2) == 4);
+        assertEquals(8, c.weight());
+        c.put(2, 5, 6);
+        assertTrue(c.get(3) == null);
+        assertTrue(c.get(4) == null);
+        assertTrue(c.get(2) == 5);
+        assertEquals(6, c.weight());
+    }
+
+    /**
+     * Unit test for LRUCache entries that can't be dropped: they are passed
+     * over and kept, and the cache grows if nothing else can be dropped
+     */
+    @Test public void testEvictable() {
+        final HashSet<Integer> pinned = new HashSet<Integer>();
+        LRUCache<Integer, Integer> c = new LRUCache<Integer, Integer>(3) {
+            protected boolean evictable(Integer key, Integer value) {
+                return !pinned.contains(key);
+            }
+        };
+        c.put(1, 1);
+        c.put(2, 4);
+        c.put(3, 9);
+        pinned.add(1);
+        c.put(4, 16);
+        assertTrue(c.get(1) == 1);
+        assertTrue(c.get(2) == null);
+
+        pinned.add(3);
+        pinned.add(4);
+        ArrayList<Integer> passedOver = new ArrayList<Integer>();
+        assertFalse(c.evictEldest(passedOver));
+        assertEquals(Arrays.asList(3, 4, 1), passedOver);
+        c.put(5, 25);
+        assertEquals(4, c.size());
+        assertTrue(c.get(3) == 9);
+        pinned.clear();
+        assertTrue(c.evictEldest());
+        assertTrue(c.get(4) == null);
+    }
+
     /**
      * JUnit suite target
      */
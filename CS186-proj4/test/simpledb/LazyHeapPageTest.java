@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LazyHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static byte[] exampleData() {
+        return HeapPageReadTest.EXAMPLE_DATA.clone();
+    }
+
+    /**
+     * Unit test for LazyHeapPage.iterator() and getField()
+     */
+    @Test public void testIterator() throws Exception {
+        LazyHeapPage page = new LazyHeapPage(pid, exampleData());
+        Iterator<Tuple> it = page.iterator();
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][0], ((IntField) page.getField(row, 0)).getValue());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            row++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, row);
+    }
+
+    /**
+     * Unit test for LazyHeapPage.getNumEmptySlots() and isSlotUsed()
+     */
+    @Test public void getSlots() throws Exception {
+        LazyHeapPage page = new LazyHeapPage(pid, exampleData());
+        assertEquals(504, page.getNumSlots());
+        assertEquals(484, page.getNumEmptySlots());
+        for (int i = 0; i < 20; ++i)
+            assertTrue(page.isSlotUsed(i));
+        for (int i = 20; i < 504; ++i)
+            assertFalse(page.isSlotUsed(i));
+    }
+
+    /**
+     * The page image must round trip unchanged, and match HeapPage after
+     * the same modifications.
+     */
+    @Test public void pageData() throws Exception {
+        LazyHeapPage lazy = new LazyHeapPage(pid, exampleData());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, lazy.getPageData());
+
+        HeapPage eager = new HeapPage(pid, exampleData());
+        Tuple a = Utility.getHeapTuple(new int[] {17, 42});
+        Tuple b = Utility.getHeapTuple(new int[] {17, 42});
+        lazy.insertTuple(a);
+        eager.insertTuple(b);
+        assertEquals(b.getRecordId(), a.getRecordId());
+        lazy.deleteTuple(lazy.getTuple(3));
+        eager.deleteTuple(eager.getTuple(3));
+        assertArrayEquals(eager.getPageData(), lazy.getPageData());
+    }
+
+    /**
+     * A deleted LazyTuple keeps its values when its slot is reused.
+     */
+    @Test public void deleteThenReuse() throws Exception {
+        LazyHeapPage page = new LazyHeapPage(pid, exampleData());
+        Tuple victim = page.getTuple(0);
+        page.deleteTuple(victim);
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) victim.getField(0)).getValue());
+        assertEquals(1, ((IntField) page.getTuple(0).getField(0)).getValue());
+    }
+
+    /**
+     * A tuple handed out by the page keeps the values of its slot when the
+     * slot is deleted through another tuple and then reused.
+     */
+    @Test public void heldTupleOutlivesSlot() throws Exception {
+        LazyHeapPage page = new LazyHeapPage(pid, exampleData());
+        Tuple held = page.iterator().next();
+        page.deleteTuple(page.getTuple(0));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][1], ((IntField) held.getField(1)).getValue());
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) held.getField(0)).getValue());
+        assertEquals(new RecordId(pid, 0), held.getRecordId());
+    }
+
+    /**
+     * A LAZY HeapFile scans the same tuples as a ROW HeapFile.
+     */
+    @Test public void heapFileScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(3, 1500, 1000, null, tuples);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(3), PageIO.Mode.RANDOM_ACCESS, PageFormat.LAZY);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LazyHeapPageTest.class);
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LsmFileTest extends SimpleDbTestBase {
+
+    /** A memtable of 100 tuples of two ints. */
+    private static final long MEMTABLE = 100 * 12;
+
+    private TransactionId tid;
+    private File dir;
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+        dir = File.createTempFile("lsm", "");
+        dir.delete();
+        dir.mkdir();
+        f = new File(dir, "lsm.dat");
+    }
+
+    @After public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private LsmFile open() {
+        LsmFile lsm = new LsmFile(f, Utility.getTupleDesc(2, "f"), 0, 512, MEMTABLE);
+        Database.getCatalog().addTable(lsm, UUID.randomUUID().toString());
+        return lsm;
+    }
+
+    private static int scattered(int i) {
+        return (int) ((i * 7919L) % 10007);
+    }
+
+    private void insert(LsmFile lsm, int a, int b) throws Exception {
+        Database.getBufferPool().insertTuple(tid, lsm.getId(), Utility.getHeapTuple(new int[] {a, b}));
+    }
+
+    private static List<String> rows(DbFileIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(((IntField) t.getField(0)).getValue() + "," + ((IntField) t.getField(1)).getValue());
+        }
+        it.close();
+        return rows;
+    }
+
+    private static List<Integer> keys(DbFileIterator it) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (String row : rows(it)) {
+            keys.add(Integer.parseInt(row.substring(0, row.indexOf(','))));
+        }
+        return keys;
+    }
+
+    private static List<Integer> sortedScattered(int from, int to) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            keys.add(scattered(i));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Inserts fill the memtable, which is written out as sorted runs, and
+     * a scan merges them in key order.
+     */
+    @Test public void insertAndScan() throws Exception {
+        LsmFile lsm = open();
+        for (int i = 0; i < 350; i++) {
+            insert(lsm, scattered(i), i);
+        }
+        assertEquals(3, lsm.numRuns());
+        assertEquals(sortedScattered(0, 350), keys(lsm.iterator(tid)));
+        // the tuples of the memtable are in the scan too
+        insert(lsm, -1, 0);
+        assertEquals(-1, (int) keys(lsm.iterator(tid)).get(0));
+    }
+
+    /**
+     * Equal tuples are counted, deletes are entries too, and the table is
+     * the same after it is reopened from its runs and log.
+     */
+    @Test public void deleteAndReopen() throws Exception {
+        LsmFile lsm = open();
+        for (int i = 0; i < 250; i++) {
+            insert(lsm, i % 50, 7);
+        }
+        DbFileIterator it = lsm.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        for (int i = 0; i < 5; i++) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        try {
+            Database.getBufferPool().deleteTuple(tid, t);
+            fail("a tuple that is gone should not be deleted");
+        } catch (DbException e) {
+            // expected
+        }
+        List<String> rows = rows(lsm.iterator(tid));
+        assertEquals(245, rows.size());
+        assertEquals("1,7", rows.get(0));
+
+        lsm.close();
+        LsmFile reopened = open();
+        assertEquals(rows, rows(reopened.iterator(tid)));
+    }
+
+    /**
+     * A scan with predicates on the key reads only that range of keys of
+     * every run.
+     */
+    @Test public void rangeReads() throws Exception {
+        LsmFile lsm = open();
+        for (int i = 0; i < 1000; i++) {
+            insert(lsm, i, -i);
+        }
+        Predicate ge = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(250));
+        Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(260));
+        Predicate other = new Predicate(1, Predicate.Op.EQUALS, new IntField(0));
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 250; i < 260; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, keys(lsm.iterator(tid, Arrays.asList(ge, lt, other))));
+        assertEquals(Arrays.asList("700,-700"), rows(lsm.iterator(tid,
+                Collections.singletonList(new Predicate(0, Predicate.Op.EQUALS, new IntField(700))))));
+        assertTrue(keys(lsm.iterator(tid, Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3))))).isEmpty());
+        assertEquals(1000, keys(lsm.iterator(tid, null)).size());
+    }
+
+    /**
+     * The background thread merges the runs, dropping the tuples that were
+     * deleted, while scans that started before go on reading the old runs.
+     */
+    @Test public void merge() throws Exception {
+        LsmFile lsm = open();
+        for (int i = 0; i < 300; i++) {
+            insert(lsm, scattered(i), i);
+        }
+        DbFileIterator old = lsm.iterator(tid);
+        old.open();
+        int read = 0;
+        for (; read < 10; read++) {
+            old.next();
+        }
+        // a tuple equal to a stored one is deleted through the id of its table
+        Tuple gone = Utility.getHeapTuple(new int[] {scattered(0), 0});
+        gone.setRecordId(new RecordId(new HeapPageId(lsm.getId(), 0), 0));
+        Database.getBufferPool().deleteTuple(tid, gone);
+        for (int i = 300; i < 450; i++) {
+            insert(lsm, scattered(i), i);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (lsm.numRuns() >= LsmFile.MAX_RUNS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(lsm.numRuns() < LsmFile.MAX_RUNS);
+        while (old.hasNext()) {
+            old.next();
+            read++;
+        }
+        old.close();
+        assertEquals(300, read);
+
+        lsm.flush();
+        lsm.mergeRuns();
+        assertEquals(1, lsm.numRuns());
+        List<Integer> expected = sortedScattered(1, 450);
+        assertEquals(expected, keys(lsm.iterator(tid)));
+        int runFiles = 0;
+        for (String name : dir.list()) {
+            if (name.contains(".run")) {
+                runFiles++;
+            }
+        }
+        assertEquals(1, runFiles);
+        assertEquals(expected, keys(open().iterator(tid)));
+    }
+
+    /**
+     * The catalog stores a table with the lsm option as an LsmFile, and
+     * the planner hands the filters on its key to its scan.
+     */
+    @Test public void catalog() throws Exception {
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("ingest (a int pk, b int) lsm=a pagesize=1024");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int id = Database.getCatalog().getTableId("ingest");
+        assertTrue(Database.getCatalog().getDbFile(id) instanceof LsmFile);
+        assertTrue(Database.getCatalog().getIndexes(id).isEmpty());
+        for (int i = 0; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tid, id, Utility.getHeapTuple(new int[] {i, i % 5}));
+        }
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("ingest", new TableStats(id, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(id, "i");
+        lp.addFilter("i.a", Predicate.Op.GREATER_THAN, "490");
+        lp.addFilter("i.b", Predicate.Op.EQUALS, "2");
+        lp.addProjectField("i.a", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext()) {
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        }
+        plan.close();
+        assertEquals(Arrays.asList(492, 497), actual);
+
+        for (String bad : new String[] {"lsm=c", "lsm=a index=b", "lsm=a format=pax"}) {
+            try {
+                Database.getCatalog().createTable(new File(dir, "bad.dat"), Utility.getTupleDesc(2, "f"),
+                        Catalog.parseTableOptions(bad.replace("=a", "=f0").replace("=b", "=f1")));
+                fail(bad + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LsmFileTest.class);
+    }
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MemoryFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private File dir;
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+        dir = File.createTempFile("memory", "");
+        dir.delete();
+        dir.mkdir();
+        f = new File(dir, "memory.dat");
+    }
+
+    @After public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private MemoryFile open(int keyField, boolean persistent) {
+        MemoryFile mf = new MemoryFile(f, Utility.getTupleDesc(2, "f"), keyField, persistent);
+        Database.getCatalog().addTable(mf, UUID.randomUUID().toString());
+        return mf;
+    }
+
+    private Tuple insert(MemoryFile mf, int a, int b) throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] {a, b});
+        Database.getBufferPool().insertTuple(tid, mf.getId(), t);
+        return t;
+    }
+
+    private static List<String> rows(DbFileIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(((IntField) t.getField(0)).getValue() + "," + ((IntField) t.getField(1)).getValue());
+        }
+        it.close();
+        return rows;
+    }
+
+    private static Predicate equals(int field, int value) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+    }
+
+    /**
+     * Rows fill several segments, deletes free slots by record id, and
+     * inserts reuse them.
+     */
+    @Test public void insertDeleteScan() throws Exception {
+        MemoryFile mf = open(-1, false);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 10000; i++) {
+            inserted.add(insert(mf, i, -i));
+        }
+        assertEquals(10000, mf.numRows());
+        assertTrue(mf.memoryBytes() > MemoryFile.SEGMENT_BYTES);
+        assertEquals(10000, rows(mf.iterator(tid)).size());
+
+        for (int i = 0; i < 10000; i += 2) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        try {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(0));
+            fail("a deleted tuple should not be deleted again");
+        } catch (DbException e) {
+            // expected
+        }
+        List<String> rows = rows(mf.iterator(tid));
+        assertEquals(5000, rows.size());
+        assertEquals("1,-1", rows.get(0));
+
+        long bytes = mf.memoryBytes();
+        Tuple t = insert(mf, -7, 7);
+        assertEquals(bytes, mf.memoryBytes());
+        assertEquals(inserted.get(9998).getRecordId(), t.getRecordId());
+        try {
+            Database.getBufferPool().insertTuple(tid, mf.getId(), Utility.getHeapTuple(new int[] {1, 2, 3}));
+            fail("a tuple of another schema should not be inserted");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * An equality on the key field reads only the rows with that key, and
+     * the chains stay right as the rows are deleted and rehashed.
+     */
+    @Test public void pointLookups() throws Exception {
+        MemoryFile mf = open(0, false);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            inserted.add(insert(mf, i % 1000, i));
+        }
+        assertEquals(Arrays.asList("42,42", "42,1042", "42,2042"),
+                rows(mf.iterator(tid, Collections.singletonList(equals(0, 42)))));
+        Database.getBufferPool().deleteTuple(tid, inserted.get(1042));
+        assertEquals(Arrays.asList("42,42", "42,2042"),
+                rows(mf.iterator(tid, Arrays.asList(equals(1, 0), equals(0, 42)))));
+        assertTrue(rows(mf.iterator(tid, Collections.singletonList(equals(0, 5000)))).isEmpty());
+        // other predicates read every row
+        assertEquals(2999, rows(mf.iterator(tid, Collections.singletonList(equals(1, 5)))).size());
+    }
+
+    /**
+     * A persistent table is written to its snapshot by flushAllPages, only
+     * if it changed, and loaded from it when opened again.
+     */
+    @Test public void snapshot() throws Exception {
+        MemoryFile mf = open(-1, true);
+        Tuple gone = insert(mf, 1, 1);
+        for (int i = 2; i < 500; i++) {
+            insert(mf, i, i);
+        }
+        Database.getBufferPool().deleteTuple(tid, gone);
+        Database.getBufferPool().flushAllPages();
+        File snapshot = MemoryFile.snapshotFile(f);
+        assertTrue(snapshot.exists());
+        assertFalse(f.exists());
+        long modified = snapshot.lastModified();
+        assertTrue(snapshot.setLastModified(modified - 10000));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(modified - 10000, snapshot.lastModified());
+
+        List<String> rows = rows(mf.iterator(tid));
+        MemoryFile reopened = open(-1, true);
+        assertEquals(rows, rows(reopened.iterator(tid)));
+        assertEquals(498, reopened.numRows());
+        // a volatile table starts empty
+        assertEquals(0, open(-1, false).numRows());
+    }
+
+    /**
+     * A heap table can be kept in memory: it starts with the rows of its
+     * heap file, which the snapshots leave as it is, so that the table can
+     * be read as a HeapFile again.
+     */
+    @Test public void heapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++) {
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        long length = f.length();
+        assertTrue(length > BufferPool.PAGE_SIZE);
+
+        for (boolean persistent : new boolean[] {false, true}) {
+            MemoryFile mf = open(0, persistent);
+            assertEquals(1000, mf.numRows());
+            assertEquals(Collections.singletonList("999,-999"),
+                    rows(mf.iterator(tid, Collections.singletonList(equals(0, 999)))));
+        }
+        MemoryFile mf = open(0, true);
+        insert(mf, 1000, -1000);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(length, f.length());
+        assertEquals(1001, open(0, true).numRows());
+        assertEquals(1000, open(0, false).numRows());
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        assertEquals(1000, rows(hf.iterator(tid)).size());
+    }
+
+    /**
+     * The catalog stores a table with the memory option as a MemoryFile,
+     * and the planner hands the filters on its key to its scan.
+     */
+    @Test public void catalog() throws Exception {
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("dim (a int pk, b int) memory=snapshot:a");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        int id = Database.getCatalog().getTableId("dim");
+        MemoryFile mf = (MemoryFile) Database.getCatalog().getDbFile(id);
+        assertEquals(0, mf.getKeyField());
+        assertTrue(mf.isPersistent());
+        assertTrue(Database.getCatalog().getIndexes(id).isEmpty());
+        for (int i = 0; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tid, id, Utility.getHeapTuple(new int[] {i, i % 5}));
+        }
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("dim", new TableStats(id, TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(id, "d");
+        lp.addFilter("d.a", Predicate.Op.EQUALS, "492");
+        lp.addProjectField("d.b", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(2, ((IntField) plan.next().getField(0)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        for (String bad : new String[] {"memory=disk", "memory=volatile:c", "memory=snapshot index=f1",
+                "memory=volatile:f0:f1"}) {
+            try {
+                Database.getCatalog().createTable(new File(dir, "bad.dat"), Utility.getTupleDesc(2, "f"),
+                        Catalog.parseTableOptions(bad));
+                fail(bad + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MemoryFileTest.class);
+    }
+}
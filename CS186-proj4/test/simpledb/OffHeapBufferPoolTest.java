@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    private static File emptyFile() throws IOException {
+        File f = File.createTempFile("offheap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        ZoneMap.mapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Creates a table of the format and page size with the rows (i, -i, 7),
+     * written to disk through a pool on the heap.
+     */
+    private HeapFile createTable(PageFormat format, int pageSize, int rows) throws Exception {
+        HeapFile hf = new HeapFile(emptyFile(), Utility.getTupleDesc(3), PageIO.Mode.RANDOM_ACCESS, format, null,
+                pageSize);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, -i, 7}));
+        }
+        Database.getBufferPool().flushAllPages();
+        return hf;
+    }
+
+    private List<Integer> firstFields(HeapFile hf) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        // shares the pool, so that a scan larger than the pool goes through all of its frames
+        DbFileIterator it = new HeapFileIterator(tid, hf, null, AccessStrategy.NORMAL);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(-((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+            values.add(((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        return values;
+    }
+
+    private static List<Integer> range(int n) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * Frames are handed out once each, and views of a frame share its
+     * bytes.
+     */
+    @Test public void arena() {
+        FrameArena arena = new FrameArena(10 * 4096 + 100, 4096);
+        assertEquals(10, arena.numFrames());
+        assertEquals(10 * 4096, arena.bytes());
+        HashSet<Integer> handedOut = new HashSet<Integer>();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(handedOut.add(arena.allocate()));
+        }
+        assertEquals(-1, arena.allocate());
+
+        ByteBuffer a = arena.frame(3, 4096);
+        assertTrue(a.isDirect());
+        assertEquals(4096, a.remaining());
+        a.putInt(4092, 42);
+        assertEquals(42, arena.frame(3, 4096).getInt(4092));
+        assertEquals(0, arena.frame(4, 4096).getInt(0));
+        assertEquals(1024, arena.frame(3, 1024).capacity());
+
+        arena.free(3);
+        assertEquals(1, arena.numFree());
+        assertEquals(3, arena.allocate());
+        for (long bad : new long[] {0, 4095}) {
+            try {
+                new FrameArena(bad, 4096);
+                fail(bad + " bytes should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * The pages of a table in the lazy format are views over frames, and a
+     * scan larger than the pool reuses the frames; a page still held after
+     * it left the pool keeps its tuples.
+     */
+    @Test public void views() throws Exception {
+        HeapFile hf = createTable(PageFormat.LAZY, BufferPool.PAGE_SIZE, 3000);
+        assertTrue(hf.numPages() > 8);
+        BufferPool pool = Database.resetOffHeapBufferPool(8 * BufferPool.PAGE_SIZE);
+        assertEquals(8, pool.getArena().numFrames());
+
+        LazyHeapPage first = (LazyHeapPage) pool.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(first.isDirect());
+        Tuple t = first.getTuple(0);
+        pool.unpinPage(tid, first.getId());
+        assertEquals(range(3000), firstFields(hf));
+        assertTrue(pool.getCachedBytes() <= 8 * BufferPool.PAGE_SIZE);
+        assertEquals(0, pool.getArena().numFree());
+        assertFalse(pool.isCached(first.getId()));
+        assertFalse(first.isDirect());
+        assertEquals(new IntField(0), t.getField(0));
+        assertEquals(new IntField(-1), first.getTuple(1).getField(1));
+
+        // a discarded page gives its frame back
+        PageId last = new HeapPageId(hf.getId(), hf.numPages() - 1);
+        assertTrue(pool.isCached(last));
+        pool.discardPage(last);
+        assertEquals(1, pool.getArena().numFree());
+    }
+
+    /**
+     * Tuples are inserted into and deleted from the frames, which are
+     * written back to disk, and the before image is copied only once a page
+     * changes.
+     */
+    @Test public void writes() throws Exception {
+        HeapFile hf = createTable(PageFormat.LAZY, BufferPool.PAGE_SIZE, 100);
+        BufferPool pool = Database.resetOffHeapBufferPool(64 * BufferPool.PAGE_SIZE);
+        LazyHeapPage page = (LazyHeapPage) pool.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        assertTrue(page.isDirect());
+        assertEquals(100, page.getBeforeImage().getNumSlots() - page.getBeforeImage().getNumEmptySlots());
+
+        for (int i = 100; i < 200; i++) {
+            pool.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, -i, 7}));
+        }
+        pool.deleteTuple(tid, page.getTuple(0));
+        LazyHeapPage before = page.getBeforeImage();
+        assertTrue(before.isSlotUsed(0));
+        assertFalse(page.isSlotUsed(0));
+        pool.flushAllPages();
+
+        Database.resetBufferPool(2000);
+        List<Integer> expected = range(200);
+        expected.remove(0);
+        List<Integer> actual = firstFields(hf);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Pages that can't be views, those of the row and slotted formats or
+     * larger than a frame, are kept on the heap and count against the
+     * pool. Row pages stay HeapPages.
+     */
+    @Test public void heapPages() throws Exception {
+        HeapFile row = createTable(PageFormat.ROW, BufferPool.PAGE_SIZE, 10);
+        HeapFile slotted = createTable(PageFormat.SLOTTED, BufferPool.PAGE_SIZE, 10);
+        HeapFile large = createTable(PageFormat.LAZY, 4 * BufferPool.PAGE_SIZE, 10);
+        HeapFile small = createTable(PageFormat.PAX, 1024, 10);
+        BufferPool pool = Database.resetOffHeapBufferPool(8 * BufferPool.PAGE_SIZE);
+        assertTrue(pool.getPage(tid, new HeapPageId(row.getId(), 0), Permissions.READ_ONLY) instanceof HeapPage);
+        assertTrue(pool.getPage(tid, new HeapPageId(slotted.getId(), 0), Permissions.READ_ONLY)
+                instanceof SlottedHeapPage);
+        assertFalse(((LazyHeapPage) pool.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY))
+                .isDirect());
+        PaxHeapPage pax = (PaxHeapPage) pool.getPage(tid, new HeapPageId(small.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(pax.isDirect());
+        assertEquals(1024, pax.getPageData().length);
+        assertEquals(7 * BufferPool.PAGE_SIZE, pool.getCachedBytes());
+        assertEquals(7, pool.getArena().numFree());
+        assertEquals(range(10), firstFields(small));
+        assertEquals(range(10), firstFields(row));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
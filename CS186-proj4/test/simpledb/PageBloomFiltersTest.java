@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageBloomFiltersTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    private static File emptyFile() throws IOException {
+        File f = File.createTempFile("bloom", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        ZoneMap.mapFile(f).deleteOnExit();
+        return f;
+    }
+
+    private static HeapFile createTable(File f, String options) {
+        HeapFile hf = (HeapFile) Database.getCatalog().createTable(f, Utility.getTupleDesc(2, "f"),
+                Catalog.parseTableOptions(options));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /** Scatters the values of the second field, so zone maps can't prune them. */
+    private static int scattered(int i) {
+        return (int) ((i * 7919L) % 100003);
+    }
+
+    private static Predicate equals(int field, int value) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+    }
+
+    /**
+     * The filters are sized for the false positive rate of a full page.
+     */
+    @Test public void sizing() {
+        assertEquals(4793, PageBloomFilters.numBits(500, 0.01));
+        assertEquals(7, PageBloomFilters.numHashes(4793, 500));
+        PageBloomFilters blooms = new PageBloomFilters(Utility.getTupleDesc(2), new int[] {1}, 0.001, 500);
+        assertTrue(blooms.bitsPerFilter() >= PageBloomFilters.numBits(500, 0.001));
+        assertEquals(0, blooms.bitsPerFilter() % 64);
+        for (double bad : new double[] {0, 1, -0.5}) {
+            try {
+                new PageBloomFilters(Utility.getTupleDesc(2), new int[] {1}, bad, 500);
+                fail(bad + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Inserts keep the filters of their pages, and an equality scan reads
+     * only the pages whose filters have the value.
+     */
+    @Test public void skipPages() throws Exception {
+        HeapFile hf = createTable(emptyFile(), "bloom=f1");
+        for (int i = 0; i < 5000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, scattered(i)}));
+        }
+        PageBloomFilters blooms = hf.getBloomFilters();
+        int present = 0;
+        int absent = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertTrue(blooms.isKnown(i));
+            if (blooms.mayMatch(i, equals(1, scattered(1234)))) {
+                present++;
+            }
+            if (blooms.mayMatch(i, equals(1, -1))) {
+                absent++;
+            }
+            // only equality on a filtered field prunes
+            assertTrue(blooms.mayMatch(i, equals(0, -1)));
+            assertTrue(blooms.mayMatch(i, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(-1))));
+        }
+        assertTrue("pages for a present value: " + present, present >= 1 && present <= 2);
+        assertTrue("pages for an absent value: " + absent, absent <= 1);
+
+        DbFileIterator it = hf.iterator(tid, Collections.singletonList(equals(1, scattered(1234))));
+        it.open();
+        boolean found = false;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            found |= ((IntField) t.getField(0)).getValue() == 1234;
+        }
+        it.close();
+        assertTrue(found);
+    }
+
+    /**
+     * A reopened table knows nothing until its pages are read, e.g. by
+     * computing its statistics; a bulk load learns the pages it appends.
+     */
+    @Test public void learn() throws Exception {
+        File f = emptyFile();
+        HeapFile hf = createTable(f, "bloom=f1");
+        for (int i = 0; i < 3000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, scattered(i)}));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(2000);
+
+        HeapFile reopened = createTable(f, "bloom=f1 bloomfpp=0.001");
+        assertFalse(reopened.getBloomFilters().isKnown(0));
+        assertTrue(reopened.getBloomFilters().mayMatch(0, equals(1, -1)));
+        new TableStats(reopened.getId(), TableStats.IOCOSTPERPAGE);
+        for (int i = 0; i < reopened.numPages(); i++) {
+            assertTrue(reopened.getBloomFilters().isKnown(i));
+        }
+
+        File text = File.createTempFile("bloom", ".txt");
+        text.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 2000; i++) {
+            w.println(i + "," + (-i - 10));
+        }
+        w.close();
+        int before = reopened.numPages();
+        assertEquals(2000, BulkLoader.forTable(reopened, ',').load(text, reopened));
+        int matches = 0;
+        for (int i = before; i < reopened.numPages(); i++) {
+            assertTrue(reopened.getBloomFilters().isKnown(i));
+            if (reopened.getBloomFilters().mayMatch(i, equals(1, -1500))) {
+                matches++;
+            }
+        }
+        assertTrue(matches >= 1);
+    }
+
+    /**
+     * The catalog checks the fields and the false positive rate.
+     */
+    @Test public void catalogOptions() throws Exception {
+        HeapFile hf = createTable(emptyFile(), "bloom=f0,f1 bloomfpp=0.05");
+        assertArrayEquals(new int[] {0, 1}, hf.getBloomFilters().getFields());
+        assertEquals(0.05, hf.getBloomFilters().getFalsePositiveRate(), 0);
+        assertNull(createTable(emptyFile(), "").getBloomFilters());
+        for (String bad : new String[] {"bloom=g", "bloom=f0 bloomfpp=0", "bloom=f0 bloomfpp=x"}) {
+            try {
+                createTable(emptyFile(), bad);
+                fail(bad + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageBloomFiltersTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+
+    private HeapFile hf;
+    private BufferPool pool;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        assertTrue(hf.numPages() > 4 * POOL_PAGES);
+        pool = Database.resetBufferPool(POOL_PAGES);
+        pool.setCleaner(null);
+        pool.setSteal(true);
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Deletes the first tuple of a page in a new transaction, whose begin
+     * record moves the end of the log.
+     */
+    private void dirty(int pgNo) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Iterator<Tuple> it = ((TuplePage) pool.getPage(t.getId(), page(pgNo), Permissions.READ_WRITE)).iterator();
+        Tuple first = it.next();
+        pool.unpinPage(t.getId(), page(pgNo));
+        pool.deleteTuple(t.getId(), first);
+    }
+
+    private int usedSlotsOnDisk(int pgNo) {
+        TuplePage p = (TuplePage) hf.readPage(page(pgNo));
+        return p.getNumSlots() - p.getNumEmptySlots();
+    }
+
+    /**
+     * The dirty page table keeps the end of the log when a page was first
+     * dirtied, and forgets the pages that are written.
+     */
+    @Test public void dirtyPageTable() throws Exception {
+        dirty(0);
+        dirty(1);
+        dirty(0);
+        Map<PageId, Long> table = pool.getDirtyPageTable();
+        assertEquals(2, table.size());
+        assertEquals(2, pool.getDirtyPageCount());
+        assertTrue(table.get(page(0)) < table.get(page(1)));
+        pool.flushAllPages();
+        assertEquals(0, pool.getDirtyPageCount());
+    }
+
+    /**
+     * Dirtying a page reads the end of the log without taking its lock, so
+     * an update doesn't wait for a force.
+     */
+    @Test public void dirtyWithoutLogLock() throws Exception {
+        final TransactionId tid = new TransactionId();
+        final Tuple t = ((TuplePage) pool.getPage(tid, page(0), Permissions.READ_WRITE)).iterator().next();
+        pool.unpinPage(tid, page(0));
+        final Exception[] failure = new Exception[1];
+        Thread updater = new Thread() {
+            public void run() {
+                try {
+                    pool.deleteTuple(tid, t);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        synchronized (Database.getLogFile()) {
+            updater.start();
+            updater.join(5000);
+            assertFalse(updater.isAlive());
+        }
+        assertNull(failure[0]);
+        assertTrue(pool.getDirtyPageTable().containsKey(page(0)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * A round writes the pages the pool is short of clean frames by,
+     * oldest recLSN first, logging each before it is written.
+     */
+    @Test public void oldestFirst() throws Exception {
+        int full = usedSlotsOnDisk(0);
+        for (int p = 5; p >= 0; p--) {
+            dirty(p);
+        }
+        PageCleaner cleaner = new PageCleaner(pool, 4, 1000);
+        assertEquals(2, cleaner.deficit());
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(2, cleaner.clean());
+        assertEquals(2, Database.getLogFile().getTotalRecords() - records);
+        assertEquals(2, cleaner.getPagesWritten());
+        assertEquals(4, pool.getDirtyPageCount());
+        for (int p = 0; p < 6; p++) {
+            assertTrue(pool.isCached(page(p)));
+            assertEquals(p >= 4, !pool.getDirtyPageTable().containsKey(page(p)));
+            assertEquals(p >= 4 ? full - 1 : full, usedSlotsOnDisk(p));
+        }
+        assertEquals(0, cleaner.deficit());
+        assertEquals(0, cleaner.clean());
+    }
+
+    /**
+     * Pinned pages are passed over, and nothing is written in NO STEAL
+     * mode.
+     */
+    @Test public void pinnedAndNoSteal() throws Exception {
+        for (int p = 0; p < 6; p++) {
+            dirty(p);
+        }
+        PageCleaner cleaner = new PageCleaner(pool, 4, 1000);
+        pool.setSteal(false);
+        assertEquals(0, cleaner.clean());
+        pool.setSteal(true);
+        TransactionId tid = new TransactionId();
+        pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        assertEquals(2, cleaner.clean());
+        Map<PageId, Long> table = pool.getDirtyPageTable();
+        assertTrue(table.containsKey(page(0)));
+        assertFalse(table.containsKey(page(1)));
+        assertFalse(table.containsKey(page(2)));
+    }
+
+    /**
+     * A transaction that updates a table four times larger than the pool
+     * is trailed by the cleaner, which keeps its target of frames clean.
+     */
+    @Test public void background() throws Exception {
+        pool.setCleaner(new PageCleaner(pool, 4, 10));
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> odd = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                left.add(SystemTestUtil.tupleToList(t));
+            } else {
+                odd.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : odd) {
+            pool.deleteTuple(tid, t);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getCleaner().deficit() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getCleaner().deficit());
+        assertTrue(pool.getDirtyPageCount() <= POOL_PAGES - 4);
+        assertTrue(pool.getCleaner().getPagesWritten() > 0);
+        assertTrue(pool.getCleaner().getFlushRate() > 0);
+        pool.flushAllPages();
+
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(hf, left);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageIOTest extends SimpleDbTestBase {
+
+    private static byte[] pageOf(int value) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private void checkRoundTrip(PageIO.Mode mode) throws Exception {
+        File f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        PageIO io = mode.open(f, BufferPool.PAGE_SIZE);
+
+        io.writePage(0, pageOf(1));
+        io.writePage(2, pageOf(3));
+        assertEquals(3 * BufferPool.PAGE_SIZE, io.length());
+
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        io.readPage(2, data);
+        assertArrayEquals(pageOf(3), data);
+
+        // overwrite a page inside the file, then read it back
+        io.writePage(0, pageOf(7));
+        io.readPage(0, data);
+        assertArrayEquals(pageOf(7), data);
+        io.readPage(1, data);
+        assertArrayEquals(pageOf(0), data);
+
+        // data must survive closing and reopening the backend
+        io.close();
+        io.readPage(2, data);
+        assertArrayEquals(pageOf(3), data);
+        io.close();
+    }
+
+    /**
+     * Unit test for the RANDOM_ACCESS backend
+     */
+    @Test public void randomAccess() throws Exception {
+        checkRoundTrip(PageIO.Mode.RANDOM_ACCESS);
+    }
+
+    /**
+     * Unit test for the CHANNEL backend
+     */
+    @Test public void channel() throws Exception {
+        checkRoundTrip(PageIO.Mode.CHANNEL);
+    }
+
+    /**
+     * Unit test for the MMAP backend
+     */
+    @Test public void mmap() throws Exception {
+        checkRoundTrip(PageIO.Mode.MMAP);
+    }
+
+    /**
+     * Every backend reads the same tuples out of a HeapFile
+     */
+    @Test public void heapFileScan() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1000, null, null);
+        for (PageIO.Mode mode : PageIO.Mode.values()) {
+            HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), mode);
+            Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+            assertEquals(mode, hf.getIOMode());
+            DbFileIterator it = hf.iterator(new TransactionId());
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+            hf.close();
+            assertEquals(2000, count);
+        }
+    }
+
+    /**
+     * Unit test for parsing the io= catalog option
+     */
+    @Test public void parseMode() {
+        assertEquals(PageIO.Mode.RANDOM_ACCESS, PageIO.Mode.parse("raf"));
+        assertEquals(PageIO.Mode.CHANNEL, PageIO.Mode.parse("Channel"));
+        assertEquals(PageIO.Mode.MMAP, PageIO.Mode.parse("MMAP"));
+        try {
+            PageIO.Mode.parse("tape");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIOTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+    }
+
+    private static File emptyFile() throws IOException {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    private static HashMap<String, String> options(String s) {
+        return Catalog.parseTableOptions(s);
+    }
+
+    /**
+     * The page size of a table is a catalog option, and must be a power of
+     * two in range.
+     */
+    @Test public void catalogOption() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        HeapFile hf = (HeapFile) Database.getCatalog().createTable(emptyFile(), td, options("pagesize=16384"));
+        assertEquals(16384, hf.getPageSize());
+        hf = (HeapFile) Database.getCatalog().createTable(emptyFile(), td, options("format=slotted"));
+        assertEquals(BufferPool.PAGE_SIZE, hf.getPageSize());
+
+        for (String bad : new String[] {"pagesize=5000", "pagesize=256", "pagesize=131072", "pagesize=big"}) {
+            try {
+                Database.getCatalog().createTable(emptyFile(), td, options(bad));
+                fail(bad + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tables of every page format store and read back their tuples with
+     * pages larger and smaller than the default.
+     */
+    @Test public void formats() throws Exception {
+        int[] sizes = {1024, 32768};
+        for (PageFormat format : PageFormat.values()) {
+            for (int pageSize : sizes) {
+                File f = emptyFile();
+                HeapFile hf = new HeapFile(f, Utility.getTupleDesc(3), PageIO.Mode.RANDOM_ACCESS, format, null, pageSize);
+                Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+                ArrayList<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < 3000; i++) {
+                    Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, -i, 7}));
+                    expected.add(i);
+                }
+                Database.getBufferPool().flushAllPages();
+                Database.resetBufferPool(2000);
+
+                assertEquals(format + " " + pageSize, f.length(), (long) hf.numPages() * pageSize);
+                TuplePage first = (TuplePage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+                assertEquals(pageSize, first.getPageData().length);
+                ArrayList<Integer> actual = new ArrayList<Integer>();
+                DbFileIterator it = hf.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    assertEquals(-((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+                    actual.add(((IntField) t.getField(0)).getValue());
+                }
+                it.close();
+                Collections.sort(actual);
+                assertEquals(format + " " + pageSize, expected, actual);
+            }
+        }
+    }
+
+    /**
+     * A page holds as many fixed-size slots as fit in its size.
+     */
+    @Test public void numSlots() throws Exception {
+        HeapFile hf = new HeapFile(emptyFile(), Utility.getTupleDesc(2), PageIO.Mode.RANDOM_ACCESS,
+                PageFormat.ROW, null, 65536);
+        Database.getCatalog().addTable(hf, "wide");
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData(65536));
+        assertEquals(65536 * 8 / (8 * 8 + 1), page.getNumSlots());
+        assertEquals(65536, page.getPageData().length);
+    }
+
+    /**
+     * The pool holds a number of bytes, so it holds fewer large pages than
+     * default-sized ones.
+     */
+    @Test public void poolCapacity() throws Exception {
+        HeapFile large = new HeapFile(emptyFile(), Utility.getTupleDesc(2), PageIO.Mode.RANDOM_ACCESS,
+                PageFormat.ROW, null, 4 * BufferPool.PAGE_SIZE);
+        Database.getCatalog().addTable(large, "large");
+        for (int i = 0; i < 20000; i++) {
+            Database.getBufferPool().insertTuple(tid, large.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        }
+        Database.getBufferPool().flushAllPages();
+        assertTrue(large.numPages() > 4);
+
+        Database.resetBufferPool(8);
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < large.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(large.getId(), i);
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid);
+            assertTrue(pool.getCachedBytes() <= 8 * BufferPool.PAGE_SIZE);
+        }
+        assertEquals(8 * BufferPool.PAGE_SIZE, pool.getCachedBytes());
+        assertTrue(pool.isCached(new HeapPageId(large.getId(), large.numPages() - 1)));
+        assertFalse(pool.isCached(new HeapPageId(large.getId(), large.numPages() - 3)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
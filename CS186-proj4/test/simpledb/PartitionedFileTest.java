@@ -0,0 +1,284 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PartitionedFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private File dir;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+        dir = File.createTempFile("partition", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static BitSet bits(int... parts) {
+        BitSet b = new BitSet();
+        for (int p : parts) {
+            b.set(p);
+        }
+        return b;
+    }
+
+    /**
+     * Range partitions prune every comparison; hash partitions prune only
+     * equality.
+     */
+    @Test public void partitionsFor() {
+        Partitioning range = new Partitioning.Range(0, new int[] {0, 100, 200});
+        assertEquals(4, range.numPartitions());
+        assertEquals(0, range.partitionOf(new IntField(-1)));
+        assertEquals(1, range.partitionOf(new IntField(0)));
+        assertEquals(2, range.partitionOf(new IntField(199)));
+        assertEquals(3, range.partitionOf(new IntField(200)));
+        assertEquals(bits(2), range.partitionsFor(Predicate.Op.EQUALS, new IntField(150)));
+        assertEquals(bits(0, 1), range.partitionsFor(Predicate.Op.LESS_THAN, new IntField(100)));
+        assertEquals(bits(0, 1, 2), range.partitionsFor(Predicate.Op.LESS_THAN_OR_EQ, new IntField(100)));
+        assertEquals(bits(3), range.partitionsFor(Predicate.Op.GREATER_THAN, new IntField(199)));
+        assertEquals(bits(2, 3), range.partitionsFor(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(199)));
+        assertEquals(bits(), range.partitionsFor(Predicate.Op.LESS_THAN, new IntField(Integer.MIN_VALUE)));
+        assertEquals(range.all(), range.partitionsFor(Predicate.Op.NOT_EQUALS, new IntField(5)));
+
+        Partitioning hash = new Partitioning.Hash(0, 4);
+        assertEquals(bits(hash.partitionOf(new IntField(7))), hash.partitionsFor(Predicate.Op.EQUALS, new IntField(7)));
+        assertEquals(hash.all(), hash.partitionsFor(Predicate.Op.LESS_THAN, new IntField(7)));
+
+        TupleDesc td = Utility.getTupleDesc(2, "f");
+        assertTrue(Partitioning.parse("hash:f1:8", td) instanceof Partitioning.Hash);
+        for (String bad : new String[] {"range:f0:5,1", "range:g:1", "hash:f0", "list:f0:1"}) {
+            try {
+                Partitioning.parse(bad, td);
+                fail(bad + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Writes a catalog with one partitioned table and loads rows into it.
+     */
+    private PartitionedFile loadTable(String partition, int rows) throws Exception {
+        File catalog = new File(dir, "catalog.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(catalog));
+        w.println("part (a int pk, b int) partition=" + partition);
+        w.close();
+        File text = new File(dir, "part.txt");
+        w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            w.println(i + "," + (i % 7));
+        }
+        w.println("not a number,1");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getPath());
+        PartitionedFile table = (PartitionedFile) Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("part"));
+        assertEquals(rows, table.load(text, ','));
+        return table;
+    }
+
+    private static List<Integer> values(DbIterator it) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * Loaded tuples land in the partition files they fall in, and a scan
+     * of the table reads them all.
+     */
+    @Test public void load() throws Exception {
+        PartitionedFile table = loadTable("range:a:1000,5000", 8000);
+        assertEquals(3, table.numPartitions());
+        assertTrue(PartitionedFile.partitionFile(new File(dir, "part.dat"), 2).exists());
+        assertTrue(Database.getCatalog().getIndexes(table.getId()).isEmpty());
+        int[][] bounds = {{0, 1000}, {1000, 5000}, {5000, 8000}};
+        for (int i = 0; i < bounds.length; i++) {
+            HeapFile p = table.getPartition(i);
+            assertEquals(range(bounds[i][0], bounds[i][1]), values(new SeqScan(tid, table.getId(), "t", bits(i))));
+            assertEquals(p.getTupleDesc(), Database.getCatalog().getTupleDesc(p.getId()));
+        }
+        assertEquals(range(0, 8000), values(new SeqScan(tid, table.getId(), "t")));
+    }
+
+    /**
+     * Inserts go to the partition of their tuple, and deletes find it by
+     * the page of the tuple.
+     */
+    @Test public void insertDelete() throws Exception {
+        PartitionedFile table = loadTable("hash:a:5", 0);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, -i});
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < 5; i++) {
+            HeapFile p = table.getPartition(i);
+            assertTrue(p.numPages() > 0);
+            for (int v : values(new SeqScan(tid, table.getId(), "t", bits(i)))) {
+                assertEquals(i, table.getPartitioning().partitionOf(new IntField(v)));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(2000);
+        assertEquals(range(1000, 3000), values(new SeqScan(tid, table.getId(), "t")));
+    }
+
+    /**
+     * A concurrent scan of many partitions can be rewound and closed part
+     * way through.
+     */
+    @Test public void concurrentScan() throws Exception {
+        PartitionedFile table = loadTable("hash:a:16", 20000);
+        DbIterator scan = new SeqScan(tid, table.getId(), "t");
+        assertEquals(range(0, 20000), values(scan));
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            scan.next();
+        }
+        scan.rewind();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        assertEquals(20000, n);
+        scan.rewind();
+        scan.next();
+        scan.close();
+        assertEquals(range(0, 20000), values(scan));
+    }
+
+    /**
+     * A concurrent scan whose consumer stops taking tuples is abandoned: its
+     * readers unpin their pages and end their scans, and the consumer is
+     * told when it comes back.
+     */
+    @Test public void abandonedScan() throws Exception {
+        int rows = 8 * PartitionedFile.SCAN_THREADS * PartitionedFile.BATCH;
+        PartitionedFile table = loadTable("hash:a:4", rows);
+        DbFileIterator it = table.iterator(tid, bits(0, 1, 2, 3), null, 100);
+        it.open();
+        it.next();
+        Thread.sleep(1000);
+
+        for (int i = 0; i < table.numPartitions(); i++) {
+            HeapFile partition = table.getPartition(i);
+            for (int j = 0; j < partition.numPages(); j++) {
+                assertEquals(0, Database.getBufferPool().getPinCount(new HeapPageId(partition.getId(), j)));
+            }
+        }
+        long start = System.currentTimeMillis();
+        table.getPartition(0).compact(-1);
+        assertTrue(System.currentTimeMillis() - start < HeapFile.SCAN_DRAIN_MILLIS);
+
+        try {
+            while (it.hasNext()) {
+                it.next();
+            }
+            fail("expected the abandoned scan to fail");
+        } catch (DbException e) {
+            // expected
+        }
+        it.rewind();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        assertEquals(rows, n);
+        it.close();
+    }
+
+    /**
+     * The planner scans only the partitions the constants of the WHERE
+     * clause can match, and the query returns the same tuples.
+     */
+    @Test public void pruning() throws Exception {
+        PartitionedFile table = loadTable("range:a:1000,2000,3000", 4000);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("part", new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "p");
+        lp.addFilter("p.a", Predicate.Op.GREATER_THAN_OR_EQ, "1500");
+        lp.addFilter("p.a", Predicate.Op.LESS_THAN, "2000");
+        lp.addFilter("p.b", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("p.a", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = findScan(plan);
+        assertEquals(bits(1), scan.getPartitions());
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 1500; i < 2000; i++) {
+            if (i % 7 == 3) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected, values(plan));
+
+        // a filter on another field prunes nothing
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "p");
+        lp.addFilter("p.b", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("p.a", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertNull(findScan(plan).getPartitions());
+    }
+
+    private static SeqScan findScan(DbIterator plan) {
+        if (plan instanceof SeqScan) {
+            return (SeqScan) plan;
+        }
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            SeqScan s = findScan(child);
+            if (s != null) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionedFileTest.class);
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = new Type[] {Type.INT_TYPE, Type.INT_TYPE};
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    private static byte[] exampleData() {
+        return PaxHeapPage.fromRowImage(TYPES, HeapPageReadTest.EXAMPLE_DATA);
+    }
+
+    /**
+     * Unit test for PaxHeapPage.iterator(), getField() and getInts()
+     */
+    @Test public void testIterator() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, exampleData());
+        Iterator<Tuple> it = page.iterator();
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][1], ((IntField) tup.getField(1)).getValue());
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            row++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, row);
+
+        int[] column = new int[page.getNumSlots()];
+        assertEquals(row, page.getInts(1, column));
+        for (int i = 0; i < row; i++) {
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[i][1], column[i]);
+        }
+    }
+
+    /**
+     * Values of a column are stored next to each other.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, exampleData());
+        byte[] data = page.getPageData();
+        int start = (int) Math.ceil(page.getNumSlots() / 8.0);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, start, data.length - start));
+        for (int i = 0; i < HeapPageReadTest.EXAMPLE_VALUES.length; i++) {
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[i][0], in.readInt());
+        }
+    }
+
+    /**
+     * Inserts and deletes give the same page as on a HeapPage, once that
+     * page is transposed.
+     */
+    @Test public void insertDelete() throws Exception {
+        PaxHeapPage pax = new PaxHeapPage(pid, exampleData());
+        HeapPage row = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        pax.insertTuple(Utility.getHeapTuple(new int[] {17, 42}));
+        row.insertTuple(Utility.getHeapTuple(new int[] {17, 42}));
+        pax.deleteTuple(pax.getTuple(3));
+        row.deleteTuple(row.getTuple(3));
+        assertArrayEquals(PaxHeapPage.fromRowImage(TYPES, row.getPageData()), pax.getPageData());
+
+        int[] column = new int[pax.getNumSlots()];
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, pax.getInts(0, column));
+    }
+
+    private static List<RecordId> recordIds(Iterator<Tuple> it) {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        while (it.hasNext()) {
+            rids.add(it.next().getRecordId());
+        }
+        return rids;
+    }
+
+    /**
+     * The predicates on INT_TYPE columns select the tuples of a page a
+     * column at a time, as LazyHeapPage selects them a tuple at a time.
+     */
+    @Test public void predicates() throws Exception {
+        PaxHeapPage pax = new PaxHeapPage(pid, exampleData());
+        LazyHeapPage lazy = new LazyHeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        pax.deleteTuple(pax.getTuple(2));
+        lazy.deleteTuple(lazy.getTuple(2));
+        int[][] values = HeapPageReadTest.EXAMPLE_VALUES;
+        List<Predicate> predicates = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(values[0][0])),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(values[5][1])));
+        ArrayList<RecordId> expected = new ArrayList<RecordId>();
+        for (int i = 0; i < values.length; i++) {
+            if (i != 2 && values[i][0] > values[0][0] && values[i][1] <= values[5][1]) {
+                expected.add(new RecordId(pid, i));
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, recordIds(pax.iterator(predicates)));
+        assertEquals(expected, recordIds(lazy.iterator(predicates)));
+        assertEquals(values.length - 1, recordIds(pax.iterator(new ArrayList<Predicate>())).size());
+    }
+
+    /**
+     * HeapFileEncoder writes PAX files that a PAX HeapFile scans.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File in = File.createTempFile("pax", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("pax", ".dat");
+        out.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(r.nextInt(1000));
+            t.add(r.nextInt(1000));
+            tuples.add(t);
+            w.println(t.get(0) + "," + t.get(1) + "," + t.get(2));
+        }
+        w.close();
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 3,
+                new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}, ',', PageFormat.PAX);
+
+        HeapFile hf = new HeapFile(out, Utility.getTupleDesc(3), PageIO.Mode.RANDOM_ACCESS, PageFormat.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // a scan with predicates returns only the tuples that satisfy them
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 100) {
+                small.add(t);
+            }
+        }
+        DbFileIterator it = hf.iterator(new TransactionId(),
+                Collections.singletonList(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100))));
+        ArrayList<ArrayList<Integer>> read = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            read.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        assertEquals(small, read);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PinTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool pool;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        assertTrue(hf.numPages() > 2 * POOL_PAGES);
+        tid = new TransactionId();
+        pool = Database.resetBufferPool(POOL_PAGES);
+        pool.setReadAhead(new ReadAhead(POOL_PAGES, 0));
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Every getPage pins the page once, and every unpinPage unpins it once.
+     */
+    @Test public void pinCount() throws Exception {
+        pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        assertEquals(2, pool.getPinCount(page(0)));
+        pool.unpinPage(tid, page(0));
+        assertEquals(1, pool.getPinCount(page(0)));
+        pool.releasePage(tid, page(0));
+        assertEquals(0, pool.getPinCount(page(0)));
+        assertTrue(pool.isCached(page(0)));
+    }
+
+    /**
+     * A page is not unpinned more times than it was pinned.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void unpinUnpinned() throws Exception {
+        pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        pool.unpinPage(tid, page(0));
+        pool.unpinPage(tid, page(0));
+    }
+
+    /**
+     * A scan through a small pool evicts the pages around a pinned one,
+     * but not the pinned one, although it is the least recently used.
+     */
+    @Test public void pinnedNotEvicted() throws Exception {
+        Page pinned = pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        assertTrue(pool.isCached(page(0)));
+        assertSame(pinned, pool.getPage(tid, page(0), Permissions.READ_ONLY));
+        assertEquals(2, pool.getPinCount(page(0)));
+        assertTrue(pool.getCachedBytes() <= POOL_PAGES * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * The pool refuses to read a page when every page in it is pinned.
+     */
+    @Test public void allPinned() throws Exception {
+        for (int p = 0; p < POOL_PAGES; p++) {
+            pool.getPage(tid, page(p), Permissions.READ_ONLY);
+        }
+        try {
+            pool.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+            fail("every page of the pool is pinned");
+        } catch (DbException e) {
+            // expected
+        }
+        pool.unpinPage(tid, page(1));
+        pool.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+        assertFalse(pool.isCached(page(1)));
+        assertTrue(pool.isCached(page(0)));
+    }
+
+    /**
+     * With leak detection on, the pins a transaction still holds when it
+     * completes are reported and released.
+     */
+    @Test public void leakedPins() throws Exception {
+        pool.setLeakDetection(true);
+        pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        pool.getPage(tid, page(1), Permissions.READ_ONLY);
+        pool.getPage(tid, page(1), Permissions.READ_ONLY);
+        pool.unpinPage(tid, page(1));
+        TransactionId other = new TransactionId();
+        pool.getPage(other, page(2), Permissions.READ_ONLY);
+
+        pool.transactionComplete(tid);
+        assertEquals(2, pool.getLeakedPins());
+        assertEquals(0, pool.getPinCount(page(0)));
+        assertEquals(0, pool.getPinCount(page(1)));
+        assertEquals(1, pool.getPinCount(page(2)));
+    }
+
+    /**
+     * Scans and tuple updates leave no page pinned.
+     */
+    @Test public void operatorsUnpin() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        pool.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        pool.deleteTuple(t.getId(), first);
+        for (int p = 0; p < hf.numPages(); p++) {
+            assertEquals(0, pool.getPinCount(page(p)));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PinTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(1000);
+        hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Reading pages in order starts reading the following pages, which are
+     * handed over once.
+     */
+    @Test public void sequential() throws Exception {
+        ReadAhead ra = new ReadAhead(1000);
+        ra.access(pid(0));
+        assertEquals(0, ra.getWindow(hf.getId()));
+        ra.access(pid(1));
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow(hf.getId()));
+        for (int i = 2; i <= 1 + ReadAhead.MIN_WINDOW; i++) {
+            Page p = ra.take(pid(i));
+            assertNotNull(p);
+            assertEquals(pid(i), p.getId());
+            assertArrayEquals(hf.readPage(pid(i)).getPageData(), p.getPageData());
+        }
+        assertNull(ra.take(pid(2)));
+        assertNull(ra.take(pid(2 + ReadAhead.MIN_WINDOW)));
+    }
+
+    /**
+     * Jumping around doesn't read anything ahead, and drops what was read
+     * ahead for the old position.
+     */
+    @Test public void random() throws Exception {
+        ReadAhead ra = new ReadAhead(1000);
+        ra.access(pid(0));
+        ra.access(pid(1));
+        ra.access(pid(10));
+        assertEquals(0, ra.getWindow(hf.getId()));
+        assertNull(ra.take(pid(2)));
+        assertNull(ra.take(pid(11)));
+    }
+
+    /**
+     * The window stays within its bounds however fast the consumer goes,
+     * and never reads past the end of the table.
+     */
+    @Test public void window() throws Exception {
+        ReadAhead ra = new ReadAhead(40);
+        for (int i = 0; i < hf.numPages(); i++) {
+            ra.access(pid(i));
+            ra.take(pid(i));
+            int window = ra.getWindow(hf.getId());
+            assertTrue(i == 0 || (window >= ReadAhead.MIN_WINDOW && window <= 10));
+        }
+        assertNull(ra.take(pid(hf.numPages())));
+        assertFalse(new ReadAhead(8).isEnabled());
+    }
+
+    /**
+     * A page that was written after it was read ahead isn't handed over.
+     */
+    @Test public void invalidate() throws Exception {
+        ReadAhead ra = new ReadAhead(1000);
+        ra.access(pid(0));
+        ra.access(pid(1));
+        ra.invalidate(pid(2));
+        assertNull(ra.take(pid(2)));
+        assertNotNull(ra.take(pid(3)));
+    }
+
+    /**
+     * Scans through a pool that reads ahead see every tuple, also after
+     * the table was changed and flushed.
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(Database.getBufferPool().getReadAhead().isEnabled());
+        assertEquals(20000, count());
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(1000);
+        assertEquals(20001, count());
+        assertEquals(20001, count());
+    }
+
+    private int count() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
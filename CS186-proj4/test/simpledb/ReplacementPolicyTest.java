@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static LRUCache<Integer, Integer> cache(ReplacementPolicy.Kind kind, int capacity) {
+        return new LRUCache<Integer, Integer>(capacity, kind.<Integer>create(capacity));
+    }
+
+    /**
+     * Looks up random keys of a hot set while scanning new keys, as point
+     * lookups do during concurrent scans, and returns the hit ratio of the
+     * lookups once the cache is warm.
+     */
+    private static double hotHitRatio(LRUCache<Integer, Integer> c, int hot, int scanPerLookup) {
+        Random r = new Random(1);
+        int scanKey = 1000;
+        int hits = 0;
+        int lookups = 0;
+        for (int step = 0; step < 20000; step++) {
+            for (int j = 0; j < scanPerLookup; j++) {
+                if (c.get(scanKey) == null) {
+                    c.put(scanKey, scanKey);
+                }
+                scanKey++;
+            }
+            int key = r.nextInt(hot);
+            boolean hit = c.get(key) != null;
+            if (!hit) {
+                c.put(key, key);
+            }
+            if (step >= 1000) {
+                lookups++;
+                hits += hit ? 1 : 0;
+            }
+        }
+        return (double) hits / lookups;
+    }
+
+    /**
+     * Every policy keeps the cache within its capacity, forgets removed
+     * keys, and runs out of victims once empty.
+     */
+    @Test public void basics() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            LRUCache<Integer, Integer> c = cache(kind, 4);
+            for (int i = 0; i < 100; i++) {
+                c.put(i % 13, i);
+                c.get((i * 7) % 13);
+                assertTrue(kind + " holds " + c.size(), c.size() <= 4);
+            }
+            c.put(99, 99, 2);
+            assertEquals(kind.toString(), 4, c.weight());
+            for (Integer key : new ArrayList<Integer>(c.keySet())) {
+                c.remove(key);
+            }
+            assertEquals(0, c.size());
+            assertFalse(kind.toString(), c.evictEldest());
+            c.put(1, 1);
+            assertTrue(c.evictEldest());
+            assertNull(c.get(1));
+        }
+        assertEquals(ReplacementPolicy.Kind.TWO_QUEUE, ReplacementPolicy.Kind.parse("2Q"));
+        try {
+            ReplacementPolicy.Kind.parse("mru");
+            fail("mru should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * CLOCK passes over a key used since the hand last reached it.
+     */
+    @Test public void clock() {
+        LRUCache<Integer, Integer> c = cache(ReplacementPolicy.Kind.CLOCK, 3);
+        c.put(1, 1);
+        c.put(2, 2);
+        c.put(3, 3);
+        c.get(1);
+        c.put(4, 4);
+        assertNotNull(c.get(1));
+        assertNull(c.get(2));
+        // the hand cleared the bit of 1 on its way
+        c.put(5, 5);
+        assertNull(c.get(3));
+        c.put(6, 6);
+        assertNull(c.get(4));
+    }
+
+    /**
+     * 2Q moves a key to its LRU queue only when it is put again while its
+     * ghost is remembered, and evicts the FIFO queue first.
+     */
+    @Test public void twoQueue() {
+        LRUCache<Integer, Integer> c = cache(ReplacementPolicy.Kind.TWO_QUEUE, 4);
+        c.put(1, 1);
+        for (int i = 2; i <= 5; i++) {
+            c.put(i, i);
+        }
+        assertNull(c.get(1));
+        c.put(1, 1);
+        for (int i = 10; i < 20; i++) {
+            c.put(i, i);
+        }
+        assertNotNull(c.get(1));
+    }
+
+    /**
+     * ARC grows the target size of its list of keys used once when a ghost
+     * of that list is hit.
+     */
+    @Test public void arc() {
+        ArcPolicy<Integer> policy = new ArcPolicy<Integer>(4);
+        LRUCache<Integer, Integer> c = new LRUCache<Integer, Integer>(4, policy);
+        c.put(1, 1);
+        c.put(2, 2);
+        // 1 is used again, and its list is spared
+        c.get(1);
+        for (int i = 3; i <= 5; i++) {
+            c.put(i, i);
+        }
+        assertEquals(0, policy.getTarget());
+        assertNull(c.get(2));
+        assertNotNull(c.get(1));
+        c.put(2, 2);
+        assertEquals(1, policy.getTarget());
+    }
+
+    /**
+     * Point lookups keep their pages under 2Q and ARC while scans go by,
+     * but lose them to the scans under LRU.
+     */
+    @Test public void scanResistance() {
+        double lru = hotHitRatio(cache(ReplacementPolicy.Kind.LRU, 20), 8, 4);
+        double twoQueue = hotHitRatio(cache(ReplacementPolicy.Kind.TWO_QUEUE, 20), 8, 4);
+        double arc = hotHitRatio(cache(ReplacementPolicy.Kind.ARC, 20), 8, 4);
+        assertTrue("LRU " + lru, lru < 0.6);
+        assertTrue("2Q " + twoQueue, twoQueue > 0.95);
+        assertTrue("ARC " + arc, arc > 0.95);
+    }
+
+    /**
+     * The buffer pool evicts with the policy it was created with, and
+     * counts its hits and misses.
+     */
+    @Test public void bufferPool() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        BufferPool pool = Database.resetBufferPool(4, ReplacementPolicy.Kind.ARC);
+        assertEquals(ReplacementPolicy.Kind.ARC, pool.getPolicy());
+        TransactionId tid = new TransactionId();
+        HeapPageId hot = new HeapPageId(hf.getId(), 0);
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+        pool.unpinPage(tid, hot);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        assertEquals(1, pool.getHits());
+        assertEquals(hf.numPages(), pool.getMisses());
+        assertTrue(pool.isCached(hot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = new Type[] {Type.INT_TYPE, Type.STRING_TYPE};
+    private static final TupleDesc TD = new TupleDesc(TYPES);
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    /**
+     * Short strings take only their own length, so a slotted page holds many
+     * more of them than a HeapPage, and they read back unchanged.
+     */
+    @Test public void fillPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, PageFormat.SLOTTED.createEmptyPageData());
+        assertEquals(0, page.getNumSlots());
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(n, name(n)));
+                n++;
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertTrue(n > 5 * fixed.getNumEmptySlots());
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(n, page.getNumSlots());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are reused, other RecordIds stay valid, and the space of
+     * deleted records is reclaimed by compaction.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, PageFormat.SLOTTED.createEmptyPageData());
+        int n = 0;
+        try {
+            while (true) {
+                page.insertTuple(tuple(n, name(n)));
+                n++;
+            }
+        } catch (DbException e) {
+            // page is full
+        }
+        for (int i = 0; i < n; i += 2) {
+            page.deleteTuple(page.getTuple(i));
+        }
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.getNumEmptySlots() > 0);
+
+        // longer strings than before only fit once the page is compacted
+        String longer = "a much longer name than before";
+        Tuple t = tuple(-1, longer);
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        for (int i = 1; i < n; i += 2) {
+            assertEquals(name(i), ((StringField) page.getField(i, 1)).getValue());
+        }
+        assertEquals(longer, ((StringField) page.getTuple(0).getField(1)).getValue());
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData().clone());
+        assertEquals(page.getNumSlots(), reread.getNumSlots());
+        assertEquals(name(1), ((StringField) reread.getField(1, 1)).getValue());
+        assertEquals(longer, ((StringField) reread.getField(0, 1)).getValue());
+    }
+
+    /**
+     * A tuple handed out by the page keeps the values of its record when
+     * the slot is deleted through another tuple and then reused.
+     */
+    @Test public void heldTupleOutlivesSlot() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, PageFormat.SLOTTED.createEmptyPageData());
+        page.insertTuple(tuple(1, name(1)));
+        Tuple held = page.getTuple(0);
+        page.deleteTuple(page.getTuple(0));
+        assertEquals(new IntField(1), held.getField(0));
+        page.insertTuple(tuple(2, name(2)));
+        assertEquals(new IntField(2), page.getTuple(0).getField(0));
+        assertEquals(name(1), ((StringField) held.getField(1)).getValue());
+    }
+
+    /**
+     * HeapFileEncoder writes slotted files that a SLOTTED HeapFile scans, and
+     * that HeapFile can insert into.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File in = File.createTempFile("slotted", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("slotted", ".dat");
+        out.deleteOnExit();
+        int rows = 2000;
+        PrintWriter w = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            w.println(i + "|" + name(i));
+        }
+        w.close();
+        HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, 2, TYPES, '|', PageFormat.SLOTTED);
+
+        HeapFile hf = new HeapFile(out, TD, PageIO.Mode.RANDOM_ACCESS, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.numPages() < rows / 100);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(rows, name(rows)));
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows + 1, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
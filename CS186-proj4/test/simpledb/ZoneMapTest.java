@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Fill a table with ascending values of its first field, so each page
+     * holds a range of them.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(2000);
+        tid = new TransactionId();
+        f = File.createTempFile("zone", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        ZoneMap.mapFile(f).deleteOnExit();
+        hf = Utility.openHeapFile(2, "f", f);
+        for (int i = 0; i < 3000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {i, i % 10}));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(2000);
+        assertTrue(hf.numPages() > 3);
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    private static List<Integer> values(DbFileIterator it) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * A scan with a predicate reads only the pages whose zones may match,
+     * and returns all of their tuples.
+     */
+    @Test public void skipPages() throws Exception {
+        ZoneMap zones = hf.getZoneMap();
+        Predicate small = pred(0, Predicate.Op.LESS_THAN, 100);
+        assertTrue(zones.mayMatch(0, small));
+        for (int i = 1; i < hf.numPages(); i++) {
+            assertFalse(zones.mayMatch(i, small));
+            assertTrue(zones.mayMatch(i, pred(1, Predicate.Op.EQUALS, 3)));
+        }
+        assertFalse(zones.mayMatch(0, pred(1, Predicate.Op.GREATER_THAN, 9)));
+        assertFalse(zones.mayMatch(0, Arrays.asList(small, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 2999))));
+
+        List<Integer> read = values(hf.iterator(tid, Collections.singletonList(small)));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(read.contains(i));
+        }
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(first.getNumSlots() - first.getNumEmptySlots(), read.size());
+        assertEquals(3000, values(hf.iterator(tid, null)).size());
+    }
+
+    /**
+     * Inserts widen the zone of their page at once; deletes narrow it only
+     * when the page is written.
+     */
+    @Test public void insertDelete() throws Exception {
+        ZoneMap zones = hf.getZoneMap();
+        Tuple t = Utility.getHeapTuple(new int[] {-5, 0});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        int pgNo = t.getRecordId().getPageId().pageNumber();
+        assertTrue(zones.mayMatch(pgNo, pred(0, Predicate.Op.EQUALS, -5)));
+        assertEquals(Arrays.asList(-5), values(hf.iterator(tid,
+                Collections.singletonList(pred(0, Predicate.Op.LESS_THAN, 0)))).subList(0, 1));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertTrue(zones.mayMatch(pgNo, pred(0, Predicate.Op.EQUALS, -5)));
+        Database.getBufferPool().flushAllPages();
+        assertFalse(zones.mayMatch(pgNo, pred(0, Predicate.Op.EQUALS, -5)));
+    }
+
+    /**
+     * Zones are persisted with the table, and dropped when the table was
+     * rewritten without them.
+     */
+    @Test public void persistence() throws Exception {
+        Predicate large = pred(0, Predicate.Op.GREATER_THAN, 2990);
+        hf.close();
+        HeapFile reopened = Utility.openHeapFile(2, "f", f);
+        assertFalse(reopened.getZoneMap().mayMatch(0, large));
+        assertTrue(reopened.getZoneMap().mayMatch(reopened.numPages() - 1, large));
+
+        reopened.close();
+        assertTrue(ZoneMap.mapFile(f).setLastModified(f.lastModified() - 10000));
+        HeapFile stale = Utility.openHeapFile(2, "f", f);
+        assertTrue(stale.getZoneMap().mayMatch(0, large));
+        assertFalse(ZoneMap.mapFile(f).exists());
+        // learned again when read
+        assertEquals(3000, values(stale.iterator(tid)).size());
+        assertFalse(stale.getZoneMap().mayMatch(0, large));
+    }
+
+    /**
+     * String zones keep a prefix of the values, so they compare inclusively.
+     */
+    @Test public void stringPrefix() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE});
+        File sf = File.createTempFile("zone", ".dat");
+        sf.deleteOnExit();
+        new File(sf.getPath() + ".fsm").deleteOnExit();
+        ZoneMap.mapFile(sf).deleteOnExit();
+        HeapFile strings = new HeapFile(sf, td);
+        Database.getCatalog().addTable(strings, UUID.randomUUID().toString());
+        for (String s : new String[] {"apple", "banana", "bandit"}) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+        }
+        ZoneMap zones = strings.getZoneMap();
+        assertFalse(zones.mayMatch(0, new Predicate(0, Predicate.Op.EQUALS, new StringField("cherry", Type.STRING_LEN))));
+        assertFalse(zones.mayMatch(0, new Predicate(0, Predicate.Op.LESS_THAN, new StringField("aa", Type.STRING_LEN))));
+        // "bandana" shares its prefix with the largest value
+        assertTrue(zones.mayMatch(0, new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("bandana", Type.STRING_LEN))));
+        assertTrue(zones.mayMatch(0, new Predicate(0, Predicate.Op.LIKE, new StringField("zz", Type.STRING_LEN))));
+    }
+
+    /**
+     * A page that lost all its tuples doesn't end a scan.
+     */
+    @Test public void emptyPage() throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().pageNumber() == 1) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().flushAllPages();
+        List<Integer> left = values(hf.iterator(tid));
+        assertTrue(left.size() < 3000);
+        assertTrue(left.contains(2999));
+    }
+
+    /**
+     * The planner hands the filters on a table to its scan.
+     */
+    @Test public void planner() throws Exception {
+        String name = Database.getCatalog().getTableName(hf.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "z");
+        lp.addFilter("z.f0", Predicate.Op.GREATER_THAN_OR_EQ, "2995");
+        lp.addProjectField("z.f0", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        SeqScan scan = findScan(plan);
+        assertEquals(1, scan.getPagePredicates().size());
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext()) {
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        }
+        plan.close();
+        Collections.sort(actual);
+        assertEquals(Arrays.asList(2995, 2996, 2997, 2998, 2999), actual);
+    }
+
+    private static SeqScan findScan(DbIterator plan) {
+        if (plan instanceof SeqScan) {
+            return (SeqScan) plan;
+        }
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            SeqScan s = findScan(child);
+            if (s != null) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb.benchmark;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares HeapFileEncoder with BulkLoader on a generated text file of
+ * int and string columns.  Usage:
+ * <pre>
+ *     ant runbench -Dbench=BulkLoadBenchmark -Dargs="1000000 4"
+ * </pre>
+ */
+public class BulkLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        Type[] types = new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+        File in = File.createTempFile("bulkbench", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("bulkbench", ".dat");
+        out.deleteOnExit();
+        Random r = new Random(0);
+        PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(in)));
+        for (int i = 0; i < rows; i++) {
+            w.println(i + ",name" + r.nextInt(100000) + "," + r.nextInt(2000));
+        }
+        w.close();
+        double mb = in.length() / (1024.0 * 1024.0);
+
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            HeapFileEncoder.convert(in, out, BufferPool.PAGE_SIZE, types.length, types, ',');
+            double encoder = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            new BulkLoader(types, ',', PageFormat.ROW, threads, BulkLoader.DEFAULT_CHUNK_SIZE,
+                    BufferPool.PAGE_SIZE).load(in, out);
+            double bulk = (System.nanoTime() - start) / 1e9;
+
+            // the first pass warms up the JIT and the OS page cache
+            if (pass == 1) {
+                System.out.printf("%-16s %8s %10s%n", "loader", "seconds", "MB/s");
+                System.out.printf("%-16s %8.2f %10.1f%n", "HeapFileEncoder", encoder, mb / encoder);
+                System.out.printf("%-16s %8.2f %10.1f%n", "BulkLoader x" + threads, bulk, mb / bulk);
+            }
+        }
+    }
+}
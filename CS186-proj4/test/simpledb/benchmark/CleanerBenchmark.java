@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares random updates through a pool smaller than the table, in STEAL
+ * mode, with and without the PageCleaner. Each update moves the first tuple of a random
+ * page: it is deleted and inserted again, into the first page with room,
+ * so that every update dirties pages the pool must write before it can
+ * evict them. Without the cleaner, the getPage that misses writes them
+ * back; with it, they are mostly written in the background. For each it
+ * reports the updates per second, the write-backs getPage waited for,
+ * and the pages the cleaner wrote.  Usage (table pages, pool pages,
+ * updates):
+ * <pre>
+ *     ant runbench -Dbench=CleanerBenchmark -Dargs="2000 200 20000"
+ * </pre>
+ */
+public class CleanerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int updates = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        System.out.printf("%-8s %12s %12s %14s%n", "cleaner", "updates/s", "write-backs", "cleaner writes");
+        for (boolean cleaning : new boolean[] {false, true}) {
+            HeapFile hf = createTable(tablePages);
+            BufferPool pool = Database.resetBufferPool(poolPages);
+            pool.setSteal(true);
+            pool.setCleaner(cleaning ? new PageCleaner(pool) : null);
+            long begin = System.nanoTime();
+            run(pool, hf, updates);
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            PageCleaner cleaner = pool.getCleaner();
+            System.out.printf("%-8s %12.0f %12d %14d%n", cleaning ? "on" : "off", updates / seconds,
+                    pool.getWriteBacks(), cleaner == null ? 0 : cleaner.getPagesWritten());
+            pool.setCleaner(null);
+        }
+    }
+
+    private static HeapFile createTable(int pages) throws Exception {
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        File f = File.createTempFile("cleanerbench", ".dat");
+        f.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // leave a slot free on each page
+        for (int i = 0; i < pages * (rowsPerPage - 1); i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i / (rowsPerPage - 1));
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "cleaner" + f.getName());
+        return hf;
+    }
+
+    private static void run(BufferPool pool, HeapFile hf, int updates) throws Exception {
+        Random random = new Random(1);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < updates; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), random.nextInt(hf.numPages()));
+            Iterator<Tuple> tuples = ((TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE)).iterator();
+            Tuple t = tuples.hasNext() ? tuples.next() : null;
+            pool.unpinPage(tid, pid);
+            if (t == null) {
+                continue;
+            }
+            pool.deleteTuple(tid, t);
+            Tuple moved = new Tuple(t.getTupleDesc());
+            moved.setField(0, t.getField(0));
+            moved.setField(1, t.getField(1));
+            pool.insertTuple(tid, hf.getId(), moved);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Times BufferPool.flushAllPages, the bulk of a checkpoint, against
+ * writing the same dirty pages one at a time in LRU order.  Every page of
+ * a number of generated tables is dirtied in random order before each
+ * flush.  Usage:
+ * <pre>
+ *     ant runbench -Dbench=FlushBenchmark -Dargs="4 2000 raf"
+ * </pre>
+ */
+public class FlushBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numTables = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int pagesPerTable = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        PageIO.Mode mode = PageIO.Mode.parse(args.length > 2 ? args[2] : "raf");
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+
+        HeapFile[] tables = new HeapFile[numTables];
+        for (int t = 0; t < numTables; t++) {
+            File f = File.createTempFile("flushbench", ".dat");
+            f.deleteOnExit();
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            for (int i = 0; i < pagesPerTable * rowsPerPage; i++) {
+                ArrayList<Integer> tuple = new ArrayList<Integer>();
+                tuple.add(i);
+                tuple.add(t);
+                tuples.add(tuple);
+            }
+            HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+            tables[t] = new HeapFile(f, Utility.getTupleDesc(2), mode);
+            Database.getCatalog().addTable(tables[t], "flush" + t);
+        }
+
+        System.out.printf("%-10s %8s %12s %12s%n", "pass", "pages", "one by one", "flushAll");
+        for (int pass = 0; pass < 3; pass++) {
+            ArrayList<Page> pages = dirtyAll(tables);
+            long start = System.nanoTime();
+            for (Page page : pages) {
+                Database.getCatalog().getDbFile(page.getId().getTableId()).writePage(page);
+            }
+            double single = (System.nanoTime() - start) / 1e9;
+            int numPages = pages.size();
+            // don't keep two pools' worth of pages alive
+            pages = null;
+
+            dirtyAll(tables);
+            start = System.nanoTime();
+            Database.getBufferPool().flushAllPages();
+            double flush = (System.nanoTime() - start) / 1e9;
+            // the first pass warms up the JIT
+            if (pass > 0) {
+                System.out.printf("%-10d %8d %10.3f s %10.3f s%n", pass, numPages, single, flush);
+            }
+        }
+    }
+
+    /**
+     * Reads every page of the tables into a fresh pool in random order and
+     * marks it dirty.
+     *
+     * @return the pages, in the order they were read
+     */
+    private static ArrayList<Page> dirtyAll(HeapFile[] tables) throws Exception {
+        ArrayList<HeapPageId> pids = new ArrayList<HeapPageId>();
+        for (HeapFile hf : tables) {
+            for (int i = 0; i < hf.numPages(); i++) {
+                pids.add(new HeapPageId(hf.getId(), i));
+            }
+        }
+        Collections.shuffle(pids, new Random(1));
+        Database.resetBufferPool(pids.size());
+        TransactionId tid = new TransactionId();
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (HeapPageId pid : pids) {
+            Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        return pages;
+    }
+}
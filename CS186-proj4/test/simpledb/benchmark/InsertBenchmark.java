@@ -0,0 +1,48 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of inserting tuples one at a time into a HeapFile as
+ * the table grows.
+ * <p>
+ * Tuples are inserted into an empty table in batches; after each batch the
+ * dirty pages are flushed and the average time per insert of the batch is
+ * printed. With the free space map the time per insert stays flat, where
+ * scanning for a page with room made it grow with the number of pages.
+ * Usage:
+ * <pre>
+ *     ant runbench -Dbench=InsertBenchmark -Dargs="20 10000"
+ * </pre>
+ */
+public class InsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int batches = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        File f = File.createTempFile("insertbench", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), PageIO.Mode.CHANNEL);
+        Database.getCatalog().addTable(hf, "insertbench");
+
+        System.out.printf("%10s %8s %14s%n", "tuples", "pages", "us/insert");
+        int n = 0;
+        for (int b = 0; b < batches; b++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            for (int i = 0; i < batchSize; i++, n++) {
+                Database.getBufferPool().insertTuple(tid, hf.getId(),
+                        Utility.getHeapTuple(new int[] {n, n}));
+            }
+            Database.getBufferPool().flushAllPages();
+            long elapsed = System.nanoTime() - start;
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("%10d %8d %14.2f%n", n, hf.numPages(), elapsed / 1000.0 / batchSize);
+        }
+        hf.close();
+    }
+}
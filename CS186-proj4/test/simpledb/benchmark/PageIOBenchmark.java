@@ -0,0 +1,93 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Compares the PageIO backends on the tables of an imdb catalog.
+ * <p>
+ * For every table whose data file exists, each backend reads all pages of
+ * the table a number of times, first as raw page images and then through a
+ * SeqScan on a cold buffer pool.  Usage:
+ * <pre>
+ *     ant runbench -Dbench=PageIOBenchmark -Dargs="imdb/0.1/imdb.schema 5"
+ * </pre>
+ */
+public class PageIOBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String schema = args.length > 0 ? args[0] : "imdb/0.1/imdb.schema";
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Database.getCatalog().loadSchema(schema);
+        System.out.printf("%-16s %-14s %8s %12s %12s%n",
+                "table", "mode", "pages", "raw MB/s", "scan MB/s");
+
+        ArrayList<Integer> tableids = new ArrayList<Integer>();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            tableids.add(it.next());
+        }
+        for (int tableid : tableids) {
+            String name = Database.getCatalog().getTableName(tableid);
+            HeapFile base = (HeapFile) Database.getCatalog().getDbFile(tableid);
+            if (base.numPages() == 0) {
+                continue;
+            }
+            // warm up the JIT and the OS page cache before timing anything
+            scans(base, name, 1);
+            for (PageIO.Mode mode : PageIO.Mode.values()) {
+                HeapFile hf = new HeapFile(base.getFile(), base.getTupleDesc(), mode);
+                double raw = rawReads(base.getFile(), mode, hf.numPages(), passes);
+                double scan = scans(hf, name, passes);
+                hf.close();
+                System.out.printf("%-16s %-14s %8d %12.1f %12.1f%n",
+                        name, mode, hf.numPages(), raw, scan);
+            }
+            // leave the catalog pointing at the original file
+            Database.getCatalog().addTable(base, name);
+        }
+    }
+
+    /** @return MB/s of reading every page image passes times */
+    private static double rawReads(File f, PageIO.Mode mode, int numPages, int passes)
+            throws Exception {
+        PageIO io = mode.open(f, BufferPool.PAGE_SIZE);
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        long start = System.nanoTime();
+        for (int p = 0; p < passes; p++) {
+            for (int i = 0; i < numPages; i++) {
+                io.readPage(i, data);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        io.close();
+        return mbPerSec((long) numPages * passes, elapsed);
+    }
+
+    /** @return MB/s of a full SeqScan on a cold buffer pool, passes times */
+    private static double scans(HeapFile hf, String name, int passes) throws Exception {
+        Database.getCatalog().addTable(hf, name);
+        long elapsed = 0;
+        for (int p = 0; p < passes; p++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), name);
+            long start = System.nanoTime();
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+            elapsed += System.nanoTime() - start;
+        }
+        return mbPerSec((long) hf.numPages() * passes, elapsed);
+    }
+
+    private static double mbPerSec(long pages, long nanos) {
+        double mb = pages * (double) BufferPool.PAGE_SIZE / (1 << 20);
+        return mb / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import simpledb.*;
+
+/**
+ * Measures how the hits of the BufferPool scale with threads. A table that
+ * fits in the pool is read once, then each thread scans it page by page
+ * with getPage and unpinPage, from its own starting page, so that every request is a
+ * hit. For each number of threads, doubling up to the number given, it
+ * reports the hits per second and the speedup over one thread.  Usage
+ * (table pages, pool pages, most threads, pages requested per thread):
+ * <pre>
+ *     ant runbench -Dbench=PageTableBenchmark -Dargs="1000 2000 8 2000000"
+ * </pre>
+ */
+public class PageTableBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tablePages = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 2000000;
+
+        HeapFile hf = createTable(tablePages);
+        BufferPool pool = Database.resetBufferPool(poolPages);
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < hf.numPages(); p++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), p);
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid);
+        }
+
+        System.out.printf("%8s %16s %10s%n", "threads", "hits/s", "speedup");
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            // the first run warms up the JIT
+            run(pool, hf, threads, requests / 4);
+            double rate = run(pool, hf, threads, requests);
+            if (threads == 1) {
+                single = rate;
+            }
+            System.out.printf("%8d %16.0f %9.2fx%n", threads, rate, rate / single);
+        }
+    }
+
+    private static HeapFile createTable(int pages) throws Exception {
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        File f = File.createTempFile("pagetablebench", ".dat");
+        f.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < pages * rowsPerPage; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i / rowsPerPage);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "pagetable");
+        return hf;
+    }
+
+    /**
+     * @return the hits per second of threads that each request pages
+     *   requests times
+     */
+    private static double run(final BufferPool pool, final HeapFile hf, int threads, final int requests)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Exception[] failure = new Exception[1];
+        ArrayList<Thread> running = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int first = i * hf.numPages() / threads;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        int numPages = hf.numPages();
+                        start.await();
+                        for (int n = 0, p = first; n < requests; n++, p = p + 1 == numPages ? 0 : p + 1) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), p);
+                            pool.getPage(tid, pid, Permissions.READ_ONLY);
+                            pool.unpinPage(tid, pid);
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            t.start();
+            running.add(t);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : running) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return (double) threads * requests / (elapsed / 1e9);
+    }
+}
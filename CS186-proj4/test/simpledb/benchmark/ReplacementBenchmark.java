@@ -0,0 +1,134 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Compares the replacement policies of the BufferPool on point lookups
+ * into a small hot table while other threads keep scanning a table larger
+ * than the pool.  The scans request the pages of the table in order, as a
+ * SeqScan does, without decoding them; read-ahead is turned off, so every
+ * page they read goes through the pool.  A lookup waits until the scans
+ * read a number of pages per lookup, so that the mix doesn't depend on how
+ * fast misses are.  For each policy it reports the hit ratio of the
+ * lookups, the hit ratio of all page requests, and the lookups per second.
+ * Usage (hot pages, scanned pages, pool pages, scanning threads, pages
+ * scanned per lookup):
+ * <pre>
+ *     ant runbench -Dbench=ReplacementBenchmark -Dargs="200 5000 500 2 2"
+ * </pre>
+ */
+public class ReplacementBenchmark {
+
+    private static final int LOOKUPS = 40000;
+
+    public static void main(String[] args) throws Exception {
+        int hotPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int scanPages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int scanners = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int scansPerLookup = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+
+        HeapFile hot = createTable("hot", hotPages);
+        HeapFile scanned = createTable("scanned", scanPages);
+
+        System.out.printf("%-10s %12s %12s %14s%n", "policy", "lookup hits", "all hits", "lookups/s");
+        for (ReplacementPolicy.Kind policy : ReplacementPolicy.Kind.values()) {
+            BufferPool pool = Database.resetBufferPool(poolPages, policy);
+            pool.setReadAhead(new ReadAhead(poolPages, 0));
+            Result r = run(pool, hot, scanned, scanners, scansPerLookup);
+            System.out.printf("%-10s %11.1f%% %11.1f%% %14.0f%n", policy, 100 * r.lookupHitRatio,
+                    100.0 * pool.getHits() / (pool.getHits() + pool.getMisses()), r.lookupsPerSecond);
+        }
+    }
+
+    private static class Result {
+        double lookupHitRatio;
+        double lookupsPerSecond;
+    }
+
+    private static HeapFile createTable(String name, int pages) throws Exception {
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        File f = File.createTempFile("replacebench", ".dat");
+        f.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < pages * rowsPerPage; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i / rowsPerPage);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /**
+     * Looks up random pages of the hot table while the scanners scan, the
+     * first quarter of the lookups warming up the pool.
+     */
+    private static Result run(final BufferPool pool, HeapFile hot, final HeapFile scanned, int scanners,
+            int scansPerLookup) throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong scannedPages = new AtomicLong();
+        final Exception[] failure = new Exception[1];
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < scanners; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int p = 0; !stop.get(); p = (p + 1) % scanned.numPages()) {
+                            HeapPageId pid = new HeapPageId(scanned.getId(), p);
+                            pool.getPage(tid, pid, Permissions.READ_ONLY);
+                            pool.unpinPage(tid, pid);
+                            scannedPages.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        Random random = new Random(1);
+        int warmup = LOOKUPS / 4;
+        int hits = 0;
+        long start = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (i == warmup) {
+                start = System.nanoTime();
+            }
+            while (scannedPages.get() < (long) i * scansPerLookup) {
+                Thread.yield();
+            }
+            HeapPageId pid = new HeapPageId(hot.getId(), random.nextInt(hot.numPages()));
+            if (i >= warmup && pool.isCached(pid)) {
+                hits++;
+            }
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pool.unpinPage(tid, pid);
+        }
+        long elapsed = System.nanoTime() - start;
+        stop.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Result r = new Result();
+        r.lookupHitRatio = (double) hits / (LOOKUPS - warmup);
+        r.lookupsPerSecond = (LOOKUPS - warmup) / (elapsed / 1e9);
+        return r;
+    }
+}
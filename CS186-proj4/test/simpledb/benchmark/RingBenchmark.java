@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the scans of a table larger than the pool that share the pool
+ * with those that read through a ring, see {@link AccessStrategy}, on
+ * point lookups into a small hot table interleaved with the scans. The
+ * lookups and the scans run on one thread, a number of scanned pages per
+ * lookup, so that the mix doesn't depend on how fast misses are. For each
+ * strategy it reports the hit ratio of the lookups and the pages scanned
+ * per second.  Usage (hot pages, scanned pages, pool pages, pages scanned
+ * per lookup, lookups):
+ * <pre>
+ *     ant runbench -Dbench=RingBenchmark -Dargs="100 5000 500 4 40000"
+ * </pre>
+ */
+public class RingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int hotPages = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int scanPages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int poolPages = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int scansPerLookup = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int lookups = args.length > 4 ? Integer.parseInt(args[4]) : 40000;
+
+        HeapFile hot = createTable("hot", hotPages);
+        HeapFile scanned = createTable("scanned", scanPages);
+
+        System.out.printf("%-10s %12s %14s%n", "strategy", "lookup hits", "scanned/s");
+        for (AccessStrategy.Kind kind : new AccessStrategy.Kind[] {AccessStrategy.Kind.NORMAL,
+                AccessStrategy.Kind.BULK_READ}) {
+            BufferPool pool = Database.resetBufferPool(poolPages);
+            AccessStrategy strategy = AccessStrategy.of(kind, pool);
+            TransactionId tid = new TransactionId();
+            Random random = new Random(1);
+            int warmup = lookups / 4;
+            int hits = 0;
+            int p = 0;
+            long start = 0;
+            for (int i = 0; i < lookups; i++) {
+                if (i == warmup) {
+                    start = System.nanoTime();
+                }
+                for (int n = 0; n < scansPerLookup; n++, p = (p + 1) % scanPages) {
+                    HeapPageId pid = new HeapPageId(scanned.getId(), p);
+                    pool.getPage(tid, pid, Permissions.READ_ONLY, strategy);
+                    pool.unpinPage(tid, pid);
+                }
+                HeapPageId pid = new HeapPageId(hot.getId(), random.nextInt(hotPages));
+                if (i >= warmup && pool.isCached(pid)) {
+                    hits++;
+                }
+                pool.getPage(tid, pid, Permissions.READ_ONLY);
+                pool.unpinPage(tid, pid);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-10s %11.1f%% %14.0f%n", kind, 100.0 * hits / (lookups - warmup),
+                    (double) (lookups - warmup) * scansPerLookup / seconds);
+        }
+    }
+
+    private static HeapFile createTable(String name, int pages) throws Exception {
+        int rowsPerPage = (BufferPool.PAGE_SIZE * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        File f = File.createTempFile("ringbench", ".dat");
+        f.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < pages * rowsPerPage; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i / rowsPerPage);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Compares full SeqScans of the tables of an imdb catalog on a cold buffer
+ * pool with and without read-ahead.  The OS page cache is not dropped, so
+ * run it right after dropping the caches (e.g. echo 3 >
+ * /proc/sys/vm/drop_caches) to measure disk reads; the first table scanned
+ * with each setting is then read from disk.  Usage:
+ * <pre>
+ *     ant runbench -Dbench=ScanBenchmark -Dargs="imdb/0.1/imdb.schema 1000"
+ * </pre>
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String schema = args.length > 0 ? args[0] : "imdb/0.1/imdb.schema";
+        int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Database.getCatalog().loadSchema(schema);
+        System.out.printf("%-16s %8s %16s %16s%n",
+                "table", "pages", "no read-ahead", "read-ahead");
+
+        ArrayList<Integer> tableids = new ArrayList<Integer>();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            tableids.add(it.next());
+        }
+        for (int tableid : tableids) {
+            String name = Database.getCatalog().getTableName(tableid);
+            HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableid);
+            if (hf.numPages() == 0) {
+                continue;
+            }
+            double plain = scan(hf, name, poolPages, false);
+            double ahead = scan(hf, name, poolPages, true);
+            System.out.printf("%-16s %8d %11.1f MB/s %11.1f MB/s%n",
+                    name, hf.numPages(), plain, ahead);
+        }
+    }
+
+    /** @return MB/s of a full SeqScan on a cold buffer pool */
+    private static double scan(HeapFile hf, String name, int poolPages, boolean readAhead)
+            throws Exception {
+        BufferPool pool = Database.resetBufferPool(poolPages);
+        if (!readAhead) {
+            pool.setReadAhead(new ReadAhead(poolPages, 0));
+        }
+        SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), name);
+        long start = System.nanoTime();
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        double mb = hf.numPages() * (double) BufferPool.PAGE_SIZE / (1 << 20);
+        return mb / (elapsed / 1e9);
+    }
+}